@@ -0,0 +1,41 @@
+package com.lambdazen.bitsy;
+
+/**
+ * Durability modes of the transaction log. The loss window is the set of
+ * committed transactions that may be lost if the operating system crashes or
+ * the machine loses power. A crash of the JVM alone doesn't lose transactions
+ * in any mode other than ASYNC.
+ */
+public enum BitsyDurabilityMode {
+    /**
+     * Every batch of transactions is forced to the disk along with the file
+     * metadata before the commits return. There is no loss window. This is
+     * the default.
+     */
+    FSYNC,
+
+    /**
+     * Every batch is forced to the disk without the file metadata (fdatasync)
+     * before the commits return. The size of an appended file is still
+     * flushed, so there is no loss window, but the sync is cheaper on most
+     * file systems.
+     */
+    FDATASYNC,
+
+    /**
+     * Commits return once the batch is written to the transaction log. The log
+     * is forced once the group commit interval (in ms) has elapsed since the
+     * last sync or the unsynced bytes reach the group commit bytes, whichever
+     * comes first. The loss window is the group commit interval or bytes.
+     */
+    GROUP_COMMIT,
+
+    /**
+     * Commits return as soon as they are queued for the transaction log. The
+     * log is only forced when a segment is sealed, and before checkpoints and
+     * reorgs rely on it. The loss window is up to the transaction log
+     * threshold, and a JVM crash loses the transactions that were queued but
+     * not yet written.
+     */
+    ASYNC
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import org.apache.tinkerpop.gremlin.structure.Element;
@@ -72,6 +73,46 @@ public abstract class BitsyElement implements Element {
         }
     }
 
+    /**
+     * Returns the value of a numeric property as a long, without boxing it
+     * when the value is stored unboxed. Throws the TinkerPop exception for a
+     * missing property if there is no such property, and an
+     * IllegalArgumentException if the value is not a Number.
+     */
+    public long longValue(String key) {
+        tx.validateForQuery(this);
+
+        if (properties == null) {
+            throw Property.Exceptions.propertyDoesNotExist(this, key);
+        }
+
+        try {
+            return properties.getLongProperty(key);
+        } catch (NoSuchElementException e) {
+            throw Property.Exceptions.propertyDoesNotExist(this, key);
+        }
+    }
+
+    /**
+     * Returns the value of a numeric property as a double, without boxing it
+     * when the value is stored unboxed. Throws the TinkerPop exception for a
+     * missing property if there is no such property, and an
+     * IllegalArgumentException if the value is not a Number.
+     */
+    public double doubleValue(String key) {
+        tx.validateForQuery(this);
+
+        if (properties == null) {
+            throw Property.Exceptions.propertyDoesNotExist(this, key);
+        }
+
+        try {
+            return properties.getDoubleProperty(key);
+        } catch (NoSuchElementException e) {
+            throw Property.Exceptions.propertyDoesNotExist(this, key);
+        }
+    }
+
     @Override
     public Set<String> keys() {
         tx.validateForQuery(this);
@@ -181,6 +181,12 @@ public enum BitsyErrorCodes {
         }
     },
 
+    RESTORE_FAILED {
+        public String toString() {
+            return "RESTORE_FAILED: The given backup could not be restored to the given directory";
+        }
+    },
+
     FLUSH_INTERRUPTED {
         public String toString() {
             return "FLUSH_INTERRUPTED: The given InterruptedException occurrend while waiting for a flush operation on a transaction log to complete";
@@ -225,5 +231,29 @@ public enum BitsyErrorCodes {
         public String toString() {
             return "NO_CUSTOM_ID_SUPPORT: Bitsy does not support user-supplied IDs for vertices and edges, only auto-generated UUIDs. Please move this to an indexed key";
         }
+    },
+
+    CHECKPOINT_IN_PROGRESS {
+        public String toString() {
+            return "CHECKPOINT_IN_PROGRESS: A checkpoint is already in progress. Please try after a some time";
+        }
+    },
+
+    CHECKPOINT_INTERRUPTED {
+        public String toString() {
+            return "CHECKPOINT_INTERRUPTED: The given InterruptedException occurred while waiting for a checkpoint to be performed";
+        }
+    },
+
+    CHECKPOINT_FAILED {
+        public String toString() {
+            return "CHECKPOINT_FAILED: The snapshot image could not be written because of the given exception";
+        }
+    },
+
+    EPOCH_SNAPSHOT_CLOSED {
+        public String toString() {
+            return "EPOCH_SNAPSHOT_CLOSED: The epoch snapshot of the store was accessed after it was closed";
+        }
     }
 }
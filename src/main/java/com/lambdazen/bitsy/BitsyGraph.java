@@ -44,13 +44,33 @@ public class BitsyGraph implements Graph, BitsyGraphMBean {
     public static final String ALLOW_FULL_GRAPH_SCANS_KEY = "allowFullGraphScans";
     public static final String DEFAULT_ISOLATION_LEVEL_KEY = "defaultIsolationLevel";
     public static final String TX_LOG_THRESHOLD_KEY = "txLogThreshold";
+    public static final String TX_LOG_SEGMENTS_KEY = "txLogSegments";
+    public static final String TX_LOG_ARCHIVE_PATH_KEY = "txLogArchivePath";
     public static final String REORG_FACTOR_KEY = "reorgFactor";
+    public static final String CHECKPOINT_THRESHOLD_KEY = "checkpointThreshold";
+    public static final String DURABILITY_MODE_KEY = "durabilityMode";
+    public static final String GROUP_COMMIT_INTERVAL_KEY = "groupCommitInterval";
+    public static final String GROUP_COMMIT_BYTES_KEY = "groupCommitBytes";
+    public static final String TX_LOG_WAIT_STRATEGY_KEY = "txLogWaitStrategy";
+    public static final String REORG_FROM_MEMORY_KEY = "reorgFromMemory";
+    public static final String BLOCK_COMPRESSION_KEY = "blockCompression";
+    public static final String BACKGROUND_IO_BYTES_PER_SEC_KEY = "backgroundIOBytesPerSec";
+    public static final String TARGET_COMMIT_LATENCY_MICROS_KEY = "targetCommitLatencyMicros";
     public static final String CREATE_DIR_IF_MISSING_KEY = "createDirIfMissing";
+    public static final String BINARY_FORMAT_KEY = "binaryFormat";
     public static final String VERTEX_INDICES_KEY = "vertexIndices";
     public static final String EDGE_INDICES_KEY = "edgeIndices";
 
     public static final double DEFAULT_REORG_FACTOR = 1;
     public static final long DEFAULT_TX_LOG_THRESHOLD = 4 * 1024 * 1024;
+    public static final int DEFAULT_TX_LOG_SEGMENTS = FileBackedMemoryGraphStore.DEFAULT_TX_LOG_SEGMENTS;
+    public static final long DEFAULT_CHECKPOINT_THRESHOLD = FileBackedMemoryGraphStore.DEFAULT_CHECKPOINT_THRESHOLD;
+    public static final long DEFAULT_GROUP_COMMIT_INTERVAL = FileBackedMemoryGraphStore.DEFAULT_GROUP_COMMIT_INTERVAL;
+    public static final long DEFAULT_GROUP_COMMIT_BYTES = FileBackedMemoryGraphStore.DEFAULT_GROUP_COMMIT_BYTES;
+    public static final long DEFAULT_BACKGROUND_IO_BYTES_PER_SEC =
+            FileBackedMemoryGraphStore.DEFAULT_BACKGROUND_IO_BYTES_PER_SEC;
+    public static final long DEFAULT_TARGET_COMMIT_LATENCY_MICROS =
+            FileBackedMemoryGraphStore.DEFAULT_TARGET_COMMIT_LATENCY_MICROS;
 
     private boolean allowFullGraphScans;
     private boolean isPersistent;
@@ -126,6 +146,31 @@ public class BitsyGraph implements Graph, BitsyGraphMBean {
             long txLogThreshold,
             double reorgFactor,
             boolean createDirIfMissing) {
+        this(
+                dbPath,
+                allowFullGraphScans,
+                txLogThreshold,
+                reorgFactor,
+                createDirIfMissing,
+                FileBackedMemoryGraphStore.isBinaryFormatForNewDatabases());
+    }
+
+    /**
+     * Constructor with all configurable parameters
+     * @param dbPath path to the database files
+     * @param allowFullGraphScans whether/not iterations on vertices and edges should be supported
+     * @param txLogThreshold the size of the transaction in bytes after which it will be scheduled to move to V/E files
+     * @param reorgFactor V/E reorgs are triggered when the size of the V/E files exceeds the initial size by (1 + factor)
+     * @param createDirIfMissing create the Bitsy directory if it is missing
+     * @param binaryFormat create a new database with length-prefixed binary records. Existing databases keep their format
+     */
+    public BitsyGraph(
+            Path dbPath,
+            boolean allowFullGraphScans,
+            long txLogThreshold,
+            double reorgFactor,
+            boolean createDirIfMissing,
+            boolean binaryFormat) {
         this.dbPath = dbPath;
         this.allowFullGraphScans = allowFullGraphScans;
         this.curTransactionContext = new ThreadLocal<BitsyTransactionContext>();
@@ -141,7 +186,8 @@ public class BitsyGraph implements Graph, BitsyGraphMBean {
                         dbPath,
                         txLogThreshold,
                         reorgFactor,
-                        createDirIfMissing);
+                        createDirIfMissing,
+                        binaryFormat);
             } else {
                 this.graphStore = new MemoryGraphStore(allowFullGraphScans);
             }
@@ -167,7 +213,8 @@ public class BitsyGraph implements Graph, BitsyGraphMBean {
                         dbPath,
                         txLogThreshold,
                         reorgFactor,
-                        createDirIfMissing);
+                        createDirIfMissing,
+                        binaryFormat);
             } else {
                 this.graphStore = new MemoryGraphStore(allowFullGraphScans);
             }
@@ -195,7 +242,36 @@ public class BitsyGraph implements Graph, BitsyGraphMBean {
                 configuration.getBoolean(ALLOW_FULL_GRAPH_SCANS_KEY, Boolean.TRUE),
                 configuration.getLong(TX_LOG_THRESHOLD_KEY, DEFAULT_TX_LOG_THRESHOLD),
                 configuration.getDouble(REORG_FACTOR_KEY, DEFAULT_REORG_FACTOR),
-                configuration.getBoolean(CREATE_DIR_IF_MISSING_KEY, false));
+                configuration.getBoolean(CREATE_DIR_IF_MISSING_KEY, false),
+                configuration.getBoolean(
+                        BINARY_FORMAT_KEY, FileBackedMemoryGraphStore.isBinaryFormatForNewDatabases()));
+        setCheckpointThreshold(configuration.getLong(CHECKPOINT_THRESHOLD_KEY, DEFAULT_CHECKPOINT_THRESHOLD));
+        Integer txLogSegments = configuration.getInteger(TX_LOG_SEGMENTS_KEY, null);
+        if (txLogSegments != null) {
+            // Otherwise, the segments in the manifest of the database are used
+            setTxLogSegments(txLogSegments);
+        }
+        String txLogArchivePath = configuration.getString(TX_LOG_ARCHIVE_PATH_KEY, null);
+        if (txLogArchivePath != null) {
+            // Otherwise, the archive path kept in the database is used
+            setTxLogArchivePath(txLogArchivePath);
+        }
+        String durabilityModeStr = configuration.getString(DURABILITY_MODE_KEY);
+        if (durabilityModeStr != null) {
+            setDurabilityMode(BitsyDurabilityMode.valueOf(durabilityModeStr));
+        }
+        setGroupCommitInterval(configuration.getLong(GROUP_COMMIT_INTERVAL_KEY, DEFAULT_GROUP_COMMIT_INTERVAL));
+        setGroupCommitBytes(configuration.getLong(GROUP_COMMIT_BYTES_KEY, DEFAULT_GROUP_COMMIT_BYTES));
+        String waitStrategyStr = configuration.getString(TX_LOG_WAIT_STRATEGY_KEY);
+        if (waitStrategyStr != null) {
+            setTxLogWaitStrategy(BitsyWaitStrategy.valueOf(waitStrategyStr));
+        }
+        setReorgFromMemory(configuration.getBoolean(REORG_FROM_MEMORY_KEY, Boolean.TRUE));
+        setBlockCompression(configuration.getBoolean(BLOCK_COMPRESSION_KEY, Boolean.FALSE));
+        setBackgroundIOBytesPerSec(
+                configuration.getLong(BACKGROUND_IO_BYTES_PER_SEC_KEY, DEFAULT_BACKGROUND_IO_BYTES_PER_SEC));
+        setTargetCommitLatencyMicros(
+                configuration.getLong(TARGET_COMMIT_LATENCY_MICROS_KEY, DEFAULT_TARGET_COMMIT_LATENCY_MICROS));
         String isoLevelStr = configuration.getString(DEFAULT_ISOLATION_LEVEL_KEY);
         if (isoLevelStr != null) {
             setDefaultIsolationLevel(BitsyIsolationLevel.valueOf(isoLevelStr));
@@ -334,6 +410,48 @@ public class BitsyGraph implements Graph, BitsyGraphMBean {
         }
     }
 
+    public int getTxLogSegments() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log segments are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogSegments();
+        }
+    }
+
+    public void setTxLogSegments(int txLogSegments) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log segments are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).setTxLogSegments(txLogSegments);
+        }
+    }
+
+    public String getTxLogArchivePath() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log archives are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            Path ans = ((FileBackedMemoryGraphStore) graphStore).getTxLogArchivePath();
+            return (ans == null) ? null : ans.toString();
+        }
+    }
+
+    public void setTxLogArchivePath(String txLogArchivePath) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log archives are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            Path path = ((txLogArchivePath == null) || txLogArchivePath.isEmpty()) ? null : Paths.get(txLogArchivePath);
+            ((FileBackedMemoryGraphStore) graphStore).setTxLogArchivePath(path);
+        }
+    }
+
     /** This method flushes the transaction log to the V/E text files */
     public void flushTxLog() {
         if (!isPersistent()) {
@@ -367,6 +485,441 @@ public class BitsyGraph implements Graph, BitsyGraphMBean {
         }
     }
 
+    /** This method performs an incremental backup of the database while it is still operational. Only one backup can be in progress at a time.
+     *
+     * @param pathToDir directory to which the database must be backed up.
+     * @param pathToPreviousDir directory with the previous incremental backup, or null to take a new base.
+     */
+    public void incrementalBackup(String pathToDir, String pathToPreviousDir) {
+        incrementalBackup(Paths.get(pathToDir), (pathToPreviousDir == null) ? null : Paths.get(pathToPreviousDir));
+    }
+
+    /** This method performs an incremental backup of the database while it is still operational. Only one backup can be in progress at a time.
+     * The first backup is a base with a copy of the V/E files, and the following ones only add the transaction logs sealed since the previous backup.
+     * The transaction logs must be archived using {@link #setTxLogArchivePath(String)}.
+     *
+     * @param pathToDir directory to which the database must be backed up.
+     * @param pathToPreviousDir directory with the previous incremental backup, or null to take a new base.
+     */
+    public void incrementalBackup(Path pathToDir, Path pathToPreviousDir) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Backups are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).backup(pathToDir, pathToPreviousDir);
+        }
+    }
+
+    /** This method restores a full or an incremental backup to the given empty directory, which can then be opened as a database.
+     *
+     * @param pathToBackupDir directory with a full or an incremental backup.
+     * @param pathToDbDir empty directory to which the database must be restored.
+     */
+    public static void restoreBackup(Path pathToBackupDir, Path pathToDbDir) {
+        FileBackedMemoryGraphStore.restoreBackup(pathToBackupDir, pathToDbDir);
+    }
+
+    public long getCheckpointThreshold() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Checkpoint threshold is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getCheckpointThreshold();
+        }
+    }
+
+    public void setCheckpointThreshold(long checkpointThreshold) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Checkpoint threshold is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).setCheckpointThreshold(checkpointThreshold);
+        }
+    }
+
+    public BitsyDurabilityMode getDurabilityMode() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Durability mode is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getDurabilityMode();
+        }
+    }
+
+    public void setDurabilityMode(BitsyDurabilityMode durabilityMode) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Durability mode is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).setDurabilityMode(durabilityMode);
+        }
+    }
+
+    public BitsyWaitStrategy getTxLogWaitStrategy() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log wait strategy is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogWaitStrategy();
+        }
+    }
+
+    public void setTxLogWaitStrategy(BitsyWaitStrategy waitStrategy) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log wait strategy is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).setTxLogWaitStrategy(waitStrategy);
+        }
+    }
+
+    public long getGroupCommitInterval() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Group commits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getGroupCommitInterval();
+        }
+    }
+
+    public void setGroupCommitInterval(long groupCommitInterval) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Group commits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).setGroupCommitInterval(groupCommitInterval);
+        }
+    }
+
+    public long getGroupCommitBytes() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Group commits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getGroupCommitBytes();
+        }
+    }
+
+    public void setGroupCommitBytes(long groupCommitBytes) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Group commits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).setGroupCommitBytes(groupCommitBytes);
+        }
+    }
+
+    public boolean isBinaryFormat() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "The file format is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).isBinaryFormat();
+        }
+    }
+
+    public boolean isReorgFromMemory() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorgs are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).isReorgFromMemory();
+        }
+    }
+
+    public void setReorgFromMemory(boolean reorgFromMemory) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorgs are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).setReorgFromMemory(reorgFromMemory);
+        }
+    }
+
+    public boolean isBlockCompression() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Block compression is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).isBlockCompression();
+        }
+    }
+
+    public void setBlockCompression(boolean blockCompression) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Block compression is only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).setBlockCompression(blockCompression);
+        }
+    }
+
+    public long getTxLogBatchCount() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogStats().getBatchCount();
+        }
+    }
+
+    public double getAverageTxLogBatchSize() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogStats().getAverageBatchSize();
+        }
+    }
+
+    public double getAverageTxLogBatchBytes() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogStats().getAverageBatchBytes();
+        }
+    }
+
+    public long getTxLogSyncCount() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogStats().getSyncCount();
+        }
+    }
+
+    public double getAverageTxLogSyncMicros() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogStats().getAverageSyncMicros();
+        }
+    }
+
+    public long getMaxTxLogSyncMicros() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogStats().getMaxSyncMicros();
+        }
+    }
+
+    public long getTxLogAsyncFailureCount() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getTxLogStats().getAsyncFailureCount();
+        }
+    }
+
+    public void resetTxLogStats() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Transaction log statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).getTxLogStats().reset();
+        }
+    }
+
+    public long getOptimisticReadCount() {
+        return graphStore.getReadStats().getOptimisticReadCount();
+    }
+
+    public long getReadRetryCount() {
+        return graphStore.getReadStats().getRetryCount();
+    }
+
+    public long getReadLockFallbackCount() {
+        return graphStore.getReadStats().getLockFallbackCount();
+    }
+
+    public void resetReadStats() {
+        graphStore.getReadStats().reset();
+    }
+
+    public long getBackgroundIOBytesPerSec() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Background I/O limits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getIORateLimiter().getBytesPerSec();
+        }
+    }
+
+    public void setBackgroundIOBytesPerSec(long bytesPerSec) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Background I/O limits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).getIORateLimiter().setBytesPerSec(bytesPerSec);
+        }
+    }
+
+    public long getTargetCommitLatencyMicros() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Background I/O limits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getIORateLimiter().getTargetCommitLatencyMicros();
+        }
+    }
+
+    public void setTargetCommitLatencyMicros(long targetCommitLatencyMicros) {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Background I/O limits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore)
+                    .getIORateLimiter()
+                    .setTargetCommitLatencyMicros(targetCommitLatencyMicros);
+        }
+    }
+
+    public long getCurrentBackgroundIOBytesPerSec() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Background I/O limits are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getIORateLimiter().getCurrentBytesPerSec();
+        }
+    }
+
+    public long getBackgroundIOThrottledMillis() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getIORateLimiter().getThrottledMillis();
+        }
+    }
+
+    public boolean isReorgInProgress() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getReorgStats().isReorgInProgress();
+        }
+    }
+
+    public double getReorgProgress() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getReorgStats().getReorgProgress();
+        }
+    }
+
+    public long getReorgCount() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getReorgStats().getReorgCount();
+        }
+    }
+
+    public long getLastReorgMillis() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getReorgStats().getLastReorgMillis();
+        }
+    }
+
+    public double getAverageReorgBytesPerSec() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getReorgStats().getAverageReorgBytesPerSec();
+        }
+    }
+
+    public long getTxLogFlushCount() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getReorgStats().getFlushCount();
+        }
+    }
+
+    public double getAverageTxLogFlushBytesPerSec() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            return ((FileBackedMemoryGraphStore) graphStore).getReorgStats().getAverageFlushBytesPerSec();
+        }
+    }
+
+    public void resetReorgStats() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Reorg statistics are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).getReorgStats().reset();
+            ((FileBackedMemoryGraphStore) graphStore).getIORateLimiter().resetThrottledMillis();
+        }
+    }
+
+    /** This method writes a snapshot image of the graph, which speeds up the next startup. Only one checkpoint can be in progress at a time. */
+    public void checkpoint() {
+        if (!isPersistent()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.OPERATION_UNDEFINED_FOR_NON_PERSISTENT_GRAPHS,
+                    "Checkpoints are only defined for persistent graphs (with a defined path to DB)");
+        } else {
+            ((FileBackedMemoryGraphStore) graphStore).checkpoint();
+        }
+    }
+
     protected BitsyTransaction getTx() {
         BitsyTransaction tx = curTransaction.get();
 
@@ -429,8 +982,22 @@ public class BitsyGraph implements Graph, BitsyGraphMBean {
             ans.setProperty(ALLOW_FULL_GRAPH_SCANS_KEY, allowFullGraphScans);
             ans.setProperty(DEFAULT_ISOLATION_LEVEL_KEY, defaultIsolationLevel.toString());
             ans.setProperty(TX_LOG_THRESHOLD_KEY, getTxLogThreshold());
+            ans.setProperty(TX_LOG_SEGMENTS_KEY, getTxLogSegments());
+            if (getTxLogArchivePath() != null) {
+                ans.setProperty(TX_LOG_ARCHIVE_PATH_KEY, getTxLogArchivePath());
+            }
             ans.setProperty(REORG_FACTOR_KEY, getReorgFactor());
+            ans.setProperty(CHECKPOINT_THRESHOLD_KEY, getCheckpointThreshold());
+            ans.setProperty(DURABILITY_MODE_KEY, getDurabilityMode().toString());
+            ans.setProperty(GROUP_COMMIT_INTERVAL_KEY, getGroupCommitInterval());
+            ans.setProperty(GROUP_COMMIT_BYTES_KEY, getGroupCommitBytes());
+            ans.setProperty(TX_LOG_WAIT_STRATEGY_KEY, getTxLogWaitStrategy().toString());
+            ans.setProperty(REORG_FROM_MEMORY_KEY, isReorgFromMemory());
+            ans.setProperty(BLOCK_COMPRESSION_KEY, isBlockCompression());
+            ans.setProperty(BACKGROUND_IO_BYTES_PER_SEC_KEY, getBackgroundIOBytesPerSec());
+            ans.setProperty(TARGET_COMMIT_LATENCY_MICROS_KEY, getTargetCommitLatencyMicros());
             ans.setProperty(CREATE_DIR_IF_MISSING_KEY, createDirIfMissing);
+            ans.setProperty(BINARY_FORMAT_KEY, isBinaryFormat());
 
             ans.setProperty(VERTEX_INDICES_KEY, String.join(",", getIndexedKeys(Vertex.class)));
             ans.setProperty(EDGE_INDICES_KEY, String.join(",", getIndexedKeys(Vertex.class)));
@@ -42,6 +42,33 @@ public interface BitsyGraphMBean {
      */
     public void setTxLogThreshold(long txLogThreshold);
 
+    /**
+     * Returns the number of transaction log segments (tx?.txt). Commits are
+     * written to one segment while the others wait to be copied to V?.txt and
+     * E?.txt. Default value is 2.
+     */
+    public int getTxLogSegments();
+
+    /**
+     * Modify the number of transaction log segments, between 2 and 26. More
+     * segments let commits continue while slow copies to the V/E files are in
+     * progress. Segments are removed only after they are copied.
+     */
+    public void setTxLogSegments(int txLogSegments);
+
+    /**
+     * Returns the directory to which the transaction logs are archived after
+     * they are copied to V?.txt and E?.txt, or null if they aren't archived.
+     */
+    public String getTxLogArchivePath();
+
+    /**
+     * Modify the directory to which the transaction logs are archived. The
+     * archived logs can be replayed on a backup to recover the database to a
+     * point in time. A null or empty path stops the archiving.
+     */
+    public void setTxLogArchivePath(String txLogArchivePath);
+
     /** This method flushes the transaction log to the V/E text files */
     public void flushTxLog();
 
@@ -50,4 +77,185 @@ public interface BitsyGraphMBean {
      * @param pathToDir directory to which the database must be backed up.
      */
     public void backup(String pathToDir);
+
+    /** This method performs an incremental backup of the database while it is still operational. Only one backup can be in progress at a time.
+     *
+     * @param pathToDir directory to which the database must be backed up.
+     * @param pathToPreviousDir directory with the previous incremental backup, or null to take a new base.
+     */
+    public void incrementalBackup(String pathToDir, String pathToPreviousDir);
+
+    /**
+     * Returns the checkpoint threshold which is the size of the V?.txt and
+     * E?.txt records in bytes, written after the last snapshot image, before
+     * which a new snapshot image is written. Default value is 16MB.
+     */
+    public long getCheckpointThreshold();
+
+    /**
+     * Modify the checkpoint threshold. A lower number indicates faster
+     * startups, but more frequent checkpoints. 0 turns off automatic
+     * checkpoints. Default value is 16MB.
+     */
+    public void setCheckpointThreshold(long checkpointThreshold);
+
+    /** This method writes a snapshot image of the graph, which speeds up the next startup. Only one checkpoint can be in progress at a time. */
+    public void checkpoint();
+
+    /**
+     * Returns the durability mode of the transaction log, which determines
+     * when the log is forced to the disk. Default value is FSYNC.
+     */
+    public BitsyDurabilityMode getDurabilityMode();
+
+    /**
+     * Modify the durability mode. FDATASYNC, GROUP_COMMIT and ASYNC offer
+     * lower commit latencies. See BitsyDurabilityMode for the transactions
+     * that may be lost in each mode.
+     */
+    public void setDurabilityMode(BitsyDurabilityMode durabilityMode);
+
+    /**
+     * Returns the way the transaction log writer waits for commits when it
+     * is idle. Default value is BLOCKING.
+     */
+    public BitsyWaitStrategy getTxLogWaitStrategy();
+
+    /**
+     * Modify the way the transaction log writer waits for commits. SLEEPING
+     * and BUSY_SPIN cut the hand-off latency of the commits at the cost of
+     * CPU while idle. See BitsyWaitStrategy for the trade-offs.
+     */
+    public void setTxLogWaitStrategy(BitsyWaitStrategy waitStrategy);
+
+    /**
+     * Returns the maximum time in milliseconds between syncs of the
+     * transaction log in the GROUP_COMMIT mode. Default value is 10ms.
+     */
+    public long getGroupCommitInterval();
+
+    /** Modify the maximum time in milliseconds between syncs in the GROUP_COMMIT mode. Default value is 10ms. */
+    public void setGroupCommitInterval(long groupCommitInterval);
+
+    /**
+     * Returns the maximum number of bytes written to the transaction log
+     * between syncs in the GROUP_COMMIT mode. Default value is 1MB.
+     */
+    public long getGroupCommitBytes();
+
+    /** Modify the maximum number of bytes between syncs in the GROUP_COMMIT mode. Default value is 1MB. */
+    public void setGroupCommitBytes(long groupCommitBytes);
+
+    /** Returns true if the database files have length-prefixed binary records instead of text lines */
+    public boolean isBinaryFormat();
+
+    /**
+     * Returns true if V/E reorgs write the vertices and edges in memory,
+     * instead of copying the records in the old V/E files. Default value is true.
+     */
+    public boolean isReorgFromMemory();
+
+    /** Modify the source of the records written by V/E reorgs. Default value is true. */
+    public void setReorgFromMemory(boolean reorgFromMemory);
+
+    /**
+     * Returns true if the V/E files and large transactions are written in
+     * compressed blocks. Default value is false.
+     */
+    public boolean isBlockCompression();
+
+    /**
+     * Modify the compression of V/E files and large transactions. Enabling it
+     * marks the database with a new major version that older versions of Bitsy
+     * can not open. This is one-way: turning compression off later keeps the
+     * existing blocks readable, but doesn't remove the mark.
+     */
+    public void setBlockCompression(boolean blockCompression);
+
+    /** Returns the number of batches written to the transaction log */
+    public long getTxLogBatchCount();
+
+    /** Returns the average number of transactions in a batch written to the transaction log */
+    public double getAverageTxLogBatchSize();
+
+    /** Returns the average number of bytes in a batch written to the transaction log */
+    public double getAverageTxLogBatchBytes();
+
+    /** Returns the number of times the transaction log was forced to the disk */
+    public long getTxLogSyncCount();
+
+    /** Returns the average time in microseconds taken to force the transaction log to the disk */
+    public double getAverageTxLogSyncMicros();
+
+    /** Returns the maximum time in microseconds taken to force the transaction log to the disk */
+    public long getMaxTxLogSyncMicros();
+
+    /** Returns the number of ASYNC commits that could not be written to the transaction log. These are also logged */
+    public long getTxLogAsyncFailureCount();
+
+    /** This method resets the transaction log statistics */
+    public void resetTxLogStats();
+
+    /** Returns the number of reads of the memory store that succeeded without a lock */
+    public long getOptimisticReadCount();
+
+    /** Returns the number of times a read of the memory store was retried because of a concurrent commit */
+    public long getReadRetryCount();
+
+    /** Returns the number of reads of the memory store that fell back to a read lock after retrying */
+    public long getReadLockFallbackCount();
+
+    /** This method resets the read statistics of the memory store */
+    public void resetReadStats();
+
+    /**
+     * Returns the maximum number of bytes per second written by the V/E reorgs
+     * and the flushes of the transaction logs to the V/E files. Default value
+     * is 0, i.e., unlimited.
+     */
+    public long getBackgroundIOBytesPerSec();
+
+    /** Modify the maximum number of bytes per second written by the V/E reorgs and flushes. 0 means unlimited. */
+    public void setBackgroundIOBytesPerSec(long bytesPerSec);
+
+    /**
+     * Returns the time in microseconds taken to write a commit to the
+     * transaction log and force it as required by the durability mode, above
+     * which the background I/O budget is scaled down. Default value is
+     * 10000us.
+     */
+    public long getTargetCommitLatencyMicros();
+
+    /** Modify the commit latency above which the background I/O budget is scaled down. 0 turns off the scaling. */
+    public void setTargetCommitLatencyMicros(long targetCommitLatencyMicros);
+
+    /** Returns the background I/O budget after it is scaled for the commit latency, or 0 if there is no limit */
+    public long getCurrentBackgroundIOBytesPerSec();
+
+    /** Returns the time in milliseconds that the V/E reorgs and flushes waited for the I/O budget */
+    public long getBackgroundIOThrottledMillis();
+
+    /** Returns true if a V/E reorg is in progress */
+    public boolean isReorgInProgress();
+
+    /** Returns the percentage of the ongoing or the last V/E reorg that is complete */
+    public double getReorgProgress();
+
+    /** Returns the number of V/E reorgs */
+    public long getReorgCount();
+
+    /** Returns the time in milliseconds taken by the last V/E reorg */
+    public long getLastReorgMillis();
+
+    /** Returns the average number of bytes per second written by the V/E reorgs */
+    public double getAverageReorgBytesPerSec();
+
+    /** Returns the number of times a transaction log was flushed to the V/E files */
+    public long getTxLogFlushCount();
+
+    /** Returns the average number of bytes per second written by the flushes of the transaction logs */
+    public double getAverageTxLogFlushBytesPerSec();
+
+    /** This method resets the reorg statistics */
+    public void resetReorgStats();
 }
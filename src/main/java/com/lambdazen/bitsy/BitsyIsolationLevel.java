@@ -2,5 +2,6 @@ package com.lambdazen.bitsy;
 
 public enum BitsyIsolationLevel {
     READ_COMMITTED, // default
-    REPEATABLE_READ
+    REPEATABLE_READ,
+    SNAPSHOT // reads the store as of the commit before the first read, without keeping the elements read
 }
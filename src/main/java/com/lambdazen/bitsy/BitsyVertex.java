@@ -1,6 +1,8 @@
 package com.lambdazen.bitsy;
 
 import com.lambdazen.bitsy.ads.dict.Dictionary;
+import com.lambdazen.bitsy.ads.dict.DictionaryFactory;
+import com.lambdazen.bitsy.ads.dict.ShapeTable;
 import com.lambdazen.bitsy.store.IStringCanonicalizer;
 import com.lambdazen.bitsy.store.VertexBean;
 import com.lambdazen.bitsy.store.VertexBeanJson;
@@ -50,12 +52,15 @@ public class BitsyVertex extends BitsyElement implements Vertex {
         return new VertexBean((UUID) id, label, properties, version);
     }
 
-    public VertexBean asBean(IStringCanonicalizer canonicalizer) {
+    public VertexBean asBean(IStringCanonicalizer canonicalizer, ShapeTable shapes) {
         if (properties != null) {
             properties.canonicalizeKeys(canonicalizer);
         }
 
-        return asBean();
+        String canonicalLabel = (label == null) ? null : canonicalizer.canonicalize(label);
+
+        // The TX is usually not active at this point. So no checks.
+        return new VertexBean((UUID) id, canonicalLabel, DictionaryFactory.forStorage(properties, shapes), version);
     }
 
     public VertexBeanJson asJsonBean() {
@@ -0,0 +1,28 @@
+package com.lambdazen.bitsy;
+
+/**
+ * Wait strategies of the thread that writes the committed transactions to the
+ * transaction log, when there are no transactions to write. The strategy
+ * trades the latency of the next commit against the CPU used while idle.
+ */
+public enum BitsyWaitStrategy {
+    /**
+     * The writer waits on a condition that the committing threads signal.
+     * It uses no CPU while idle, and each wake-up costs a context switch.
+     * This is the default.
+     */
+    BLOCKING,
+
+    /**
+     * The writer spins briefly, then yields, and then sleeps for short
+     * intervals until a transaction is queued. The committing threads never
+     * signal it, at the cost of up to one sleep interval of latency.
+     */
+    SLEEPING,
+
+    /**
+     * The writer spins on the queue without sleeping. This gives the lowest
+     * latency, but keeps one core busy while the database is open.
+     */
+    BUSY_SPIN
+}
@@ -1,17 +1,35 @@
 package com.lambdazen.bitsy;
 
 import com.lambdazen.bitsy.store.EdgeBean;
+import com.lambdazen.bitsy.store.EpochSnapshot;
+import com.lambdazen.bitsy.store.ReadStats;
 import com.lambdazen.bitsy.store.VertexBean;
 import com.lambdazen.bitsy.tx.BitsyTransaction;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Element;
 
 public interface IGraphStore {
     public void commit(ICommitChanges changes);
 
+    /**
+     * Commits the changes without waiting for them to be written to the
+     * disk. Conflicts are thrown by this method. The returned future is
+     * completed once the changes are written to the transaction log and
+     * forced as required by the durability mode, or failed if the write
+     * fails. The changes are durable at that point only in the FSYNC and
+     * FDATASYNC modes -- see BitsyDurabilityMode. The default implementation
+     * commits synchronously and returns a completed future.
+     */
+    public default CompletableFuture<Void> commitAsync(ICommitChanges changes) {
+        commit(changes);
+
+        return CompletableFuture.completedFuture(null);
+    }
+
     /** Only to be used internally within the store */
     public VertexBean getVertex(UUID id);
 
@@ -30,6 +48,13 @@ public interface IGraphStore {
 
     public Collection<EdgeBean> getAllEdges();
 
+    /**
+     * Opens a consistent snapshot of the vertices and edges as of the last
+     * commit, which doesn't block the later commits. The snapshot must be
+     * closed.
+     */
+    public EpochSnapshot openSnapshot();
+
     public <T extends Element> void createKeyIndex(String key, Class<T> elementType);
 
     public <T extends Element> void dropKeyIndex(String key, Class<T> elementType);
@@ -43,4 +68,7 @@ public interface IGraphStore {
     public Collection<EdgeBean> lookupEdges(String key, Object value);
 
     public boolean allowFullGraphScans();
+
+    /** Returns the counters of the optimistic reads of the store */
+    public ReadStats getReadStats();
 }
@@ -1,6 +1,7 @@
 package com.lambdazen.bitsy;
 
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Transaction;
@@ -9,6 +10,24 @@ import org.apache.tinkerpop.gremlin.structure.Vertex;
 public interface ITransaction extends Transaction {
     public void save(boolean commit);
 
+    /**
+     * Commits the transaction without waiting for the changes to be written
+     * to the disk. Concurrent modifications are thrown by this method, like
+     * commit(). The future is completed once the changes are written to the
+     * transaction log and forced as required by the durability mode, or
+     * failed with the write exception. The changes are durable at that point
+     * only in the FSYNC and FDATASYNC modes -- see BitsyDurabilityMode.
+     * Callbacks attached with the non-async methods of the future run in
+     * the thread that writes the transaction log, and should be short. The
+     * default implementation commits synchronously and returns a completed
+     * future.
+     */
+    public default CompletableFuture<Void> commitAsync() {
+        commit();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
     public void validateForQuery(BitsyElement bitsyElement) throws BitsyException;
 
     public Vertex getVertex(UUID outVertexId) throws BitsyException;
@@ -1,5 +1,17 @@
 package com.lambdazen.bitsy;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.lambdazen.bitsy.store.BinaryRecordCodec;
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
+import com.lambdazen.bitsy.store.EdgeBeanJson;
+import com.lambdazen.bitsy.store.FileBackedMemoryGraphStore;
+import com.lambdazen.bitsy.store.Record;
+import com.lambdazen.bitsy.store.Record.RecordType;
+import com.lambdazen.bitsy.store.RecordReader;
+import com.lambdazen.bitsy.store.TxLogManifest;
+import com.lambdazen.bitsy.store.VertexBeanJson;
+import com.lambdazen.bitsy.util.CommittableFileLog;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -10,6 +22,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -17,10 +31,13 @@ import java.util.regex.Pattern;
 
 /** This class ports the database files across major versions */
 public class PortDatabase {
-    public static final List<String> SUPPORTED_VERSIONS = Arrays.asList(new String[] {"1.0", "1.5"});
+    public static final List<String> SUPPORTED_VERSIONS = Arrays.asList(new String[] {"1.0", "1.5", "1.7", "2.0"});
+
+    // Versions that can be ported to each other by re-encoding every record
+    private static final List<String> REENCODED_VERSIONS = Arrays.asList(new String[] {"1.5", "1.7", "2.0"});
 
     private static final String[] FILE_NAMES =
-            new String[] {"metaA.txt", "metaB.txt", "vA.txt", "vB.txt", "eA.txt", "eB.txt", "txA.txt", "txB.txt"};
+            new String[] {"metaA.txt", "metaB.txt", "vA.txt", "vB.txt", "eA.txt", "eB.txt"};
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     String targetVersion;
@@ -29,7 +46,7 @@ public class PortDatabase {
     String sourceVersion;
     String error = null;
 
-    public PortDatabase(String[] args) throws IOException {
+    public PortDatabase(String[] args) throws Exception {
         if (args.length == 0) {
             setError("No arguments provided");
             return;
@@ -98,7 +115,25 @@ public class PortDatabase {
         System.out.println("Success");
     }
 
-    private void portDatabase() throws IOException {
+    // The transaction log segments are listed in the manifest, if any, which is copied as is
+    private List<String> getFileNames() throws IOException {
+        List<String> ans = new ArrayList<String>(Arrays.asList(FILE_NAMES));
+        ans.addAll(TxLogManifest.getSegmentNames(sourcePath));
+
+        Path manifestPath = sourcePath.resolve(TxLogManifest.FILE_NAME);
+        if (Files.exists(manifestPath)) {
+            Files.copy(manifestPath, targetPath.resolve(TxLogManifest.FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return ans;
+    }
+
+    private void portDatabase() throws Exception {
+        if (REENCODED_VERSIONS.contains(sourceVersion) && REENCODED_VERSIONS.contains(targetVersion)) {
+            portFormat(targetVersion.equals("2.0"), targetVersion.equals("1.7"));
+            return;
+        }
+
         Converter converter;
         if (sourceVersion.equals("1.0") && targetVersion.equals("1.5")) {
             converter = new V10ToV15Coverter();
@@ -110,7 +145,7 @@ public class PortDatabase {
             return;
         }
 
-        for (String fileName : FILE_NAMES) {
+        for (String fileName : getFileNames()) {
             Path path = sourcePath.resolve(fileName);
 
             InputStream fis = null;
@@ -147,6 +182,71 @@ public class PortDatabase {
         }
     }
 
+    /**
+     * This method re-encodes every record between the text (1.5), text with CRC32C (1.7) and binary (2.0) formats,
+     * keeping the file counters
+     */
+    private void portFormat(boolean toBinary, boolean toCrc32c) throws Exception {
+        ObjectMapper mapper = FileBackedMemoryGraphStore.createObjectMapper();
+        ObjectReader vReader = mapper.readerFor(VertexBeanJson.class);
+        ObjectReader eReader = mapper.readerFor(EdgeBeanJson.class);
+
+        RecordOutput recOutput = new RecordOutput();
+
+        for (String fileName : getFileNames()) {
+            boolean isTxLog = fileName.startsWith("tx");
+            CommittableFileLog input = new CommittableFileLog(sourcePath.resolve(fileName), isTxLog);
+            CommittableFileLog output = new CommittableFileLog(targetPath.resolve(fileName), isTxLog);
+            output.setBinary(toBinary);
+            output.setCrc32c(toCrc32c);
+
+            try {
+                input.openForRead();
+                output.openForOverwrite(input.getCounter());
+
+                RecordReader reader = new RecordReader(input, null, null);
+                Record rec;
+                while ((rec = reader.next()) != null) {
+                    RecordType type = rec.getType();
+                    recOutput.reset();
+
+                    if (type == RecordType.V) {
+                        VertexBeanJson vBean = (rec.getBytes() != null)
+                                ? BinaryRecordCodec.decodeVertex(rec.getBytes())
+                                : vReader.<VertexBeanJson>readValue(rec.getJson());
+
+                        if (toBinary) {
+                            BinaryRecordCodec.encodeVertex(recOutput, vBean);
+                        } else {
+                            Record.generateVertexLine(recOutput, mapper, vBean, toCrc32c);
+                        }
+                    } else if (type == RecordType.E) {
+                        EdgeBeanJson eBean = (rec.getBytes() != null)
+                                ? BinaryRecordCodec.decodeEdge(rec.getBytes())
+                                : eReader.<EdgeBeanJson>readValue(rec.getJson());
+
+                        if (toBinary) {
+                            BinaryRecordCodec.encodeEdge(recOutput, eBean);
+                        } else {
+                            Record.generateEdgeLine(recOutput, mapper, eBean, toCrc32c);
+                        }
+                    } else if (type == RecordType.M) {
+                        recOutput.write(Record.generateDBRecord(type, targetVersion, toBinary, toCrc32c));
+                    } else {
+                        recOutput.write(Record.generateDBRecord(type, rec.getJson(), toBinary, toCrc32c));
+                    }
+
+                    output.append(recOutput.toByteBuffer());
+                }
+
+                output.commit();
+            } finally {
+                input.close();
+                output.close();
+            }
+        }
+    }
+
     private String getVersion(Path sourcePath) throws IOException {
         Path mA = sourcePath.resolve("metaA.txt");
         Path mB = sourcePath.resolve("metaB.txt");
@@ -179,6 +279,10 @@ public class PortDatabase {
 
     public String getVersionFromPath(Path metaPath) throws IOException {
         String fileName = metaPath.toString();
+        if (isBinary(metaPath) || isCrc32c(metaPath)) {
+            return getVersionFromRecords(metaPath);
+        }
+
         try (BufferedReader br = Files.newBufferedReader(metaPath, StandardCharsets.UTF_8)) {
             String line;
             int lineNo = 0;
@@ -215,6 +319,45 @@ public class PortDatabase {
         return null;
     }
 
+    // Text files always start with the 'H' of the header
+    private boolean isBinary(Path path) throws IOException {
+        try (InputStream is = Files.newInputStream(path)) {
+            int first = is.read();
+            return (first != -1) && (first != 'H');
+        }
+    }
+
+    // Text files of version 1.7 end their header line with a CRC32C
+    private boolean isCrc32c(Path path) throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String header = br.readLine();
+            return (header != null) && Record.isCrc32cLine(header);
+        }
+    }
+
+    private String getVersionFromRecords(Path metaPath) throws IOException {
+        CommittableFileLog cfl = new CommittableFileLog(metaPath, false);
+        try {
+            cfl.openForRead();
+
+            RecordReader reader = new RecordReader(cfl, null, null);
+            Record rec;
+            while ((rec = reader.next()) != null) {
+                if (rec.getType() == RecordType.M) {
+                    return rec.getJson();
+                }
+            }
+        } catch (BitsyException | IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to read " + metaPath, e);
+        } finally {
+            cfl.close();
+        }
+
+        return null;
+    }
+
     private void setError(String error) {
         this.error = error;
     }
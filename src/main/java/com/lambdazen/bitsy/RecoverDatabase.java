@@ -0,0 +1,158 @@
+package com.lambdazen.bitsy;
+
+import com.lambdazen.bitsy.store.FileBackedMemoryGraphStore;
+import com.lambdazen.bitsy.store.MemoryGraphStore;
+import com.lambdazen.bitsy.store.TxLogArchive;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class recovers a database to a point in time. It restores a full or an
+ * incremental backup, and replays the transaction logs archived after the
+ * backup up to the given time or log counter. The replayed transactions are
+ * loaded when the recovered database is opened, which is done once by this
+ * tool to apply them to the V/E files.
+ */
+public class RecoverDatabase {
+    Path backupPath;
+    Path archivePath;
+    Path targetPath;
+    long maxCounter = Long.MAX_VALUE;
+    long maxTimestamp = Long.MAX_VALUE;
+    int numTx;
+    String error = null;
+
+    public RecoverDatabase(String[] args) throws Exception {
+        if (args.length == 0) {
+            setError("No arguments provided");
+            return;
+        }
+
+        List<String> dirs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-toTime") || args[i].equals("-toCounter")) {
+                if (i == args.length - 1) {
+                    setError("Expecting a value after the " + args[i] + " flag");
+                    return;
+                }
+
+                String value = args[++i];
+                if (args[i - 1].equals("-toCounter")) {
+                    try {
+                        maxCounter = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        setError("The log counter " + value + " provided in the -toCounter flag is not a number");
+                        return;
+                    }
+                } else {
+                    Long timestamp = parseTime(value);
+                    if (timestamp == null) {
+                        setError(
+                                "The time " + value
+                                        + " provided in the -toTime flag must be in milliseconds or in the ISO-8601 format, e.g., 2024-01-31T10:15:30Z");
+                        return;
+                    }
+
+                    maxTimestamp = timestamp;
+                }
+            } else {
+                dirs.add(args[i]);
+            }
+        }
+
+        if (dirs.size() != 3) {
+            setError("Expecting the backup, archive and target directories");
+            return;
+        }
+
+        this.backupPath = Paths.get(dirs.get(0));
+        this.archivePath = Paths.get(dirs.get(1));
+        this.targetPath = Paths.get(dirs.get(2));
+
+        if (!Files.isDirectory(backupPath)) {
+            setError("Backup path " + backupPath + " does not point to a directory");
+            return;
+        }
+
+        if (!Files.isDirectory(archivePath)) {
+            setError("Archive path " + archivePath + " does not point to a directory");
+            return;
+        }
+
+        if (!Files.isDirectory(targetPath)) {
+            setError("Target path " + targetPath + " does not point to a directory");
+            return;
+        }
+
+        System.out.println("Recovering the backup in " + backupPath + " with the transaction logs in " + archivePath
+                + " under " + targetPath);
+
+        this.numTx = TxLogArchive.recover(backupPath, archivePath, targetPath, maxCounter, maxTimestamp);
+
+        // Loading the database applies the replayed transactions
+        FileBackedMemoryGraphStore store = new FileBackedMemoryGraphStore(
+                new MemoryGraphStore(true),
+                targetPath,
+                BitsyGraph.DEFAULT_TX_LOG_THRESHOLD,
+                BitsyGraph.DEFAULT_REORG_FACTOR);
+        store.shutdown();
+
+        System.out.println("Replayed " + numTx + " transactions");
+        System.out.println("Success");
+    }
+
+    private static Long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // Try the ISO-8601 format
+        }
+
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /** Returns the number of transactions replayed from the archive */
+    public int getReplayedTransactions() {
+        return numTx;
+    }
+
+    private void setError(String error) {
+        this.error = error;
+    }
+
+    private String getError() {
+        return error;
+    }
+
+    private static void printUsage(String error) {
+        if (error != null) {
+            System.err.println("ERROR: " + error);
+        }
+
+        System.err.println(
+                "Usage: java com.lambdazen.bitsy.RecoverDatabase [-toTime <milliseconds or ISO-8601 time>] [-toCounter <log counter>] <backup directory> <archive directory> <target directory>");
+    }
+
+    public static void main(String[] args) {
+        try {
+            RecoverDatabase task = new RecoverDatabase(args);
+
+            if (task.getError() != null) {
+                printUsage(task.getError());
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
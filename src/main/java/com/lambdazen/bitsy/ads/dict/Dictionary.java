@@ -11,6 +11,18 @@ public interface Dictionary {
 
     public Object getProperty(String key);
 
+    /**
+     * Returns the value of a numeric property as a long. Throws NoSuchElementException if there is no such property,
+     * and IllegalArgumentException if the value is not a Number
+     */
+    public long getLongProperty(String key);
+
+    /**
+     * Returns the value of a numeric property as a double. Throws NoSuchElementException if there is no such property,
+     * and IllegalArgumentException if the value is not a Number
+     */
+    public double getDoubleProperty(String key);
+
     public String[] getPropertyKeys();
 
     public Dictionary setProperty(String key, Object value);
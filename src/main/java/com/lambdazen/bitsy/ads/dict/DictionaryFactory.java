@@ -1,5 +1,6 @@
 package com.lambdazen.bitsy.ads.dict;
 
+import java.util.Arrays;
 import java.util.Map;
 
 public class DictionaryFactory {
@@ -21,6 +22,121 @@ public class DictionaryFactory {
 
         // assert counter == size;
 
+        return fromArrays(keys, values);
+    }
+
+    // Forms of a dictionary
+    private static final int FIELDS = 0;
+    private static final int SHAPED = 1;
+    private static final int SHAPED_UNBOXED = 2;
+
+    /**
+     * This method creates a dictionary from parallel key and value arrays of
+     * the same length. The dictionary keeps its own keys, since it doesn't
+     * belong to a graph. It is shaped when it is stored.
+     */
+    public static Dictionary fromArrays(String[] keys, Object[] values) {
+        return fromFieldArrays(keys, values);
+    }
+
+    /**
+     * This method creates a dictionary from parallel key and value arrays of
+     * the same length, with a shape from the given graph's table if that
+     * takes less memory.
+     */
+    public static Dictionary fromArrays(String[] keys, Object[] values, ShapeTable shapes) {
+        int form = chooseForm(keys.length, countUnboxable(values));
+        if (form != FIELDS) {
+            Shape shape = shapes.of(keys);
+            if (shape != null) {
+                return new DictionaryShaped(shape, values, form == SHAPED_UNBOXED);
+            }
+        }
+
+        return fromFieldArrays(keys, values);
+    }
+
+    /**
+     * This method returns the dictionary to be kept in a committed vertex or
+     * edge, in the form that takes the least memory. The shapes are taken
+     * from the given table of the graph. The given dictionary is returned if
+     * it is already in that form.
+     */
+    public static Dictionary forStorage(Dictionary dict, ShapeTable shapes) {
+        if (dict instanceof DictionaryShaped) {
+            DictionaryShaped shaped = (DictionaryShaped) dict;
+            int form = chooseForm(shaped.size(), shaped.numUnboxable());
+            if (form == FIELDS) {
+                return fromFieldArrays(shaped.getPropertyKeys(), shaped.boxedValues());
+            }
+
+            Shape shape = shaped.shape;
+            if (shape.getTable() != shapes) {
+                // The shape belongs to another graph
+                shape = shapes.of(shaped.getPropertyKeys());
+                if (shape == null) {
+                    return fromFieldArrays(shaped.getPropertyKeys(), shaped.boxedValues());
+                }
+            } else if ((form == SHAPED_UNBOXED) == shaped.isUnboxed()) {
+                return shaped;
+            }
+
+            return new DictionaryShaped(shape, shaped.boxedValues(), form == SHAPED_UNBOXED);
+        } else if (dict instanceof PrimitiveDictionary) {
+            PrimitiveDictionary fields = (PrimitiveDictionary) dict;
+            int size = fields.size();
+            Object[] values = Arrays.copyOf(fields.values(), size);
+            int form = chooseForm(size, countUnboxable(values));
+            if (form != FIELDS) {
+                Shape shape = shapes.of(fields.getPropertyKeys());
+                if (shape != null) {
+                    return new DictionaryShaped(shape, values, form == SHAPED_UNBOXED);
+                }
+            }
+
+            return fields;
+        } else {
+            return dict;
+        }
+    }
+
+    /*
+     * Returns the form with the smallest estimated size, with 4-byte references. A dictionary with fields has a key
+     * and a value field for each entry, and DictionaryMax has two arrays. A shaped dictionary shares its keys, but
+     * has a value array, and a long array when the numbers are unboxed. A boxed number is a 16-byte object.
+     */
+    private static int chooseForm(int size, int numUnboxable) {
+        if (size == 0) {
+            return FIELDS;
+        }
+
+        long boxedNumbers = 16L * numUnboxable;
+        long fields = ((size <= Dictionary16.CAPACITY) ? 12 + 8L * size : 56 + 12L * size) + boxedNumbers;
+        long shaped = 40 + 4L * size + boxedNumbers;
+        long shapedUnboxed = 56 + 12L * size;
+
+        if ((fields <= shaped) && (fields <= shapedUnboxed)) {
+            return FIELDS;
+        } else {
+            return (shaped <= shapedUnboxed) ? SHAPED : SHAPED_UNBOXED;
+        }
+    }
+
+    private static int countUnboxable(Object[] values) {
+        int ans = 0;
+        for (Object value : values) {
+            if (DictionaryShaped.isUnboxable(value)) {
+                ans++;
+            }
+        }
+
+        return ans;
+    }
+
+    // Creates a dictionary that keeps its own keys in fields, or in an array when there are many
+    static Dictionary fromFieldArrays(String[] keys, Object[] values) {
+        int size = keys.length;
+
         if (size == 0) {
             return null;
         } else if (size <= 1) {
@@ -0,0 +1,282 @@
+package com.lambdazen.bitsy.ads.dict;
+
+import com.lambdazen.bitsy.store.IStringCanonicalizer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * This class implements a dictionary whose keys are in a shape that is shared
+ * with the other dictionaries with the same keys. The dictionary only has the
+ * values, in the order of the keys in the shape. A copy only copies the
+ * values, and a key is found by the shape.
+ *
+ * The Integer, Long, Float and Double values can also be kept unboxed. The
+ * bits of these values are then in a long array, and their slots in the value
+ * array hold a tag with their type. The values are boxed only when they are
+ * returned by getProperty().
+ */
+public class DictionaryShaped implements Dictionary {
+    // Tags of the unboxed values
+    private static final Object INT_TAG = new Tag("int");
+    private static final Object LONG_TAG = new Tag("long");
+    private static final Object FLOAT_TAG = new Tag("float");
+    private static final Object DOUBLE_TAG = new Tag("double");
+
+    Shape shape;
+    Object[] values;
+
+    // Null if the values are boxed
+    long[] bits;
+
+    // FromMap constructor
+    public DictionaryShaped(Shape shape, Object[] values, boolean unboxed) {
+        this.shape = shape;
+        this.values = new Object[shape.size()];
+        this.bits = unboxed ? new long[shape.size()] : null;
+
+        for (int i = 0; i < values.length; i++) {
+            write(i, values[i]);
+        }
+    }
+
+    // Copy constructor
+    public DictionaryShaped(DictionaryShaped base) {
+        this.shape = base.shape;
+        this.values = Arrays.copyOf(base.values, base.values.length);
+        this.bits = (base.bits == null) ? null : Arrays.copyOf(base.bits, base.bits.length);
+    }
+
+    /** Returns true if the given value can be kept unboxed */
+    public static boolean isUnboxable(Object value) {
+        return (value instanceof Integer)
+                || (value instanceof Long)
+                || (value instanceof Float)
+                || (value instanceof Double);
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Object getProperty(String key) {
+        int index = shape.indexOf(key);
+
+        return (index < 0) ? null : read(index);
+    }
+
+    @Override
+    public long getLongProperty(String key) {
+        int index = shape.indexOf(key);
+        if (index < 0) {
+            throw new NoSuchElementException(key);
+        }
+
+        Object tag = values[index];
+        if ((tag == LONG_TAG) || (tag == INT_TAG)) {
+            return bits[index];
+        } else if (tag == DOUBLE_TAG) {
+            return (long) Double.longBitsToDouble(bits[index]);
+        } else if (tag == FLOAT_TAG) {
+            return (long) Float.intBitsToFloat((int) bits[index]);
+        } else if (tag instanceof Number) {
+            return ((Number) tag).longValue();
+        } else if (tag == null) {
+            throw new NoSuchElementException(key);
+        } else {
+            throw PrimitiveDictionary.notNumeric(key, tag);
+        }
+    }
+
+    @Override
+    public double getDoubleProperty(String key) {
+        int index = shape.indexOf(key);
+        if (index < 0) {
+            throw new NoSuchElementException(key);
+        }
+
+        Object tag = values[index];
+        if (tag == DOUBLE_TAG) {
+            return Double.longBitsToDouble(bits[index]);
+        } else if (tag == FLOAT_TAG) {
+            return Float.intBitsToFloat((int) bits[index]);
+        } else if ((tag == LONG_TAG) || (tag == INT_TAG)) {
+            return bits[index];
+        } else if (tag instanceof Number) {
+            return ((Number) tag).doubleValue();
+        } else if (tag == null) {
+            throw new NoSuchElementException(key);
+        } else {
+            throw PrimitiveDictionary.notNumeric(key, tag);
+        }
+    }
+
+    @Override
+    public String[] getPropertyKeys() {
+        return shape.getKeys();
+    }
+
+    @Override
+    public Dictionary setProperty(String key, Object value) {
+        int index = shape.indexOf(key);
+        if (index < 0) {
+            Shape newShape = shape.withKey(key);
+            if (newShape == null) {
+                // Too many shapes. Switch to a dictionary with its own keys
+                return toFieldDictionary().setProperty(key, value);
+            }
+
+            index = values.length;
+            this.shape = newShape;
+            this.values = Arrays.copyOf(values, index + 1);
+            if (bits != null) {
+                this.bits = Arrays.copyOf(bits, index + 1);
+            }
+        }
+
+        write(index, value);
+
+        return this;
+    }
+
+    @Override
+    public Dictionary removeProperty(String key) {
+        int index = shape.indexOf(key);
+        if (index < 0) {
+            // Couldn't find key
+            return this;
+        } else if (values.length == 1) {
+            return null;
+        }
+
+        Shape newShape = shape.withoutKey(index);
+        if (newShape == null) {
+            // Too many shapes. Switch to a dictionary with its own keys
+            return toFieldDictionary().removeProperty(key);
+        }
+
+        this.shape = newShape;
+        this.values = removeAt(values, index);
+        if (bits != null) {
+            this.bits = removeAt(bits, index);
+        }
+
+        return this;
+    }
+
+    @Override
+    public Dictionary copyOf() {
+        return new DictionaryShaped(this);
+    }
+
+    @Override
+    public void canonicalizeKeys(IStringCanonicalizer canonicalizer) {
+        // The keys are in the shape, and were canonicalized by the graph's shape table when the shape was created
+    }
+
+    // Returns true if the numbers are kept unboxed
+    boolean isUnboxed() {
+        return bits != null;
+    }
+
+    // Returns the number of values that are numbers, whether or not they are unboxed
+    int numUnboxable() {
+        int ans = 0;
+        for (int i = 0; i < values.length; i++) {
+            if ((values[i] instanceof Tag) || isUnboxable(values[i])) {
+                ans++;
+            }
+        }
+
+        return ans;
+    }
+
+    // Returns the boxed values
+    Object[] boxedValues() {
+        Object[] ans = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ans[i] = read(i);
+        }
+
+        return ans;
+    }
+
+    private Dictionary toFieldDictionary() {
+        return DictionaryFactory.fromFieldArrays(shape.getKeys(), boxedValues());
+    }
+
+    private Object read(int index) {
+        Object tag = values[index];
+        if (tag == LONG_TAG) {
+            return Long.valueOf(bits[index]);
+        } else if (tag == INT_TAG) {
+            return Integer.valueOf((int) bits[index]);
+        } else if (tag == DOUBLE_TAG) {
+            return Double.valueOf(Double.longBitsToDouble(bits[index]));
+        } else if (tag == FLOAT_TAG) {
+            return Float.valueOf(Float.intBitsToFloat((int) bits[index]));
+        } else {
+            return tag;
+        }
+    }
+
+    private void write(int index, Object value) {
+        if (bits == null) {
+            values[index] = value;
+        } else if (value instanceof Long) {
+            values[index] = LONG_TAG;
+            bits[index] = (Long) value;
+        } else if (value instanceof Integer) {
+            values[index] = INT_TAG;
+            bits[index] = (Integer) value;
+        } else if (value instanceof Double) {
+            // The raw bits keep the NaN payloads, like the boxed value
+            values[index] = DOUBLE_TAG;
+            bits[index] = Double.doubleToRawLongBits((Double) value);
+        } else if (value instanceof Float) {
+            values[index] = FLOAT_TAG;
+            bits[index] = Float.floatToRawIntBits((Float) value);
+        } else {
+            values[index] = value;
+            bits[index] = 0;
+        }
+    }
+
+    private static Object[] removeAt(Object[] array, int index) {
+        Object[] ans = new Object[array.length - 1];
+        System.arraycopy(array, 0, ans, 0, index);
+        System.arraycopy(array, index + 1, ans, index, ans.length - index);
+
+        return ans;
+    }
+
+    private static long[] removeAt(long[] array, int index) {
+        long[] ans = new long[array.length - 1];
+        System.arraycopy(array, 0, ans, 0, index);
+        System.arraycopy(array, index + 1, ans, index, ans.length - index);
+
+        return ans;
+    }
+
+    public String toString() {
+        StringBuilder ans = new StringBuilder("DictionaryShaped(size = " + size());
+        for (int i = 0; i < values.length; i++) {
+            ans.append(", " + shape.getKey(i) + ": " + read(i));
+        }
+        ans.append(")");
+        return ans.toString();
+    }
+
+    private static final class Tag {
+        private final String type;
+
+        Tag(String type) {
+            this.type = type;
+        }
+
+        public String toString() {
+            return type;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.lambdazen.bitsy.ads.dict;
 
 import com.lambdazen.bitsy.store.IStringCanonicalizer;
 import java.util.Arrays;
+import java.util.NoSuchElementException;
 
 public abstract class PrimitiveDictionary implements Dictionary {
     public PrimitiveDictionary() {
@@ -67,6 +68,30 @@ public abstract class PrimitiveDictionary implements Dictionary {
         return null;
     }
 
+    @Override
+    public long getLongProperty(String key) {
+        Object value = getProperty(key);
+        if (value == null) {
+            throw new NoSuchElementException(key);
+        } else if (!(value instanceof Number)) {
+            throw notNumeric(key, value);
+        }
+
+        return ((Number) value).longValue();
+    }
+
+    @Override
+    public double getDoubleProperty(String key) {
+        Object value = getProperty(key);
+        if (value == null) {
+            throw new NoSuchElementException(key);
+        } else if (!(value instanceof Number)) {
+            throw notNumeric(key, value);
+        }
+
+        return ((Number) value).doubleValue();
+    }
+
     @Override
     public Dictionary setProperty(String key, Object value) {
         String[] keys = keys();
@@ -80,7 +105,7 @@ public abstract class PrimitiveDictionary implements Dictionary {
             if (curKey == null) {
                 // End of keys
                 break;
-            } else if (keys[i].equals(key)) {
+            } else if (curKey.equals(key)) {
                 values[i] = value;
                 write(i, keys[i], value);
                 overwroteValue = true;
@@ -108,9 +133,13 @@ public abstract class PrimitiveDictionary implements Dictionary {
         String[] keys = keys();
         Object[] values = null;
 
-        int i = 0;
-        for (i = 0; i < keys.length; i++) {
+        for (int i = 0; i < keys.length; i++) {
             String origKey = keys[i];
+            if (origKey == null) {
+                // End of keys
+                break;
+            }
+
             String newKey = canonicalizer.canonicalize(origKey);
 
             // Avoid step if already canonical
@@ -122,8 +151,6 @@ public abstract class PrimitiveDictionary implements Dictionary {
 
                 write(i, newKey, values[i]);
             }
-
-            i++;
         }
     }
 
@@ -140,7 +167,7 @@ public abstract class PrimitiveDictionary implements Dictionary {
             if (curKey == null) {
                 // End of keys
                 break;
-            } else if (keys[i].equals(key)) {
+            } else if (curKey.equals(key)) {
                 overwritePos = i;
             }
         }
@@ -165,6 +192,12 @@ public abstract class PrimitiveDictionary implements Dictionary {
         }
     }
 
+    // Thrown by the numeric getters for a value that is not a Number
+    static IllegalArgumentException notNumeric(String key, Object value) {
+        return new IllegalArgumentException("The value of property " + key + " is not a number: "
+                + value.getClass().getName());
+    }
+
     protected String lookupKey(String[] keys, int i) {
         return (i < keys.length) ? keys[i] : null;
     }
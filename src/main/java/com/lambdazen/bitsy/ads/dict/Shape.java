@@ -0,0 +1,126 @@
+package com.lambdazen.bitsy.ads.dict;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class is an immutable layout of property keys, which is shared by all
+ * the shaped dictionaries of a graph with the same keys in the same order.
+ * Shapes are reached from the empty shape of the graph's shape table by
+ * adding keys one at a time, and these transitions are cached, so that the
+ * same sequence of keys always leads to the same shape.
+ */
+public final class Shape {
+    // Shapes with more keys use a map to find the index of a key
+    private static final int MAX_LINEAR_SCAN = 8;
+
+    private final ShapeTable table;
+    private final String[] keys;
+    private final Map<String, Integer> index;
+    private final ConcurrentMap<String, Shape> additions;
+    private final ConcurrentMap<String, Shape> removals;
+
+    Shape(ShapeTable table, String[] keys) {
+        this.table = table;
+        this.keys = keys;
+        this.additions = new ConcurrentHashMap<String, Shape>();
+        this.removals = new ConcurrentHashMap<String, Shape>();
+
+        if (keys.length <= MAX_LINEAR_SCAN) {
+            this.index = null;
+        } else {
+            this.index = new HashMap<String, Integer>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                index.put(keys[i], i);
+            }
+        }
+    }
+
+    // Returns the table of the graph that this shape belongs to
+    ShapeTable getTable() {
+        return table;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    String getKey(int i) {
+        return keys[i];
+    }
+
+    String[] getKeys() {
+        return Arrays.copyOf(keys, keys.length);
+    }
+
+    /** Returns the index of the given key, or -1 if it is not in this shape */
+    int indexOf(String key) {
+        if (index == null) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        } else {
+            Integer ans = (key == null) ? null : index.get(key);
+
+            return (ans == null) ? -1 : ans;
+        }
+    }
+
+    /** Returns the shape with the given key added at the end, or null if there are too many shapes */
+    Shape withKey(String key) {
+        Shape ans = additions.get(key);
+        if (ans != null) {
+            return ans;
+        }
+
+        if (table.isFull()) {
+            return null;
+        }
+
+        // The shapes keep the graph's canonical instance of the key
+        String[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+        newKeys[keys.length] = table.canonicalize(key);
+
+        Shape newShape = new Shape(table, newKeys);
+        ans = additions.putIfAbsent(newKeys[keys.length], newShape);
+        if (ans == null) {
+            table.shapeAdded();
+            ans = newShape;
+        }
+
+        return ans;
+    }
+
+    /** Returns the shape without the key at the given index, or null if there are too many shapes */
+    Shape withoutKey(int i) {
+        String key = keys[i];
+        Shape ans = removals.get(key);
+        if (ans != null) {
+            return ans;
+        }
+
+        ans = table.getEmptyShape();
+        for (int j = 0; (ans != null) && (j < keys.length); j++) {
+            if (j != i) {
+                ans = ans.withKey(keys[j]);
+            }
+        }
+
+        if (ans != null) {
+            removals.putIfAbsent(key, ans);
+        }
+
+        return ans;
+    }
+
+    public String toString() {
+        return "Shape" + Arrays.toString(keys);
+    }
+}
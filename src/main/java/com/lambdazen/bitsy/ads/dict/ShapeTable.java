@@ -0,0 +1,68 @@
+package com.lambdazen.bitsy.ads.dict;
+
+import com.lambdazen.bitsy.store.IStringCanonicalizer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds the shapes of a graph, starting from the empty shape. The
+ * keys of the shapes are canonicalized through the graph's symbol table, and
+ * the shapes are collected along with the graph.
+ *
+ * The number of shapes is bounded. Once the limit is reached, no more shapes
+ * are created and the dictionaries fall back to keeping their own keys.
+ */
+public final class ShapeTable {
+    /** Default maximum number of shapes in a graph */
+    public static final int DEFAULT_MAX_SHAPES = 10000;
+
+    private final IStringCanonicalizer canonicalizer;
+    private final int maxShapes;
+    private final AtomicInteger numShapes;
+    private final Shape empty;
+
+    public ShapeTable(IStringCanonicalizer canonicalizer) {
+        this(canonicalizer, DEFAULT_MAX_SHAPES);
+    }
+
+    public ShapeTable(IStringCanonicalizer canonicalizer, int maxShapes) {
+        this.canonicalizer = canonicalizer;
+        this.maxShapes = maxShapes;
+        this.numShapes = new AtomicInteger(0);
+        this.empty = new Shape(this, new String[0]);
+    }
+
+    /** Returns the shape with the given distinct keys in the given order, or null if there are too many shapes */
+    public Shape of(String[] keys) {
+        Shape ans = empty;
+        for (int i = 0; (ans != null) && (i < keys.length); i++) {
+            ans = ans.withKey(keys[i]);
+        }
+
+        return ans;
+    }
+
+    /** Returns the number of shapes created so far, not counting the empty shape */
+    public int getNumShapes() {
+        return numShapes.get();
+    }
+
+    public int getMaxShapes() {
+        return maxShapes;
+    }
+
+    Shape getEmptyShape() {
+        return empty;
+    }
+
+    String canonicalize(String key) {
+        return (canonicalizer == null) ? key : canonicalizer.canonicalize(key);
+    }
+
+    boolean isFull() {
+        return numShapes.get() >= maxShapes;
+    }
+
+    void shapeAdded() {
+        numShapes.incrementAndGet();
+    }
+}
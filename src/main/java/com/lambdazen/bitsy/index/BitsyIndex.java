@@ -53,7 +53,7 @@ public abstract class BitsyIndex<T> {
             return;
         }
 
-        // No need to synchronize, because there is a read-write lock
+        // No need to synchronize, because the memory store holds the lock of the index stripe
         Object origSet = index.get(value);
         Object newSet = CompactSet.<T>add(origSet, bean);
 
@@ -69,7 +69,7 @@ public abstract class BitsyIndex<T> {
             return;
         }
 
-        // No need to synchronize, because there is a read-write lock
+        // No need to synchronize, because the memory store holds the lock of the index stripe
         Object origSet = index.get(value);
         Object newSet = CompactSet.<T>remove(origSet, bean);
 
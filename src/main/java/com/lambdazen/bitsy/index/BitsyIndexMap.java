@@ -32,6 +32,10 @@ public class BitsyIndexMap<BeanType, IndexType extends BitsyIndex<BeanType>> {
         }
     }
 
+    public boolean isEmpty() {
+        return indexMap.isEmpty();
+    }
+
     // LOCKED methods
     public void add(BeanType bean) {
         for (IndexType index : indexMap.values()) {
@@ -34,6 +34,21 @@ public class AdjacencyMapForBeans {
         inV.inEdges = addEdgeToAdjList(inV.inEdges, eBean);
     }
 
+    /**
+     * This method adds the edge to the adjacency list of one of its vertices.
+     * It is used by loaders that update the in and out vertices in different
+     * threads.
+     */
+    public void addEdge(EdgeBean eBean, Direction dir) {
+        if (dir == Direction.OUT) {
+            VertexBean outV = eBean.outVertex;
+            outV.outEdges = addEdgeToAdjList(outV.outEdges, eBean);
+        } else {
+            VertexBean inV = eBean.inVertex;
+            inV.inEdges = addEdgeToAdjList(inV.inEdges, eBean);
+        }
+    }
+
     private Object addEdgeToAdjList(Object adjList, EdgeBean eBean) {
         if (adjList instanceof CompactMultiSetMax) {
             CompactMultiSetMax<String, EdgeBean> adjListMultiSet = (CompactMultiSetMax<String, EdgeBean>) adjList;
@@ -66,6 +81,21 @@ public class AdjacencyMapForBeans {
         ; // CompactSet.<EdgeBean>remove(inV.inEdges, eBean);
     }
 
+    /** This method removes the edge from the adjacency list of one of its vertices, without a callback */
+    protected void removeEdgeWithoutCallback(EdgeBean eBean, Direction dir) {
+        if (eBean == null) {
+            return;
+        }
+
+        if (dir == Direction.OUT) {
+            VertexBean outV = eBean.outVertex;
+            outV.outEdges = removeEdgeFromAdjList(outV.outEdges, eBean);
+        } else {
+            VertexBean inV = eBean.inVertex;
+            inV.inEdges = removeEdgeFromAdjList(inV.inEdges, eBean);
+        }
+    }
+
     private Object removeEdgeFromAdjList(Object adjList, EdgeBean eBean) {
         if (adjList instanceof CompactMultiSetMax) {
             CompactMultiSetMax<String, EdgeBean> adjListMultiSet = (CompactMultiSetMax<String, EdgeBean>) adjList;
@@ -5,16 +5,33 @@ import java.nio.file.Path;
 
 public class BackupJob extends JobWithCountDownLatch implements IVeReorgJob {
     private Path backupDir;
+    private boolean incremental;
+    private Path previousBackupDir;
     private BitsyException bex;
 
     public BackupJob(Path backupDir) {
+        this(backupDir, false, null);
+    }
+
+    public BackupJob(Path backupDir, boolean incremental, Path previousBackupDir) {
         this.backupDir = backupDir;
+        this.incremental = incremental;
+        this.previousBackupDir = previousBackupDir;
     }
 
     public Path getBackupDir() {
         return backupDir;
     }
 
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /** Returns the directory of the previous incremental backup, or null if this backup starts a new base */
+    public Path getPreviousBackupDir() {
+        return previousBackupDir;
+    }
+
     public BitsyException getException() {
         return bex;
     }
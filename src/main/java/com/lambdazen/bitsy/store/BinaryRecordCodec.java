@@ -0,0 +1,397 @@
+package com.lambdazen.bitsy.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.BitsyState;
+import com.lambdazen.bitsy.UUID;
+import com.lambdazen.bitsy.ads.dict.Dictionary;
+import com.lambdazen.bitsy.ads.dict.DictionaryFactory;
+import com.lambdazen.bitsy.store.Record.RecordType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * This class encodes and decodes records in the binary file format (major
+ * version 2.0). Every record is length-prefixed and laid out as follows:
+ *
+ * <pre>
+ * int     length of the type, payload and checksum that follow
+ * byte    record type (H, L, V, E, T, I or M)
+ * ...     payload
+ * int     CRC32 checksum of the type and payload
+ * </pre>
+ *
+ * V and E payloads start with a fixed header (id, version, state) followed by
+ * the endpoints (E only), the label and the properties. Properties of the
+ * common primitive types are written natively. Other values fall back to the
+ * same typed JSON used in the text format. All other payloads are the UTF-8
+ * string that follows the '=' in the text format.
+ */
+public class BinaryRecordCodec {
+    /** Size of the length prefix */
+    public static final int LENGTH_SIZE = 4;
+
+    /** Size of the checksum trailer */
+    public static final int CHECKSUM_SIZE = 4;
+
+    /** Records larger than this are treated as corrupt */
+    public static final int MAX_RECORD_SIZE = 512 * 1024 * 1024;
+
+    // Offsets into the record (type + payload + checksum) of the fixed V/E header
+    private static final int ID_OFFSET = 1;
+    private static final int VERSION_OFFSET = ID_OFFSET + 16;
+    private static final int STATE_OFFSET = VERSION_OFFSET + 4;
+    private static final int HEADER_END = STATE_OFFSET + 1;
+
+    // Tags for property values
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INTEGER = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_TRUE = 6;
+    private static final byte TAG_FALSE = 7;
+    private static final byte TAG_SHORT = 8;
+    private static final byte TAG_BYTE = 9;
+    private static final byte TAG_JSON = 10;
+
+    private static final BitsyState[] states = BitsyState.values();
+
+    private static final ObjectMapper mapper = FileBackedMemoryGraphStore.createObjectMapper();
+    private static final ObjectWriter valueWriter = mapper.writerFor(Object.class);
+    private static final ObjectReader valueReader = mapper.readerFor(Object.class);
+
+    public static byte[] encode(RecordType type, String payload) {
+        RecordOutput out = new RecordOutput();
+        int start = out.beginRecord(type);
+        byte[] bytes = payload.getBytes(FileBackedMemoryGraphStore.utf8);
+        out.write(bytes, 0, bytes.length);
+        out.endRecord(start);
+
+        return out.toByteArray();
+    }
+
+    public static void encodeVertex(RecordOutput out, VertexBeanJson vBean) throws IOException {
+        int start = out.beginRecord(RecordType.V);
+        writeHeader(out, vBean, vBean.getVersion(), vBean.getState());
+        out.writeString(vBean.getLabel());
+        writeProperties(out, vBean.getPropertiesDict());
+        out.endRecord(start);
+    }
+
+    public static void encodeEdge(RecordOutput out, EdgeBeanJson eBean) throws IOException {
+        int start = out.beginRecord(RecordType.E);
+        writeHeader(out, eBean, eBean.getVersion(), eBean.getState());
+
+        UUID outId = eBean.getOutVertexId();
+        out.writeLong(outId.getMostSignificantBits());
+        out.writeLong(outId.getLeastSignificantBits());
+
+        UUID inId = eBean.getInVertexId();
+        out.writeLong(inId.getMostSignificantBits());
+        out.writeLong(inId.getLeastSignificantBits());
+
+        out.writeString(eBean.getLabel());
+        writeProperties(out, eBean.getPropertiesDict());
+        out.endRecord(start);
+    }
+
+    private static void writeHeader(RecordOutput out, UUID id, int version, BitsyState state) {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+        out.writeInt(version);
+        out.write(state.ordinal());
+    }
+
+    private static void writeProperties(RecordOutput out, Dictionary properties) throws IOException {
+        if (properties == null) {
+            out.writeVarInt(0);
+            return;
+        }
+
+        String[] keys = properties.getPropertyKeys();
+        out.writeVarInt(keys.length + 1);
+        for (String key : keys) {
+            out.writeString(key);
+            writeValue(out, properties.getProperty(key));
+        }
+    }
+
+    static void writeValue(RecordOutput out, Object value) throws IOException {
+        Class<?> cls = (value == null) ? null : value.getClass();
+
+        if (cls == String.class) {
+            out.write(TAG_STRING);
+            out.writeString((String) value);
+        } else if (cls == Integer.class) {
+            out.write(TAG_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (cls == Long.class) {
+            out.write(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (cls == Double.class) {
+            out.write(TAG_DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if (cls == Float.class) {
+            out.write(TAG_FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float) value));
+        } else if (cls == Boolean.class) {
+            out.write(((Boolean) value) ? TAG_TRUE : TAG_FALSE);
+        } else if (cls == Short.class) {
+            out.write(TAG_SHORT);
+            out.writeShort((Short) value);
+        } else if (cls == Byte.class) {
+            out.write(TAG_BYTE);
+            out.write((Byte) value);
+        } else {
+            // Everything else, including nulls, is serialized the same way as in the text format
+            out.write(TAG_JSON);
+            byte[] json = valueWriter.writeValueAsBytes(value);
+            out.writeVarInt(json.length);
+            out.write(json, 0, json.length);
+        }
+    }
+
+    /** Returns the CRC32 of the type and payload in the given record, which includes the checksum trailer */
+    public static int checksum(byte[] rec) {
+        CRC32 crc = new CRC32();
+        crc.update(rec, 0, rec.length - CHECKSUM_SIZE);
+
+        return (int) crc.getValue();
+    }
+
+    /** Returns the checksum stored in the trailer of the given record */
+    public static int storedChecksum(byte[] rec) {
+        return ByteBuffer.wrap(rec).getInt(rec.length - CHECKSUM_SIZE);
+    }
+
+    public static String decodeString(byte[] rec) {
+        return new String(rec, 1, rec.length - 1 - CHECKSUM_SIZE, FileBackedMemoryGraphStore.utf8);
+    }
+
+    public static UUID decodeId(byte[] rec) {
+        ByteBuffer bb = ByteBuffer.wrap(rec);
+
+        return new UUID(bb.getLong(ID_OFFSET), bb.getLong(ID_OFFSET + 8));
+    }
+
+    public static int decodeVersion(byte[] rec) {
+        return ByteBuffer.wrap(rec).getInt(VERSION_OFFSET);
+    }
+
+    public static BitsyState decodeState(byte[] rec) {
+        return states[rec[STATE_OFFSET]];
+    }
+
+    public static VertexBeanJson decodeVertex(byte[] rec) throws IOException {
+        ByteBuffer bb = payload(rec);
+
+        String label = readString(bb);
+        Dictionary properties = readProperties(bb);
+
+        return new VertexBeanJson(decodeId(rec), label, properties, decodeVersion(rec), decodeState(rec));
+    }
+
+    public static EdgeBeanJson decodeEdge(byte[] rec) throws IOException {
+        ByteBuffer bb = payload(rec);
+
+        UUID outId = new UUID(bb.getLong(), bb.getLong());
+        UUID inId = new UUID(bb.getLong(), bb.getLong());
+        String label = readString(bb);
+        Dictionary properties = readProperties(bb);
+
+        return new EdgeBeanJson(decodeId(rec), properties, decodeVersion(rec), label, outId, inId, decodeState(rec));
+    }
+
+    // Returns a buffer positioned after the fixed header and limited before the checksum
+    private static ByteBuffer payload(byte[] rec) {
+        ByteBuffer bb = ByteBuffer.wrap(rec, 0, rec.length - CHECKSUM_SIZE);
+        bb.position(HEADER_END);
+
+        return bb;
+    }
+
+    private static Dictionary readProperties(ByteBuffer bb) throws IOException {
+        int size = readVarInt(bb) - 1;
+        if (size <= 0) {
+            return null;
+        }
+
+        String[] keys = new String[size];
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = readString(bb);
+            values[i] = readValue(bb);
+        }
+
+        return DictionaryFactory.fromArrays(keys, values);
+    }
+
+    static Object readValue(ByteBuffer bb) throws IOException {
+        byte tag = bb.get();
+        switch (tag) {
+            case TAG_STRING:
+                return readString(bb);
+
+            case TAG_INTEGER:
+                return bb.getInt();
+
+            case TAG_LONG:
+                return bb.getLong();
+
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(bb.getLong());
+
+            case TAG_FLOAT:
+                return Float.intBitsToFloat(bb.getInt());
+
+            case TAG_TRUE:
+                return Boolean.TRUE;
+
+            case TAG_FALSE:
+                return Boolean.FALSE;
+
+            case TAG_SHORT:
+                return bb.getShort();
+
+            case TAG_BYTE:
+                return bb.get();
+
+            case TAG_JSON:
+                int len = readVarInt(bb);
+                Object ans = valueReader.readValue(bb.array(), bb.position(), len);
+                bb.position(bb.position() + len);
+                return ans;
+
+            default:
+                throw new BitsyException(BitsyErrorCodes.DATABASE_IS_CORRUPT, "Unrecognized property tag " + tag);
+        }
+    }
+
+    static String readString(ByteBuffer bb) {
+        int len = readVarInt(bb) - 1;
+        if (len < 0) {
+            return null;
+        }
+
+        String ans = new String(bb.array(), bb.position(), len, FileBackedMemoryGraphStore.utf8);
+        bb.position(bb.position() + len);
+
+        return ans;
+    }
+
+    static int readVarInt(ByteBuffer bb) {
+        int ans = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bb.get();
+            ans |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        return ans;
+    }
+
+    /**
+     * This class is a growable buffer that records are encoded into. The
+     * length prefix is reserved in beginRecord() and filled in by endRecord(),
+     * which also appends the checksum.
+     */
+    public static class RecordOutput extends ByteArrayOutputStream {
+        public RecordOutput() {
+            this(256);
+        }
+
+        public RecordOutput(int size) {
+            super(size);
+        }
+
+        public int beginRecord(RecordType type) {
+            return beginRecord(type.name().charAt(0));
+        }
+
+        public int beginRecord(char type) {
+            int start = count;
+            writeInt(0);
+            write(type);
+
+            return start;
+        }
+
+        public void endRecord(int start) {
+            CRC32 crc = new CRC32();
+            crc.update(buf, start + LENGTH_SIZE, count - start - LENGTH_SIZE);
+
+            // The length covers the type, payload and checksum
+            int len = count - start - LENGTH_SIZE + CHECKSUM_SIZE;
+            buf[start] = (byte) (len >>> 24);
+            buf[start + 1] = (byte) (len >>> 16);
+            buf[start + 2] = (byte) (len >>> 8);
+            buf[start + 3] = (byte) len;
+
+            writeInt((int) crc.getValue());
+        }
+
+        public void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        public void writeShort(short v) {
+            write(v >>> 8);
+            write(v);
+        }
+
+        public void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        public void writeVarInt(int v) {
+            while ((v & ~0x7F) != 0) {
+                write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            write(v);
+        }
+
+        // Strings are written with (length + 1) so that null can be encoded as 0
+        public void writeString(String str) {
+            if (str == null) {
+                writeVarInt(0);
+            } else {
+                byte[] bytes = str.getBytes(FileBackedMemoryGraphStore.utf8);
+                writeVarInt(bytes.length + 1);
+                write(bytes, 0, bytes.length);
+            }
+        }
+
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        /** Returns the internal buffer, which holds the bytes written so far till the next write */
+        public byte[] getBuffer() {
+            return buf;
+        }
+
+        public int capacity() {
+            return buf.length;
+        }
+
+        /** Drops the bytes written after the given size */
+        public void truncate(int size) {
+            assert (size >= 0) && (size <= count);
+
+            count = size;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
+import com.lambdazen.bitsy.store.Record.RecordType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class compresses a run of records into a block (C) record, and expands
+ * a block into the records in it. A block is written like any other record, in
+ * the text or binary format of the file. Its payload is laid out as follows:
+ *
+ * <pre>
+ * int     number of records in the block
+ * int     uncompressed length
+ * int     CRC32 checksum of the uncompressed records
+ * ...     records compressed with Deflater
+ * </pre>
+ *
+ * The uncompressed records are exactly as they would appear in the file, i.e.,
+ * text lines ending with '\n', or length-prefixed binary records. Text blocks
+ * encode the payload in Base64. Blocks are appended whole, so every record in a
+ * block has the position of the end of the block in the file.
+ */
+public class BlockCodec {
+    /** Records are compressed in blocks of about these many uncompressed bytes. Can be changed by the application */
+    public static int BLOCK_SIZE = 64 * 1024;
+
+    /** Level used by the Deflater. Can be changed by the application */
+    public static int COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    /** Transactions smaller than these many bytes are written uncompressed. Can be changed by the application */
+    public static int MIN_TX_SIZE_TO_COMPRESS = 16 * 1024;
+
+    // Size of the fixed header in the payload
+    private static final int HEADER_SIZE = 12;
+
+    // Length of the Base64 text that encodes the header
+    private static final int TEXT_HEADER_LENGTH = 16;
+
+    private static final int DEFLATE_CHUNK_SIZE = 8192;
+
+    private BlockCodec() {
+        // Only static methods
+    }
+
+    /**
+     * Compresses the given records into a block, and appends it to the output in the text or binary format. The
+     * crc32c flag selects the checksum of the text line
+     */
+    public static void compress(
+            RecordOutput out, RecordOutput records, int numRecords, boolean binary, boolean crc32c) {
+        ByteBuffer input = records.toByteBuffer();
+        int len = input.remaining();
+
+        CRC32 crc = new CRC32();
+        crc.update(input.array(), 0, len);
+
+        RecordOutput payload = binary ? out : new RecordOutput(len / 4 + HEADER_SIZE);
+        int start = binary ? out.beginRecord(RecordType.C) : 0;
+
+        payload.writeInt(numRecords);
+        payload.writeInt(len);
+        payload.writeInt((int) crc.getValue());
+
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        try {
+            deflater.setInput(input.array(), 0, len);
+            deflater.finish();
+
+            byte[] chunk = new byte[DEFLATE_CHUNK_SIZE];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                payload.write(chunk, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        if (binary) {
+            out.endRecord(start);
+        } else {
+            String line = Record.generateDBLine(
+                    RecordType.C, Base64.getEncoder().encodeToString(payload.toByteArray()), crc32c);
+            byte[] bytes = line.getBytes(FileBackedMemoryGraphStore.utf8);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Returns the number of records in the given line or binary record, as it
+     * was read from the file. Blocks are not verified, so this is only used to
+     * size the batches of a reader.
+     */
+    public static int peekRecordCount(byte[] raw, boolean binary) {
+        if ((raw.length == 0) || (raw[0] != 'C')) {
+            return 1;
+        }
+
+        try {
+            int count;
+            if (binary) {
+                count = ByteBuffer.wrap(raw).getInt(1);
+            } else {
+                byte[] header = Base64.getDecoder()
+                        .decode(new String(raw, 2, TEXT_HEADER_LENGTH, FileBackedMemoryGraphStore.utf8));
+                count = ByteBuffer.wrap(header).getInt(0);
+            }
+
+            return Math.max(1, count);
+        } catch (RuntimeException e) {
+            // The block will fail its checksum when it is expanded
+            return 1;
+        }
+    }
+
+    /**
+     * Returns the records in the given block, as text lines without the '\n'
+     * or as binary records without the length prefix. These can be parsed like
+     * the lines and records read from the file.
+     */
+    public static List<byte[]> expand(Record block, int recNo, String fileName) {
+        assert block.getType() == RecordType.C;
+
+        byte[] payload;
+        int offset;
+        int length;
+        boolean binary = (block.getBytes() != null);
+        if (binary) {
+            payload = block.getBytes();
+            offset = 1;
+            length = payload.length - 1 - BinaryRecordCodec.CHECKSUM_SIZE;
+        } else {
+            try {
+                payload = Base64.getDecoder().decode(block.getJson());
+            } catch (IllegalArgumentException e) {
+                throw blockError(recNo, fileName, "is not encoded correctly", e);
+            }
+
+            offset = 0;
+            length = payload.length;
+        }
+
+        if (length < HEADER_SIZE) {
+            throw blockError(recNo, fileName, "is truncated", null);
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(payload, offset, HEADER_SIZE);
+        int numRecords = header.getInt();
+        int uncompressedLength = header.getInt();
+        int expChecksum = header.getInt();
+        if ((numRecords < 0) || (uncompressedLength < 0) || (uncompressedLength > BinaryRecordCodec.MAX_RECORD_SIZE)) {
+            throw blockError(recNo, fileName, "has an invalid header", null);
+        }
+
+        // Decompress the records
+        byte[] records = new byte[uncompressedLength];
+        int count = 0;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload, offset + HEADER_SIZE, length - HEADER_SIZE);
+            while (count < uncompressedLength) {
+                int inflated = inflater.inflate(records, count, uncompressedLength - count);
+                if ((inflated == 0) && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                count += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw blockError(recNo, fileName, "can not be decompressed", e);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(records, 0, count);
+        if ((count != uncompressedLength) || ((int) crc.getValue() != expChecksum)) {
+            throw blockError(recNo, fileName, "has the wrong checksum", null);
+        }
+
+        // Split the records
+        List<byte[]> ans = new ArrayList<byte[]>(numRecords);
+        int pos = 0;
+        while (pos < uncompressedLength) {
+            int start;
+            int end;
+            if (binary) {
+                if (uncompressedLength - pos < BinaryRecordCodec.LENGTH_SIZE) {
+                    throw blockError(recNo, fileName, "ends with a truncated record length", null);
+                }
+
+                int len = ByteBuffer.wrap(records, pos, BinaryRecordCodec.LENGTH_SIZE)
+                        .getInt();
+                start = pos + BinaryRecordCodec.LENGTH_SIZE;
+                end = start + len;
+                if ((len <= BinaryRecordCodec.CHECKSUM_SIZE) || (end > uncompressedLength)) {
+                    throw blockError(recNo, fileName, "has a record with an invalid length " + len, null);
+                }
+
+                pos = end;
+            } else {
+                start = pos;
+                end = pos;
+                while ((end < uncompressedLength) && (records[end] != '\n')) {
+                    end++;
+                }
+
+                pos = end + 1;
+            }
+
+            byte[] rec = new byte[end - start];
+            System.arraycopy(records, start, rec, 0, rec.length);
+            ans.add(rec);
+        }
+
+        if (ans.size() != numRecords) {
+            throw blockError(recNo, fileName, "has " + ans.size() + " records. Expected " + numRecords, null);
+        }
+
+        return ans;
+    }
+
+    private static BitsyException blockError(int recNo, String fileName, String problem, Exception cause) {
+        String msg = "Block in record " + recNo + " of file " + fileName + " " + problem;
+
+        return (cause == null)
+                ? new BitsyException(BitsyErrorCodes.CHECKSUM_MISMATCH, msg)
+                : new BitsyException(BitsyErrorCodes.CHECKSUM_MISMATCH, msg, cause);
+    }
+}
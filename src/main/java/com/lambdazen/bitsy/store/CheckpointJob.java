@@ -0,0 +1,27 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyException;
+
+/** This class asks the V/E reorg thread for the positions from which a snapshot image must be replayed */
+public class CheckpointJob extends JobWithCountDownLatch implements IVeReorgJob {
+    private GraphSnapshot snapshot;
+    private BitsyException bex;
+
+    public CheckpointJob() {}
+
+    public GraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(GraphSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public BitsyException getException() {
+        return bex;
+    }
+
+    public void setException(BitsyException bex) {
+        this.bex = bex;
+    }
+}
@@ -3,6 +3,7 @@ package com.lambdazen.bitsy.store;
 import com.lambdazen.bitsy.BitsyErrorCodes;
 import com.lambdazen.bitsy.BitsyException;
 import com.lambdazen.bitsy.IGraphStore;
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
 import com.lambdazen.bitsy.store.Record.RecordType;
 import com.lambdazen.bitsy.util.CommittableFileLog;
 import org.slf4j.Logger;
@@ -25,6 +26,22 @@ public class CompactAndCopyTask implements Runnable {
     IGraphStore store;
     int addedLines;
     long nextTxCounter;
+    IORateLimiter rateLimiter;
+    ReorgStats reorgStats;
+
+    // Bytes read from the inputs, and the bytes reported as progress
+    long readBytes;
+    long reportedBytes;
+
+    // Records that are yet to be written, with their counts and the sizes at the end of the last transaction
+    RecordOutput tempV = new RecordOutput(INIT_STRING_BUFFER_SIZE);
+    RecordOutput tempE = new RecordOutput(INIT_STRING_BUFFER_SIZE);
+    int tempVCount;
+    int tempECount;
+    int txEndV;
+    int txEndE;
+    int txEndVCount;
+    int txEndECount;
 
     public CompactAndCopyTask(
             CommittableFileLog[] inputs,
@@ -32,18 +49,29 @@ public class CompactAndCopyTask implements Runnable {
             CommittableFileLog eos,
             IGraphStore store,
             long nextTxCounter) {
+        this(inputs, vos, eos, store, nextTxCounter, null, null);
+    }
+
+    /** The rate limiter and the statistics are optional, and are used by background copies */
+    public CompactAndCopyTask(
+            CommittableFileLog[] inputs,
+            CommittableFileLog vos,
+            CommittableFileLog eos,
+            IGraphStore store,
+            long nextTxCounter,
+            IORateLimiter rateLimiter,
+            ReorgStats reorgStats) {
         this.inputs = inputs;
         this.vLog = vos;
         this.eLog = eos;
         this.store = store;
         this.addedLines = 0;
         this.nextTxCounter = nextTxCounter;
+        this.rateLimiter = rateLimiter;
+        this.reorgStats = reorgStats;
     }
 
     public void run() {
-        StringBuilder tempV = new StringBuilder(INIT_STRING_BUFFER_SIZE);
-        StringBuilder tempE = new StringBuilder(INIT_STRING_BUFFER_SIZE);
-
         // If the first log is not a tx log, this is a reorg
         // A reorg goes through the entire set of database files, which means
         // that D records can be dropped.
@@ -67,106 +95,34 @@ public class CompactAndCopyTask implements Runnable {
                     boolean isTransactional = inputLog.isTxLog()
                             && (i == inputs.length - 1); // Only the last TX LOG may be incomplete in recovery mode
 
-                    String line;
+                    boolean binaryInput = inputLog.isBinary();
+                    byte[] bytes = null;
                     lineNo = 0;
-                    while ((line = inputLog.readLine()) != null) {
+                    while ((bytes = binaryInput ? inputLog.readRecordBytes() : inputLog.readLineBytes()) != null) {
                         lineNo++;
+                        readBytes += bytes.length;
 
-                        // When parsing a record
-                        Record rec = Record.parseRecord(line, lineNo, fileName);
-
-                        if (rec.checkObsolete(store, isReorg, lineNo, fileName)) {
-                            // log.debug("Ignoring obsolete record {}", line);
-                            continue;
-                        }
+                        // When parsing a record. Text lines are copied as bytes, without re-encoding them
+                        Record rec = Record.parseRecord(bytes, binaryInput, lineNo, fileName);
 
-                        RecordType recType = rec.getType();
-                        if ((recType == RecordType.E) || (recType == RecordType.V)) {
-                            addedLines++;
-                        }
-
-                        if (!isTransactional) {
-                            if (lineNo % 10000 == 0) {
-                                // Write out the temporary data to the files
-                                vLog.append(tempV.toString().getBytes(FileBackedMemoryGraphStore.utf8));
-                                eLog.append(tempE.toString().getBytes(FileBackedMemoryGraphStore.utf8));
-
-                                // Reset the temporary buffers
-                                tempV.setLength(0);
-                                tempE.setLength(0);
-                            }
-
-                            // No special handling is needed
-                            switch (recType) {
-                                case T: // Transaction marker can be ignored
-                                case L: // Old log marker can be ignored -- only happens during rollover
-                                    break;
-
-                                case E:
-                                    // eLog.append(line.getBytes(FileBackedMemoryGraphStore.utf8));
-                                    // eLog.append(newLine);
-                                    tempE.append(line);
-                                    tempE.append('\n');
-                                    break;
-
-                                case V:
-                                    // vLog.append(line.getBytes(FileBackedMemoryGraphStore.utf8));
-                                    // vLog.append(newLine);
-                                    tempV.append(line);
-                                    tempV.append('\n');
-                                    break;
-
-                                default:
-                                    throw new BitsyException(
-                                            BitsyErrorCodes.INTERNAL_ERROR,
-                                            "Unhandled record type " + recType + " in file " + fileName + " at line "
-                                                    + lineNo);
-                            }
+                        if (rec.getType() != RecordType.C) {
+                            copyRecord(rec, bytes, isReorg, isTransactional, lineNo, fileName);
                         } else {
-                            // A transactional file -- this requires each block that ends with a T records to be flushed
-                            switch (recType) {
-                                case L: // Old log marker can be ignored
-                                    break;
-
-                                case T:
-                                    // Write out the temporary data to the files
-                                    vLog.append(tempV.toString().getBytes(FileBackedMemoryGraphStore.utf8));
-                                    eLog.append(tempE.toString().getBytes(FileBackedMemoryGraphStore.utf8));
-
-                                    // Reset the temporary buffers
-                                    tempV.setLength(0);
-                                    tempE.setLength(0);
-
-                                    // All set
-                                    break;
-
-                                case E:
-                                    tempE.append(line);
-                                    tempE.append('\n');
-                                    break;
-
-                                case V:
-                                    tempV.append(line);
-                                    tempV.append('\n');
-                                    break;
-
-                                default:
-                                    throw new BitsyException(
-                                            BitsyErrorCodes.INTERNAL_ERROR,
-                                            "Unhandled record type " + recType + " in file " + fileName + " at line "
-                                                    + lineNo);
+                            // The records in a compressed block are copied like the others, and re-compressed
+                            // only if the output is compressed
+                            for (byte[] blockRecord : BlockCodec.expand(rec, lineNo, fileName)) {
+                                Record blockRec = Record.parseRecord(blockRecord, binaryInput, lineNo, fileName);
+                                copyRecord(blockRec, blockRecord, isReorg, isTransactional, lineNo, fileName);
                             }
                         }
                     }
 
                     if (!isTransactional) {
                         // Write out the temporary data to the files
-                        vLog.append(tempV.toString().getBytes(FileBackedMemoryGraphStore.utf8));
-                        eLog.append(tempE.toString().getBytes(FileBackedMemoryGraphStore.utf8));
-
-                        // Reset the temporary buffers
-                        tempV.setLength(0);
-                        tempE.setLength(0);
+                        flush();
+                    } else {
+                        // Records after the last T record are from an incomplete transaction
+                        discardIncompleteTx();
                     }
                 } finally {
                     // Close is in finally to make sure that the input files are closed before next reorg
@@ -176,9 +132,8 @@ public class CompactAndCopyTask implements Runnable {
 
             // After all inputs log(s) have been processed, an L entry is added to recover the V/E logs in case of crash
             // in the middle of the NEXT copy process
-            String logRec = Record.generateDBLine(RecordType.L, "" + nextTxCounter);
-            vLog.append(logRec.getBytes(FileBackedMemoryGraphStore.utf8));
-            eLog.append(logRec.getBytes(FileBackedMemoryGraphStore.utf8));
+            vLog.append(Record.generateDBRecord(RecordType.L, "" + nextTxCounter, vLog.isBinary(), vLog.isCrc32c()));
+            eLog.append(Record.generateDBRecord(RecordType.L, "" + nextTxCounter, eLog.isBinary(), eLog.isCrc32c()));
         } catch (BitsyException e) {
             // There was an error in the hash-code or elsewhere. This is not a recoverable error -- may be the next load
             // can fix it.
@@ -223,6 +178,155 @@ public class CompactAndCopyTask implements Runnable {
         }
     }
 
+    // Copies a record that was read from an input file, unless it is obsolete
+    private void copyRecord(
+            Record rec, byte[] bytes, boolean isReorg, boolean isTransactional, int lineNo, String fileName) {
+        if (rec.checkObsolete(store, isReorg, lineNo, fileName)) {
+            // log.debug("Ignoring obsolete record {}", line);
+            return;
+        }
+
+        RecordType recType = rec.getType();
+        if ((recType == RecordType.E) || (recType == RecordType.V)) {
+            addedLines++;
+        }
+
+        if (!isTransactional) {
+            if (isCompressed() ? isBlockFull() : (lineNo % 10000 == 0)) {
+                // Write out the temporary data to the files
+                flush();
+            }
+
+            // No special handling is needed
+            switch (recType) {
+                case T: // Transaction marker can be ignored
+                case L: // Old log marker can be ignored -- only happens during rollover
+                    break;
+
+                case E:
+                    copy(rec, bytes, tempE);
+                    tempECount++;
+                    break;
+
+                case V:
+                    copy(rec, bytes, tempV);
+                    tempVCount++;
+                    break;
+
+                default:
+                    throw new BitsyException(
+                            BitsyErrorCodes.INTERNAL_ERROR,
+                            "Unhandled record type " + recType + " in file " + fileName + " at line " + lineNo);
+            }
+        } else {
+            // A transactional file -- this requires each block that ends with a T records to be flushed
+            switch (recType) {
+                case L: // Old log marker can be ignored
+                    break;
+
+                case T:
+                    // The records so far can be written. Compressed files wait till a block is full
+                    txEndV = tempV.size();
+                    txEndE = tempE.size();
+                    txEndVCount = tempVCount;
+                    txEndECount = tempECount;
+
+                    if (!isCompressed() || isBlockFull()) {
+                        // Write out the temporary data to the files
+                        flush();
+                    }
+
+                    // All set
+                    break;
+
+                case E:
+                    copy(rec, bytes, tempE);
+                    tempECount++;
+                    break;
+
+                case V:
+                    copy(rec, bytes, tempV);
+                    tempVCount++;
+                    break;
+
+                default:
+                    throw new BitsyException(
+                            BitsyErrorCodes.INTERNAL_ERROR,
+                            "Unhandled record type " + recType + " in file " + fileName + " at line " + lineNo);
+            }
+        }
+    }
+
+    private boolean isCompressed() {
+        return vLog.isCompressed();
+    }
+
+    private boolean isBlockFull() {
+        return (tempV.size() >= BlockCodec.BLOCK_SIZE) || (tempE.size() >= BlockCodec.BLOCK_SIZE);
+    }
+
+    // Drops the records after the last T record, and writes out the rest
+    private void discardIncompleteTx() {
+        tempV.truncate(txEndV);
+        tempE.truncate(txEndE);
+        tempVCount = txEndVCount;
+        tempECount = txEndECount;
+
+        flush();
+    }
+
+    // Writes out the temporary data to the files within the I/O budget, and resets the temporary buffers
+    private void flush() {
+        long bytesToWrite = write(vLog, tempV, tempVCount) + write(eLog, tempE, tempECount);
+
+        tempV.reset();
+        tempE.reset();
+        tempVCount = 0;
+        tempECount = 0;
+        txEndV = 0;
+        txEndE = 0;
+        txEndVCount = 0;
+        txEndECount = 0;
+
+        // The bytes are charged to the writes that follow
+        if (rateLimiter != null) {
+            rateLimiter.acquire(bytesToWrite);
+        }
+
+        if (reorgStats != null) {
+            reorgStats.recordProgress(readBytes - reportedBytes, bytesToWrite);
+            reportedBytes = readBytes;
+        }
+    }
+
+    // Appends the records to the file, compressing them into a block if needed. Returns the bytes written
+    private long write(CommittableFileLog output, RecordOutput records, int numRecords) {
+        if (numRecords == 0) {
+            return 0;
+        } else if (!output.isCompressed()) {
+            output.append(records.toByteBuffer());
+
+            return records.size();
+        } else {
+            RecordOutput block = new RecordOutput(records.size() / 4 + INIT_STRING_BUFFER_SIZE);
+            BlockCodec.compress(block, records, numRecords, output.isBinary(), output.isCrc32c());
+            output.append(block.toByteBuffer());
+
+            return block.size();
+        }
+    }
+
+    // Copies a text line or a binary record (with its length prefix) to the output buffer
+    private void copy(Record rec, byte[] bytes, RecordOutput out) {
+        if (rec.getBytes() != null) {
+            out.writeInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else {
+            out.write(bytes, 0, bytes.length);
+            out.write('\n');
+        }
+    }
+
     public int getOutputLines() {
         return addedLines;
     }
@@ -0,0 +1,120 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.zip.Checksum;
+
+/**
+ * This class computes the CRC32C (Castagnoli) checksum that ends the text
+ * lines of the CRC32C format revision. The JDK's implementation
+ * (java.util.zip.CRC32C), which uses the CRC32 instructions of the processor,
+ * is used on Java 9 and later. On Java 8, the checksum is computed by this
+ * class with the slicing-by-8 tables.
+ */
+public final class Crc32c implements Checksum {
+    // Reversed Castagnoli polynomial
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = ((crc & 1) != 0) ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+
+        for (int k = 1; k < 8; k++) {
+            for (int i = 0; i < 256; i++) {
+                int prev = TABLES[k - 1][i];
+                TABLES[k][i] = (prev >>> 8) ^ TABLES[0][prev & 0xFF];
+            }
+        }
+    }
+
+    // Constructor of java.util.zip.CRC32C, or null on Java 8
+    private static final MethodHandle jdkConstructor = findJdkConstructor();
+
+    private int crc = 0xFFFFFFFF;
+
+    private static MethodHandle findJdkConstructor() {
+        try {
+            Class<?> cls = Class.forName("java.util.zip.CRC32C");
+
+            return MethodHandles.publicLookup()
+                    .findConstructor(cls, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** Returns a new CRC32C checksum, which is the JDK's implementation when one is available */
+    public static Checksum create() {
+        if (jdkConstructor == null) {
+            return new Crc32c();
+        }
+
+        try {
+            return (Checksum) jdkConstructor.invokeExact();
+        } catch (Throwable e) {
+            throw new BitsyException(BitsyErrorCodes.INTERNAL_ERROR, "Unable to create a CRC32C checksum", e);
+        }
+    }
+
+    /** Returns the CRC32C of the given bytes */
+    public static int checksum(byte[] bytes, int offset, int len) {
+        Checksum ans = create();
+        ans.update(bytes, offset, len);
+
+        return (int) ans.getValue();
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        while (len >= 8) {
+            int lo = c
+                    ^ ((b[off] & 0xFF)
+                            | ((b[off + 1] & 0xFF) << 8)
+                            | ((b[off + 2] & 0xFF) << 16)
+                            | ((b[off + 3] & 0xFF) << 24));
+            c = TABLES[7][lo & 0xFF]
+                    ^ TABLES[6][(lo >>> 8) & 0xFF]
+                    ^ TABLES[5][(lo >>> 16) & 0xFF]
+                    ^ TABLES[4][lo >>> 24]
+                    ^ TABLES[3][b[off + 4] & 0xFF]
+                    ^ TABLES[2][b[off + 5] & 0xFF]
+                    ^ TABLES[1][b[off + 6] & 0xFF]
+                    ^ TABLES[0][b[off + 7] & 0xFF];
+            off += 8;
+            len -= 8;
+        }
+
+        while (len-- > 0) {
+            c = (c >>> 8) ^ TABLES[0][(c ^ b[off++]) & 0xFF];
+        }
+
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,110 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.UUID;
+import java.util.Collection;
+import java.util.List;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+
+/**
+ * This class is a consistent view of the vertices and edges of a memory store
+ * as of the commit of an epoch. It doesn't block the commits that happen while
+ * it is open, which keep the old versions of the elements that they change.
+ * So the snapshot must be closed once it is no longer needed.
+ *
+ * The vertex beans returned by a snapshot are copies, because the store updates
+ * them in place. The adjacency lists and key indexes are not versioned. The
+ * snapshot reads them from the store, and adds the edges and old versions
+ * changed after its epoch.
+ */
+public class EpochSnapshot implements AutoCloseable {
+    private final MemoryGraphStore store;
+
+    // -1 until the snapshot is registered with the store and has read the epoch
+    private volatile long epoch;
+    private volatile boolean closed;
+
+    EpochSnapshot(MemoryGraphStore store) {
+        this.store = store;
+        this.epoch = -1;
+        this.closed = false;
+    }
+
+    void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    /** Returns the epoch of the last commit seen by this snapshot */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /** Returns the vertex as of this snapshot, or null if it didn't exist */
+    public VertexBean getVertex(UUID id) {
+        checkOpen();
+
+        return store.getVertexAt(id, epoch);
+    }
+
+    /** Returns the edge as of this snapshot, or null if it didn't exist */
+    public EdgeBean getEdge(UUID id) {
+        checkOpen();
+
+        return store.getEdgeAt(id, epoch);
+    }
+
+    /** Returns the edges of the vertex in the given direction (IN or OUT) as of this snapshot */
+    public List<EdgeBean> getEdges(UUID vertexId, Direction dir, String[] edgeLabels) {
+        checkOpen();
+
+        return store.getEdgesAt(vertexId, dir, edgeLabels, epoch);
+    }
+
+    /** Returns the vertices with the given key and value as of this snapshot. Throws MISSING_INDEX like the store */
+    public Collection<VertexBean> lookupVertices(String key, Object value) {
+        checkOpen();
+
+        return store.lookupVerticesAt(key, value, epoch);
+    }
+
+    /** Returns the edges with the given key and value as of this snapshot. Throws MISSING_INDEX like the store */
+    public Collection<EdgeBean> lookupEdges(String key, Object value) {
+        checkOpen();
+
+        return store.lookupEdgesAt(key, value, epoch);
+    }
+
+    /** Returns the vertices as of this snapshot. The size is computed by a scan */
+    public Collection<VertexBean> getAllVertices() {
+        checkOpen();
+
+        return store.getAllVerticesAt(epoch);
+    }
+
+    /** Returns the edges as of this snapshot. The size is computed by a scan */
+    public Collection<EdgeBean> getAllEdges() {
+        checkOpen();
+
+        return store.getAllEdgesAt(epoch);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** Releases the old versions kept for this snapshot. Can be called more than once */
+    @Override
+    public void close() {
+        if (!closed) {
+            this.closed = true;
+            store.closeSnapshot(this);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new BitsyException(BitsyErrorCodes.EPOCH_SNAPSHOT_CLOSED, "Epoch " + epoch);
+        }
+    }
+}
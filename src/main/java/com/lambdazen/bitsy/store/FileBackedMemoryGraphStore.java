@@ -3,45 +3,68 @@ package com.lambdazen.bitsy.store;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.lambdazen.bitsy.BitsyDurabilityMode;
 import com.lambdazen.bitsy.BitsyEdge;
 import com.lambdazen.bitsy.BitsyErrorCodes;
 import com.lambdazen.bitsy.BitsyException;
 import com.lambdazen.bitsy.BitsyVertex;
+import com.lambdazen.bitsy.BitsyWaitStrategy;
 import com.lambdazen.bitsy.ICommitChanges;
 import com.lambdazen.bitsy.IGraphStore;
 import com.lambdazen.bitsy.UUID;
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
 import com.lambdazen.bitsy.store.Record.RecordType;
 import com.lambdazen.bitsy.tx.BitsyTransaction;
+import com.lambdazen.bitsy.util.BatchFlusher;
 import com.lambdazen.bitsy.util.BufferFlusher;
-import com.lambdazen.bitsy.util.BufferPotential;
 import com.lambdazen.bitsy.util.BufferQueuer;
 import com.lambdazen.bitsy.util.CommittableFileLog;
-import com.lambdazen.bitsy.util.DoubleBuffer;
+import com.lambdazen.bitsy.util.DefaultCommitChanges;
 import com.lambdazen.bitsy.util.DoubleBuffer.BufferName;
 import com.lambdazen.bitsy.util.DoubleBufferWithExecWork;
+import com.lambdazen.bitsy.util.MpscRingBuffer;
+import com.lambdazen.bitsy.util.SegmentFlusher;
+import com.lambdazen.bitsy.util.SegmentQueuer;
+import com.lambdazen.bitsy.util.SegmentedBuffer;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Element;
@@ -60,13 +83,36 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
     private static final String E_A_TXT = "eA.txt";
     private static final String V_B_TXT = "vB.txt";
     private static final String V_A_TXT = "vA.txt";
-    private static final String TX_B_TXT = "txB.txt";
-    private static final String TX_A_TXT = "txA.txt";
+    private static final String TX_PREFIX = "tx";
+    private static final String TX_SUFFIX = ".txt";
+    private static final String SNAPSHOT_A_BIN = "snapshotA.bin";
+    private static final String SNAPSHOT_B_BIN = "snapshotB.bin";
 
     // Commit 10K ops per load in the V/E files
     public static final int DEFAULT_LOAD_OPS_PER_COMMIT = 10000;
     public static final int DEFAULT_MIN_LINES_BEFORE_REORG = 1000;
 
+    // Write a snapshot image once 16MB of the V/E files would have to be replayed after the last image
+    public static final long DEFAULT_CHECKPOINT_THRESHOLD = 16 * 1024 * 1024;
+
+    // Group commits are synced every 10ms or 1MB, whichever comes first
+    public static final long DEFAULT_GROUP_COMMIT_INTERVAL = 10;
+    public static final long DEFAULT_GROUP_COMMIT_BYTES = 1024 * 1024;
+
+    // Background copies to the V/E files are not limited, and are slowed down when a sync takes more than 10ms
+    public static final long DEFAULT_BACKGROUND_IO_BYTES_PER_SEC = 0;
+    public static final long DEFAULT_TARGET_COMMIT_LATENCY_MICROS = 10000;
+
+    // Transaction logs are written to txA.txt and txB.txt by default. Up to 26 segments, till txZ.txt, are supported
+    public static final int DEFAULT_TX_LOG_SEGMENTS = 2;
+    public static final int MIN_TX_LOG_SEGMENTS = 2;
+    public static final int MAX_TX_LOG_SEGMENTS = 26;
+
+    // Committed transactions wait for the transaction log writer in a ring buffer of 16K slots. The writer blocks
+    // on a condition when it is idle, by default
+    public static final int TX_LOG_RING_SIZE = 16 * 1024;
+    public static final BitsyWaitStrategy DEFAULT_TX_LOG_WAIT_STRATEGY = BitsyWaitStrategy.BLOCKING;
+
     public static final Random rand = new Random();
 
     public static final Charset utf8 = StandardCharsets.UTF_8;
@@ -80,8 +126,7 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
     private MemoryGraphStore memStore;
     private Path dbPath;
 
-    private CommittableFileLog txA;
-    private CommittableFileLog txB;
+    private CommittableFileLog[] txLogs; // Indexed by segment number, null if the segment is not in use
     private CommittableFileLog vA;
     private CommittableFileLog vB;
     private CommittableFileLog eA;
@@ -89,8 +134,9 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
     private CommittableFileLog mA;
     private CommittableFileLog mB;
 
-    private DoubleBuffer<TxUnit> txToTxLogBuf;
-    private DoubleBufferWithExecWork<ITxBatchJob> txLogToVEBuf;
+    private MpscRingBuffer<TxUnit> txToTxLogBuf;
+    private Consumer<List<TxUnit>> txLogQueuer; // Queues the transactions of a batch of commits as one unit
+    private SegmentedBuffer<ITxBatchJob> txLogToVEBuf;
     private DoubleBufferWithExecWork<IVeReorgJob> veReorgBuf;
 
     private TxLogFlushPotential txLogFlushPotential;
@@ -98,12 +144,79 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
 
     private long logCounter;
 
-    private BufferName lastFlushedBuffer = null;
-    private Object flushCompleteSignal = new Object();
+    // Number of transaction log segments requested by the application. Guarded by the lock on the V/E reorg buffer
+    private int txLogSegmentTarget = DEFAULT_TX_LOG_SEGMENTS;
+
+    private ExecutorService checkpointService;
+    private AtomicBoolean checkpointInProgress = new AtomicBoolean(false);
+    private AtomicBoolean checkpointScheduled = new AtomicBoolean(false);
+    private volatile long checkpointThreshold = DEFAULT_CHECKPOINT_THRESHOLD;
+    private volatile GraphSnapshot lastSnapshot; // The last image that was loaded or written
+    private Path nextSnapshotPath; // The image that will be overwritten by the next checkpoint
+
+    private volatile BitsyDurabilityMode durabilityMode = BitsyDurabilityMode.FSYNC;
+    private volatile long groupCommitInterval = DEFAULT_GROUP_COMMIT_INTERVAL;
+    private volatile long groupCommitBytes = DEFAULT_GROUP_COMMIT_BYTES;
+    private TxLogStats txLogStats = new TxLogStats();
+    private ScheduledExecutorService txLogSyncService;
+    private ScheduledFuture<?> idleSyncFuture; // Only scheduled in the GROUP_COMMIT mode
+
+    private IORateLimiter ioRateLimiter =
+            new IORateLimiter(DEFAULT_BACKGROUND_IO_BYTES_PER_SEC, DEFAULT_TARGET_COMMIT_LATENCY_MICROS);
+    private ReorgStats reorgStats = new ReorgStats();
+
+    // Transactions are serialized into a buffer reused by each committing thread, and handed to the tx log writer
+    // in pooled buffers
+    private final TxBufferPool txBufferPool = new TxBufferPool();
+    private final ThreadLocal<RecordOutput> serializerOutput = new ThreadLocal<RecordOutput>() {
+        @Override
+        protected RecordOutput initialValue() {
+            return new RecordOutput(4096);
+        }
+    };
+
+    // Reorgs write the memory store instead of copying the old V/E files
+    private volatile boolean reorgFromMemory = true;
+
+    // V/E files and large transactions are written in compressed blocks
+    private volatile boolean blockCompression = false;
+
+    // Bytes written to the transaction log since the last sync. Only accessed by the TxBatchQueuer
+    private int unsyncedSegment = -1;
+    private long unsyncedBytes = 0;
+    private long lastSyncTime = System.nanoTime();
+
+    // Major version numbers of the text and binary file formats
+    public static final String TEXT_MAJOR_VERSION_NUMBER = "1.5";
+    public static final String BINARY_MAJOR_VERSION_NUMBER = "2.0";
+
+    // Major version numbers of the formats after block compression is enabled. Older versions can't read the blocks
+    public static final String TEXT_COMPRESSED_MAJOR_VERSION_NUMBER = "1.6";
+    public static final String BINARY_COMPRESSED_MAJOR_VERSION_NUMBER = "2.1";
+
+    // Major version number of the text format with lines that end with a CRC32C. It can have compressed blocks
+    public static final String TEXT_CRC32C_MAJOR_VERSION_NUMBER = "1.7";
+
+    // Length of the buffer used to read the header line of a file, which is much shorter
+    private static final int MAX_HEADER_LENGTH = 64;
+
+    /**
+     * Major version used to create new databases. Set this to BINARY_MAJOR_VERSION_NUMBER to create databases with
+     * length-prefixed binary records, or to TEXT_MAJOR_VERSION_NUMBER to create text databases that can be read by
+     * older versions of Bitsy. Existing databases keep the format they were created with.
+     */
+    public static String CURRENT_MAJOR_VERSION_NUMBER = TEXT_CRC32C_MAJOR_VERSION_NUMBER;
 
-    // Major version number
-    public static String CURRENT_MAJOR_VERSION_NUMBER = "1.5";
     private String majorVersionNumber = "1.0";
+    private boolean binaryFormat;
+    private boolean crc32cFormat;
+    private volatile boolean compressedFormat = false;
+
+    // Directory to which the transaction logs are archived after they are flushed, or null
+    private volatile Path txLogArchivePath;
+
+    // Counter from which the archive has every transaction log. Guarded by the lock on the V/E reorg buffer
+    private long txLogArchiveFromCounter;
 
     public FileBackedMemoryGraphStore(MemoryGraphStore memStore, Path dbPath, long txLogThreshold, double reorgFactor) {
         this(memStore, dbPath, txLogThreshold, reorgFactor, false);
@@ -115,20 +228,26 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
             long txLogThreshold,
             double reorgFactor,
             boolean createDirIfMissing) {
+        this(memStore, dbPath, txLogThreshold, reorgFactor, createDirIfMissing, isBinaryFormatForNewDatabases());
+    }
+
+    /**
+     * The binaryFormat flag selects the record format of a new database. Existing databases keep the format they were
+     * created with
+     */
+    public FileBackedMemoryGraphStore(
+            MemoryGraphStore memStore,
+            Path dbPath,
+            long txLogThreshold,
+            double reorgFactor,
+            boolean createDirIfMissing,
+            boolean binaryFormat) {
         this.id = idCounter.getAndIncrement();
         this.memStore = memStore;
         this.dbPath = dbPath;
         log.info("Starting graph " + toString());
 
-        JsonMapper.Builder builder = JsonMapper.builder();
-        // Indentation must be turned off
-        builder.configure(SerializationFeature.INDENT_OUTPUT, false);
-        builder.configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true);
-        builder.defaultPropertyInclusion(JsonInclude.Value.construct(Include.NON_NULL, Include.NON_NULL));
-        mapper = builder.build();
-        mapper.configOverride(Map.class)
-                .setInclude(JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_NULL));
-        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator());
+        this.mapper = createObjectMapper();
 
         if (!dbPath.toFile().isDirectory()) {
             if (!createDirIfMissing) {
@@ -147,11 +266,32 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
             }
         }
 
+        // The segments flushed on startup are archived too
+        this.txLogArchivePath = TxLogArchive.readArchivePath(dbPath);
+        this.txLogArchiveFromCounter = TxLogArchive.readArchiveFromCounter(dbPath);
+
         // Start off the Log Counter as 1. openForRead() will update this to the maximum so far.
         this.logCounter = 1;
 
-        this.txA = openFileLog(TX_A_TXT, true);
-        this.txB = openFileLog(TX_B_TXT, true);
+        detectFormat(binaryFormat);
+        String expectedVersionNumber = getFormatVersionNumber();
+
+        this.txLogs = new CommittableFileLog[MAX_TX_LOG_SEGMENTS];
+        TxLogManifest manifest = TxLogManifest.read(dbPath);
+        List<String> txLogNames = (manifest == null) ? TxLogManifest.DEFAULT_SEGMENT_NAMES : manifest.getSegmentNames();
+
+        for (String txLogName : txLogNames) {
+            int segment = getTxLogSegment(txLogName);
+            if ((segment < 0) || (txLogs[segment] != null)) {
+                throw new BitsyException(
+                        BitsyErrorCodes.DATABASE_IS_CORRUPT,
+                        "Invalid transaction log " + txLogName + " in " + dbPath.resolve(TxLogManifest.FILE_NAME));
+            }
+
+            txLogs[segment] = openFileLog(txLogName, true);
+        }
+        this.txLogSegmentTarget = txLogNames.size();
+
         this.vA = openFileLog(V_A_TXT, false);
         this.vB = openFileLog(V_B_TXT, false);
         this.eA = openFileLog(E_A_TXT, false);
@@ -161,16 +301,27 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
 
         log.debug("Initial log counter is {}", logCounter);
 
+        // The counters of the tx logs are checked after every file is opened, so that a cleared log gets a new counter
+        checkTxLogCounters(manifest);
+
         // Find the earlier of the two
         CommittableFileLog vToLoad = getEarlierBuffer(vA, vB);
         CommittableFileLog eToLoad = getEarlierBuffer(eA, eB);
-        CommittableFileLog[] txToLoad = getOrderedTxLogs(txA, txB);
+        List<CommittableFileLog> txToLoad = getOrderedTxLogs();
 
         List<CommittableFileLog> logsToLoad = new ArrayList<CommittableFileLog>();
 
         logsToLoad.add(vToLoad);
         logsToLoad.add(eToLoad);
-        logsToLoad.addAll(Arrays.asList(txToLoad));
+        logsToLoad.addAll(txToLoad);
+
+        // Load the latest snapshot image, if any. The V/E files only need to be replayed from the image's positions
+        long snapshotVE = loadSnapshot(vToLoad, eToLoad);
+        long[] startPositions = new long[logsToLoad.size()];
+        if (lastSnapshot != null) {
+            startPositions[0] = lastSnapshot.getVPosition();
+            startPositions[1] = lastSnapshot.getEPosition();
+        }
 
         // Load the records from files to the memory graphs store
         log.debug("Loading logs in this order: {}", logsToLoad);
@@ -183,11 +334,14 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                     DEFAULT_LOAD_OPS_PER_COMMIT,
                     mapper,
                     false);
+            loadTask.setStartPositions(startPositions);
             loadTask.run();
         } catch (BitsyException e) {
-            // Failed -- not try in repair mode
+            // Failed -- not try in repair mode, without the snapshot image
             log.info("Loading the database failed -- Trying again in repair mode");
             memStore.reset();
+            snapshotVE = 0;
+            lastSnapshot = null;
             loadTask = new LoadTask(
                     logsToLoad.toArray(new CommittableFileLog[0]),
                     (MemoryGraphStore) memStore,
@@ -197,43 +351,55 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
             loadTask.run();
         }
 
-        long initialVE = loadTask.getTotalVE();
+        long initialVE = snapshotVE + loadTask.getTotalVE();
 
         loadVersionAndIndexes();
-        if (!majorVersionNumber.equals(CURRENT_MAJOR_VERSION_NUMBER)) {
+        if (majorVersionNumber.equals(getFormatVersionNumber(binaryFormat, true, crc32cFormat))) {
+            this.compressedFormat = true;
+        } else if (!majorVersionNumber.equals(expectedVersionNumber)) {
             log.error(
                     "Can not load database with major version number {}. Expecting major version number {}",
                     majorVersionNumber,
-                    CURRENT_MAJOR_VERSION_NUMBER);
+                    expectedVersionNumber);
 
             throw new BitsyException(
                     BitsyErrorCodes.MAJOR_VERSION_MISMATCH,
                     "Database has major version number " + majorVersionNumber + ". Expecting major version "
-                            + CURRENT_MAJOR_VERSION_NUMBER);
+                            + expectedVersionNumber);
         }
 
-        // Find out the transaction log that must be queued into first
-        BufferName txBufName = (txToLoad[1] == txA) ? BufferName.A : BufferName.B;
-        Long nextTxCounter = txToLoad[1].getCounter();
-        assert nextTxCounter != null;
-
-        // Find Tx file to flush
-        CommittableFileLog txToFlush = txToLoad[0];
+        // The latest transaction log must be queued into first
+        CommittableFileLog txToQueue = txToLoad.get(txToLoad.size() - 1);
+        Long nextTxCounter = null;
 
         // Set up the file channels / buffered streams
-        txToFlush.openForRead();
         prepareForAppend(vToLoad);
         prepareForAppend(eToLoad);
 
-        CompactAndCopyTask txFlushTask =
-                new CompactAndCopyTask(new CommittableFileLog[] {txToFlush}, vToLoad, eToLoad, memStore, nextTxCounter);
-        txFlushTask.run();
-        if (txFlushTask.getOutputLines() > 0) {
-            log.debug("Flushed partially flushed Tx Log {} to {} and {}", txToFlush, vToLoad, eToLoad);
+        // Flush the other transaction logs in order, and clear them. They become free in the same order
+        List<Integer> freeSegments = new ArrayList<Integer>();
+        for (int i = 0; i < txToLoad.size() - 1; i++) {
+            CommittableFileLog txToFlush = txToLoad.get(i);
+            nextTxCounter = txToLoad.get(i + 1).getCounter();
+            assert nextTxCounter != null;
+
+            txToFlush.openForRead();
+
+            CompactAndCopyTask txFlushTask = new CompactAndCopyTask(
+                    new CommittableFileLog[] {txToFlush}, vToLoad, eToLoad, memStore, nextTxCounter);
+            txFlushTask.run();
+            if (txFlushTask.getOutputLines() > 0) {
+                log.debug("Flushed partially flushed Tx Log {} to {} and {}", txToFlush, vToLoad, eToLoad);
+            }
+
+            // Clear the TX file
+            archiveTxLog(txToFlush, nextTxCounter);
+            txToFlush.openForOverwrite(logCounter++);
+            freeSegments.add(getTxLogSegment(txToFlush));
         }
 
-        // Clear the TX file
-        txToFlush.openForOverwrite(logCounter++);
+        nextTxCounter = txToQueue.getCounter();
+        writeTxLogManifest();
 
         // Clear the unused V and E buffers
         CommittableFileLog vToClear = (vToLoad == vA) ? vB : vA;
@@ -262,31 +428,25 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
             eToLoad.close();
         }
 
-        this.txToTxLogBuf = new DoubleBuffer<TxUnit>(
-                new BufferPotential<TxUnit>() {
-                    @Override
-                    public boolean addWork(TxUnit newWork) {
-                        return true;
-                    }
+        this.txToTxLogBuf = new MpscRingBuffer<TxUnit>(
+                TX_LOG_RING_SIZE, new TxUnitFlusher(), "MemToTxLogWriter-" + id, DEFAULT_TX_LOG_WAIT_STRATEGY);
 
-                    @Override
-                    public void reset() {
-                        // Nothing to do
-                    }
-                },
-                new TxUnitFlusher(),
-                "MemToTxLogWriter-" + id);
+        this.txLogQueuer = new Consumer<List<TxUnit>>() {
+            @Override
+            public void accept(List<TxUnit> txUnits) {
+                txToTxLogBuf.addWork(txUnits);
+            }
+        };
 
         this.txLogFlushPotential = new TxLogFlushPotential(txLogThreshold);
 
-        this.txLogToVEBuf = new DoubleBufferWithExecWork<ITxBatchJob>(
+        this.txLogToVEBuf = new SegmentedBuffer<ITxBatchJob>(
                 txLogFlushPotential,
                 new TxBatchQueuer(),
                 new TxBatchFlusher(),
                 "TxFlusher-" + id,
-                false, // Don't keep track of the list of all Txs written to log
-                false, // It is OK for the flusher and queuer to run at the same time
-                txBufName); // Start enqueuing into the Tx from the last start/stop
+                getTxLogSegment(txToQueue), // Start enqueuing into the Tx from the last start/stop
+                freeSegments);
 
         this.veReorgPotential = new VEObsolescencePotential(DEFAULT_MIN_LINES_BEFORE_REORG, reorgFactor, initialVE);
         this.veReorgBuf = new DoubleBufferWithExecWork<IVeReorgJob>(
@@ -297,6 +457,175 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                 false, // Don't keep track of the entire list of TxLogs -- too much memory
                 true, // Ensure that the flusher and queuer don't run at the same time
                 vBufName); // Start enqueuing into the V/E file from the last start/stop
+
+        this.checkpointService = Executors.newSingleThreadExecutor(daemonThreadFactory("Checkpointer-" + id));
+
+        this.txLogSyncService = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("TxLogSyncer-" + id));
+        updateIdleSync();
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread ans = new Thread(r, name);
+                ans.setDaemon(true);
+
+                return ans;
+            }
+        };
+    }
+
+    /**
+     * This method loads the newest snapshot image that can be replayed with
+     * the given V/E files, and returns the number of vertices and edges in it.
+     * Images that are stale or corrupt are skipped.
+     */
+    private long loadSnapshot(CommittableFileLog vLog, CommittableFileLog eLog) {
+        GraphSnapshot snapshotA = GraphSnapshot.readHeader(dbPath.resolve(SNAPSHOT_A_BIN));
+        GraphSnapshot snapshotB = GraphSnapshot.readHeader(dbPath.resolve(SNAPSHOT_B_BIN));
+
+        List<GraphSnapshot> candidates = new ArrayList<GraphSnapshot>();
+        for (GraphSnapshot snapshot : new GraphSnapshot[] {snapshotA, snapshotB}) {
+            if (snapshot == null) {
+                continue;
+            }
+
+            // Snapshot images share the log counter with the other files
+            if (snapshot.getCounter() >= logCounter) {
+                this.logCounter = snapshot.getCounter() + 1;
+            }
+
+            if (candidates.isEmpty() || (candidates.get(0).getCounter() < snapshot.getCounter())) {
+                candidates.add(0, snapshot);
+            } else {
+                candidates.add(snapshot);
+            }
+        }
+
+        // The next checkpoint overwrites the older (or missing) image
+        GraphSnapshot older = (candidates.size() < 2) ? null : candidates.get(1);
+        if (older != null) {
+            this.nextSnapshotPath = older.getPath();
+        } else {
+            this.nextSnapshotPath = dbPath.resolve((snapshotA == null) ? SNAPSHOT_A_BIN : SNAPSHOT_B_BIN);
+        }
+
+        for (GraphSnapshot snapshot : candidates) {
+            if (!snapshot.isUsableWith(vLog, eLog)) {
+                log.info("Skipping snapshot image {} that doesn't match {} and {}", snapshot, vLog, eLog);
+                continue;
+            }
+
+            try {
+                long ans = snapshot.load(memStore);
+                this.lastSnapshot = snapshot;
+
+                return ans;
+            } catch (Exception e) {
+                log.warn("Could not load snapshot image " + snapshot + " -- Falling back to the V/E files", e);
+                memStore.reset();
+            }
+        }
+
+        return 0;
+    }
+
+    /** This method creates the Jackson mapper used to (de)serialize records in the database files */
+    public static ObjectMapper createObjectMapper() {
+        JsonMapper.Builder builder = JsonMapper.builder();
+        // Indentation must be turned off
+        builder.configure(SerializationFeature.INDENT_OUTPUT, false);
+        builder.configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true);
+        builder.defaultPropertyInclusion(JsonInclude.Value.construct(Include.NON_NULL, Include.NON_NULL));
+        // Lines written as UTF-8 bytes must be the same as the ones written through Strings
+        builder.enable(JsonWriteFeature.COMBINE_UNICODE_SURROGATES_IN_UTF8);
+        ObjectMapper ans = builder.build();
+        ans.configOverride(Map.class)
+                .setInclude(JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_NULL));
+        ans.activateDefaultTyping(ans.getPolymorphicTypeValidator());
+
+        return ans;
+    }
+
+    /**
+     * This method detects whether the database has length-prefixed binary records, and whether its text lines end
+     * with a CRC32C. The format of an existing database is identified by the header line of any non-empty file,
+     * which always starts with 'H' in the text format. New databases use the given format, and the CRC32C revision
+     * of the text format unless CURRENT_MAJOR_VERSION_NUMBER is set to an older text format.
+     */
+    private void detectFormat(boolean binaryFormatIfNew) {
+        List<String> fileNames = new ArrayList<String>(TxLogManifest.getSegmentNames(dbPath));
+        fileNames.addAll(Arrays.asList(V_A_TXT, V_B_TXT, E_A_TXT, E_B_TXT, META_A_TXT, META_B_TXT));
+        for (String fileName : fileNames) {
+            Path path = dbPath.resolve(fileName);
+            if (!Files.exists(path)) {
+                continue;
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer first = ByteBuffer.allocate(MAX_HEADER_LENGTH);
+                if (channel.read(first) > 0) {
+                    this.binaryFormat = (first.get(0) != 'H');
+
+                    if (!binaryFormat) {
+                        int len = 0;
+                        while ((len < first.position()) && (first.get(len) != '\n')) {
+                            len++;
+                        }
+
+                        String header = new String(first.array(), 0, len, utf8);
+                        this.crc32cFormat = Record.isCrc32cLine(header);
+                    }
+
+                    // The CRC32C revision includes the compressed blocks
+                    this.compressedFormat = crc32cFormat;
+                    return;
+                }
+            } catch (IOException e) {
+                throw new BitsyException(BitsyErrorCodes.ERROR_INITIALIZING_DB_FILES, "File: " + path, e);
+            }
+        }
+
+        // A new database
+        this.binaryFormat = binaryFormatIfNew;
+        this.crc32cFormat = !binaryFormatIfNew && isCrc32cFormatForNewDatabases();
+        this.compressedFormat = crc32cFormat;
+    }
+
+    /** Returns true if new databases are created in the binary format by default */
+    public static boolean isBinaryFormatForNewDatabases() {
+        return BINARY_MAJOR_VERSION_NUMBER.equals(CURRENT_MAJOR_VERSION_NUMBER);
+    }
+
+    /** Returns true if the lines of new text databases end with a CRC32C by default */
+    public static boolean isCrc32cFormatForNewDatabases() {
+        return !TEXT_MAJOR_VERSION_NUMBER.equals(CURRENT_MAJOR_VERSION_NUMBER)
+                && !TEXT_COMPRESSED_MAJOR_VERSION_NUMBER.equals(CURRENT_MAJOR_VERSION_NUMBER);
+    }
+
+    /** Returns the major version number of the file format used by this database */
+    private String getFormatVersionNumber() {
+        return getFormatVersionNumber(binaryFormat, compressedFormat, crc32cFormat);
+    }
+
+    private static String getFormatVersionNumber(boolean binary, boolean compressed, boolean crc32c) {
+        if (binary) {
+            return compressed ? BINARY_COMPRESSED_MAJOR_VERSION_NUMBER : BINARY_MAJOR_VERSION_NUMBER;
+        } else if (crc32c) {
+            return TEXT_CRC32C_MAJOR_VERSION_NUMBER;
+        } else {
+            return compressed ? TEXT_COMPRESSED_MAJOR_VERSION_NUMBER : TEXT_MAJOR_VERSION_NUMBER;
+        }
+    }
+
+    public boolean isBinaryFormat() {
+        return binaryFormat;
+    }
+
+    /** Returns true if the text lines of this database end with a CRC32C, i.e., it has major version 1.7 */
+    public boolean isCrc32cFormat() {
+        return crc32cFormat;
     }
 
     public TxLogFlushPotential getTxLogFlushPotential() {
@@ -307,6 +636,118 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
         return veReorgPotential;
     }
 
+    public BitsyDurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    public void setDurabilityMode(BitsyDurabilityMode durabilityMode) {
+        if (durabilityMode == null) {
+            throw new IllegalArgumentException("Durability mode can not be null");
+        }
+
+        this.durabilityMode = durabilityMode;
+        updateIdleSync();
+    }
+
+    public BitsyWaitStrategy getTxLogWaitStrategy() {
+        return txToTxLogBuf.getWaitStrategy();
+    }
+
+    /** Sets the way the transaction log writer waits for the commits when it is idle */
+    public void setTxLogWaitStrategy(BitsyWaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("Wait strategy can not be null");
+        }
+
+        txToTxLogBuf.setWaitStrategy(waitStrategy);
+    }
+
+    public long getGroupCommitInterval() {
+        return groupCommitInterval;
+    }
+
+    /** Sets the maximum time in milliseconds between syncs of the transaction log in the GROUP_COMMIT mode */
+    public void setGroupCommitInterval(long groupCommitInterval) {
+        this.groupCommitInterval = groupCommitInterval;
+        updateIdleSync();
+    }
+
+    public long getGroupCommitBytes() {
+        return groupCommitBytes;
+    }
+
+    /** Sets the maximum number of bytes written to the transaction log between syncs in the GROUP_COMMIT mode */
+    public void setGroupCommitBytes(long groupCommitBytes) {
+        this.groupCommitBytes = groupCommitBytes;
+    }
+
+    public boolean isReorgFromMemory() {
+        return reorgFromMemory;
+    }
+
+    public void setReorgFromMemory(boolean reorgFromMemory) {
+        this.reorgFromMemory = reorgFromMemory;
+    }
+
+    public boolean isBlockCompression() {
+        return blockCompression;
+    }
+
+    /**
+     * Returns true if the database is marked with a major version that can have compressed blocks. This is always the
+     * case for the CRC32C revision of the text format
+     */
+    public boolean isCompressedFormat() {
+        return compressedFormat;
+    }
+
+    /**
+     * Sets whether the V/E files and large transactions are written in compressed blocks. Before the first block is
+     * written, the metadata file is rewritten with the major version of the compressed format, so that older versions
+     * of Bitsy fail cleanly with a version mismatch. This is one-way: the blocks stay readable after compression is
+     * turned off, and the database keeps the compressed major version
+     */
+    public void setBlockCompression(boolean blockCompression) {
+        if (blockCompression && !compressedFormat) {
+            // Rewrite the metadata file -- all metadata file ops are synchronized on the mA object
+            synchronized (mA) {
+                this.compressedFormat = true;
+                saveVersionAndIndexes();
+            }
+        }
+
+        this.blockCompression = blockCompression;
+
+        for (CommittableFileLog cfl : new CommittableFileLog[] {vA, vB, eA, eB}) {
+            cfl.setCompressed(blockCompression);
+        }
+    }
+
+    public TxLogStats getTxLogStats() {
+        return txLogStats;
+    }
+
+    public IORateLimiter getIORateLimiter() {
+        return ioRateLimiter;
+    }
+
+    public ReorgStats getReorgStats() {
+        return reorgStats;
+    }
+
+    TxBufferPool getTxBufferPool() {
+        return txBufferPool;
+    }
+
+    public long getCheckpointThreshold() {
+        return checkpointThreshold;
+    }
+
+    /** Sets the size of the V/E records after the last snapshot image that triggers a checkpoint. 0 disables it */
+    public void setCheckpointThreshold(long checkpointThreshold) {
+        this.checkpointThreshold = checkpointThreshold;
+    }
+
     private void loadVersionAndIndexes() {
         CommittableFileLog inputLog = getEarlierBuffer(mA, mB);
 
@@ -315,9 +756,10 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
             String fileName = inputLog.getPath().toString();
 
             int lineNo = 1;
-            String line;
-            while ((line = inputLog.readLine()) != null) {
-                Record rec = Record.parseRecord(line, lineNo++, fileName);
+            RecordReader reader = new RecordReader(inputLog, null, null);
+            Record rec;
+            while ((rec = reader.next()) != null) {
+                lineNo++;
 
                 if (rec.getType() == RecordType.I) {
                     IndexBean iBean = mapper.readValue(rec.getJson(), IndexBean.class);
@@ -328,7 +770,8 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                 } else {
                     throw new BitsyException(
                             BitsyErrorCodes.DATABASE_IS_CORRUPT,
-                            "Only M and I records are valid in the metadata file. Found " + line + " in line number "
+                            "Only M and I records are valid in the metadata file. Found " + rec.getType()
+                                    + " record in line number "
                                     + lineNo + " of file " + fileName);
                 }
             }
@@ -352,22 +795,22 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
             outputLog.openForOverwrite(logCounter++);
 
             // Save the version
-            outputLog.append(Record.generateDBLine(RecordType.M, CURRENT_MAJOR_VERSION_NUMBER)
-                    .getBytes(utf8));
+            outputLog.append(
+                    Record.generateDBRecord(RecordType.M, getFormatVersionNumber(), binaryFormat, crc32cFormat));
 
             // Vertex indexes
             for (String key : memStore.getIndexedKeys(Vertex.class)) {
                 IndexBean indexBean = new IndexBean(0, key);
-                byte[] line = Record.generateDBLine(RecordType.I, mapper.writeValueAsString(indexBean))
-                        .getBytes(utf8);
+                byte[] line = Record.generateDBRecord(
+                        RecordType.I, mapper.writeValueAsString(indexBean), binaryFormat, crc32cFormat);
                 outputLog.append(line);
             }
 
             // Edge indexes
             for (String key : memStore.getIndexedKeys(Edge.class)) {
                 IndexBean indexBean = new IndexBean(1, key);
-                byte[] line = Record.generateDBLine(RecordType.I, mapper.writeValueAsString(indexBean))
-                        .getBytes(utf8);
+                byte[] line = Record.generateDBRecord(
+                        RecordType.I, mapper.writeValueAsString(indexBean), binaryFormat, crc32cFormat);
                 outputLog.append(line);
             }
 
@@ -386,185 +829,400 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
         }
     }
 
-    private CommittableFileLog[] getOrderedTxLogs(CommittableFileLog txLog1, CommittableFileLog txLog2) {
-        assert txLog1.getCounter() != null;
-        assert txLog2.getCounter() != null;
-        assert txLog1.getCounter().longValue() != txLog2.getCounter().longValue();
-
-        if (txLog1.getCounter().longValue() < txLog2.getCounter().longValue()) {
-            return new CommittableFileLog[] {txLog1, txLog2};
-        } else {
-            return new CommittableFileLog[] {txLog2, txLog1};
+    // Returns the transaction logs in the order in which they were written
+    private List<CommittableFileLog> getOrderedTxLogs() {
+        List<CommittableFileLog> ans = new ArrayList<CommittableFileLog>();
+        for (CommittableFileLog txLog : txLogs) {
+            if (txLog != null) {
+                assert txLog.getCounter() != null;
+                ans.add(txLog);
+            }
         }
-    }
 
-    private CommittableFileLog getEarlierBuffer(CommittableFileLog log1, CommittableFileLog log2) {
-        if (log1.getCounter() == null) {
-            return log2;
-        } else if (log2.getCounter() == null) {
-            return log1;
-        } else {
-            assert log1.getCounter().longValue() != log2.getCounter().longValue();
+        ans.sort(Comparator.comparing(CommittableFileLog::getCounter));
 
-            return (log1.getCounter().longValue() < log2.getCounter().longValue()) ? log1 : log2;
-        }
+        return ans;
     }
 
-    public String toString() {
-        return "FileBackedMemoryGraphStore-" + id + "(path = " + dbPath + ")";
+    private static String getTxLogName(int segment) {
+        return TX_PREFIX + (char) ('A' + segment) + TX_SUFFIX;
     }
 
-    public void shutdown() {
-        log.info("Stopping graph {}", toString());
-        this.txLogToVEBuf.stop(JOIN_TIMEOUT);
-        this.veReorgBuf.stop(JOIN_TIMEOUT);
-        this.txToTxLogBuf.stop(JOIN_TIMEOUT);
+    // Returns the segment number of a transaction log file, or -1 if it is not a valid name
+    private static int getTxLogSegment(String fileName) {
+        if ((fileName.length() != TX_PREFIX.length() + 1 + TX_SUFFIX.length())
+                || !fileName.startsWith(TX_PREFIX)
+                || !fileName.endsWith(TX_SUFFIX)) {
+            return -1;
+        }
 
-        txA.close();
-        txB.close();
-        vA.close();
-        vB.close();
-        eA.close();
-        eB.close();
-        mA.close();
-        mB.close();
+        int ans = fileName.charAt(TX_PREFIX.length()) - 'A';
 
-        this.memStore.shutdown();
+        return ((ans >= 0) && (ans < MAX_TX_LOG_SEGMENTS)) ? ans : -1;
     }
 
-    private CommittableFileLog openFileLog(String fileName, boolean isTxLog) throws BitsyException {
-        Path toOpen = dbPath.resolve(fileName);
-        try {
-            CommittableFileLog cfl = new CommittableFileLog(toOpen, isTxLog);
-
-            // First check if the file exists
-            if (!cfl.exists()) {
-                // Otherwise create it using openForOverwrite
-                cfl.openForOverwrite(logCounter++);
-
-                // Set the version for meta files
-                if (fileName.startsWith(META_PREFIX)) {
-                    cfl.append(Record.generateDBLine(RecordType.M, CURRENT_MAJOR_VERSION_NUMBER)
-                            .getBytes(utf8));
-                }
+    private static int getTxLogSegment(CommittableFileLog txLog) {
+        return getTxLogSegment(txLog.getPath().getFileName().toString());
+    }
 
-                cfl.close();
+    // Returns the smallest counter among the transaction logs other than the given one, which is where the
+    // transactions that are not in the V/E files begin. Called with the lock on the V/E reorg buffer
+    private Long getMinTxLogCounter(CommittableFileLog exclude) {
+        Long ans = null;
+        for (CommittableFileLog txLog : txLogs) {
+            if ((txLog != null) && (txLog != exclude) && ((ans == null) || (txLog.getCounter() < ans))) {
+                ans = txLog.getCounter();
             }
+        }
 
-            // Then open for read
-            cfl.openForRead();
+        return ans;
+    }
 
-            log.debug("Checking file: {} with log counter {}. Size = {}", cfl.getPath(), cfl.getCounter(), cfl.size());
+    // A segment below the applied counter was copied to the V/E files, but its clearing was lost in a crash. It is
+    // cleared again instead of being replayed. Any other segment must have at least its counter in the manifest
+    private void checkTxLogCounters(TxLogManifest manifest) {
+        if (manifest == null) {
+            return;
+        }
 
-            if ((cfl.getCounter() != null) && (cfl.getCounter().longValue() >= logCounter)) {
-                this.logCounter = cfl.getCounter().longValue() + 1;
+        for (CommittableFileLog txLog : txLogs) {
+            if ((txLog == null) || (txLog.getCounter() == null)) {
+                continue;
             }
 
-            return cfl;
-        } catch (IOException e) {
-            throw new BitsyException(BitsyErrorCodes.ERROR_INITIALIZING_DB_FILES, "File: " + toOpen, e);
+            long counter = txLog.getCounter().longValue();
+            Long manifestCounter =
+                    manifest.getCounter(txLog.getPath().getFileName().toString());
+            if (counter < manifest.getAppliedCounter()) {
+                log.info(
+                        "Clearing transaction log {} with counter {}, which is below the applied counter {}",
+                        txLog,
+                        counter,
+                        manifest.getAppliedCounter());
+                txLog.openForOverwrite(logCounter++);
+            } else if ((manifestCounter != null) && (counter < manifestCounter.longValue())) {
+                throw new BitsyException(
+                        BitsyErrorCodes.DATABASE_IS_CORRUPT,
+                        "Transaction log " + txLog + " has the counter " + counter + ", which is below its counter "
+                                + manifestCounter + " in " + dbPath.resolve(TxLogManifest.FILE_NAME));
+            }
         }
     }
 
-    private void prepareForAppend(CommittableFileLog cfl) {
-        if (cfl.getCounter() == null) {
-            // An empty file. Need to write the header first
-            log.debug("Overwriting file: {}", cfl);
-            cfl.openForOverwrite(logCounter++);
-        } else {
-            cfl.openForAppend();
-        }
+    // Writes the segments in use and their counters to the manifest. Called with the lock on the V/E reorg buffer
+    private void writeTxLogManifest() {
+        writeTxLogManifest(dbPath);
     }
 
-    @Override
-    public VertexBean getVertex(UUID id) {
-        return memStore.getVertex(id);
-    }
+    private void writeTxLogManifest(Path dir) {
+        List<String> names = new ArrayList<String>();
+        List<Long> counters = new ArrayList<Long>();
+        for (CommittableFileLog txLog : getOrderedTxLogs()) {
+            names.add(txLog.getPath().getFileName().toString());
+            counters.add(txLog.getCounter());
+        }
 
-    @Override
-    public EdgeBean getEdge(UUID id) {
-        return memStore.getEdge(id);
+        TxLogManifest.write(dir, counters.get(0), names, counters);
     }
 
-    @Override
-    public BitsyVertex getBitsyVertex(BitsyTransaction tx, UUID id) {
-        return memStore.getBitsyVertex(tx, id);
+    /** Returns the directory to which the transaction logs are archived, or null if they aren't archived */
+    public Path getTxLogArchivePath() {
+        return txLogArchivePath;
     }
 
-    @Override
-    public BitsyEdge getBitsyEdge(BitsyTransaction tx, UUID id) {
-        return memStore.getBitsyEdge(tx, id);
-    }
+    /**
+     * Sets the directory to which the transaction logs are archived after
+     * they are flushed to the V/E files, which is created if it is missing. A
+     * null path stops the archiving. The setting is kept in the database.
+     */
+    public void setTxLogArchivePath(Path txLogArchivePath) {
+        synchronized (veReorgBuf.getPot()) {
+            // A different directory only has the segments that are yet to be flushed
+            long fromCounter = txLogArchiveFromCounter;
+            if ((txLogArchivePath == null)
+                    || (this.txLogArchivePath == null)
+                    || !txLogArchivePath.toAbsolutePath().equals(this.txLogArchivePath.toAbsolutePath())) {
+                fromCounter = getMinTxLogCounter(null);
+            }
 
-    @Override
-    public List<EdgeBean> getEdges(UUID vertexId, Direction dir, String[] edgeLabels) {
-        return memStore.getEdges(vertexId, dir, edgeLabels);
+            TxLogArchive.writeArchivePath(dbPath, txLogArchivePath, fromCounter);
+            this.txLogArchivePath = txLogArchivePath;
+            this.txLogArchiveFromCounter = fromCounter;
+        }
     }
 
-    @Override
-    public void commit(ICommitChanges changes) {
-        if ((changes.getVertexChanges().size() == 0)
-                && (changes.getEdgeChanges().size() == 0)) {
+    // Keeps a copy of a flushed transaction log before it is cleared, given the counter of the segment that follows
+    // it. Called with the lock on the V/E reorg buffer
+    private void archiveTxLog(CommittableFileLog txLog, long nextTxCounter) {
+        Path archivePath = txLogArchivePath;
+        if (archivePath == null) {
             return;
         }
 
-        // Phase I: Serialize the objects to make sure that they can go into the file
-        TxUnit txw;
-        StringWriter lineOutput = new StringWriter(); // Reused for vertex and edge lines
         try {
-            StringWriter vWriter = new StringWriter();
-            for (BitsyVertex v : changes.getVertexChanges()) {
-                // Increment the version before the commit
-                v.incrementVersion();
+            TxLogArchive.archive(txLog, archivePath);
+        } catch (BitsyException e) {
+            // The flush goes on, since the transactions are in the V/E files. Only the recovery to later points is lost
+            log.error("Could not archive the transaction log {} to {}", txLog, archivePath, e);
+
+            // The incremental backups can't use the archive till after this segment
+            txLogArchiveFromCounter = nextTxCounter;
+            try {
+                TxLogArchive.writeArchivePath(dbPath, archivePath, nextTxCounter);
+            } catch (BitsyException e2) {
+                log.error("Could not update the archive setting in {}", dbPath, e2);
+            }
+        }
+    }
+
+    // Returns the archived transaction logs from the given counter till before the applied counter, or null if the
+    // archive may not have all of them. Called with the lock on the V/E reorg buffer
+    private SortedMap<Long, Path> getArchivedTxLogs(long fromCounter, long appliedCounter) {
+        if (fromCounter >= appliedCounter) {
+            // The logs from the given counter haven't been flushed yet
+            return new TreeMap<Long, Path>();
+        }
+
+        Path archivePath = txLogArchivePath;
+        if ((archivePath == null) || (txLogArchiveFromCounter > fromCounter)) {
+            return null;
+        }
+
+        SortedMap<Long, Path> ans = TxLogArchive.list(archivePath).subMap(fromCounter, appliedCounter);
 
-                VertexBeanJson vBean = v.asJsonBean();
-                // vWriter.write(Record.generateDBLine(RecordType.V, mapper.writeValueAsString(vBean)));
+        return (ans.isEmpty() || (ans.firstKey() != fromCounter)) ? null : ans;
+    }
 
-                Record.generateVertexLine(lineOutput, mapper, vBean);
-                vWriter.write(lineOutput.toString());
+    /** Returns the number of transaction log segments in use */
+    public int getTxLogSegments() {
+        synchronized (veReorgBuf.getPot()) {
+            int ans = 0;
+            for (CommittableFileLog txLog : txLogs) {
+                if (txLog != null) {
+                    ans++;
+                }
             }
 
-            StringWriter eWriter = new StringWriter();
-            for (BitsyEdge e : changes.getEdgeChanges()) {
-                // Increment the version before the commit
-                e.incrementVersion();
+            return ans;
+        }
+    }
+
+    /**
+     * Sets the number of transaction log segments. The new segments can be
+     * written as soon as the active segment is sealed. A segment is removed
+     * only after it is copied to the V/E files, so a smaller number may take
+     * effect over the next few flushes.
+     */
+    public void setTxLogSegments(int txLogSegments) {
+        if ((txLogSegments < MIN_TX_LOG_SEGMENTS) || (txLogSegments > MAX_TX_LOG_SEGMENTS)) {
+            throw new IllegalArgumentException("The number of transaction log segments must be between "
+                    + MIN_TX_LOG_SEGMENTS + " and " + MAX_TX_LOG_SEGMENTS);
+        }
+
+        synchronized (veReorgBuf.getPot()) {
+            this.txLogSegmentTarget = txLogSegments;
+
+            // The new segments get increasing counters, and become active in the same order
+            List<Integer> newSegments = new ArrayList<Integer>();
+            for (int i = 0; (i < MAX_TX_LOG_SEGMENTS) && (getTxLogSegments() < txLogSegmentTarget); i++) {
+                if (txLogs[i] == null) {
+                    Path path = dbPath.resolve(getTxLogName(i));
+                    CommittableFileLog cfl;
+                    try {
+                        cfl = new CommittableFileLog(path, true);
+                    } catch (IOException e) {
+                        throw new BitsyException(BitsyErrorCodes.ERROR_INITIALIZING_DB_FILES, "File: " + path, e);
+                    }
 
-                EdgeBeanJson eBean = e.asJsonBean();
-                // eWriter.write(Record.generateDBLine(RecordType.E, mapper.writeValueAsString(eBean)));
+                    cfl.setBinary(binaryFormat);
+                    cfl.setCrc32c(crc32cFormat);
+                    cfl.openForOverwrite(logCounter++);
+                    txLogs[i] = cfl;
+                    newSegments.add(i);
+                }
+            }
 
-                Record.generateEdgeLine(lineOutput, mapper, eBean);
-                eWriter.write(lineOutput.toString());
+            if (!newSegments.isEmpty()) {
+                // The new segments are created before they are added to the manifest, and written to after that
+                writeTxLogManifest();
+                for (int segment : newSegments) {
+                    log.debug("Adding transaction log {}", txLogs[segment]);
+                    txLogToVEBuf.addFreeSegment(segment);
+                }
             }
 
-            byte[] vBytes = vWriter.getBuffer().toString().getBytes(utf8);
-            byte[] eBytes = eWriter.getBuffer().toString().getBytes(utf8);
+            removeExtraTxLogSegments();
+        }
+    }
 
-            // Transaction boundary. Has a random integer and its hashcode to verify end of Tx.
-            byte[] tBytes =
-                    Record.generateDBLine(RecordType.T, "" + rand.nextInt()).getBytes(utf8);
+    // Removes free segments, starting with the highest segment number, till the target is met. Segments that are
+    // active or waiting to be flushed are removed after they become free. Called with the lock on the V/E reorg buffer
+    private void removeExtraTxLogSegments() {
+        List<CommittableFileLog> removed = new ArrayList<CommittableFileLog>();
+        for (int i = MAX_TX_LOG_SEGMENTS - 1; (i >= 0) && (getTxLogSegments() > txLogSegmentTarget); i--) {
+            if ((txLogs[i] != null) && txLogToVEBuf.removeFreeSegment(i)) {
+                removed.add(txLogs[i]);
+                txLogs[i] = null;
+            }
+        }
 
-            txw = new TxUnit(ByteBuffer.wrap(vBytes), ByteBuffer.wrap(eBytes), ByteBuffer.wrap(tBytes));
-        } catch (JsonProcessingException e) {
-            throw new BitsyException(BitsyErrorCodes.SERIALIZATION_ERROR, "Encountered error", e);
-        } catch (IOException e) {
-            throw new BitsyException(BitsyErrorCodes.INTERNAL_ERROR, "Unable to serialize to StringBuffer", e);
+        if (removed.isEmpty()) {
+            return;
         }
 
-        // Phase II: Update the memory store and push the commits to the double
-        // buffer. The write-lock inside the commit() is active during the call to
-        // add the transaction to the buffer. This ensures that the transactions
-        // are written in the same order as they enter the memory store.
-        final TxUnit txwf = txw;
+        // The segments are deleted after they are removed from the manifest. Free segments are always empty
+        writeTxLogManifest();
+        for (CommittableFileLog txLog : removed) {
+            log.debug("Removing transaction log {}", txLog);
+            txLog.close();
 
-        // Note that the memory store reject the transaction by throwing an exception, such as BitsyRetryException
-        memStore.commit(changes, false, new Runnable() {
-            @Override
-            public void run() {
-                txToTxLogBuf.addWork(txwf);
+            try {
+                Files.deleteIfExists(txLog.getPath());
+            } catch (IOException e) {
+                log.warn("Could not delete the unused transaction log " + txLog, e);
             }
-        });
+        }
+    }
+
+    private CommittableFileLog getEarlierBuffer(CommittableFileLog log1, CommittableFileLog log2) {
+        if (log1.getCounter() == null) {
+            return log2;
+        } else if (log2.getCounter() == null) {
+            return log1;
+        } else {
+            assert log1.getCounter().longValue() != log2.getCounter().longValue();
+
+            return (log1.getCounter().longValue() < log2.getCounter().longValue()) ? log1 : log2;
+        }
+    }
+
+    public String toString() {
+        return "FileBackedMemoryGraphStore-" + id + "(path = " + dbPath + ")";
+    }
+
+    public void shutdown() {
+        log.info("Stopping graph {}", toString());
+
+        // Pending syncs are not needed because the logs are forced when they are closed
+        txLogSyncService.shutdownNow();
+
+        // Let a scheduled checkpoint complete before the buffers are stopped
+        checkpointService.shutdown();
+        try {
+            if (!checkpointService.awaitTermination(JOIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("Checkpoint did not complete during the shutdown of {}", toString());
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for a checkpoint to complete", e);
+        }
+
+        // Background copies are not throttled during the shutdown
+        ioRateLimiter.stop();
+
+        this.txLogToVEBuf.stop(JOIN_TIMEOUT);
+        this.veReorgBuf.stop(JOIN_TIMEOUT);
+        this.txToTxLogBuf.stop(JOIN_TIMEOUT);
+
+        for (CommittableFileLog txLog : txLogs) {
+            if (txLog != null) {
+                txLog.close();
+            }
+        }
+        vA.close();
+        vB.close();
+        eA.close();
+        eB.close();
+        mA.close();
+        mB.close();
+
+        this.memStore.shutdown();
+    }
+
+    private CommittableFileLog openFileLog(String fileName, boolean isTxLog) throws BitsyException {
+        Path toOpen = dbPath.resolve(fileName);
+        try {
+            CommittableFileLog cfl = new CommittableFileLog(toOpen, isTxLog);
+            cfl.setBinary(binaryFormat);
+            cfl.setCrc32c(crc32cFormat);
+
+            // First check if the file exists
+            if (!cfl.exists()) {
+                // Otherwise create it using openForOverwrite
+                cfl.openForOverwrite(logCounter++);
+
+                // Set the version for meta files
+                if (fileName.startsWith(META_PREFIX)) {
+                    cfl.append(Record.generateDBRecord(
+                            RecordType.M, getFormatVersionNumber(), binaryFormat, crc32cFormat));
+                }
+
+                cfl.close();
+            }
+
+            // Then open for read
+            cfl.openForRead();
+
+            log.debug("Checking file: {} with log counter {}. Size = {}", cfl.getPath(), cfl.getCounter(), cfl.size());
+
+            if ((cfl.getCounter() != null) && (cfl.getCounter().longValue() >= logCounter)) {
+                this.logCounter = cfl.getCounter().longValue() + 1;
+            }
+
+            return cfl;
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_INITIALIZING_DB_FILES, "File: " + toOpen, e);
+        }
+    }
+
+    private void prepareForAppend(CommittableFileLog cfl) {
+        if (cfl.getCounter() == null) {
+            // An empty file. Need to write the header first
+            log.debug("Overwriting file: {}", cfl);
+            cfl.openForOverwrite(logCounter++);
+        } else {
+            cfl.openForAppend();
+        }
+    }
+
+    @Override
+    public VertexBean getVertex(UUID id) {
+        return memStore.getVertex(id);
+    }
+
+    @Override
+    public EdgeBean getEdge(UUID id) {
+        return memStore.getEdge(id);
+    }
+
+    @Override
+    public BitsyVertex getBitsyVertex(BitsyTransaction tx, UUID id) {
+        return memStore.getBitsyVertex(tx, id);
+    }
+
+    @Override
+    public BitsyEdge getBitsyEdge(BitsyTransaction tx, UUID id) {
+        return memStore.getBitsyEdge(tx, id);
+    }
+
+    @Override
+    public List<EdgeBean> getEdges(UUID vertexId, Direction dir, String[] edgeLabels) {
+        return memStore.getEdges(vertexId, dir, edgeLabels);
+    }
+
+    @Override
+    public void commit(ICommitChanges changes) {
+        // ASYNC commits don't wait for the transaction log. Their errors are reported by the future
+        boolean async = (durabilityMode == BitsyDurabilityMode.ASYNC);
+        TxUnit txw = enqueueCommit(changes, async ? newAsyncErrorReporter() : null);
+        if (txw == null) {
+            return;
+        }
+
+        // Phase III: Push the commits through, unless the durability mode doesn't wait for the transaction log
+        if (async) {
+            return;
+        }
 
-        // Phase III: Push the commits through
         try {
             txw.getCountDownLatch().await();
         } catch (InterruptedException e) {
@@ -584,33 +1242,199 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
         }
     }
 
-    /** This method flushes the transaction log to the V/E text files */
-    public void flushTxLog() {
-        synchronized (flushCompleteSignal) {
-            BufferName enqueueBuffer;
-            synchronized (txLogToVEBuf.getPot()) {
-                // Enqueue the backup task
-                enqueueBuffer = txLogToVEBuf.getEnqueueBuffer();
-                FlushNowJob flushJob = new FlushNowJob();
-                txLogToVEBuf.addAndExecuteWork(flushJob);
+    // Returns a future that logs and counts the errors in writing an ASYNC commit, which has no caller to report to
+    private CompletableFuture<Void> newAsyncErrorReporter() {
+        CompletableFuture<Void> ans = new CompletableFuture<Void>();
+        ans.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable e) {
+                if (e != null) {
+                    txLogStats.recordAsyncFailure();
+                    log.error("Error while writing an ASYNC commit to the transaction log", e);
+                }
+            }
+        });
+
+        return ans;
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync(ICommitChanges changes) {
+        CompletableFuture<Void> ans = new CompletableFuture<Void>();
+
+        // Phase III is left to the TxUnitFlusher, which completes the future after the batch is written
+        if (enqueueCommit(changes, ans) == null) {
+            ans.complete(null);
+        }
+
+        return ans;
+    }
+
+    // Performs phases I and II of the commit. Returns null if there is nothing to commit
+    private TxUnit enqueueCommit(ICommitChanges changes, CompletableFuture<Void> future) {
+        if ((changes.getVertexChanges().size() == 0)
+                && (changes.getEdgeChanges().size() == 0)) {
+            return null;
+        }
+
+        // Phase I: Serialize the objects to make sure that they can go into the file. The records are written into
+        // a buffer that is reused by this thread, and copied once into a pooled buffer for the tx log writer
+        RecordOutput out = serializerOutput.get();
+        TxUnit txw;
+        try {
+            out.reset();
+            if (binaryFormat) {
+                serializeBinary(changes, out);
+            } else {
+                serializeText(changes, out);
             }
 
-            try {
-                do {
-                    log.debug("Waiting for flush to complete in buffer {}", enqueueBuffer);
-                    flushCompleteSignal.wait();
-                    log.debug("Flush complete in buffer {}", lastFlushedBuffer);
-                } while (lastFlushedBuffer != enqueueBuffer);
-            } catch (InterruptedException e) {
-                BitsyException toThrow = new BitsyException(
-                        BitsyErrorCodes.FLUSH_INTERRUPTED,
-                        "Exception while waiting for a transaction-log flush to be performed",
-                        e);
+            RecordOutput toCopy = out;
+            if (blockCompression && (out.size() >= BlockCodec.MIN_TX_SIZE_TO_COMPRESS)) {
+                // Large transactions are compressed into one block, which ends with the T record
+                toCopy = new RecordOutput(out.size() / 4 + 64);
+                BlockCodec.compress(
+                        toCopy,
+                        out,
+                        changes.getVertexChanges().size()
+                                + changes.getEdgeChanges().size()
+                                + 1,
+                        binaryFormat,
+                        crc32cFormat);
+            }
+
+            txw = new TxUnit(txBufferPool.copyOf(toCopy), txBufferPool);
+        } finally {
+            // A buffer that grew for a large transaction is not retained by the thread
+            if (out.capacity() > TxBufferPool.BUFFER_SIZE) {
+                serializerOutput.remove();
+            }
+        }
+        txw.setFuture(future);
+
+        // Phase II: Update the memory store and push the commits to the ring
+        // buffer. The memory store applies the commits in batches, and queues
+        // the transactions of a batch in one claim of consecutive slots before
+        // its stripe locks are released. This ensures that the transactions
+        // that touch the same elements are written in the same order as they
+        // enter the memory store.
+
+        // Note that the memory store reject the transaction by throwing an exception, such as BitsyRetryException.
+        // The unit is not queued in that case, so its buffer is returned to the pool here
+        try {
+            memStore.commit(changes, false, txw, txLogQueuer);
+        } catch (RuntimeException | Error e) {
+            txw.releaseBuffer();
+
+            throw e;
+        }
+
+        return txw;
+    }
+
+    // Serializes the changes into JSON lines
+    private void serializeText(ICommitChanges changes, RecordOutput out) {
+        try {
+            for (BitsyVertex v : changes.getVertexChanges()) {
+                // Increment the version before the commit
+                v.incrementVersion();
+
+                Record.generateVertexLine(out, mapper, v.asJsonBean(), crc32cFormat);
+            }
+
+            for (BitsyEdge e : changes.getEdgeChanges()) {
+                // Increment the version before the commit
+                e.incrementVersion();
+
+                Record.generateEdgeLine(out, mapper, e.asJsonBean(), crc32cFormat);
+            }
 
-                log.error("Error while flushing the transaction log", toThrow);
+            // Transaction boundary. Has a random integer and its hashcode to verify end of Tx, and the commit timestamp
+            out.write(Record.generateDBRecord(
+                    RecordType.T,
+                    Record.generateTxPayload(rand.nextInt(), System.currentTimeMillis()),
+                    false,
+                    crc32cFormat));
+        } catch (JsonProcessingException e) {
+            throw new BitsyException(BitsyErrorCodes.SERIALIZATION_ERROR, "Encountered error", e);
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.INTERNAL_ERROR, "Unable to serialize to the buffer", e);
+        }
+    }
+
+    // Serializes the changes into length-prefixed binary records
+    private void serializeBinary(ICommitChanges changes, RecordOutput out) {
+        try {
+            for (BitsyVertex v : changes.getVertexChanges()) {
+                // Increment the version before the commit
+                v.incrementVersion();
+
+                BinaryRecordCodec.encodeVertex(out, v.asJsonBean());
+            }
+
+            for (BitsyEdge e : changes.getEdgeChanges()) {
+                // Increment the version before the commit
+                e.incrementVersion();
 
-                throw toThrow;
+                BinaryRecordCodec.encodeEdge(out, e.asJsonBean());
             }
+
+            // Transaction boundary. Has a random integer and its checksum to verify end of Tx, and the commit timestamp
+            out.write(BinaryRecordCodec.encode(
+                    RecordType.T, Record.generateTxPayload(rand.nextInt(), System.currentTimeMillis())));
+        } catch (JsonProcessingException e) {
+            throw new BitsyException(BitsyErrorCodes.SERIALIZATION_ERROR, "Encountered error", e);
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.INTERNAL_ERROR, "Unable to serialize to binary buffer", e);
+        }
+    }
+
+    /** This method flushes the transaction log to the V/E text files */
+    public void flushTxLog() {
+        long generation;
+        synchronized (txLogToVEBuf.getPot()) {
+            // Enqueue the flush task, which seals the segment that is being written
+            generation = txLogToVEBuf.getActiveGeneration();
+            FlushNowJob flushJob = new FlushNowJob();
+            txLogToVEBuf.addAndExecuteWork(flushJob);
+        }
+
+        try {
+            log.debug("Waiting for flush to complete in generation {}", generation);
+            txLogToVEBuf.awaitFlush(generation);
+            log.debug("Flush complete in generation {}", generation);
+        } catch (InterruptedException e) {
+            BitsyException toThrow = new BitsyException(
+                    BitsyErrorCodes.FLUSH_INTERRUPTED,
+                    "Exception while waiting for a transaction-log flush to be performed",
+                    e);
+
+            log.error("Error while flushing the transaction log", toThrow);
+
+            throw toThrow;
+        }
+    }
+
+    // Seals the segment that is being written without waiting for its flush. If no segment is free, this waits till
+    // the oldest sealed segment is flushed
+    private void sealTxLog() {
+        long generation;
+        synchronized (txLogToVEBuf.getPot()) {
+            generation = txLogToVEBuf.getActiveGeneration();
+            txLogToVEBuf.addAndExecuteWork(new FlushNowJob());
+        }
+
+        try {
+            txLogToVEBuf.awaitSeal(generation);
+        } catch (InterruptedException e) {
+            BitsyException toThrow = new BitsyException(
+                    BitsyErrorCodes.FLUSH_INTERRUPTED,
+                    "Exception while waiting for the transaction log to be sealed",
+                    e);
+
+            log.error("Error while sealing the transaction log", toThrow);
+
+            throw toThrow;
         }
     }
 
@@ -619,6 +1443,79 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
      * @param backupDir directory to which the database must be backed up.
      */
     public void backup(Path backupDir) {
+        backup(new BackupJob(backupDir));
+    }
+
+    /**
+     * This method performs an incremental backup of the database while it is
+     * still operational. The first backup is a base with a copy of the V/E
+     * files. Every backup has the transaction logs sealed after its base,
+     * keyed by their counters. The logs flushed to the V/E files since the
+     * previous backup come from the archive set by
+     * {@link #setTxLogArchivePath(Path)}, and the rest of the chain is hard
+     * linked from the previous backup's directory. The log being written is
+     * sealed for the backup, but not flushed. A new base is taken only if
+     * the archive doesn't have every log since the previous backup. An
+     * incremental backup must be restored using
+     * {@link #restoreBackup(Path, Path)}.
+     *
+     * @param backupDir directory to which the database must be backed up.
+     * @param previousBackupDir directory with the previous incremental backup, or null to take a new base.
+     */
+    public void backup(Path backupDir, Path previousBackupDir) {
+        Path archivePath = txLogArchivePath;
+        if (archivePath == null) {
+            throw new BitsyException(
+                    BitsyErrorCodes.BAD_BACKUP_PATH,
+                    "Incremental backups need the transaction logs to be archived using setTxLogArchivePath()");
+        }
+
+        try {
+            if (Files.isDirectory(backupDir) && Files.isSameFile(backupDir, archivePath)) {
+                throw new BitsyException(
+                        BitsyErrorCodes.BAD_BACKUP_PATH,
+                        "Expecting " + backupDir + " to be different from the archive directory");
+            }
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.BAD_BACKUP_PATH, "Could not access " + backupDir, e);
+        }
+
+        if (previousBackupDir != null) {
+            if (IncrementalBackup.read(previousBackupDir) == null) {
+                throw new BitsyException(
+                        BitsyErrorCodes.BAD_BACKUP_PATH,
+                        "Expecting " + previousBackupDir + " to have an incremental backup");
+            }
+
+            try {
+                if (Files.isSameFile(backupDir, previousBackupDir)) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.BAD_BACKUP_PATH,
+                            "Expecting " + backupDir + " to be different from the previous backup directory");
+                }
+            } catch (IOException e) {
+                throw new BitsyException(BitsyErrorCodes.BAD_BACKUP_PATH, "Could not access " + backupDir, e);
+            }
+        }
+
+        backup(new BackupJob(backupDir, true, previousBackupDir));
+    }
+
+    /**
+     * This method restores a full or an incremental backup to the given
+     * directory, which must be empty. The transaction logs of an incremental
+     * backup are replayed on its base when the directory is opened as a
+     * database.
+     *
+     * @param backupDir directory with a full or an incremental backup.
+     * @param dbPath empty directory to which the database must be restored.
+     */
+    public static void restoreBackup(Path backupDir, Path dbPath) {
+        IncrementalBackup.restore(backupDir, dbPath);
+    }
+
+    private void backup(BackupJob backupJob) {
+        Path backupDir = backupJob.getBackupDir();
         if (!backupInProgress.compareAndSet(false, true)) {
             throw new BitsyException(BitsyErrorCodes.BACKUP_IN_PROGRESS);
         } else {
@@ -630,11 +1527,15 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                             BitsyErrorCodes.BAD_BACKUP_PATH, "Expecting " + backupDir + " to be a folder");
                 }
 
-                // Flush the transaction buffer
-                flushTxLog();
+                if (backupJob.isIncremental()) {
+                    // Seal the transaction log, whose segments are copied without waiting for their flush
+                    sealTxLog();
+                } else {
+                    // Flush the transaction buffer
+                    flushTxLog();
+                }
 
                 // Enqueue the backup task
-                BackupJob backupJob = new BackupJob(backupDir);
                 veReorgBuf.addAndExecuteWork(backupJob);
 
                 // Wait for the response
@@ -661,54 +1562,314 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
         }
     }
 
+    /**
+     * This method writes a snapshot image of the memory store, which is used
+     * to speed up the next startup. Only one checkpoint can be in progress at a
+     * time. Checkpoints are also performed automatically based on the
+     * checkpoint threshold.
+     */
+    public void checkpoint() {
+        if (!checkpointInProgress.compareAndSet(false, true)) {
+            throw new BitsyException(BitsyErrorCodes.CHECKPOINT_IN_PROGRESS);
+        } else {
+            try {
+                // 1. Find the positions in the V/E files from which the image will be replayed
+                CheckpointJob checkpointJob = new CheckpointJob();
+                veReorgBuf.addAndExecuteWork(checkpointJob);
+                awaitCheckpointLatch(checkpointJob.getCountDownLatch());
+
+                BitsyException toThrow = checkpointJob.getException();
+                if (toThrow != null) {
+                    throw toThrow;
+                }
+
+                GraphSnapshot snapshot = checkpointJob.getSnapshot();
+                try {
+                    // 2. Write the memory store, which has every change recorded before the positions
+                    snapshot.write(memStore);
+
+                    // 3. The image may have transactions that are not in the transaction log yet, or that are
+                    // not durable in the GROUP_COMMIT and ASYNC modes
+                    TxUnit marker = queueTxLogMarker();
+                    awaitCheckpointLatch(marker.getCountDownLatch());
+
+                    if (marker.getException() != null) {
+                        throw marker.getException();
+                    }
+
+                    // 4. The image is usable only after the trailer is written
+                    snapshot.complete();
+                } catch (IOException e) {
+                    snapshot.abort();
+                    throw new BitsyException(
+                            BitsyErrorCodes.CHECKPOINT_FAILED, "Encountered exception while writing " + snapshot, e);
+                } catch (BitsyException e) {
+                    snapshot.abort();
+                    throw e;
+                }
+
+                // The next checkpoint will overwrite the other image
+                synchronized (veReorgBuf.getPot()) {
+                    this.lastSnapshot = snapshot;
+                    this.nextSnapshotPath = dbPath.resolve(
+                            snapshot.getPath().endsWith(SNAPSHOT_A_BIN) ? SNAPSHOT_B_BIN : SNAPSHOT_A_BIN);
+                }
+            } finally {
+                checkpointInProgress.set(false);
+            }
+        }
+    }
+
+    // Queues an empty transaction after the transactions that are visible in the memory store. It is queued
+    // exclusively, after the commits in progress, and it forces the transaction log in every durability mode. So its
+    // completion makes them durable
+    private TxUnit queueTxLogMarker() {
+        final TxUnit marker = new TxUnit(ByteBuffer.allocate(0), null);
+        marker.setForceLog(true);
+        memStore.commit(new DefaultCommitChanges(), false, new Runnable() {
+            @Override
+            public void run() {
+                txToTxLogBuf.addWork(marker);
+            }
+        });
+
+        return marker;
+    }
+
+    private void awaitCheckpointLatch(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            BitsyException toThrow = new BitsyException(
+                    BitsyErrorCodes.CHECKPOINT_INTERRUPTED,
+                    "Exception while waiting for a checkpoint to be performed",
+                    e);
+
+            log.error("Error while writing a snapshot image", toThrow);
+
+            throw toThrow;
+        }
+    }
+
+    // Schedules a checkpoint if the V/E records that would be replayed after the last image exceed the threshold
+    private void scheduleCheckpointIfNeeded(CommittableFileLog cflV, CommittableFileLog cflE) {
+        long threshold = checkpointThreshold;
+        if ((threshold <= 0) || (checkpointService == null)) {
+            return;
+        }
+
+        GraphSnapshot snapshot = lastSnapshot;
+        long uncoveredBytes = (snapshot == null) ? (cflV.size() + cflE.size()) : snapshot.getUncoveredBytes(cflV, cflE);
+        if ((uncoveredBytes < threshold) || !checkpointScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        log.debug("Scheduling a checkpoint for {} bytes in {} and {}", uncoveredBytes, cflV, cflE);
+        try {
+            checkpointService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        checkpoint();
+                    } catch (BitsyException e) {
+                        if (e.getErrorCode() != BitsyErrorCodes.CHECKPOINT_IN_PROGRESS) {
+                            log.error("Error while writing a snapshot image", e);
+                        }
+                    } finally {
+                        checkpointScheduled.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The graph is shutting down
+            checkpointScheduled.set(false);
+        }
+    }
+
+    // Schedules a periodic sync of group commits that are not followed by other commits, if the durability mode is
+    // GROUP_COMMIT. Cancels it otherwise
+    private void updateIdleSync() {
+        if (txLogSyncService == null) {
+            // Still in the constructor
+            return;
+        }
+
+        synchronized (txLogSyncService) {
+            if (idleSyncFuture != null) {
+                idleSyncFuture.cancel(false);
+                idleSyncFuture = null;
+            }
+
+            if (durabilityMode != BitsyDurabilityMode.GROUP_COMMIT) {
+                return;
+            }
+
+            long interval = Math.max(1, groupCommitInterval);
+            try {
+                idleSyncFuture = txLogSyncService.scheduleWithFixedDelay(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    txLogToVEBuf.addAndExecuteWork(new SyncNowJob());
+                                } catch (BitsyException e) {
+                                    log.error("Error while syncing the transaction log", e);
+                                }
+                            }
+                        },
+                        interval,
+                        interval,
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The graph is shutting down
+            }
+        }
+    }
+
+    /** Returns true if idle group commits are synced periodically */
+    boolean isIdleSyncScheduled() {
+        synchronized (txLogSyncService) {
+            return idleSyncFuture != null;
+        }
+    }
+
+    // Forces the transaction log to the disk after a batch is written, based on the durability mode
+    private void syncTxLog(int segment, CommittableFileLog cfl, int size) {
+        if (unsyncedSegment != segment) {
+            // The other logs are forced when they are copied to the V/E files
+            unsyncedSegment = segment;
+            unsyncedBytes = 0;
+        }
+
+        unsyncedBytes += size;
+
+        switch (durabilityMode) {
+            case FSYNC:
+                forceTxLog(cfl, true);
+                break;
+
+            case FDATASYNC:
+                forceTxLog(cfl, false);
+                break;
+
+            case GROUP_COMMIT:
+                if ((unsyncedBytes >= groupCommitBytes) || isGroupCommitIntervalOver()) {
+                    forceTxLog(cfl, false);
+                }
+                break;
+
+            case ASYNC:
+                // The log is forced when it is copied to the V/E files
+                break;
+        }
+    }
+
+    private boolean isGroupCommitIntervalOver() {
+        return (System.nanoTime() - lastSyncTime) >= TimeUnit.MILLISECONDS.toNanos(groupCommitInterval);
+    }
+
+    private void forceTxLog(CommittableFileLog cfl, boolean metaData) {
+        long startTime = System.nanoTime();
+        cfl.commit(metaData);
+        this.lastSyncTime = System.nanoTime();
+
+        txLogStats.recordSync(lastSyncTime - startTime);
+        this.unsyncedBytes = 0;
+    }
+
     /** This class represents a "flush-now" action on the transaction log */
     public class FlushNowJob implements ITxBatchJob {}
 
-    /** This class handles the flushing of the Memory to TxLog double buffer */
-    public class TxUnitFlusher implements BufferFlusher<TxUnit> {
+    /** This class represents a "sync-now" action on the transaction log, which syncs pending group commits */
+    public class SyncNowJob implements ITxBatchJob {}
+
+    /** This class handles the flushing of the Memory to TxLog ring buffer, one drained batch at a time */
+    public class TxUnitFlusher implements BatchFlusher<TxUnit> {
         @Override
-        public void flushBuffer(BufferName bufName, final List<TxUnit> workList)
-                throws BitsyException, InterruptedException {
+        public void flushBatch(final List<TxUnit> workList) throws BitsyException, InterruptedException {
             // Queue the batch of transactions into the transaction log
-            txLogToVEBuf.addAndExecuteWork(new TxBatch(workList));
+            BitsyException bex = null;
+            try {
+                txLogToVEBuf.addAndExecuteWork(new TxBatch(workList));
+            } catch (BitsyException e) {
+                bex = e;
+                throw e;
+            } finally {
+                // Complete the asynchronous commits outside the lock on the transaction log, so that
+                // the callbacks can't hold up the writes
+                for (TxUnit work : workList) {
+                    work.completeFuture(bex);
+                }
+            }
         }
     }
 
-    /** This class handles the queueing of the TxLog to VE files double buffer, which performs the actual work of the TxLogWriteFlusher */
-    public class TxBatchQueuer implements BufferQueuer<ITxBatchJob> {
+    /** This class handles the queueing of the TxLog to VE files segmented buffer, which writes the transaction log segments */
+    public class TxBatchQueuer implements SegmentQueuer<ITxBatchJob> {
         @Override
-        public void onQueue(BufferName bufName, ITxBatchJob batchJob) throws BitsyException {
+        public void onQueue(int segment, ITxBatchJob batchJob) throws BitsyException {
             if (batchJob instanceof FlushNowJob) {
                 // Nothing to do -- the flush will be automatically triggered by TxLogFlush
+            } else if (batchJob instanceof SyncNowJob) {
+                // Sync the log if it was written after the last sync, and the group commit interval is over
+                if ((unsyncedSegment == segment) && (unsyncedBytes > 0) && isGroupCommitIntervalOver()) {
+                    forceTxLog(txLogs[segment], false);
+                }
             } else if (!(batchJob instanceof TxBatch)) {
                 log.error("Unsupported type of work in TxLogFlushPotential: {}", batchJob.getClass());
             } else {
                 TxBatch trans = (TxBatch) batchJob;
 
-                CommittableFileLog cfl = (bufName == BufferName.A) ? txA : txB;
+                CommittableFileLog cfl = txLogs[segment];
 
                 prepareForAppend(cfl);
 
                 BitsyException bex = null;
                 try {
+                    // The whole batch goes to the file in gathering writes
+                    List<TxUnit> units = trans.getTxUnitList();
+                    ByteBuffer[] bufs = new ByteBuffer[units.size()];
                     int size = 0;
-                    for (TxUnit work : trans.getTxUnitList()) {
-                        size += work.writeToFile(cfl);
+                    boolean forceLog = false;
+                    for (int i = 0; i < bufs.length; i++) {
+                        TxUnit work = units.get(i);
+                        bufs[i] = work.getByteBuffer();
+                        size += work.size();
+                        forceLog |= work.isForceLog();
                     }
+                    cfl.append(bufs);
 
-                    // Force the contents into the TA/B file
-                    cfl.commit();
+                    // Force the contents into the segment based on the durability mode
+                    syncTxLog(segment, cfl, size);
+
+                    // Markers used by checkpoints and reorgs need the log to be durable in every mode
+                    if (forceLog && (durabilityMode != BitsyDurabilityMode.FSYNC)) {
+                        forceTxLog(cfl, true);
+                    }
 
                     // Set the size to calculate potential
                     trans.setSize(size);
+                    txLogStats.recordBatch(trans.getTxUnitList().size(), size);
 
                     log.trace("Wrote {} bytes to {}", size, cfl.getPath());
                 } catch (BitsyException e) {
                     bex = e;
                     throw e;
                 } finally {
+                    // The oldest commit in the batch waited the longest for the write and the sync, if any.
+                    // The markers are left out, because they force the log in every durability mode
+                    if (bex == null) {
+                        for (TxUnit work : trans.getTxUnitList()) {
+                            if (!work.isForceLog()) {
+                                ioRateLimiter.recordCommitLatency(work.getAgeNanos());
+                                break;
+                            }
+                        }
+                    }
+
                     // Done with the write -- others can proceed
                     for (TxUnit work : trans.getTxUnitList()) {
+                        work.releaseBuffer();
                         if (bex != null) {
                             work.setException(bex);
                         }
@@ -719,25 +1880,28 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                 }
             }
         }
-    }
 
-    /** This class handles the flushing of TxLog to VE double buffer */
-    public class TxBatchFlusher implements BufferFlusher<ITxBatchJob> {
         @Override
-        public void flushBuffer(BufferName bufName, List<ITxBatchJob> x) throws BitsyException {
-            // Write the transaction log to the appropriate V/E files
-            CommittableFileLog txLogToFlush = (bufName == BufferName.A) ? txA : txB;
-            veReorgBuf.addAndExecuteWork(new TxLog(txLogToFlush));
-
-            synchronized (flushCompleteSignal) {
-                // An explicit flush operation using flushTxLog() will wait for this signal
-                lastFlushedBuffer = bufName;
-                log.debug("Tx log in buffer {} has been flushed", lastFlushedBuffer);
-                flushCompleteSignal.notifyAll();
+        public void onSeal(int segment) throws BitsyException {
+            // A sealed segment is not written again, and it may wait for a while before it is copied to the V/E
+            // files. The transactions in it must be durable before the markers in the next segment
+            if ((unsyncedSegment == segment) && (unsyncedBytes > 0)) {
+                forceTxLog(txLogs[segment], false);
             }
         }
     }
 
+    /** This class handles the flushing of the sealed segments in the TxLog to VE segmented buffer */
+    public class TxBatchFlusher implements SegmentFlusher {
+        @Override
+        public void flushSegment(int segment) throws BitsyException {
+            // Write the transaction log to the appropriate V/E files. An explicit flush operation using
+            // flushTxLog() waits till the segment buffer marks this segment as flushed
+            veReorgBuf.addAndExecuteWork(new TxLog(txLogs[segment]));
+            log.debug("Tx log in segment {} has been flushed", segment);
+        }
+    }
+
     /** This class handles the queueing of the TxLog to VE files double buffer, which performs the actual work of the TxLogWriteFlusher */
     public class TxLogQueuer implements BufferQueuer<IVeReorgJob> {
         @Override
@@ -749,20 +1913,31 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                 // A transaction log must be flushed to V/E text files
                 TxLog txLog = (TxLog) job;
                 CommittableFileLog inputLog = txLog.getCommittableFileLog();
-                CommittableFileLog otherTxLog = (inputLog == txA) ? txB : txA;
 
                 prepareForAppend(cflV);
                 prepareForAppend(cflE);
 
                 inputLog.openForRead();
 
-                // Move and compact the transaction log into the vertex and edge logs
-                Long nextTxCounter = otherTxLog.getCounter();
+                // Move and compact the transaction log into the vertex and edge logs. The segments are
+                // flushed in the order of their counters, so the next one has the smallest counter
+                Long nextTxCounter = getMinTxLogCounter(inputLog);
                 assert nextTxCounter != null;
 
                 CompactAndCopyTask cp = new CompactAndCopyTask(
-                        new CommittableFileLog[] {inputLog}, cflV, cflE, memStore, nextTxCounter);
-                cp.run();
+                        new CommittableFileLog[] {inputLog},
+                        cflV,
+                        cflE,
+                        memStore,
+                        nextTxCounter,
+                        ioRateLimiter,
+                        reorgStats);
+                reorgStats.startFlush();
+                try {
+                    cp.run();
+                } finally {
+                    reorgStats.endFlush();
+                }
 
                 log.debug("Done writing to: {} of size {}", cflV.getPath(), cflV.size());
                 log.debug("Done writing to: {} of size {}", cflE.getPath(), cflE.size());
@@ -770,41 +1945,55 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                 txLog.setReorgPotDiff(cp.getOutputLines());
 
                 // Zap the txLog for the next flush
+                archiveTxLog(inputLog, nextTxCounter);
                 log.debug("Zapping transaction log {}", inputLog);
                 inputLog.openForOverwrite(logCounter++);
 
+                // Record the segments that are yet to be applied, and remove the ones that are no longer needed
+                writeTxLogManifest();
+                removeExtraTxLogSegments();
+
+                scheduleCheckpointIfNeeded(cflV, cflE);
+            } else if (job instanceof CheckpointJob) {
+                // The V/E files up to their current sizes are captured by the memory store
+                CheckpointJob checkpointJob = (CheckpointJob) job;
+
+                try {
+                    prepareForAppend(cflV);
+                    prepareForAppend(cflE);
+
+                    checkpointJob.setSnapshot(new GraphSnapshot(
+                            nextSnapshotPath,
+                            logCounter++,
+                            cflV.getCounter(),
+                            cflV.size(),
+                            cflE.getCounter(),
+                            cflE.size()));
+                } catch (BitsyException e) {
+                    checkpointJob.setException(e);
+                } finally {
+                    checkpointJob.getCountDownLatch().countDown();
+                }
             } else if (job instanceof BackupJob) {
                 // A backup of V/E text files must be performed
                 BackupJob backupJob = (BackupJob) job;
                 Path backupDir = backupJob.getBackupDir();
 
                 try {
-                    // 1. Create empty tx logs
-                    Long txACounter = txA.getCounter();
-                    CommittableFileLog cflOutA = new CommittableFileLog(backupDir.resolve(Paths.get(TX_A_TXT)), true);
-                    cflOutA.openForOverwrite(txACounter);
-                    cflOutA.close();
-
-                    Long txBCounter = txB.getCounter();
-                    CommittableFileLog cflOutB = new CommittableFileLog(backupDir.resolve(Paths.get(TX_B_TXT)), true);
-                    cflOutB.openForOverwrite(txBCounter);
-                    cflOutB.close();
-
-                    // 2. Copy V?.txt to VA.txt
-                    cflV.close();
-                    Path sourceV = cflV.getPath();
-                    Path targetV = backupDir.resolve(Paths.get(V_A_TXT));
-
-                    log.debug("Copying {} to {}", sourceV, targetV);
-                    Files.copy(sourceV, targetV, StandardCopyOption.REPLACE_EXISTING);
-
-                    // 3. Copy E?.txt to EA.txt
-                    cflE.close();
-                    Path sourceE = cflE.getPath();
-                    Path targetE = backupDir.resolve(Paths.get(E_A_TXT));
-
-                    log.debug("Copying {} to {}", sourceE, targetE);
-                    Files.copy(sourceE, targetE, StandardCopyOption.REPLACE_EXISTING);
+                    IncrementalBackup incrementalBackup = null;
+                    if (backupJob.isIncremental()) {
+                        // 1-3. Link the chain from the previous backup, or take a new base, and add the new tx logs
+                        incrementalBackup = backupIncrementally(backupJob, cflV, cflE);
+                    } else {
+                        // A stale descriptor must not describe the full backup
+                        Files.deleteIfExists(backupDir.resolve(IncrementalBackup.FILE_NAME));
+
+                        // 1. Create empty tx logs, along with the manifest
+                        backupEmptyTxLogs(backupDir);
+
+                        // 2/3. Copy V?.txt to VA.txt and E?.txt to EA.txt
+                        backupVEFiles(backupDir, cflV, cflE);
+                    }
 
                     // 4. Copy meta?.txt to metaA.txt --  -- all metadata file ops are synchronized on the mA object
                     synchronized (mA) {
@@ -817,6 +2006,11 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                         log.debug("Copying {} to {}", sourceM, targetM);
                         Files.copy(sourceM, targetM, StandardCopyOption.REPLACE_EXISTING);
                     }
+
+                    // 5. The descriptor marks the incremental backup as complete
+                    if (incrementalBackup != null) {
+                        incrementalBackup.write(backupDir);
+                    }
                 } catch (Exception e) {
                     backupJob.setException(new BitsyException(
                             BitsyErrorCodes.BACKUP_FAILED,
@@ -831,6 +2025,92 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
         }
     }
 
+    // Writes empty tx logs with the counters of the database, along with the manifest. Called by the V/E reorg thread
+    private void backupEmptyTxLogs(Path backupDir) throws IOException {
+        for (CommittableFileLog txLog : txLogs) {
+            if (txLog != null) {
+                CommittableFileLog cflOut =
+                        new CommittableFileLog(backupDir.resolve(txLog.getPath().getFileName()), true);
+                cflOut.setBinary(binaryFormat);
+                cflOut.setCrc32c(crc32cFormat);
+                cflOut.openForOverwrite(txLog.getCounter());
+                cflOut.close();
+            }
+        }
+
+        writeTxLogManifest(backupDir);
+    }
+
+    // Copies the V/E files to vA.txt and eA.txt. Called by the V/E reorg thread, which is the only writer of V/E
+    private void backupVEFiles(Path backupDir, CommittableFileLog cflV, CommittableFileLog cflE) throws IOException {
+        cflV.close();
+        Path sourceV = cflV.getPath();
+        Path targetV = backupDir.resolve(Paths.get(V_A_TXT));
+
+        log.debug("Copying {} to {}", sourceV, targetV);
+        Files.copy(sourceV, targetV, StandardCopyOption.REPLACE_EXISTING);
+
+        cflE.close();
+        Path sourceE = cflE.getPath();
+        Path targetE = backupDir.resolve(Paths.get(E_A_TXT));
+
+        log.debug("Copying {} to {}", sourceE, targetE);
+        Files.copy(sourceE, targetE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Backs up the tx logs sealed since the previous incremental backup, which are either in the archive or waiting
+    // to be flushed. Called by the V/E reorg thread, so the sealed segments can't be cleared in the meantime
+    private IncrementalBackup backupIncrementally(BackupJob backupJob, CommittableFileLog cflV, CommittableFileLog cflE)
+            throws IOException {
+        Path backupDir = backupJob.getBackupDir();
+        IncrementalBackup.clear(backupDir);
+
+        // The segments with counters below the one being written are sealed, and the smallest one is the next to be
+        // flushed. The free segments have larger counters
+        long appliedCounter = getMinTxLogCounter(null);
+        long nextCounter = txLogs[txLogToVEBuf.getActiveSegment()].getCounter();
+
+        Path previousDir = backupJob.getPreviousBackupDir();
+        IncrementalBackup previous = (previousDir == null) ? null : IncrementalBackup.read(previousDir);
+        SortedMap<Long, Path> archivedTxLogs = null;
+        if ((previous != null) && (previous.getNextCounter() <= nextCounter)) {
+            archivedTxLogs = getArchivedTxLogs(previous.getNextCounter(), appliedCounter);
+        }
+
+        IncrementalBackup ans;
+        long fromCounter;
+        if (archivedTxLogs != null) {
+            IncrementalBackup.link(previousDir, archivedTxLogs, backupDir);
+
+            ans = previous.next(nextCounter);
+            fromCounter = previous.getNextCounter();
+        } else {
+            if (previous != null) {
+                log.info(
+                        "Taking a new base in {} since the archive doesn't have every transaction log from counter {}"
+                                + " in the backup in {}",
+                        backupDir,
+                        previous.getNextCounter(),
+                        previousDir);
+            }
+
+            backupEmptyTxLogs(backupDir);
+            backupVEFiles(backupDir, cflV, cflE);
+
+            ans = IncrementalBackup.base(appliedCounter, nextCounter);
+            fromCounter = appliedCounter;
+        }
+
+        // The sealed segments are copied, since they are cleared in place after they are flushed
+        for (CommittableFileLog txLog : getOrderedTxLogs()) {
+            if ((txLog.getCounter() >= fromCounter) && (txLog.getCounter() < nextCounter)) {
+                TxLogArchive.archive(txLog, backupDir);
+            }
+        }
+
+        return ans;
+    }
+
     /** This class handles the reorganization of the V and E A/B files */
     public class TxLogFlusher implements BufferFlusher<IVeReorgJob> {
         @Override
@@ -848,23 +2128,78 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
                     targetV.getPath(),
                     targetE.getPath());
 
-            // Open the source files for reading
-            sourceV.openForRead();
-            sourceE.openForRead();
-
             // Clear the target files and set the proper counter in the header
             targetV.openForOverwrite(logCounter++);
             targetE.openForOverwrite(logCounter++);
 
-            // Find the lesser of the two counters -- synchronization is not
+            // Find the least of the counters -- synchronization is not
             // needed because tx logs can't be flushed in the middle of a re-org
-            Long nextTxCounter = getEarlierBuffer(txA, txB).getCounter();
+            Long nextTxCounter = getMinTxLogCounter(null);
             assert (nextTxCounter != null);
 
-            // Move and compact the source V/E files into the target V/E files
-            CompactAndCopyTask cp = new CompactAndCopyTask(
-                    new CommittableFileLog[] {sourceV, sourceE}, targetV, targetE, memStore, nextTxCounter);
-            cp.run();
+            int outputLines;
+            boolean fromMemory = reorgFromMemory;
+            if (fromMemory) {
+                reorgStats.startReorg(memStore.getAllVertices().size()
+                        + memStore.getAllEdges().size());
+            } else {
+                reorgStats.startReorg(sourceV.size() + sourceE.size());
+            }
+
+            try {
+                if (fromMemory) {
+                    // Write the memory store into the target V/E files. The tx logs from nextTxCounter
+                    // onwards have every change that may be missing in the iteration
+                    MemoryReorgTask mr = new MemoryReorgTask(
+                            memStore,
+                            targetV,
+                            targetE,
+                            mapper,
+                            nextTxCounter,
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    // The marker forces the active tx log with its metadata in every durability
+                                    // mode, so the changes in the iteration are durable before the V/E files are
+                                    TxUnit marker = queueTxLogMarker();
+                                    try {
+                                        marker.getCountDownLatch().await();
+                                    } catch (InterruptedException e) {
+                                        throw new BitsyException(
+                                                BitsyErrorCodes.TRANSACTION_INTERRUPTED,
+                                                "Exception while waiting for the transaction log during a reorganization",
+                                                e);
+                                    }
+
+                                    if (marker.getException() != null) {
+                                        throw marker.getException();
+                                    }
+                                }
+                            },
+                            ioRateLimiter,
+                            reorgStats);
+                    mr.run();
+                    outputLines = mr.getOutputLines();
+                } else {
+                    // Open the source files for reading
+                    sourceV.openForRead();
+                    sourceE.openForRead();
+
+                    // Move and compact the source V/E files into the target V/E files
+                    CompactAndCopyTask cp = new CompactAndCopyTask(
+                            new CommittableFileLog[] {sourceV, sourceE},
+                            targetV,
+                            targetE,
+                            memStore,
+                            nextTxCounter,
+                            ioRateLimiter,
+                            reorgStats);
+                    cp.run();
+                    outputLines = cp.getOutputLines();
+                }
+            } finally {
+                reorgStats.endReorg();
+            }
 
             log.debug("Done writing to: {}. Post-reorg size {}", targetV.getPath(), targetV.size());
             log.debug("Done writing to: {}. Post-reorg size {}", targetE.getPath(), targetE.size());
@@ -875,7 +2210,10 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
             sourceV.close();
             sourceE.close();
 
-            veReorgPotential.setOrigLines(cp.getOutputLines());
+            veReorgPotential.setOrigLines(outputLines);
+
+            // The last image can't be used after a reorg
+            scheduleCheckpointIfNeeded(targetV, targetE);
         }
     }
 
@@ -889,6 +2227,16 @@ public class FileBackedMemoryGraphStore implements IGraphStore {
         return memStore.getAllEdges();
     }
 
+    @Override
+    public EpochSnapshot openSnapshot() {
+        return memStore.openSnapshot();
+    }
+
+    @Override
+    public ReadStats getReadStats() {
+        return memStore.getReadStats();
+    }
+
     @Override
     public synchronized <T extends Element> void createKeyIndex(String key, Class<T> elementType) {
         memStore.createKeyIndex(key, elementType);
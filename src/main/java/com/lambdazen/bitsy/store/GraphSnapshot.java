@@ -0,0 +1,560 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.UUID;
+import com.lambdazen.bitsy.ads.dict.Dictionary;
+import com.lambdazen.bitsy.ads.dict.DictionaryFactory;
+import com.lambdazen.bitsy.ads.dict.ShapeTable;
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
+import com.lambdazen.bitsy.util.CommittableFileLog;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class writes and loads a snapshot image of the memory graph store. An
+ * image captures the store at a point in time that is identified by the
+ * counters and sizes of the V/E files. Startup loads the image and replays
+ * the V/E files only from the recorded positions, followed by the tx logs.
+ *
+ * <p>The image is a sequence of blocks framed like binary records (length,
+ * kind, payload, CRC32):
+ *
+ * <pre>
+ * S    counter, V file counter, V file position, E file counter, E file position
+ * V*   index of the first vertex, followed by vertices
+ * E*   index of the first edge, followed by edges
+ * Z    counter, number of vertices and edges
+ * </pre>
+ *
+ * Labels and property keys are interned in a string table that is local to
+ * each block. Edges refer to their endpoints by the ordinal of the vertex in
+ * the image, or by UUID if the vertex was added after the vertices were
+ * written. The image is fuzzy, i.e., it may include some changes made after
+ * the positions were captured. These changes are replayed again on load,
+ * which is harmless because replaying a V/E record is idempotent.
+ */
+public class GraphSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(GraphSnapshot.class);
+
+    /** Blocks are written out once they reach this size (default 1MB). Can be changed by the application */
+    public static int BLOCK_SIZE = 1024 * 1024;
+
+    private static final char HEADER_BLOCK = 'S';
+    private static final char VERTEX_BLOCK = 'V';
+    private static final char EDGE_BLOCK = 'E';
+    private static final char TRAILER_BLOCK = 'Z';
+
+    private Path path;
+    private long counter;
+    private long vCounter;
+    private long vPosition;
+    private long eCounter;
+    private long ePosition;
+
+    // Write state
+    private FileChannel channel;
+    private long vertexCount;
+    private long edgeCount;
+
+    public GraphSnapshot(Path path, long counter, long vCounter, long vPosition, long eCounter, long ePosition) {
+        this.path = path;
+        this.counter = counter;
+        this.vCounter = vCounter;
+        this.vPosition = vPosition;
+        this.eCounter = eCounter;
+        this.ePosition = ePosition;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getCounter() {
+        return counter;
+    }
+
+    public long getVPosition() {
+        return vPosition;
+    }
+
+    public long getEPosition() {
+        return ePosition;
+    }
+
+    public String toString() {
+        return "GraphSnapshot(path = " + path + ", counter = " + counter + ", V = " + vCounter + "@" + vPosition
+                + ", E = " + eCounter + "@" + ePosition + ")";
+    }
+
+    /** Returns true if the given V/E files can be replayed from the positions captured in this image */
+    public boolean isUsableWith(CommittableFileLog vLog, CommittableFileLog eLog) {
+        return (vLog.getCounter() != null)
+                && (vLog.getCounter().longValue() == vCounter)
+                && (vPosition <= vLog.size())
+                && (eLog.getCounter() != null)
+                && (eLog.getCounter().longValue() == eCounter)
+                && (ePosition <= eLog.size());
+    }
+
+    /** Returns the number of bytes in the given V/E files that must be replayed after loading this image */
+    public long getUncoveredBytes(CommittableFileLog vLog, CommittableFileLog eLog) {
+        return uncoveredBytes(vLog, vCounter, vPosition) + uncoveredBytes(eLog, eCounter, ePosition);
+    }
+
+    private static long uncoveredBytes(CommittableFileLog cfl, long counter, long position) {
+        long size = cfl.size();
+        if ((cfl.getCounter() != null) && (cfl.getCounter().longValue() == counter)) {
+            return Math.max(0, size - position);
+        } else {
+            return Math.max(0, size);
+        }
+    }
+
+    /**
+     * This method reads the header of the image in the given file. It returns
+     * null if the file is missing, empty or has a bad header.
+     */
+    public static GraphSnapshot readHeader(Path path) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try (DataInputStream in = openForRead(path)) {
+            byte[] block = readBlock(in, path);
+            if ((block == null) || (block[0] != HEADER_BLOCK)) {
+                return null;
+            }
+
+            ByteBuffer bb = ByteBuffer.wrap(block, 1, block.length - 1 - BinaryRecordCodec.CHECKSUM_SIZE);
+            return new GraphSnapshot(path, bb.getLong(), bb.getLong(), bb.getLong(), bb.getLong(), bb.getLong());
+        } catch (Exception e) {
+            log.warn("Ignoring snapshot image " + path + " with an unreadable header", e);
+
+            return null;
+        }
+    }
+
+    /**
+     * This method writes the header, vertices and edges of the given store to
+     * the file. The image is not usable till complete() is called.
+     */
+    public void write(MemoryGraphStore store) throws IOException {
+        this.channel = FileChannel.open(
+                path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        RecordOutput out = new RecordOutput(64);
+        int start = out.beginRecord(HEADER_BLOCK);
+        out.writeLong(counter);
+        out.writeLong(vCounter);
+        out.writeLong(vPosition);
+        out.writeLong(eCounter);
+        out.writeLong(ePosition);
+        out.endRecord(start);
+        writeFully(out.toByteBuffer());
+
+        // Vertices are numbered in the order in which they are written, so that edges can refer to them
+        VertexOrdinals ordinals = new VertexOrdinals();
+        BlockWriter vWriter = new BlockWriter(VERTEX_BLOCK);
+        for (VertexBean vBean : store.getAllVertices()) {
+            RecordOutput vOut = vWriter.beginEntry();
+            vOut.writeLong(vBean.getMostSignificantBits());
+            vOut.writeLong(vBean.getLeastSignificantBits());
+            vOut.writeInt(vBean.version);
+            vWriter.writeStringRef(vBean.label);
+            vWriter.writeProperties(vBean.properties);
+            ordinals.put(vBean, (int) vWriter.endEntry());
+        }
+        vWriter.flush();
+        this.vertexCount = vWriter.count;
+
+        BlockWriter eWriter = new BlockWriter(EDGE_BLOCK);
+        for (EdgeBean eBean : store.getAllEdges()) {
+            RecordOutput eOut = eWriter.beginEntry();
+            eOut.writeLong(eBean.getMostSignificantBits());
+            eOut.writeLong(eBean.getLeastSignificantBits());
+            eOut.writeInt(eBean.version);
+            eWriter.writeStringRef(eBean.label);
+            writeEndpoint(eOut, ordinals, eBean.outVertex);
+            writeEndpoint(eOut, ordinals, eBean.inVertex);
+            eWriter.writeProperties(eBean.properties);
+            eWriter.endEntry();
+        }
+        eWriter.flush();
+        this.edgeCount = eWriter.count;
+    }
+
+    // Endpoints are written as (ordinal + 1), or 0 followed by the UUID if the vertex is not in the image
+    private void writeEndpoint(RecordOutput out, VertexOrdinals ordinals, VertexBean vBean) {
+        int ordinal = ordinals.get(vBean);
+        if (ordinal >= 0) {
+            out.writeVarInt(ordinal + 1);
+        } else {
+            out.writeVarInt(0);
+            out.writeLong(vBean.getMostSignificantBits());
+            out.writeLong(vBean.getLeastSignificantBits());
+        }
+    }
+
+    /** This method writes the trailer and forces the image to the disk */
+    public void complete() throws IOException {
+        RecordOutput out = new RecordOutput(64);
+        int start = out.beginRecord(TRAILER_BLOCK);
+        out.writeLong(counter);
+        out.writeLong(vertexCount);
+        out.writeLong(edgeCount);
+        out.endRecord(start);
+        writeFully(out.toByteBuffer());
+
+        channel.force(true);
+        channel.close();
+        channel = null;
+
+        log.info("Wrote snapshot image {} with {} vertices and {} edges", this, vertexCount, edgeCount);
+    }
+
+    /** This method removes a partially written image */
+    public void abort() {
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not remove incomplete snapshot image " + path, e);
+        }
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * This method loads the image into the given (empty) store, and returns
+     * the number of vertices and edges that were loaded. It throws an
+     * exception if the image is corrupt or incomplete, in which case the
+     * store must be reset.
+     */
+    public long load(MemoryGraphStore store) throws IOException {
+        IStringCanonicalizer canonicalizer = store.getSymbolTable();
+        ShapeTable shapes = store.getShapeTable();
+        List<VertexBean> vertexTable = new ArrayList<VertexBean>();
+        long edgesRead = 0;
+        long edgesLoaded = 0;
+        boolean complete = false;
+
+        try (DataInputStream in = openForRead(path)) {
+            byte[] block = readBlock(in, path);
+            if ((block == null) || (block[0] != HEADER_BLOCK)) {
+                throw new BitsyException(
+                        BitsyErrorCodes.DATABASE_IS_CORRUPT, "Snapshot image " + path + " has no header");
+            }
+
+            while ((block = readBlock(in, path)) != null) {
+                if (complete) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.DATABASE_IS_CORRUPT,
+                            "Snapshot image " + path + " has data after the trailer");
+                }
+
+                ByteBuffer bb = ByteBuffer.wrap(block, 0, block.length - BinaryRecordCodec.CHECKSUM_SIZE);
+                bb.position(1);
+
+                List<String> strings = new ArrayList<String>();
+                switch (block[0]) {
+                    case VERTEX_BLOCK:
+                        checkFirstIndex(bb.getLong(), vertexTable.size());
+                        while (bb.hasRemaining()) {
+                            UUID id = new UUID(bb.getLong(), bb.getLong());
+                            int version = bb.getInt();
+                            String label = readStringRef(bb, strings, canonicalizer);
+                            Dictionary properties = readProperties(bb, strings, canonicalizer, shapes);
+
+                            VertexBean vBean = new VertexBean(id, label, properties, version);
+                            store.loadVertex(vBean);
+                            vertexTable.add(vBean);
+                        }
+                        break;
+
+                    case EDGE_BLOCK:
+                        checkFirstIndex(bb.getLong(), edgesRead);
+                        while (bb.hasRemaining()) {
+                            UUID id = new UUID(bb.getLong(), bb.getLong());
+                            int version = bb.getInt();
+                            String label = readStringRef(bb, strings, canonicalizer);
+                            VertexBean outVertex = readEndpoint(bb, vertexTable, store);
+                            VertexBean inVertex = readEndpoint(bb, vertexTable, store);
+                            Dictionary properties = readProperties(bb, strings, canonicalizer, shapes);
+                            edgesRead++;
+
+                            // The endpoint may have been deleted while the image was written -- the replay takes care
+                            // of it
+                            if ((outVertex != null) && (inVertex != null)) {
+                                store.loadEdge(new EdgeBean(id, properties, version, label, outVertex, inVertex));
+                                edgesLoaded++;
+                            }
+                        }
+                        break;
+
+                    case TRAILER_BLOCK:
+                        if ((bb.getLong() != counter)
+                                || (bb.getLong() != vertexTable.size())
+                                || (bb.getLong() != edgesRead)) {
+                            throw new BitsyException(
+                                    BitsyErrorCodes.DATABASE_IS_CORRUPT,
+                                    "Snapshot image " + path + " has a trailer that doesn't match its contents");
+                        }
+                        complete = true;
+                        break;
+
+                    default:
+                        throw new BitsyException(
+                                BitsyErrorCodes.DATABASE_IS_CORRUPT,
+                                "Snapshot image " + path + " has an unrecognized block " + (char) block[0]);
+                }
+            }
+        }
+
+        if (!complete) {
+            throw new BitsyException(BitsyErrorCodes.DATABASE_IS_CORRUPT, "Snapshot image " + path + " is incomplete");
+        }
+
+        log.info("Loaded snapshot image {} with {} vertices and {} edges", this, vertexTable.size(), edgesLoaded);
+
+        return vertexTable.size() + edgesLoaded;
+    }
+
+    private void checkFirstIndex(long firstIndex, long expected) {
+        if (firstIndex != expected) {
+            throw new BitsyException(
+                    BitsyErrorCodes.DATABASE_IS_CORRUPT,
+                    "Snapshot image " + path + " has a block starting at " + firstIndex + ". Expecting " + expected);
+        }
+    }
+
+    private VertexBean readEndpoint(ByteBuffer bb, List<VertexBean> vertexTable, MemoryGraphStore store) {
+        int ref = BinaryRecordCodec.readVarInt(bb);
+        if (ref > 0) {
+            return vertexTable.get(ref - 1);
+        } else {
+            return store.getVertex(new UUID(bb.getLong(), bb.getLong()));
+        }
+    }
+
+    private String readStringRef(ByteBuffer bb, List<String> strings, IStringCanonicalizer canonicalizer) {
+        int ref = BinaryRecordCodec.readVarInt(bb);
+        if (ref == 0) {
+            return null;
+        } else if (ref <= strings.size()) {
+            return strings.get(ref - 1);
+        } else if (ref == strings.size() + 1) {
+            String str = canonicalizer.canonicalize(BinaryRecordCodec.readString(bb));
+            strings.add(str);
+
+            return str;
+        } else {
+            throw new BitsyException(
+                    BitsyErrorCodes.DATABASE_IS_CORRUPT,
+                    "Snapshot image " + path + " has a bad string reference " + ref);
+        }
+    }
+
+    private Dictionary readProperties(
+            ByteBuffer bb, List<String> strings, IStringCanonicalizer canonicalizer, ShapeTable shapes)
+            throws IOException {
+        int size = BinaryRecordCodec.readVarInt(bb) - 1;
+        if (size <= 0) {
+            return null;
+        }
+
+        String[] keys = new String[size];
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = readStringRef(bb, strings, canonicalizer);
+            values[i] = BinaryRecordCodec.readValue(bb);
+        }
+
+        return DictionaryFactory.fromArrays(keys, values, shapes);
+    }
+
+    private static DataInputStream openForRead(Path path) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BLOCK_SIZE));
+    }
+
+    // Returns the next block (kind, payload and checksum) or null at the end of the file
+    private static byte[] readBlock(DataInputStream in, Path path) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+
+        int len = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if ((len <= BinaryRecordCodec.CHECKSUM_SIZE) || (len > BinaryRecordCodec.MAX_RECORD_SIZE)) {
+            throw new BitsyException(
+                    BitsyErrorCodes.CHECKSUM_MISMATCH,
+                    "Snapshot image " + path + " has a block with an invalid length " + len);
+        }
+
+        byte[] block = new byte[len];
+        in.readFully(block);
+
+        if (BinaryRecordCodec.checksum(block) != BinaryRecordCodec.storedChecksum(block)) {
+            throw new BitsyException(
+                    BitsyErrorCodes.CHECKSUM_MISMATCH, "Snapshot image " + path + " has a block with a bad checksum");
+        }
+
+        return block;
+    }
+
+    /** This class encodes entries into blocks, each with its own string table */
+    private class BlockWriter {
+        char kind;
+        RecordOutput out;
+        int start;
+        long count;
+        Map<String, Integer> strings;
+
+        public BlockWriter(char kind) {
+            this.kind = kind;
+            this.out = new RecordOutput(BLOCK_SIZE + BLOCK_SIZE / 4);
+            this.start = -1;
+            this.count = 0;
+            this.strings = new HashMap<String, Integer>();
+        }
+
+        public RecordOutput beginEntry() {
+            if (start == -1) {
+                start = out.beginRecord(kind);
+                out.writeLong(count);
+            }
+
+            return out;
+        }
+
+        // Returns the index of the entry that was just written
+        public long endEntry() throws IOException {
+            long ans = count++;
+            if (out.size() >= BLOCK_SIZE) {
+                flush();
+            }
+
+            return ans;
+        }
+
+        public void flush() throws IOException {
+            if (start != -1) {
+                out.endRecord(start);
+                writeFully(out.toByteBuffer());
+
+                out.reset();
+                strings.clear();
+                start = -1;
+            }
+        }
+
+        // Strings are written as (index + 1) in the block's table. The first reference is followed by the string
+        public void writeStringRef(String str) {
+            if (str == null) {
+                out.writeVarInt(0);
+                return;
+            }
+
+            Integer index = strings.get(str);
+            if (index != null) {
+                out.writeVarInt(index + 1);
+            } else {
+                int newIndex = strings.size();
+                strings.put(str, newIndex);
+                out.writeVarInt(newIndex + 1);
+                out.writeString(str);
+            }
+        }
+
+        public void writeProperties(Dictionary properties) throws IOException {
+            if (properties == null) {
+                out.writeVarInt(0);
+                return;
+            }
+
+            String[] keys = properties.getPropertyKeys();
+            out.writeVarInt(keys.length + 1);
+            for (String key : keys) {
+                writeStringRef(key);
+                BinaryRecordCodec.writeValue(out, properties.getProperty(key));
+            }
+        }
+    }
+
+    /** Open-addressing map from vertex beans, compared by reference, to their ordinals in the image */
+    private static class VertexOrdinals {
+        VertexBean[] keys = new VertexBean[1024];
+        int[] values = new int[1024];
+        int size = 0;
+
+        public void put(VertexBean vBean, int ordinal) {
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+
+            int mask = keys.length - 1;
+            int i = mix(vBean.hashCode()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = vBean;
+            values[i] = ordinal;
+            size++;
+        }
+
+        public int get(VertexBean vBean) {
+            int mask = keys.length - 1;
+            int i = mix(vBean.hashCode()) & mask;
+            VertexBean key;
+            while ((key = keys[i]) != null) {
+                if (key == vBean) {
+                    return values[i];
+                }
+                i = (i + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        private void resize() {
+            VertexBean[] oldKeys = keys;
+            int[] oldValues = values;
+
+            keys = new VertexBean[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
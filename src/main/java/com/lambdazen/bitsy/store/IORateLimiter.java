@@ -0,0 +1,123 @@
+package com.lambdazen.bitsy.store;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class limits the rate at which the background tasks, i.e., V/E reorgs
+ * and the flushes of the transaction logs to the V/E files, write to the disk.
+ * The budget is scaled down when the commit latency, i.e., the time from the
+ * serialization of a transaction till it is written to the transaction log
+ * and forced as required by the durability mode, exceeds the target, and
+ * scaled back up when it doesn't. The latency is sampled once per batch of
+ * transactions in every durability mode, although the commits don't wait for
+ * it in the ASYNC mode. A budget of 0 bytes per second turns off the limiter.
+ */
+public class IORateLimiter {
+    /** The budget is never scaled below this fraction. Can be changed by the application */
+    public static double MIN_RATE_FRACTION = 0.1;
+
+    /** The fraction is multiplied by this factor when a commit is slower than the target. Can be changed by the application */
+    public static double RATE_DECREASE_FACTOR = 0.5;
+
+    /** The fraction is multiplied by this factor when a commit meets the target. Can be changed by the application */
+    public static double RATE_INCREASE_FACTOR = 1.1;
+
+    // Sleeps are split into slices, so that a stopped limiter doesn't hold up the background thread
+    private static final long MAX_SLEEP_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private volatile long bytesPerSec;
+    private volatile long targetCommitLatencyMicros;
+    private volatile boolean stopped = false;
+
+    private double rateFraction = 1;
+    private long nextFreeNanos = System.nanoTime();
+    private long throttledNanos = 0;
+
+    public IORateLimiter(long bytesPerSec, long targetCommitLatencyMicros) {
+        this.bytesPerSec = bytesPerSec;
+        this.targetCommitLatencyMicros = targetCommitLatencyMicros;
+    }
+
+    /** Waits till the given number of bytes can be written within the budget */
+    public void acquire(long bytes) {
+        long waitNanos;
+        synchronized (this) {
+            double rate = bytesPerSec * rateFraction;
+            if (stopped || (rate <= 0)) {
+                return;
+            }
+
+            // The bytes are charged to the writes that follow, so that the first write doesn't wait
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) {
+                nextFreeNanos = now;
+            }
+
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += (long) (bytes * 1000000000d / rate);
+            throttledNanos += waitNanos;
+        }
+
+        try {
+            while ((waitNanos > 0) && !stopped) {
+                long sliceNanos = Math.min(waitNanos, MAX_SLEEP_SLICE_NANOS);
+                TimeUnit.NANOSECONDS.sleep(sliceNanos);
+                waitNanos -= sliceNanos;
+            }
+        } catch (InterruptedException e) {
+            // Let the background thread handle the interrupt
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Adapts the budget to the latency of a commit */
+    public synchronized void recordCommitLatency(long nanos) {
+        long target = targetCommitLatencyMicros;
+        if (target <= 0) {
+            return;
+        }
+
+        if (nanos / 1000 > target) {
+            rateFraction = Math.max(MIN_RATE_FRACTION, rateFraction * RATE_DECREASE_FACTOR);
+        } else {
+            rateFraction = Math.min(1, rateFraction * RATE_INCREASE_FACTOR);
+        }
+    }
+
+    /** Turns off the limiter permanently. This is called when the store is shutting down */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    public long getBytesPerSec() {
+        return bytesPerSec;
+    }
+
+    public void setBytesPerSec(long bytesPerSec) {
+        this.bytesPerSec = bytesPerSec;
+    }
+
+    public long getTargetCommitLatencyMicros() {
+        return targetCommitLatencyMicros;
+    }
+
+    public synchronized void setTargetCommitLatencyMicros(long targetCommitLatencyMicros) {
+        this.targetCommitLatencyMicros = targetCommitLatencyMicros;
+        if (targetCommitLatencyMicros <= 0) {
+            this.rateFraction = 1;
+        }
+    }
+
+    /** Returns the budget after it is scaled for the commit latency, or 0 if there is no limit */
+    public synchronized long getCurrentBytesPerSec() {
+        return (long) (bytesPerSec * rateFraction);
+    }
+
+    public synchronized long getThrottledMillis() {
+        return throttledNanos / 1000000;
+    }
+
+    public synchronized void resetThrottledMillis() {
+        this.throttledNanos = 0;
+    }
+}
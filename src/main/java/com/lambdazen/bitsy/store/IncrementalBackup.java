@@ -0,0 +1,314 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class reads and writes the descriptor of an incremental backup, and
+ * restores a database from one. The first backup in a chain is a base, which
+ * is a full backup of the V/E files. Every backup also has the sealed
+ * transaction logs committed after the base, named like the ones in the
+ * archive of {@link TxLogArchive}. The chain is keyed by the tx log counters:
+ * the base counter is the smallest counter in the manifest of the base, and
+ * the next counter is the one of the segment that was being written during
+ * the backup. A backup has the logs from the base counter till before the
+ * next counter, so the next backup only adds the logs sealed in between.
+ * Reorganizations of the V/E files don't change the tx log counters, so they
+ * don't affect the chain.
+ *
+ * Every backup directory is self-contained. The base and the logs from the
+ * previous backup, along with the logs from the archive, are hard links to
+ * the same files where the file system allows, and copies otherwise. Only
+ * files in backup and archive directories are linked, since they are never
+ * modified. The metadata file is written in full by every backup. The
+ * descriptor is written last, so a directory without one doesn't have a
+ * complete backup.
+ */
+public class IncrementalBackup {
+    private static final Logger log = LoggerFactory.getLogger(IncrementalBackup.class);
+
+    public static final String FILE_NAME = "backup.txt";
+    private static final String TEMP_FILE_NAME = "backup.tmp";
+    private static final String INCREMENT_KEY = "increment";
+    private static final String BASE_COUNTER_KEY = "baseCounter";
+    private static final String NEXT_COUNTER_KEY = "nextCounter";
+
+    // The files of the base, along with the manifest and the empty segments
+    private static final String V_FILE_NAME = "vA.txt";
+    private static final String E_FILE_NAME = "eA.txt";
+    private static final String META_FILE_NAME = "metaA.txt";
+
+    private int increment;
+    private long baseCounter;
+    private long nextCounter;
+
+    private IncrementalBackup(int increment, long baseCounter, long nextCounter) {
+        this.increment = increment;
+        this.baseCounter = baseCounter;
+        this.nextCounter = nextCounter;
+    }
+
+    /** Returns a new base, whose V/E files have the logs before the base counter */
+    public static IncrementalBackup base(long baseCounter, long nextCounter) {
+        return new IncrementalBackup(0, baseCounter, nextCounter);
+    }
+
+    /** Returns the backup that follows this one, which has the logs till before the given counter */
+    public IncrementalBackup next(long nextCounter) {
+        return new IncrementalBackup(increment + 1, baseCounter, nextCounter);
+    }
+
+    /** Returns true if this backup starts a new chain */
+    public boolean isBase() {
+        return increment == 0;
+    }
+
+    /** Returns the number of backups in the chain before this one */
+    public int getIncrement() {
+        return increment;
+    }
+
+    public long getBaseCounter() {
+        return baseCounter;
+    }
+
+    public long getNextCounter() {
+        return nextCounter;
+    }
+
+    /** Returns the transaction logs of this backup by their counters */
+    public SortedMap<Long, Path> getTxLogs(Path backupDir) {
+        return new TreeMap<Long, Path>(TxLogArchive.list(backupDir).subMap(baseCounter, nextCounter));
+    }
+
+    /** Removes the descriptor and the transaction logs left over from an earlier backup in the given directory */
+    public static void clear(Path backupDir) throws IOException {
+        // A stale descriptor must not describe the new files
+        Files.deleteIfExists(backupDir.resolve(FILE_NAME));
+
+        for (Path path : TxLogArchive.list(backupDir).values()) {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Links the base and the transaction logs of the given previous backup to
+     * the given directory, along with the given archived transaction logs.
+     */
+    public static void link(Path previousDir, SortedMap<Long, Path> archivedTxLogs, Path backupDir) throws IOException {
+        IncrementalBackup previous = read(previousDir);
+
+        List<String> fileNames = new ArrayList<String>();
+        fileNames.add(V_FILE_NAME);
+        fileNames.add(E_FILE_NAME);
+        fileNames.add(TxLogManifest.FILE_NAME);
+        fileNames.addAll(TxLogManifest.getSegmentNames(previousDir));
+        for (String fileName : fileNames) {
+            linkOrCopy(previousDir.resolve(fileName), backupDir.resolve(fileName));
+        }
+
+        for (Path path : previous.getTxLogs(previousDir).values()) {
+            linkOrCopy(path, backupDir.resolve(path.getFileName()));
+        }
+
+        for (Path path : archivedTxLogs.values()) {
+            linkOrCopy(path, backupDir.resolve(path.getFileName()));
+        }
+    }
+
+    // Links the target to the source, which must be in a backup or archive directory. Copies it if links aren't
+    // supported
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+            log.debug("Linked {} to {}", target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Could not link {} to {}. Copying it instead", target, source, e);
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Copies the bytes from start to end in the input to the current position of the output
+    static void transfer(FileChannel in, long start, long end, FileChannel out) throws IOException {
+        long pos = start;
+        while (pos < end) {
+            long count = in.transferTo(pos, end - pos, out);
+            if (count <= 0) {
+                throw new IOException("Unexpected end of file at position " + pos + ", expecting " + end);
+            }
+
+            pos += count;
+        }
+    }
+
+    /** Returns the incremental backup in the given directory, or null if the directory doesn't have one */
+    public static IncrementalBackup read(Path backupDir) {
+        Path path = backupDir.resolve(FILE_NAME);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try {
+            Long increment = null;
+            Long baseCounter = null;
+            Long nextCounter = null;
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                int idx = line.indexOf('=');
+                if (idx < 0) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.ERROR_READING_FROM_FILE, "Bad line in " + path + ": " + line);
+                }
+
+                String key = line.substring(0, idx);
+                long value;
+                try {
+                    value = Long.parseLong(line.substring(idx + 1));
+                } catch (NumberFormatException e) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.ERROR_READING_FROM_FILE, "Bad value in " + path + ": " + line, e);
+                }
+
+                if (key.equals(INCREMENT_KEY)) {
+                    increment = value;
+                } else if (key.equals(BASE_COUNTER_KEY)) {
+                    baseCounter = value;
+                } else if (key.equals(NEXT_COUNTER_KEY)) {
+                    nextCounter = value;
+                } else {
+                    throw new BitsyException(
+                            BitsyErrorCodes.ERROR_READING_FROM_FILE, "Unexpected key in " + path + ": " + line);
+                }
+            }
+
+            if ((increment == null) || (baseCounter == null) || (nextCounter == null) || (nextCounter < baseCounter)) {
+                throw new BitsyException(
+                        BitsyErrorCodes.ERROR_READING_FROM_FILE,
+                        "The backup descriptor " + path
+                                + " must have the increment, and the base counter followed by the next counter");
+            }
+
+            return new IncrementalBackup(increment.intValue(), baseCounter, nextCounter);
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_READING_FROM_FILE, "File: " + path, e);
+        }
+    }
+
+    /** Replaces the descriptor in the given directory. This marks the backup as complete */
+    public void write(Path backupDir) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Incremental backup. The base is followed by the transaction logs from the base counter till"
+                + " before the next counter\n");
+        sb.append(INCREMENT_KEY).append('=').append(increment).append('\n');
+        sb.append(BASE_COUNTER_KEY).append('=').append(baseCounter).append('\n');
+        sb.append(NEXT_COUNTER_KEY).append('=').append(nextCounter).append('\n');
+
+        Path tempPath = backupDir.resolve(TEMP_FILE_NAME);
+        Path path = backupDir.resolve(FILE_NAME);
+        try {
+            try (FileChannel channel = FileChannel.open(
+                    tempPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+
+                channel.force(true);
+            }
+
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_WRITING_TO_FILE, "File: " + path, e);
+        }
+    }
+
+    /**
+     * Restores the database in the given backup to the given directory, which
+     * must be empty. The transaction logs of an incremental backup are
+     * replayed on its base, and are applied when the database is opened.
+     */
+    public static void restore(Path backupDir, Path dbPath) {
+        IncrementalBackup backup = restoreBase(backupDir, dbPath);
+
+        int numTx = 0;
+        if (backup != null) {
+            numTx = TxLogArchive.replay(backup.getTxLogs(backupDir), dbPath, Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+
+        log.info(
+                "Restored the backup in {} with {} increments and {} transactions after the base to {}",
+                backupDir,
+                (backup == null) ? 0 : backup.getIncrement(),
+                numTx,
+                dbPath);
+    }
+
+    /**
+     * Copies the full backup, or the base of the incremental backup, in the
+     * given directory to the given empty directory. Returns the incremental
+     * backup, or null if it is a full backup.
+     */
+    static IncrementalBackup restoreBase(Path backupDir, Path dbPath) {
+        IncrementalBackup backup = read(backupDir);
+        if (!Files.exists(backupDir.resolve(V_FILE_NAME))) {
+            throw new BitsyException(BitsyErrorCodes.BAD_BACKUP_PATH, "Expecting " + backupDir + " to have a backup");
+        }
+
+        try {
+            if (!Files.isDirectory(dbPath)) {
+                throw new BitsyException(BitsyErrorCodes.RESTORE_FAILED, "Expecting " + dbPath + " to be a folder");
+            }
+
+            try (Stream<Path> files = Files.list(dbPath)) {
+                if (files.findAny().isPresent()) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.RESTORE_FAILED, "Expecting " + dbPath + " to be an empty folder");
+                }
+            }
+
+            List<String> fileNames = new ArrayList<String>();
+            fileNames.add(V_FILE_NAME);
+            fileNames.add(E_FILE_NAME);
+            fileNames.add(META_FILE_NAME);
+            if (TxLogManifest.readSegmentNames(backupDir) != null) {
+                fileNames.add(TxLogManifest.FILE_NAME);
+            }
+            fileNames.addAll(TxLogManifest.getSegmentNames(backupDir));
+
+            for (String fileName : fileNames) {
+                log.debug("Copying {} to {}", backupDir.resolve(fileName), dbPath.resolve(fileName));
+                Files.copy(backupDir.resolve(fileName), dbPath.resolve(fileName));
+            }
+        } catch (IOException e) {
+            throw new BitsyException(
+                    BitsyErrorCodes.RESTORE_FAILED,
+                    "Encountered exception while restoring the backup in " + backupDir + " to " + dbPath,
+                    e);
+        }
+
+        return backup;
+    }
+}
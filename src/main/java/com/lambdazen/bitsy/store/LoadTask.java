@@ -22,6 +22,21 @@ public class LoadTask implements Runnable {
     /** Files larger than this setting (default 1MB) will use parallel record reader. Can be changed by the application */
     public static long MIN_SIZE_FOR_PARALLEL_LOADER = 1024 * 1024;
 
+    /**
+     * Number of threads used to deserialize and insert the records of files that use the parallel record reader
+     * (default is the number of processors). Half of them insert the records of V/E files, partitioned by vertex.
+     * A value of 1 uses a single thread to insert. Can be changed by the application
+     */
+    public static int NUM_LOAD_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The checksums of the records in V/E files are verified for one in these many records (default 1, which verifies
+     * every record). V/E files are closed cleanly: a reorganization forces the new files before the old ones are
+     * cleared, and a flush from a transaction log ends with an L record after which an incomplete flush is truncated.
+     * Transaction logs can end with a partial write, and are always verified. Can be changed by the application
+     */
+    public static int CHECKSUM_SAMPLE_INTERVAL = 1;
+
     CommittableFileLog[] inputs;
     MemoryGraphStore store;
     long totalVE;
@@ -29,6 +44,7 @@ public class LoadTask implements Runnable {
     ObjectMapper mapper;
     ObjectReader vReader, eReader;
     boolean repairMode;
+    long[] startPositions;
 
     public LoadTask(
             CommittableFileLog[] inputs,
@@ -50,13 +66,29 @@ public class LoadTask implements Runnable {
         return totalVE;
     }
 
+    /**
+     * Sets the positions from which the inputs must be loaded. A position of 0
+     * loads the whole file. This is used to skip the part of the V/E files
+     * that has already been loaded from a snapshot image.
+     */
+    public void setStartPositions(long[] startPositions) {
+        assert startPositions.length == inputs.length;
+
+        this.startPositions = startPositions;
+    }
+
     public void run() {
-        IStringCanonicalizer canonicalizer = new SingleThreadedStringCanonicalizer();
+        // Shared with the insert threads of the partitioned inserter, and with the commits after the load
+        IStringCanonicalizer canonicalizer = store.getSymbolTable();
 
         // Find the minimum counter among transaction logs which marks the end of an incomplete V/E txt file
         long lastTxLogNumber = Long.MAX_VALUE;
         for (int i = 0; i < inputs.length; i++) {
             inputs[i].openForRead();
+            if ((startPositions != null) && (startPositions[i] > 0)) {
+                inputs[i].seek(startPositions[i]);
+            }
+
             if (inputs[i].isTxLog() && (lastTxLogNumber > inputs[i].getCounter())) {
                 lastTxLogNumber = inputs[i].getCounter().longValue();
             }
@@ -72,16 +104,28 @@ public class LoadTask implements Runnable {
 
             boolean isTxLog = inputLog.isTxLog();
 
+            // Transaction logs are also parsed in parallel. The records are still applied in order, and the
+            // reader marks the end of the last record returned, which keeps the truncation on recovery exact
             RecordReader recordReader;
-            boolean usingSerialLoader;
-            if (repairMode || isTxLog || (inputLog.size() < MIN_SIZE_FOR_PARALLEL_LOADER)) {
+            PartitionedInserter inserter = null;
+            int checksumSampleInterval = (isTxLog || repairMode) ? 1 : CHECKSUM_SAMPLE_INTERVAL;
+            if (repairMode || (inputLog.size() < MIN_SIZE_FOR_PARALLEL_LOADER)) {
                 log.debug("Using RecordReader for {}", inputLog);
-                recordReader = new RecordReader(inputLog, vReader, eReader);
-                usingSerialLoader = true;
+                recordReader = new RecordReader(inputLog, vReader, eReader, checksumSampleInterval);
             } else {
-                log.debug("Using ParallelRecordReader for {}", inputLog);
-                recordReader = new ParallelRecordReader(inputLog, 10000, vReader, eReader);
-                usingSerialLoader = false;
+                // The V/E records can be inserted by multiple threads. Tx logs are applied in order by this thread
+                int numInsertThreads = isTxLog ? 1 : NUM_LOAD_THREADS / 2;
+                int numReadThreads = Math.max(1, NUM_LOAD_THREADS - Math.max(1, numInsertThreads));
+
+                log.debug("Using ParallelRecordReader with {} threads for {}", numReadThreads, inputLog);
+                recordReader = new ParallelRecordReader(
+                        inputLog, 10000, vReader, eReader, numReadThreads, checksumSampleInterval);
+
+                // The insert threads do not maintain key indexes, so the records are inserted by this thread
+                if ((numInsertThreads > 1) && !store.hasKeyIndexes()) {
+                    log.debug("Using PartitionedInserter with {} threads for {}", numInsertThreads, inputLog);
+                    inserter = new PartitionedInserter(store, canonicalizer, numInsertThreads);
+                }
             }
 
             DefaultCommitChanges cc = new DefaultCommitChanges();
@@ -97,9 +141,7 @@ public class LoadTask implements Runnable {
                         // loaded
                         if (rec.getType() == RecordType.T) {
                             // Keep track of this line in case we run into an error later
-                            if (usingSerialLoader) {
-                                inputLog.mark();
-                            }
+                            recordReader.mark();
 
                             // Commit the changes
                             this.totalVE += store.saveChanges(cc, canonicalizer);
@@ -125,9 +167,7 @@ public class LoadTask implements Runnable {
                             // If the record matches the last Tx, it must be truncated now.
                             if (Long.parseLong(rec.getJson()) == lastTxLogNumber) {
                                 // Mark the L record's end to truncate
-                                if (usingSerialLoader) {
-                                    inputLog.mark();
-                                }
+                                recordReader.mark();
 
                                 // Check to see if this is the last line -- otherwise, the file must be truncated here
                                 if (recordReader.next() == null) {
@@ -154,6 +194,9 @@ public class LoadTask implements Runnable {
                             if (isTxLog) {
                                 // Add to commit log
                                 cc.changeEdge(edge);
+                            } else if (inserter != null) {
+                                // Insert in parallel with other edges
+                                inserter.addEdge(edge);
                             } else {
                                 // Directly save into the store
                                 totalVE = store.saveEdge(totalVE, edge, canonicalizer);
@@ -165,6 +208,9 @@ public class LoadTask implements Runnable {
                             if (isTxLog) {
                                 // Add to commit log
                                 cc.changeVertex(vertex);
+                            } else if (inserter != null) {
+                                // Insert in parallel with other vertices
+                                inserter.addVertex(vertex);
                             } else {
                                 // Directly save into the store
                                 totalVE = store.saveVertex(totalVE, vertex, canonicalizer);
@@ -193,6 +239,7 @@ public class LoadTask implements Runnable {
                                 eCount);
 
                         if (inputLog.getMarkPosition() > 0) {
+                            recordReader.close();
                             inputLog.truncateAtMark();
                         }
 
@@ -201,9 +248,18 @@ public class LoadTask implements Runnable {
                 } else {
                     this.totalVE += store.saveChanges(cc, canonicalizer);
                     cc.reset();
+
+                    if (inserter != null) {
+                        PartitionedInserter toFinish = inserter;
+                        inserter = null;
+                        this.totalVE += toFinish.finish();
+                    }
                 }
             } catch (Exception e) {
-                if (usingSerialLoader && isTxLog) {
+                // Stop reading ahead before the file is truncated
+                recordReader.close();
+
+                if (isTxLog) {
                     // Fix the TX Log
                     log.warn("Recovering from exception while loading from file " + fileName + " at line " + lineNo, e);
 
@@ -221,14 +277,27 @@ public class LoadTask implements Runnable {
                     return;
                 }
 
-                if (usingSerialLoader
-                        && (e instanceof BitsyException)
+                if ((e instanceof BitsyException)
                         && (((BitsyException) e).getErrorCode() == BitsyErrorCodes.INCOMPLETE_TX_FLUSH)) {
                     // Fix the V/E log
                     assert !isTxLog : "Only loading V/E logs can throw INCOMPLETE_TX_FLUSH exception";
 
                     log.warn("Recovering from an incomplete flush operation from a transactional log", e);
 
+                    // The records before the L record must still be inserted
+                    if (inserter != null) {
+                        PartitionedInserter toFinish = inserter;
+                        inserter = null;
+                        try {
+                            this.totalVE += toFinish.finish();
+                        } catch (Exception ex) {
+                            throw new BitsyException(
+                                    BitsyErrorCodes.DATABASE_IS_CORRUPT,
+                                    "The database files are corrupt. Please restore a backup version",
+                                    ex);
+                        }
+                    }
+
                     // A Tx flush was not complete
                     inputLog.truncateAtMark();
 
@@ -252,6 +321,11 @@ public class LoadTask implements Runnable {
             } finally {
                 // Close is in finally to make sure that the input files are closed before next reorg
                 try {
+                    if (inserter != null) {
+                        inserter.close();
+                    }
+
+                    recordReader.close();
                     inputLog.close();
                 } catch (BitsyException e) {
                     if (toThrow != null) {
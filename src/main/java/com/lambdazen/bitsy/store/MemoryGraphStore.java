@@ -10,17 +10,37 @@ import com.lambdazen.bitsy.ICommitChanges;
 import com.lambdazen.bitsy.IEdge;
 import com.lambdazen.bitsy.IGraphStore;
 import com.lambdazen.bitsy.UUID;
+import com.lambdazen.bitsy.ads.dict.DictionaryFactory;
+import com.lambdazen.bitsy.ads.dict.ShapeTable;
+import com.lambdazen.bitsy.index.BitsyIndexMap;
 import com.lambdazen.bitsy.index.EdgeIndexMap;
+import com.lambdazen.bitsy.index.IndexHelper;
 import com.lambdazen.bitsy.index.VertexIndexMap;
 import com.lambdazen.bitsy.tx.BitsyTransaction;
+import com.lambdazen.bitsy.util.SpinWait;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Element;
@@ -29,44 +49,129 @@ import org.apache.tinkerpop.gremlin.structure.Vertex;
 /**
  * This class implements a MapDB-backed store for a graph, along with its key
  * indexes.
+ *
+ * Each commit publishes a new epoch. A snapshot pins the epoch at which it
+ * was opened, and sees the vertices and edges as of that epoch, without
+ * blocking the writers. While a snapshot is open, the writers keep the old
+ * versions of the elements that they change, and retire the removed beans
+ * in their table slots. The old versions are reclaimed by the first commit
+ * after the snapshots that need them are closed.
+ *
+ * Commits are queued, and a committing thread drains the queued commits into
+ * a batch under the combiner lock, which is released before the batch is
+ * applied. A batch locks the stripes of the elements that it changes,
+ * including the end-points of its edges and the neighbors of its deleted
+ * vertices, in the order of the stripes. So the batches on disjoint stripes
+ * are applied in parallel, and the conflicting ones in the order in which
+ * they lock their stripes. A thread whose commit was drained by another
+ * thread waits for that batch. The point and adjacency reads of the elements
+ * are optimistic reads of their stripe's StampedLock, and retry at most once
+ * per batch. The key indexes are shared, and are updated under a stripe of
+ * their own. A commit without changes, index changes and the opening of a
+ * snapshot are exclusive, and wait for the commits in progress.
  */
 public class MemoryGraphStore implements IGraphStore {
     //    private static final Logger log = LoggerFactory.getLogger(MemoryGraphStore.class);
 
-    private static final int MAX_COUNTER_INCREASE_BEFORE_READ_LOCK =
-            2 * 5; // After 5 writes go through, the reader will lock
-    private static final int MAX_RETRIES_BEFORE_READ_LOCK = 3; // After 3 writes go through, the reader will lock
+    private static final int MAX_RETRIES_BEFORE_READ_LOCK = 3; // After 3 failed validations, the reader will lock
+    private static final int MAX_BACKOFFS_BEFORE_READ_LOCK = 10; // Rounds of spins while a commit holds the stripe
 
+    // Must be a power of two. The last stripe, which isn't for elements, guards the key indexes
+    private static final int NUM_STRIPES = 1024;
+    private static final int INDEX_STRIPE = NUM_STRIPES;
+
+    // Maximum number of pending commits applied in one batch
+    private static final int MAX_COMMIT_BATCH_SIZE = 64;
+
+    // Runs the work of the commits that are given a runnable
+    private static final Consumer<List<Runnable>> RUN_WORK = new Consumer<List<Runnable>>() {
+        @Override
+        public void accept(List<Runnable> workList) {
+            for (Runnable r : workList) {
+                r.run();
+            }
+        }
+    };
+
+    // Shared by the commits, and held exclusively by the operations that must not overlap with any commit
     private ReadWriteLock rwLock;
 
-    private AtomicLong spinCounter;
+    // Locks of the stripes. A commit holds the write locks of its stripes, and the readers validate optimistic
+    // stamps of the stripe that they read
+    private StampedLock[] stripeLocks;
+    private ReadStats readStats;
 
-    private Map<UUID, VertexBean> vertices;
+    // Commits waiting to be applied, and the lock that is held while they are drained into a batch
+    private Queue<PendingCommit<?>> pendingCommits;
+    private ReentrantLock combinerLock;
 
-    // Map from VertexBean.getUUID().hashCode() -> VertexBean
-    private Map<UUID, EdgeBean> edges;
+    // Open-addressed tables of the beans keyed by their IDs, which are read without locks
+    private UUIDTable<VertexBean> vertices;
+    private UUIDTable<EdgeBean> edges;
+
+    // Graph-wide table of the labels and property keys
+    private SymbolTable symbols;
+
+    // Shapes of the property dictionaries, whose keys are canonicalized through the symbol table
+    private ShapeTable shapes;
 
     private AdjacencyMapForBeans adjMap;
     private VertexIndexMap vIndexMap;
     private EdgeIndexMap eIndexMap;
     private boolean allowFullGraphScans;
 
+    // Epoch of the last commit that started writing
+    private AtomicLong epoch;
+
+    // Epoch written by the commit of the current thread, or null if the commit doesn't keep the old versions
+    private ThreadLocal<Long> writeEpoch;
+
+    // Open snapshots. The count is checked by the writers to decide whether to keep the old versions
+    private Set<EpochSnapshot> snapshots;
+    private AtomicInteger numSnapshots;
+    private volatile boolean reclaimNeeded;
+
+    // Old versions of the elements changed while snapshots were open, newest first
+    private Map<UUID, Version> versions;
+
+    // IDs of the edges removed while snapshots were open, by their out- and in-vertices, newest first. These are the
+    // edges that a snapshot's adjacency lists have but the store's don't
+    private Map<UUID, Version> removedEdges;
+
+    // Retired beans that are purged from their tables once no snapshot needs them
+    private Queue<Retiree> retirees;
+
     public MemoryGraphStore(boolean allowFullGraphScans) {
         this.rwLock = new ReentrantReadWriteLock(true);
         this.allowFullGraphScans = allowFullGraphScans;
-        this.spinCounter = new AtomicLong(0);
+        this.stripeLocks = new StampedLock[NUM_STRIPES + 1];
+        for (int i = 0; i < stripeLocks.length; i++) {
+            stripeLocks[i] = new StampedLock();
+        }
+        this.readStats = new ReadStats();
+        this.pendingCommits = new ConcurrentLinkedQueue<PendingCommit<?>>();
+        this.combinerLock = new ReentrantLock();
+        this.epoch = new AtomicLong(0);
+        this.writeEpoch = new ThreadLocal<Long>();
+        this.snapshots = Collections.newSetFromMap(new ConcurrentHashMap<EpochSnapshot, Boolean>());
+        this.numSnapshots = new AtomicInteger(0);
 
         reset();
     }
 
     protected void reset() {
-        this.vertices = new ConcurrentHashMap<UUID, VertexBean>();
-        this.edges = new ConcurrentHashMap<UUID, EdgeBean>();
+        this.vertices = new UUIDTable<VertexBean>();
+        this.edges = new UUIDTable<EdgeBean>();
+        this.symbols = new SymbolTable();
+        this.shapes = new ShapeTable(symbols);
+        this.versions = new ConcurrentHashMap<UUID, Version>();
+        this.removedEdges = new ConcurrentHashMap<UUID, Version>();
+        this.retirees = new ConcurrentLinkedQueue<Retiree>();
 
         this.adjMap = new AdjacencyMapForBeans(false, new IEdgeRemover() {
             @Override
             public IEdge removeEdge(UUID id) {
-                return edges.remove(id);
+                return removeEdgeBean(id);
             }
         });
         this.vIndexMap = new VertexIndexMap();
@@ -79,113 +184,354 @@ public class MemoryGraphStore implements IGraphStore {
     }
 
     /**
-     * This method commits a set of changes. It requires a write lock on the Map
-     * DB.
+     * This method commits a set of changes. The pending commits are applied
+     * in batches by one thread at a time, which locks the stripes of the
+     * changed elements once for the batch.
      */
     public void commit(ICommitChanges changes) {
         commit(changes, true, null);
     }
 
-    // This method is called with incrementVersions=false from
-    // FileBackedMemoryGraphStore
+    // This method is called with incrementVersions=false from FileBackedMemoryGraphStore. The runnable is called
+    // before the stripes are released. So the commits that share a stripe call it in the order of their changes. A
+    // commit without changes calls it exclusively, after the commits in progress
     public void commit(ICommitChanges changes, boolean incrementVersions, Runnable r) {
-        beginWrite();
+        commit(changes, incrementVersions, r, RUN_WORK);
+    }
+
+    /**
+     * This method commits a set of changes, and hands the work to the
+     * consumer in a list with the work of the other commits in its batch, in
+     * the order in which they were applied. The consumer is called before the
+     * stripes are released. A commit without changes hands its work over
+     * exclusively, after the commits in progress.
+     */
+    public <T> void commit(ICommitChanges changes, boolean incrementVersions, T work, Consumer<List<T>> consumer) {
+        if (reclaimNeeded && rwLock.writeLock().tryLock()) {
+            // Reclaimed by a commit so as not to block the readers that close the snapshots
+            try {
+                reclaimVersions();
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+        }
+
+        if (changes.getVertexChanges().isEmpty() && changes.getEdgeChanges().isEmpty()) {
+            if (work != null) {
+                beginWrite();
+                try {
+                    consumer.accept(Collections.singletonList(work));
+                } finally {
+                    endWrite();
+                }
+            }
+
+            return;
+        }
+
+        PendingCommit<T> pending = new PendingCommit<T>(changes, incrementVersions, work, consumer);
+        pendingCommits.add(pending);
+
+        // This thread applies the batches that it drains until its commit is done. Once the queue is empty, the
+        // commit is in a batch of another thread, which signals it
+        while (!pending.isDone()) {
+            List<PendingCommit<?>> batch = drainPendingCommits();
+            if (batch.isEmpty()) {
+                pending.awaitDone();
+            } else {
+                applyBatch(batch);
+            }
+        }
+
+        if (pending.error instanceof RuntimeException) {
+            throw (RuntimeException) pending.error;
+        } else if (pending.error instanceof Error) {
+            throw (Error) pending.error;
+        } else if (pending.error != null) {
+            throw new BitsyException(BitsyErrorCodes.INTERNAL_ERROR, "Commit failed", pending.error);
+        }
+    }
+
+    // Drains the pending commits into a batch. The combiner lock keeps the commits that are queued together in one
+    // batch, and is only held while they are drained
+    private List<PendingCommit<?>> drainPendingCommits() {
+        List<PendingCommit<?>> batch = new ArrayList<PendingCommit<?>>();
 
+        combinerLock.lock();
         try {
-            checkForConcurrentModifications(changes, incrementVersions);
+            PendingCommit<?> pending;
+            while ((batch.size() < MAX_COMMIT_BATCH_SIZE) && ((pending = pendingCommits.poll()) != null)) {
+                batch.add(pending);
+            }
+        } finally {
+            combinerLock.unlock();
+        }
 
-            saveChanges(changes);
+        return batch;
+    }
 
-            if (r != null) {
-                r.run();
+    // Applies a batch of the pending commits with one lock of their stripes and one epoch, so that the readers of
+    // a stripe retry once for the batch. Each commit is validated against the ones applied before it, and a commit
+    // that fails doesn't stop the others in the batch. The batches of different threads are applied in parallel,
+    // and are only ordered by the stripes that they share
+    private void applyBatch(List<PendingCommit<?>> batch) {
+        rwLock.readLock().lock();
+        int[] stripes = null;
+        try {
+            stripes = lockStripes(batch);
+
+            // A snapshot is registered before it waits for the commits in progress and reads the epoch. So either
+            // it is seen here, or this batch finishes before the snapshot is opened. The epoch is taken with the
+            // stripes, so the versions of an element are recorded in the order of their epochs. The commits of a
+            // batch share the epoch, since no snapshot can be opened between them
+            long batchEpoch = epoch.incrementAndGet();
+            if (numSnapshots.get() > 0) {
+                writeEpoch.set(batchEpoch);
+            }
+
+            try {
+                for (PendingCommit<?> toApply : batch) {
+                    try {
+                        checkForConcurrentModifications(toApply.changes, toApply.incrementVersions);
+
+                        saveChanges(toApply.changes);
+                    } catch (Throwable t) {
+                        toApply.error = t;
+                    }
+                }
+            } finally {
+                writeEpoch.remove();
+            }
+
+            handOffWork(batch);
+        } catch (Throwable t) {
+            for (PendingCommit<?> failed : batch) {
+                if (failed.error == null) {
+                    failed.error = t;
+                }
             }
         } finally {
-            endWrite();
+            if (stripes != null) {
+                unlockStripes(stripes);
+            }
+
+            rwLock.readLock().unlock();
+
+            for (PendingCommit<?> applied : batch) {
+                applied.signalDone();
+            }
         }
     }
 
-    private void beginWrite() {
-        rwLock.writeLock().lock();
+    // Hands the work of the applied commits in a batch to their consumers. The work of consecutive commits with
+    // the same consumer is handed over as one list
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void handOffWork(List<PendingCommit<?>> batch) {
+        int start = 0;
+        while (start < batch.size()) {
+            Consumer consumer = batch.get(start).consumer;
+            List<Object> workList = new ArrayList<Object>();
+
+            int end = start;
+            while ((end < batch.size()) && (batch.get(end).consumer == consumer)) {
+                PendingCommit<?> applied = batch.get(end);
+                if ((applied.error == null) && (applied.work != null)) {
+                    workList.add(applied.work);
+                }
+
+                end++;
+            }
+
+            if (!workList.isEmpty()) {
+                try {
+                    consumer.accept(workList);
+                } catch (Throwable t) {
+                    // The changes are in the store, but the commits failed to hand off their work
+                    for (int i = start; i < end; i++) {
+                        if (batch.get(i).error == null) {
+                            batch.get(i).error = t;
+                        }
+                    }
+                }
+            }
+
+            start = end;
+        }
+    }
+
+    // Package-private for the tests
+    static int stripeOf(UUID id) {
+        // Spread the bits like the UUIDTable, so that the stripes don't follow its segments
+        long h = (id.getMostSignificantBits() ^ id.getLeastSignificantBits()) * 0x9E3779B97F4A7C15L;
+
+        return (int) (h >>> 32) & (NUM_STRIPES - 1);
+    }
+
+    // Adds the stripes of the elements changed by the commit, including the end-points of the changed edges
+    private void addStripes(ICommitChanges changes, BitSet ans) {
+        for (BitsyVertex vertex : changes.getVertexChanges()) {
+            if (vertex.getState() != BitsyState.U) {
+                ans.set(stripeOf((UUID) vertex.id()));
+            }
+        }
+
+        for (BitsyEdge edge : changes.getEdgeChanges()) {
+            if (edge.getState() != BitsyState.U) {
+                ans.set(stripeOf((UUID) edge.id()));
+                ans.set(stripeOf(edge.getOutVertexId()));
+                ans.set(stripeOf(edge.getInVertexId()));
+            }
+        }
+    }
+
+    // Write-locks the stripes of the batch in ascending order, which fails the stamps of their readers. The neighbors
+    // of the deleted vertices are found with the locks, since their adjacency lists change. If they aren't locked,
+    // the locks are released and taken again with them
+    private int[] lockStripes(List<PendingCommit<?>> batch) {
+        BitSet toLock = new BitSet(NUM_STRIPES);
+        for (PendingCommit<?> pending : batch) {
+            addStripes(pending.changes, toLock);
+        }
+
+        while (true) {
+            int[] stripes = toLock.stream().toArray();
+            for (int stripe : stripes) {
+                stripeLocks[stripe].writeLock();
+            }
+
+            boolean complete = true;
+            for (PendingCommit<?> pending : batch) {
+                for (BitsyVertex vertex : pending.changes.getVertexChanges()) {
+                    if (vertex.getState() == BitsyState.D) {
+                        complete &= addNeighborStripes(vertices.get((UUID) vertex.id()), toLock);
+                    }
+                }
+            }
+
+            if (complete) {
+                return stripes;
+            }
+
+            unlockStripes(stripes);
+        }
+    }
+
+    // Adds the stripes of the vertex's neighbors to the set. Returns false if any of them wasn't in the set
+    private boolean addNeighborStripes(VertexBean vBean, BitSet stripes) {
+        boolean ans = true;
+        if (vBean == null) {
+            return ans;
+        }
+
+        for (Direction dir : new Direction[] {Direction.OUT, Direction.IN}) {
+            for (EdgeBean eBean : adjMap.getEdges(vBean, dir, null)) {
+                UUID neighborId = (dir == Direction.OUT) ? eBean.getInVertexId() : eBean.getOutVertexId();
+                int stripe = stripeOf(neighborId);
+                if (!stripes.get(stripe)) {
+                    stripes.set(stripe);
+                    ans = false;
+                }
+            }
+        }
+
+        return ans;
+    }
 
-        // There is a possibility that the counter is odd. This happens when a
-        // writer thread is done unlocking, but not done incrementing the
-        // counter. Calling beginRead() ensures that the counter is even
-        RetryDetails retryDetails = new RetryDetails();
-        beginRead(retryDetails, false);
+    private void unlockStripes(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripeLocks[stripes[i]].tryUnlockWrite();
+        }
+    }
 
-        assert (retryDetails.counter & 1L) == 0L : "Bug in beginRead -- counter is odd!"; // must be even
-        long newCounter = (retryDetails.counter + 1) & 0x3fffffffffffffffL; // Don't let it go negative
+    // Waits for the commits in progress, and blocks the later ones. The index stripe is held so that the index
+    // readers retry
+    private void beginWrite() {
+        rwLock.writeLock().lock();
 
-        boolean updated = spinCounter.compareAndSet(retryDetails.counter, newCounter);
-        assert updated : "Someone messed with an even counter without a lock!";
+        stripeLocks[INDEX_STRIPE].writeLock();
     }
 
     private void endWrite() {
-        // Unlock first -- this creates the synchronization barrier ensuring
-        // that all writes are visible to readers
+        stripeLocks[INDEX_STRIPE].tryUnlockWrite();
+
         rwLock.writeLock().unlock();
+    }
 
-        // Now increment the counter allowing readers & writers to proceed
-        // At this point -- both readers and writers will wait till the counter
-        // turns even
-        long counter = spinCounter.get();
-        assert (counter & 1L) == 1L : "Some writer did not leave the counter odd!"; // must be odd
-        long newCounter = (counter + 1) & 0x3fffffffffffffffL; // Don't let it go negative
+    // Holds the index stripe while a commit updates the key indexes, if there are any. Returns true if it is held
+    private boolean beginIndexWrite(BitsyIndexMap<?, ?> indexMap) {
+        if (indexMap.isEmpty()) {
+            return false;
+        }
+
+        stripeLocks[INDEX_STRIPE].writeLock();
 
-        boolean updated = spinCounter.compareAndSet(counter, newCounter);
-        assert updated : "Someone messed with the counter without a lock!";
+        return true;
     }
 
-    private void beginRead(RetryDetails retryDetails, boolean degradeToReadLock) {
-        // Counter can't be -1 because the read lock will always succeed
-        assert (retryDetails.counter != -1);
+    private void endIndexWrite(boolean held) {
+        if (held) {
+            stripeLocks[INDEX_STRIPE].tryUnlockWrite();
+        }
+    }
 
-        while ((retryDetails.counter & 1L) != 0L) {
-            long tryCount = retryDetails.counter - retryDetails.startCounter;
+    // Starts an optimistic read of the stripe. While a commit holds the stripe, the reader backs off with bounded
+    // spins. A reader that backs off or retries too often takes the read lock, which doesn't queue behind writers
+    private void beginRead(RetryDetails retryDetails, boolean degradeToReadLock) {
+        StampedLock lock = stripeLocks[retryDetails.stripe];
 
-            // The counter is odd -- which means that a write is in process
+        int backOffs = 0;
+        while (true) {
             if (degradeToReadLock
-                    && ((tryCount > MAX_COUNTER_INCREASE_BEFORE_READ_LOCK)
-                            || (retryDetails.retryCount > MAX_RETRIES_BEFORE_READ_LOCK))) {
-                rwLock.readLock().lock();
+                    && ((retryDetails.retryCount > MAX_RETRIES_BEFORE_READ_LOCK)
+                            || (backOffs > MAX_BACKOFFS_BEFORE_READ_LOCK))) {
+                retryDetails.stamp = lock.readLock();
+                retryDetails.locked = true;
+                readStats.recordLockFallback();
+                return;
+            }
 
-                retryDetails.counter = -1;
+            if (retryDetails.stamp != 0L) {
                 return;
             }
 
-            // No work left for this thread
-            Thread.yield();
+            // The stamp is 0 -- which means that a commit holds the stripe
+            SpinWait.backOff(backOffs++, MAX_BACKOFFS_BEFORE_READ_LOCK);
 
             // Try again
-            retryDetails.counter = spinCounter.get();
+            retryDetails.stamp = lock.tryOptimisticRead();
         }
-
-        assert ((retryDetails.counter & 1L) == 0L);
     }
 
     private void endRead(RetryDetails retryDetails) {
-        if (retryDetails.counter == -1) {
-            rwLock.readLock().unlock();
+        if (retryDetails.locked) {
+            stripeLocks[retryDetails.stripe].unlockRead(retryDetails.stamp);
         }
     }
 
     private boolean shouldRetryRead(RetryDetails retryDetails) {
-        // Retry if there is no read lock AND the counter doesn't match
-        if (retryDetails.counter == -1) {
+        // Retry if there is no read lock AND the stamp isn't valid anymore
+        if (retryDetails.locked) {
             return false;
         }
 
-        long counter = spinCounter.get();
-        if (counter == retryDetails.counter) {
+        StampedLock lock = stripeLocks[retryDetails.stripe];
+        if (lock.validate(retryDetails.stamp)) {
+            readStats.recordOptimisticRead();
             return false;
         } else {
-            // Need to retry -- but keep track of the new counter
-            retryDetails.counter = counter;
+            // Need to retry -- with a new stamp
+            readStats.recordRetry();
+            retryDetails.stamp = lock.tryOptimisticRead();
             retryDetails.retryCount++;
             return true;
         }
     }
 
+    @Override
+    public ReadStats getReadStats() {
+        return readStats;
+    }
+
     private void checkForConcurrentModifications(ICommitChanges changes, boolean incrementVersions) {
         // Check the versions
         for (BitsyVertex vertex : changes.getVertexChanges()) {
@@ -239,7 +585,7 @@ public class MemoryGraphStore implements IGraphStore {
     }
 
     protected long saveChanges(ICommitChanges changes) {
-        return saveChanges(changes, null);
+        return saveChanges(changes, symbols);
     }
 
     // This method is used by commit (with increment option) and the initial
@@ -268,30 +614,43 @@ public class MemoryGraphStore implements IGraphStore {
                 break;
 
             case D:
-                eIndexMap.remove(edges.get(key));
+                boolean indexHeld = beginIndexWrite(eIndexMap);
+                try {
+                    eIndexMap.remove(edges.get(key));
+                } finally {
+                    endIndexWrite(indexHeld);
+                }
                 // log.debug("Removing edge {}", edge.getId());
 
                 // Remove this edge from incoming and outgoing vertices
-                EdgeBean eBeanToRemove = edges.remove(key);
+                EdgeBean eBeanToRemove = removeEdgeBean(key);
                 adjMap.removeEdgeWithoutCallback(eBeanToRemove);
-                addedVE--;
+                if (eBeanToRemove != null) {
+                    addedVE--;
+                }
 
                 break;
 
             case M:
-                EdgeBean eBean = (canonicalizer == null) ? asBean(edge) : asBean(edge, canonicalizer);
+                EdgeBean eBean = asBean(edge, canonicalizer);
                 if (eBean == null) {
                     // log.debug("Skipping edge {}", edge.getId());
                 } else {
                     // log.debug("Modifying edge {}", edge.getId());
                     EdgeBean oldEBean = edges.get(key);
-                    eIndexMap.remove(oldEBean);
-                    eIndexMap.add(eBean);
+                    boolean indexHeld2 = beginIndexWrite(eIndexMap);
+                    try {
+                        eIndexMap.remove(oldEBean);
+                        eIndexMap.add(eBean);
+                    } finally {
+                        endIndexWrite(indexHeld2);
+                    }
 
-                    EdgeBean oldEBean2 = edges.put(eBean, eBean);
+                    recordVersion(key, oldEBean);
+                    EdgeBean oldEBean2 = edges.put(eBean);
 
-                    // NOTE: Because this is a write operation, there is an
-                    // exclusive lock -- no one else is updating eIndexMap
+                    // NOTE: Because the edge's stripe is locked, no one else
+                    // is updating this edge
                     assert (oldEBean == oldEBean2);
 
                     if (oldEBean != null) {
@@ -306,6 +665,77 @@ public class MemoryGraphStore implements IGraphStore {
         return addedVE;
     }
 
+    // This method is used by the partitioned loader to save an edge along with the adjacency list of its out-vertex.
+    // The replaced and saved beans are returned in inUpdate, to be applied to the in-vertex by saveEdgeInVertex()
+    protected long saveEdgeOutVertex(
+            long addedVE, BitsyEdge edge, IStringCanonicalizer canonicalizer, EdgeBean[] inUpdate) {
+        UUID key = (UUID) edge.id();
+
+        switch (edge.getState()) {
+            case U:
+                break;
+
+            case D:
+                EdgeBean eBeanToRemove = edges.remove(key);
+                if (eBeanToRemove != null) {
+                    eIndexMap.remove(eBeanToRemove);
+                    adjMap.removeEdgeWithoutCallback(eBeanToRemove, Direction.OUT);
+                    inUpdate[0] = eBeanToRemove;
+                    addedVE--;
+                }
+
+                break;
+
+            case M:
+                EdgeBean eBean = asBean(edge, canonicalizer);
+                if (eBean != null) {
+                    EdgeBean oldEBean = edges.put(eBean);
+                    eIndexMap.remove(oldEBean);
+                    eIndexMap.add(eBean);
+
+                    if (oldEBean != null) {
+                        adjMap.removeEdgeWithoutCallback(oldEBean, Direction.OUT);
+                    } else {
+                        addedVE++;
+                    }
+
+                    adjMap.addEdge(eBean, Direction.OUT);
+                    inUpdate[0] = oldEBean;
+                    inUpdate[1] = eBean;
+                }
+        }
+        return addedVE;
+    }
+
+    // This method is used by the partitioned loader to update the adjacency list of an in-vertex
+    protected void saveEdgeInVertex(EdgeBean oldEBean, EdgeBean eBean) {
+        adjMap.removeEdgeWithoutCallback(oldEBean, Direction.IN);
+        if (eBean != null) {
+            adjMap.addEdge(eBean, Direction.IN);
+        }
+    }
+
+    // Returns the table of the labels and property keys, which are interned by the loaders too
+    protected SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    // Returns the shapes of the property dictionaries in this graph
+    protected ShapeTable getShapeTable() {
+        return shapes;
+    }
+
+    // Returns true if the store has any edges. Used by loaders to check if vertices can be removed in parallel
+    protected boolean hasEdges() {
+        return !edges.isEmpty();
+    }
+
+    // The partitioned inserter updates the elements without maintaining the key indexes
+    protected boolean hasKeyIndexes() {
+        return !vIndexMap.getIndexedKeys().isEmpty()
+                || !eIndexMap.getIndexedKeys().isEmpty();
+    }
+
     protected long saveVertex(long addedVE, BitsyVertex vertex, IStringCanonicalizer canonicalizer) {
         UUID key = (UUID) vertex.id();
 
@@ -315,31 +745,394 @@ public class MemoryGraphStore implements IGraphStore {
 
             case D:
                 // log.debug("Deleting vertex {}", key);
-                vIndexMap.remove(vertices.get(key));
-                VertexBean vBeanToRemove = vertices.remove(key);
+                boolean indexHeld = beginIndexWrite(vIndexMap);
+                try {
+                    vIndexMap.remove(vertices.get(key));
+                } finally {
+                    endIndexWrite(indexHeld);
+                }
+
+                VertexBean vBeanToRemove = removeVertexBean(key);
                 adjMap.removeVertex(vBeanToRemove);
-                addedVE--;
+                if (vBeanToRemove != null) {
+                    addedVE--;
+                }
 
                 break;
 
             case M:
                 // log.debug("Updating vertex {}", key);
-                VertexBean vBean = (canonicalizer == null) ? vertex.asBean() : vertex.asBean(canonicalizer);
+                VertexBean vBean = vertex.asBean(canonicalizer, shapes);
                 VertexBean oldVBean = vertices.get(key);
-                vIndexMap.remove(oldVBean);
 
-                if (oldVBean == null) {
-                    vertices.put(vBean, vBean);
-                    vIndexMap.add(vBean);
-                    addedVE++;
-                } else {
-                    oldVBean.copyFrom(vBean);
-                    vIndexMap.add(oldVBean);
+                // The index readers copy the beans, so the in-place update is done with the index stripe
+                boolean indexHeld2 = beginIndexWrite(vIndexMap);
+                try {
+                    vIndexMap.remove(oldVBean);
+
+                    if (oldVBean == null) {
+                        recordVersion(key, null);
+                        vertices.put(vBean);
+                        vIndexMap.add(vBean);
+                        addedVE++;
+                    } else {
+                        // The bean is updated in place, since the adjacency lists and edges refer to it
+                        recordVersion(key, (writeEpoch.get() != null) ? new VertexBean(oldVBean) : null);
+                        oldVBean.copyFrom(vBean);
+                        vIndexMap.add(oldVBean);
+                    }
+                } finally {
+                    endIndexWrite(indexHeld2);
                 }
         }
         return addedVE;
     }
 
+    // Removes a vertex bean, which is retired instead if a snapshot may need it
+    private VertexBean removeVertexBean(UUID key) {
+        Long atEpoch = writeEpoch.get();
+        if (atEpoch == null) {
+            return vertices.remove(key);
+        }
+
+        VertexBean ans = vertices.get(key);
+        if (ans != null) {
+            // The removed bean isn't changed any more, so it needn't be copied
+            recordVersion(key, ans);
+            vertices.retire(key, atEpoch);
+            retirees.add(new Retiree(key, true, atEpoch));
+        }
+
+        return ans;
+    }
+
+    // Removes an edge bean, which is retired instead if a snapshot may need it
+    private EdgeBean removeEdgeBean(UUID key) {
+        Long atEpoch = writeEpoch.get();
+        if (atEpoch == null) {
+            return edges.remove(key);
+        }
+
+        EdgeBean ans = edges.get(key);
+        if (ans != null) {
+            recordVersion(key, ans);
+            recordRemovedEdge(ans.getOutVertexId(), key, atEpoch);
+            if (!ans.getInVertexId().equals(ans.getOutVertexId())) {
+                recordRemovedEdge(ans.getInVertexId(), key, atEpoch);
+            }
+
+            edges.retire(key, atEpoch);
+            retirees.add(new Retiree(key, false, atEpoch));
+        }
+
+        return ans;
+    }
+
+    // Keeps the image of an element before it is changed by the current commit, or null if it is being added.
+    // The version must be recorded before the change, so that a reader that sees the change also sees the version.
+    // The element's stripe is locked, so no other commit changes its versions
+    private void recordVersion(UUID key, Object image) {
+        Long atEpoch = writeEpoch.get();
+        if (atEpoch != null) {
+            versions.put(key, new Version(image, atEpoch, versions.get(key)));
+        }
+    }
+
+    // Keeps the ID of an edge removed by the current commit in the list of the given vertex, whose stripe is locked
+    private void recordRemovedEdge(UUID vertexId, UUID edgeId, long atEpoch) {
+        removedEdges.put(vertexId, new Version(edgeId, atEpoch, removedEdges.get(vertexId)));
+    }
+
+    // Drops the versions and retired beans that are older than the oldest open snapshot. Called with the exclusive
+    // lock, since the commits prepend to the version chains that are replaced here
+    private void reclaimVersions() {
+        this.reclaimNeeded = false;
+
+        long minEpoch = Long.MAX_VALUE;
+        for (EpochSnapshot snapshot : snapshots) {
+            // The epoch is -1 while the snapshot is being opened, which keeps all the versions
+            minEpoch = Math.min(minEpoch, snapshot.getEpoch());
+        }
+
+        if (minEpoch == Long.MAX_VALUE) {
+            versions.clear();
+            removedEdges.clear();
+        } else if (minEpoch < 0) {
+            // Try again after the snapshot has its epoch
+            this.reclaimNeeded = true;
+            return;
+        } else {
+            pruneVersions(versions, minEpoch);
+            pruneVersions(removedEdges, minEpoch);
+        }
+
+        Iterator<Retiree> iter = retirees.iterator();
+        while (iter.hasNext()) {
+            Retiree retiree = iter.next();
+            if (retiree.epoch <= minEpoch) {
+                if (retiree.isVertex) {
+                    vertices.purge(retiree.id, retiree.epoch);
+                } else {
+                    edges.purge(retiree.id, retiree.epoch);
+                }
+
+                iter.remove();
+            }
+        }
+    }
+
+    private static void pruneVersions(Map<UUID, Version> versionMap, long minEpoch) {
+        Iterator<Map.Entry<UUID, Version>> iter = versionMap.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<UUID, Version> entry = iter.next();
+            Version newChain = entry.getValue().prune(minEpoch);
+            if (newChain == null) {
+                iter.remove();
+            } else if (newChain != entry.getValue()) {
+                entry.setValue(newChain);
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot of the vertices and edges as of the last commit. The
+     * snapshot must be closed, since the old versions of the elements are
+     * kept while it is open.
+     */
+    @Override
+    public EpochSnapshot openSnapshot() {
+        EpochSnapshot ans = new EpochSnapshot(this);
+
+        // Registered before the epoch is read, so that the commits after that epoch keep their old versions. The
+        // epoch is read with the exclusive lock, after the commits that may not have seen the registration
+        snapshots.add(ans);
+        numSnapshots.incrementAndGet();
+
+        rwLock.writeLock().lock();
+        try {
+            ans.setEpoch(epoch.get());
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+
+        return ans;
+    }
+
+    // Called by EpochSnapshot.close(). The versions are reclaimed by the next commit, so as not to block here
+    void closeSnapshot(EpochSnapshot snapshot) {
+        if (snapshots.remove(snapshot)) {
+            numSnapshots.decrementAndGet();
+            this.reclaimNeeded = true;
+        }
+    }
+
+    /** Returns the epoch of the last commit, which may still be in progress */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    // Returns the number of elements with old versions. Used by tests
+    int getNumVersionedElements() {
+        return versions.size();
+    }
+
+    // Returns the vertex as of the given epoch, or null if it didn't exist
+    VertexBean getVertexAt(UUID id, long atEpoch) {
+        // The bean is copied before the versions are read, because it is updated in place
+        VertexBean bean = vertices.get(id);
+        Object ans = (bean == null) ? null : new VertexBean(bean);
+
+        return (VertexBean) imageAt(id, ans, atEpoch);
+    }
+
+    // Returns the edge as of the given epoch, or null if it didn't exist
+    EdgeBean getEdgeAt(UUID id, long atEpoch) {
+        return (EdgeBean) imageAt(id, edges.get(id), atEpoch);
+    }
+
+    // Returns the vertices as of the given epoch
+    Collection<VertexBean> getAllVerticesAt(long atEpoch) {
+        return new SnapshotCollection<VertexBean>(vertices, atEpoch, true);
+    }
+
+    // Returns the edges as of the given epoch
+    Collection<EdgeBean> getAllEdgesAt(long atEpoch) {
+        return new SnapshotCollection<EdgeBean>(edges, atEpoch, false);
+    }
+
+    // Returns the edges of the vertex in the given direction (IN or OUT) as of the given epoch. These are the
+    // edges in the store's adjacency list that existed then, and the edges removed after the epoch
+    List<EdgeBean> getEdgesAt(UUID vertexId, Direction dir, String[] edgeLabels, long atEpoch) {
+        RetryDetails retryDetails = new RetryDetails(stripeOf(vertexId));
+        List<EdgeBean> ans;
+
+        try {
+            do {
+                beginRead(retryDetails, true);
+
+                ans = new ArrayList<EdgeBean>();
+                Set<UUID> seenIds = new HashSet<UUID>();
+                for (EdgeBean eBean : adjMap.getEdges(vertices.get(vertexId), dir, edgeLabels)) {
+                    EdgeBean image = (EdgeBean) imageAt(eBean.getId(), eBean, atEpoch);
+                    if ((image != null) && seenIds.add(eBean.getId())) {
+                        ans.add(image);
+                    }
+                }
+
+                for (Version v = removedEdges.get(vertexId); (v != null) && (v.supersededAt > atEpoch); v = v.older) {
+                    UUID edgeId = (UUID) v.image;
+                    EdgeBean image = seenIds.add(edgeId) ? getEdgeAt(edgeId, atEpoch) : null;
+                    if ((image != null)
+                            && vertexId.equals((dir == Direction.OUT) ? image.getOutVertexId() : image.getInVertexId())
+                            && hasLabel(image, edgeLabels)) {
+                        ans.add(image);
+                    }
+                }
+            } while (shouldRetryRead(retryDetails));
+        } finally {
+            endRead(retryDetails);
+        }
+
+        return ans;
+    }
+
+    private static boolean hasLabel(EdgeBean eBean, String[] edgeLabels) {
+        if ((edgeLabels == null) || (edgeLabels.length == 0)) {
+            return true;
+        }
+
+        for (String label : edgeLabels) {
+            if (label.equals(eBean.getLabel())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Returns the vertices with the given key and value as of the given epoch. These are the matching vertices in the
+    // index and the old versions, which cost a pass over the elements changed since the oldest open snapshot
+    Collection<VertexBean> lookupVerticesAt(String key, Object value, long atEpoch) {
+        RetryDetails retryDetails = new RetryDetails(INDEX_STRIPE);
+        Collection<VertexBean> ans;
+
+        try {
+            do {
+                beginRead(retryDetails, true);
+
+                Map<UUID, VertexBean> candidates = new HashMap<UUID, VertexBean>();
+                for (VertexBean vBean : vIndexMap.get(key, value)) {
+                    VertexBean image = getVertexAt(vBean.getId(), atEpoch);
+                    if (image != null) {
+                        candidates.put(vBean.getId(), image);
+                    }
+                }
+
+                for (Map.Entry<UUID, Version> entry : versions.entrySet()) {
+                    Object image = imageAt(entry.getKey(), null, atEpoch);
+                    if (image instanceof VertexBean) {
+                        candidates.put(entry.getKey(), (VertexBean) image);
+                    }
+                }
+
+                ans = IndexHelper.filterVertexBeansByKeyValue(candidates.values(), key, value);
+            } while (shouldRetryRead(retryDetails));
+        } finally {
+            endRead(retryDetails);
+        }
+
+        return ans;
+    }
+
+    // Returns the edges with the given key and value as of the given epoch, like lookupVerticesAt()
+    Collection<EdgeBean> lookupEdgesAt(String key, Object value, long atEpoch) {
+        RetryDetails retryDetails = new RetryDetails(INDEX_STRIPE);
+        Collection<EdgeBean> ans;
+
+        try {
+            do {
+                beginRead(retryDetails, true);
+
+                Map<UUID, EdgeBean> candidates = new HashMap<UUID, EdgeBean>();
+                for (EdgeBean eBean : eIndexMap.get(key, value)) {
+                    EdgeBean image = (EdgeBean) imageAt(eBean.getId(), eBean, atEpoch);
+                    if (image != null) {
+                        candidates.put(eBean.getId(), image);
+                    }
+                }
+
+                for (Map.Entry<UUID, Version> entry : versions.entrySet()) {
+                    Object image = imageAt(entry.getKey(), null, atEpoch);
+                    if (image instanceof EdgeBean) {
+                        candidates.put(entry.getKey(), (EdgeBean) image);
+                    }
+                }
+
+                ans = IndexHelper.filterEdgeBeansByKeyValue(candidates.values(), key, value);
+            } while (shouldRetryRead(retryDetails));
+        } finally {
+            endRead(retryDetails);
+        }
+
+        return ans;
+    }
+
+    // Returns the image of the element as of the given epoch, given the current image, which is null if absent.
+    // That is the oldest version replaced after the epoch, if there is one
+    private Object imageAt(UUID id, Object current, long atEpoch) {
+        Object ans = current;
+        for (Version v = versions.get(id); (v != null) && (v.supersededAt > atEpoch); v = v.older) {
+            ans = v.image;
+        }
+
+        return ans;
+    }
+
+    // Returns the image of a live bean found in a scan as of the given epoch, or null if the bean was added later
+    private Object liveImageAt(UUID id, Object current, long atEpoch) {
+        Object ans = current;
+        for (Version v = versions.get(id); (v != null) && (v.supersededAt > atEpoch); v = v.older) {
+            if (v.image == null) {
+                // The bean was added after the epoch. The earlier bean with this ID, if any, is retired
+                return null;
+            }
+
+            ans = v.image;
+        }
+
+        return ans;
+    }
+
+    // Returns the image of a retired bean found in a scan as of the given epoch, or null if it didn't exist then
+    private Object retiredImageAt(UUID id, long retiredAt, long atEpoch) {
+        if (retiredAt <= atEpoch) {
+            return null;
+        }
+
+        // The oldest version replaced after the epoch, and not after the bean was retired
+        Object ans = null;
+        for (Version v = versions.get(id); (v != null) && (v.supersededAt > atEpoch); v = v.older) {
+            if (v.supersededAt <= retiredAt) {
+                ans = v.image;
+            }
+        }
+
+        return ans;
+    }
+
+    // This method is used to load a vertex from a snapshot image into an empty store
+    protected void loadVertex(VertexBean vBean) {
+        vertices.put(vBean);
+        vIndexMap.add(vBean);
+    }
+
+    // This method is used to load an edge from a snapshot image after its endpoints have been loaded
+    protected void loadEdge(EdgeBean eBean) {
+        edges.put(eBean);
+        eIndexMap.add(eBean);
+        adjMap.addEdge(eBean);
+    }
+
     public VertexBean getVertex(UUID id) {
         // This method is only for internal use
         // Not using a read lock because the ID is available
@@ -354,7 +1147,7 @@ public class MemoryGraphStore implements IGraphStore {
 
     @Override
     public BitsyVertex getBitsyVertex(BitsyTransaction tx, UUID id) {
-        RetryDetails retryDetails = new RetryDetails();
+        RetryDetails retryDetails = new RetryDetails(stripeOf(id));
         BitsyVertex ans = null;
 
         try {
@@ -375,7 +1168,7 @@ public class MemoryGraphStore implements IGraphStore {
 
     @Override
     public BitsyEdge getBitsyEdge(BitsyTransaction tx, UUID id) {
-        RetryDetails retryDetails = new RetryDetails();
+        RetryDetails retryDetails = new RetryDetails(stripeOf(id));
         BitsyEdge ans = null;
 
         try {
@@ -396,7 +1189,7 @@ public class MemoryGraphStore implements IGraphStore {
     }
 
     public List<EdgeBean> getEdges(UUID vertexId, Direction dir, String[] edgeLabels) {
-        RetryDetails retryDetails = new RetryDetails();
+        RetryDetails retryDetails = new RetryDetails(stripeOf(vertexId));
         List<EdgeBean> ans;
 
         try {
@@ -491,7 +1284,7 @@ public class MemoryGraphStore implements IGraphStore {
 
     @Override
     public Collection<VertexBean> lookupVertices(String key, Object value) {
-        RetryDetails retryDetails = new RetryDetails();
+        RetryDetails retryDetails = new RetryDetails(INDEX_STRIPE);
         Collection<VertexBean> ans;
 
         try {
@@ -508,7 +1301,7 @@ public class MemoryGraphStore implements IGraphStore {
 
     @Override
     public Collection<EdgeBean> lookupEdges(String key, Object value) {
-        RetryDetails retryDetails = new RetryDetails();
+        RetryDetails retryDetails = new RetryDetails(INDEX_STRIPE);
         Collection<EdgeBean> ans;
 
         try {
@@ -552,27 +1345,185 @@ public class MemoryGraphStore implements IGraphStore {
     public EdgeBean asBean(BitsyEdge edge, IStringCanonicalizer canonicalizer) {
         EdgeBean ans = asBean(edge);
 
+        if (edge.getPropertyDict() != null) {
+            edge.getPropertyDict().canonicalizeKeys(canonicalizer);
+        }
+
         if (ans != null) {
             // Canonicalize the label
             ans.label = (ans.label == null) ? null : canonicalizer.canonicalize(ans.label);
+            ans.properties = DictionaryFactory.forStorage(ans.properties, shapes);
         }
 
-        if (edge.getPropertyDict() != null) {
-            edge.getPropertyDict().canonicalizeKeys(canonicalizer);
+        return ans;
+    }
+
+    // An old version of an element, which was replaced or removed by the commit of the given epoch
+    private static final class Version {
+        // Null if the element was added by that commit
+        final Object image;
+        final long supersededAt;
+        final Version older;
+
+        Version(Object image, long supersededAt, Version older) {
+            this.image = image;
+            this.supersededAt = supersededAt;
+            this.older = older;
         }
 
-        return ans;
+        // Returns the chain without the versions replaced at or before the given epoch. The versions are immutable
+        Version prune(long minEpoch) {
+            if (supersededAt <= minEpoch) {
+                return null;
+            }
+
+            Version prunedOlder = (older == null) ? null : older.prune(minEpoch);
+
+            return (prunedOlder == older) ? this : new Version(image, supersededAt, prunedOlder);
+        }
+    }
+
+    // A bean that was retired in its table by the commit of the given epoch
+    private static final class Retiree {
+        final UUID id;
+        final boolean isVertex;
+        final long epoch;
+
+        Retiree(UUID id, boolean isVertex, long epoch) {
+            this.id = id;
+            this.isVertex = isVertex;
+            this.epoch = epoch;
+        }
+    }
+
+    // The beans of a table as of an epoch. Each slot of the table is visited once, and yields the bean's image
+    // as of the epoch, if it existed then. The vertices are copied, because they are updated in place
+    private final class SnapshotCollection<T> extends AbstractCollection<T> {
+        private final UUIDTable<?> table;
+        private final long atEpoch;
+        private final boolean copyBeans;
+
+        SnapshotCollection(UUIDTable<?> table, long atEpoch, boolean copyBeans) {
+            this.table = table;
+            this.atEpoch = atEpoch;
+            this.copyBeans = copyBeans;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            final Iterator<Object> slots = table.slots();
+
+            return new Iterator<T>() {
+                Object next = advance();
+
+                private Object advance() {
+                    while (slots.hasNext()) {
+                        Object slot = slots.next();
+
+                        Object image;
+                        if (slot instanceof UUIDTable.Retired) {
+                            UUIDTable.Retired retired = (UUIDTable.Retired) slot;
+                            image = retiredImageAt((UUID) retired.getBean(), retired.getEpoch(), atEpoch);
+                        } else {
+                            Object current = copyBeans ? new VertexBean((VertexBean) slot) : slot;
+                            image = liveImageAt((UUID) slot, current, atEpoch);
+                        }
+
+                        if (image != null) {
+                            return image;
+                        }
+                    }
+
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @SuppressWarnings("unchecked")
+                @Override
+                public T next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+
+                    Object ans = next;
+                    next = advance();
+                    return (T) ans;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            // Counted by a scan, since the table's size is for the current epoch
+            int ans = 0;
+            for (Iterator<T> iter = iterator(); iter.hasNext(); iter.next()) {
+                ans++;
+            }
+
+            return ans;
+        }
+    }
+
+    // A commit waiting to be applied in a batch, with the work to hand off once it is applied
+    private static class PendingCommit<T> {
+        final ICommitChanges changes;
+        final boolean incrementVersions;
+        final T work;
+        final Consumer<List<T>> consumer;
+
+        // Set by the thread that applies the batch, before it counts down the latch
+        Throwable error;
+        final CountDownLatch doneLatch;
+
+        PendingCommit(ICommitChanges changes, boolean incrementVersions, T work, Consumer<List<T>> consumer) {
+            this.changes = changes;
+            this.incrementVersions = incrementVersions;
+            this.work = work;
+            this.consumer = consumer;
+            this.doneLatch = new CountDownLatch(1);
+        }
+
+        boolean isDone() {
+            return doneLatch.getCount() == 0;
+        }
+
+        void signalDone() {
+            doneLatch.countDown();
+        }
+
+        // The commit can't be abandoned once it is queued, so an interrupt is kept for later
+        void awaitDone() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    doneLatch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     // Retry details
     public class RetryDetails {
-        long counter;
-        long startCounter;
+        int stripe;
+        long stamp; // Optimistic stamp, or the stamp of the read lock if locked is true
+        boolean locked;
         int retryCount;
 
-        public RetryDetails() {
-            this.startCounter = spinCounter.get();
-            this.counter = startCounter;
+        public RetryDetails(int stripe) {
+            this.stripe = stripe;
+            this.stamp = stripeLocks[stripe].tryOptimisticRead();
+            this.locked = false;
             this.retryCount = 0;
         }
     }
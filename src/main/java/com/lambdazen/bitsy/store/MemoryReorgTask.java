@@ -0,0 +1,288 @@
+package com.lambdazen.bitsy.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.BitsyState;
+import com.lambdazen.bitsy.ads.dict.Dictionary;
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
+import com.lambdazen.bitsy.store.Record.RecordType;
+import com.lambdazen.bitsy.util.CommittableFileLog;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class writes the vertices and edges in the memory store to the given V
+ * and E file logs. It is used by a reorganization in place of
+ * CompactAndCopyTask, so that the old V/E files don't have to be re-read and
+ * re-parsed. The elements are serialized in chunks by multiple threads, and
+ * the chunks are appended in the order of the iteration.
+ *
+ * The memory store is not locked while it is being iterated. Transactions
+ * that commit during the iteration may be partially reflected in the files,
+ * but they are replayed from the transaction logs after the L record. The
+ * durability barrier must wait till every transaction visible in the memory
+ * store is written to those transaction logs, before the L record is added.
+ */
+public class MemoryReorgTask implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(MemoryReorgTask.class);
+
+    private static final AtomicInteger idCounter = new AtomicInteger(1);
+
+    // Initial buffer size per record to avoid too many resizings
+    private static final int INIT_BUFFER_SIZE_PER_RECORD = 256;
+
+    /** Number of elements serialized by a thread at a time. Can be changed by the application */
+    public static int RECORDS_PER_CHUNK = 10000;
+
+    /** Number of threads that serialize the elements. Can be changed by the application */
+    public static int NUM_SERIALIZER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    MemoryGraphStore store;
+    CommittableFileLog vLog;
+    CommittableFileLog eLog;
+    ObjectMapper mapper;
+    long nextTxCounter;
+    Runnable durabilityBarrier;
+    IORateLimiter rateLimiter;
+    ReorgStats reorgStats;
+    int addedLines;
+
+    /** The rate limiter and the statistics are optional */
+    public MemoryReorgTask(
+            MemoryGraphStore store,
+            CommittableFileLog vos,
+            CommittableFileLog eos,
+            ObjectMapper mapper,
+            long nextTxCounter,
+            Runnable durabilityBarrier,
+            IORateLimiter rateLimiter,
+            ReorgStats reorgStats) {
+        this.store = store;
+        this.vLog = vos;
+        this.eLog = eos;
+        this.mapper = mapper;
+        this.nextTxCounter = nextTxCounter;
+        this.durabilityBarrier = durabilityBarrier;
+        this.rateLimiter = rateLimiter;
+        this.reorgStats = reorgStats;
+        this.addedLines = 0;
+    }
+
+    public void run() {
+        final int numThreads = Math.max(1, NUM_SERIALIZER_THREADS);
+        final int id = idCounter.getAndIncrement();
+        ExecutorService serializerService = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            AtomicInteger threadCounter = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread ans = new Thread(r, "MemoryReorg-" + id + "-" + threadCounter.getAndIncrement());
+                ans.setDaemon(true);
+
+                return ans;
+            }
+        });
+
+        BitsyException toThrow = null;
+        try {
+            // Vertices are written before edges, so that an edge added during the iteration
+            // without its vertices is skipped by the next load, and replayed from the tx log
+            addedLines += writeChunks(serializerService, numThreads, store.getAllVertices(), vLog);
+            addedLines += writeChunks(serializerService, numThreads, store.getAllEdges(), eLog);
+
+            // The files may have transactions that are not in the transaction log yet
+            durabilityBarrier.run();
+
+            // An L entry is added to recover the V/E logs in case of crash in the middle of the NEXT copy process
+            vLog.append(Record.generateDBRecord(RecordType.L, "" + nextTxCounter, vLog.isBinary(), vLog.isCrc32c()));
+            eLog.append(Record.generateDBRecord(RecordType.L, "" + nextTxCounter, eLog.isBinary(), eLog.isCrc32c()));
+        } catch (BitsyException e) {
+            log.error("Unrecoverable error while writing the memory store during a reorganization", e);
+
+            toThrow = e;
+        } catch (Exception e) {
+            toThrow = new BitsyException(
+                    BitsyErrorCodes.INTERNAL_ERROR, "Error while writing the memory store to " + vLog.getPath(), e);
+            log.error("Unrecoverable error while writing the memory store during a reorganization", e);
+        } finally {
+            serializerService.shutdownNow();
+
+            try {
+                vLog.commit();
+            } catch (BitsyException e) {
+                log.error("Error while committing file " + vLog.getPath(), e);
+                if (toThrow == null) {
+                    toThrow = e;
+                }
+            }
+
+            try {
+                eLog.commit();
+            } catch (BitsyException e) {
+                log.error("Error while committing file " + eLog.getPath(), e);
+                if (toThrow == null) {
+                    toThrow = e;
+                }
+            }
+        }
+
+        if (toThrow != null) {
+            throw toThrow;
+        }
+    }
+
+    // Serializes the beans in chunks, and appends the chunks to the file in order. Returns the number of records
+    private int writeChunks(
+            ExecutorService serializerService, int numThreads, Collection<?> beans, CommittableFileLog output)
+            throws Exception {
+        int ans = 0;
+
+        // Bounds the memory used by the chunks that are serialized, but not written
+        ArrayDeque<Future<RecordOutput>> pending = new ArrayDeque<Future<RecordOutput>>();
+        ArrayDeque<Integer> pendingSizes = new ArrayDeque<Integer>();
+        int maxPending = 2 * numThreads;
+
+        List<Object> chunk = new ArrayList<Object>(RECORDS_PER_CHUNK);
+        for (Object bean : beans) {
+            chunk.add(bean);
+            ans++;
+
+            if (chunk.size() >= RECORDS_PER_CHUNK) {
+                pending.add(serializerService.submit(new SerializeTask(chunk, output)));
+                pendingSizes.add(chunk.size());
+                chunk = new ArrayList<Object>(RECORDS_PER_CHUNK);
+
+                if (pending.size() >= maxPending) {
+                    append(output, getChunk(pending.remove()), pendingSizes.remove());
+                }
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            pending.add(serializerService.submit(new SerializeTask(chunk, output)));
+            pendingSizes.add(chunk.size());
+        }
+
+        while (!pending.isEmpty()) {
+            append(output, getChunk(pending.remove()), pendingSizes.remove());
+        }
+
+        return ans;
+    }
+
+    // Appends a serialized chunk within the I/O budget
+    private void append(CommittableFileLog output, RecordOutput chunk, int numRecords) {
+        if (rateLimiter != null) {
+            rateLimiter.acquire(chunk.size());
+        }
+
+        output.append(chunk.toByteBuffer());
+
+        if (reorgStats != null) {
+            reorgStats.recordProgress(numRecords, chunk.size());
+        }
+    }
+
+    private RecordOutput getChunk(Future<RecordOutput> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            } else {
+                throw new BitsyException(
+                        BitsyErrorCodes.INTERNAL_ERROR, "Error while serializing the memory store", e.getCause());
+            }
+        }
+    }
+
+    public int getOutputLines() {
+        return addedLines;
+    }
+
+    /**
+     * This class serializes a chunk of vertices or edges into text lines or
+     * binary records, optionally compressed into blocks, in the format of the
+     * given output file
+     */
+    public class SerializeTask implements Callable<RecordOutput> {
+        List<Object> beans;
+        boolean binary;
+        boolean crc32c;
+        boolean compressed;
+
+        public SerializeTask(List<Object> beans, CommittableFileLog output) {
+            this.beans = beans;
+            this.binary = output.isBinary();
+            this.crc32c = output.isCrc32c();
+            this.compressed = output.isCompressed();
+        }
+
+        @Override
+        public RecordOutput call() throws Exception {
+            RecordOutput ans = new RecordOutput(INIT_BUFFER_SIZE_PER_RECORD * beans.size());
+
+            // Compressed records are collected in a block before they are added to the answer
+            RecordOutput out = compressed ? new RecordOutput(BlockCodec.BLOCK_SIZE + INIT_BUFFER_SIZE_PER_RECORD) : ans;
+            int blockCount = 0;
+
+            for (Object bean : beans) {
+                if (compressed && (out.size() >= BlockCodec.BLOCK_SIZE)) {
+                    BlockCodec.compress(ans, out, blockCount, binary, crc32c);
+                    out.reset();
+                    blockCount = 0;
+                }
+
+                blockCount++;
+
+                if (bean instanceof VertexBean) {
+                    VertexBean vBean = (VertexBean) bean;
+                    Dictionary properties = vBean.getPropertiesDict();
+                    VertexBeanJson vJson =
+                            new VertexBeanJson(vBean, vBean.getLabel(), properties, vBean.getVersion(), BitsyState.M);
+
+                    if (binary) {
+                        BinaryRecordCodec.encodeVertex(out, vJson);
+                    } else {
+                        Record.generateVertexLine(out, mapper, vJson, crc32c);
+                    }
+                } else {
+                    EdgeBean eBean = (EdgeBean) bean;
+                    Dictionary properties = eBean.getPropertiesDict();
+                    EdgeBeanJson eJson = new EdgeBeanJson(
+                            eBean,
+                            properties,
+                            eBean.getVersion(),
+                            eBean.getLabel(),
+                            eBean.getOutVertexId(),
+                            eBean.getInVertexId(),
+                            BitsyState.M);
+
+                    if (binary) {
+                        BinaryRecordCodec.encodeEdge(out, eJson);
+                    } else {
+                        Record.generateEdgeLine(out, mapper, eJson, crc32c);
+                    }
+                }
+            }
+
+            if (compressed && (blockCount > 0)) {
+                BlockCodec.compress(ans, out, blockCount, binary, crc32c);
+            }
+
+            return ans;
+        }
+    }
+}
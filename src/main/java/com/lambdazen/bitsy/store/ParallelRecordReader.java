@@ -1,17 +1,17 @@
 package com.lambdazen.bitsy.store;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.store.Record.RecordType;
 import com.lambdazen.bitsy.util.CommittableFileLog;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,37 +28,68 @@ public class ParallelRecordReader extends RecordReader {
     private ExecutorService deserializerService;
     private ArrayBlockingQueue<Batch> queue;
     private boolean isDone = false;
+    private Exception pendingException = null;
 
-    private boolean stopped = false;
+    private volatile boolean stopped = false;
 
-    private Iterator<Record> currentIterator;
+    // The batch that is being returned by next(), and the index of the next record in it
+    private Batch currentBatch;
+    private List<Record> currentRecords;
+    private int currentIndex;
+
+    // The position after the last record returned by next(), used to mark the file
+    private long lastPosition;
 
     public ParallelRecordReader(
             CommittableFileLog cfl, int numLinesPerBatch, ObjectReader vReader, ObjectReader eReader) {
-        super(cfl, vReader, eReader);
+        this(cfl, numLinesPerBatch, vReader, eReader, Runtime.getRuntime().availableProcessors() - 1);
+    }
 
-        this.numLinesPerBatch = numLinesPerBatch;
+    /** The number of processors is the number of threads that deserialize the records */
+    public ParallelRecordReader(
+            CommittableFileLog cfl,
+            int numLinesPerBatch,
+            ObjectReader vReader,
+            ObjectReader eReader,
+            int numProcessors) {
+        this(cfl, numLinesPerBatch, vReader, eReader, numProcessors, 1);
+    }
 
-        this.numProcessors = Runtime.getRuntime().availableProcessors() - 1; // one to insert, read is not 100% busy
-        if (numProcessors < 1) {
-            this.numProcessors = 1;
-        } else if (numProcessors > 4) {
-            this.numProcessors = 4; // Don't need more than 4 threads
-        }
+    /** The checksum sample interval is the number of records for which one checksum is verified */
+    public ParallelRecordReader(
+            CommittableFileLog cfl,
+            int numLinesPerBatch,
+            ObjectReader vReader,
+            ObjectReader eReader,
+            int numProcessors,
+            int checksumSampleInterval) {
+        super(cfl, vReader, eReader, checksumSampleInterval);
+
+        this.numLinesPerBatch = numLinesPerBatch;
+        this.numProcessors = Math.max(1, numProcessors);
 
         this.numBatchInQueue = QUEUE_TO_PROCESSOR_RATIO * numProcessors;
 
         this.producerService = Executors.newSingleThreadExecutor();
         this.deserializerService = Executors.newFixedThreadPool(numProcessors);
         this.queue = new ArrayBlockingQueue<Batch>(numBatchInQueue);
+        this.lastPosition = cfl.getReadPosition();
 
         // This keeps filling up the queue
         producerService.submit(new ProducerTask());
     }
 
     public Record next() throws Exception {
-        if ((currentIterator == null) || (!currentIterator.hasNext())) {
-            // The current iterator is done. Need to get the next iterator
+        while ((currentRecords == null) || (currentIndex >= currentRecords.size())) {
+            // The current batch is done. Records read before an exception are returned before throwing it
+            if (pendingException != null) {
+                Exception toThrow = pendingException;
+                pendingException = null;
+
+                shutdownServices();
+                throw toThrow;
+            }
+
             if (isDone) {
                 // Shutdown remaining services
                 log.debug("Shutting down services");
@@ -70,24 +101,42 @@ public class ParallelRecordReader extends RecordReader {
             // There should be more in the buffer
             Batch nextBatch = queue.take();
 
+            // Get the records, waiting for deserialization if necessary
+            currentBatch = nextBatch;
+            currentRecords = nextBatch.getRecords();
+            currentIndex = 0;
+
             if (nextBatch.isLastBatch() || (nextBatch.getException() != null)) {
-                // This boolean won't be used till the iterator is drained out
+                // This boolean won't be used till the batch is drained out
                 isDone = true;
-
-                if (nextBatch.getException() != null) {
-                    throw nextBatch.getException();
-                }
+                pendingException = nextBatch.getException();
             }
-
-            // Get the records, waiting for serialization if necessary
-            currentIterator = nextBatch.getRecords().iterator();
         }
 
-        if (currentIterator.hasNext()) {
-            return currentIterator.next();
-        } else {
-            shutdownServices();
-            return null;
+        lastPosition = currentBatch.recordPositions[currentIndex];
+        return currentRecords.get(currentIndex++);
+    }
+
+    @Override
+    public void mark() {
+        cfl.markAt(lastPosition);
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+
+        ExecutorService producer = producerService;
+        shutdownServices();
+
+        // Wait for the producer to stop reading from the file
+        if (producer != null) {
+            producer.shutdownNow();
+            try {
+                producer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for the reader of {} to stop", fileName);
+            }
         }
     }
 
@@ -105,24 +154,48 @@ public class ParallelRecordReader extends RecordReader {
     }
 
     public class Batch {
-        List<String> lines = new ArrayList<String>(numBatchInQueue);
+        List<byte[]> lines = new ArrayList<byte[]>(numBatchInQueue); // Decoded by the deserializer
+        List<byte[]> binaryRecords = new ArrayList<byte[]>(numBatchInQueue);
         List<Record> records = new ArrayList<Record>(numBatchInQueue);
+        long[] positions = new long[numLinesPerBatch]; // End position of each line or record in the file
+        long[] recordPositions; // End position of each record returned, which is the end of its block if any
+        int recordCount = 0; // Number of records, including the ones in compressed blocks
+        int startLineNo;
         boolean lastBatch = false;
         CountDownLatch cdl = new CountDownLatch(1);
         Exception exception;
 
-        public Batch() {
+        public Batch(int startLineNo) {
+            this.startLineNo = startLineNo;
             try {
                 log.debug("Reading a new batch from {}", cfl.getPath());
                 int count = 0;
-                String line;
-                while ((line = cfl.readLine()) != null) {
-                    count++;
+                if (cfl.isBinary()) {
+                    byte[] bytes;
+                    while ((bytes = cfl.readRecordBytes()) != null) {
+                        positions[count++] = cfl.getReadPosition();
+                        binaryRecords.add(bytes);
+                        recordCount += BlockCodec.peekRecordCount(bytes, true);
+
+                        if ((count >= numLinesPerBatch) || (recordCount >= numLinesPerBatch)) {
+                            return;
+                        }
+                    }
+
+                    log.debug("Reached end of {}", cfl.getPath());
+                    lastBatch = true;
+                    return;
+                }
+
+                byte[] line;
+                while ((line = cfl.readLineBytes()) != null) {
+                    positions[count++] = cfl.getReadPosition();
                     lines.add(line);
+                    recordCount += BlockCodec.peekRecordCount(line, false);
 
                     // log.debug("Read line: {}", line);
 
-                    if (count >= numLinesPerBatch) {
+                    if ((count >= numLinesPerBatch) || (recordCount >= numLinesPerBatch)) {
                         return;
                     }
                 }
@@ -139,16 +212,29 @@ public class ParallelRecordReader extends RecordReader {
             return lastBatch;
         }
 
-        public void deserialize() throws JsonProcessingException, IOException {
+        public int getLineCount() {
+            return recordCount;
+        }
+
+        public void deserialize() {
             try {
+                // The lines read before a read exception are deserialized, so that they can be
+                // returned before the exception is thrown
+                log.debug("Deserializing batch from {}", cfl.getPath());
+                recordPositions = new long[Math.max(recordCount, 1)];
+                int batchLineNo = startLineNo;
+                int rawIndex = 0;
+                for (byte[] line : lines) {
+                    batchLineNo = addRecords(line, false, positions[rawIndex++], batchLineNo);
+                }
+
+                for (byte[] bytes : binaryRecords) {
+                    batchLineNo = addRecords(bytes, true, positions[rawIndex++], batchLineNo);
+                }
+            } catch (Exception e) {
+                // Set the exception before counting down, so that the reader sees it with the records
                 if (exception == null) {
-                    // De-serialize only if the read was successful
-                    log.debug("Deserializing batch from {}", cfl.getPath());
-                    for (String line : lines) {
-                        Record rec = Record.parseRecord(line, lineNo++, fileName);
-                        rec.deserialize(vReader, eReader);
-                        records.add(rec);
-                    }
+                    exception = e;
                 }
             } finally {
                 // Don't hold up the next step irrespective of the exception
@@ -156,6 +242,39 @@ public class ParallelRecordReader extends RecordReader {
             }
         }
 
+        // Parses a line or a binary record, and expands it if it is a compressed block. Returns the last line number
+        private int addRecords(byte[] raw, boolean binary, long position, int batchLineNo) throws Exception {
+            batchLineNo++;
+            Record rec = Record.parseRecord(raw, binary, isVerified(batchLineNo), batchLineNo, fileName);
+            if (rec.getType() != RecordType.C) {
+                addRecord(rec, position);
+                return batchLineNo;
+            }
+
+            // Blocks are decompressed by the deserializer threads
+            List<byte[]> blockRecords = BlockCodec.expand(rec, batchLineNo, fileName);
+            batchLineNo--;
+            for (byte[] blockRecord : blockRecords) {
+                batchLineNo++;
+                addRecord(
+                        Record.parseRecord(blockRecord, binary, isVerified(batchLineNo), batchLineNo, fileName),
+                        position);
+            }
+
+            return batchLineNo;
+        }
+
+        private void addRecord(Record rec, long position) throws Exception {
+            rec.deserialize(vReader, eReader);
+
+            if (records.size() == recordPositions.length) {
+                recordPositions = Arrays.copyOf(recordPositions, 2 * recordPositions.length);
+            }
+
+            recordPositions[records.size()] = position;
+            records.add(rec);
+        }
+
         public List<Record> getRecords() throws InterruptedException {
             // Wait if serialization is not complete
             cdl.await();
@@ -174,8 +293,10 @@ public class ParallelRecordReader extends RecordReader {
 
     public class ProducerTask implements Runnable {
         public void run() {
+            int batchLineNo = lineNo;
             while (!stopped) {
-                final Batch batch = new Batch();
+                final Batch batch = new Batch(batchLineNo);
+                batchLineNo += batch.getLineCount();
 
                 // Add batch to the queue
                 try {
@@ -189,16 +310,12 @@ public class ParallelRecordReader extends RecordReader {
                 deserializerService.submit(new Runnable() {
                     @Override
                     public void run() {
-                        try {
-                            batch.deserialize();
-                        } catch (Exception e) {
-                            batch.setException(e);
-                        }
+                        batch.deserialize();
                     }
                 });
 
-                // Are we done yet?
-                if (batch.isLastBatch()) {
+                // Are we done yet? A batch with a read exception is the last one
+                if (batch.isLastBatch() || (batch.getException() != null)) {
                     // Producer's work is done
                     return;
                 }
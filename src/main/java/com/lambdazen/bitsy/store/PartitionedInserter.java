@@ -0,0 +1,263 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyEdge;
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.BitsyVertex;
+import com.lambdazen.bitsy.UUID;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class inserts the vertices and edges read from a V/E file into the
+ * memory graph store using multiple threads. The records are partitioned by
+ * vertex ID, so that every vertex and its adjacency lists are only updated by
+ * the thread that owns its partition, without a global lock.
+ *
+ * Vertices are inserted by the owner of the vertex. Edges are inserted in two
+ * phases. While the file is being read, the owner of the out-vertex updates
+ * the edge map and the out-vertex's adjacency list, and queues the update to
+ * the in-vertex for its owner. Once the file is read, every thread applies
+ * the queued updates to the in-vertices of its partition. The records of an
+ * element always go to the same thread, so they are applied in file order.
+ *
+ * The store must not have any key indexes, because the insert threads do not
+ * maintain them. Vertices must not be removed in parallel when the store has
+ * edges, because removing a vertex updates the adjacency lists of its
+ * neighbors. In that case the vertices are inserted by the calling thread.
+ */
+public class PartitionedInserter {
+    private static final Logger log = LoggerFactory.getLogger(PartitionedInserter.class);
+
+    private static final AtomicInteger idCounter = new AtomicInteger(1);
+
+    /** Number of records handed to an insert thread at a time */
+    public static int RECORDS_PER_BATCH = 1000;
+
+    /** Number of batches that can wait for each insert thread */
+    public static int BATCHES_PER_THREAD = 4;
+
+    private static final List<Object> END_OF_INPUT = new ArrayList<Object>();
+
+    private MemoryGraphStore store;
+    private IStringCanonicalizer canonicalizer;
+    private int numThreads;
+    private boolean parallelVertices;
+
+    private ExecutorService insertService;
+    private List<BlockingQueue<List<Object>>> queues;
+    private List<List<Object>> pending;
+    private List<Future<Long>> results;
+    private CyclicBarrier inVertexBarrier;
+
+    // Updates to in-vertices, indexed by [out-vertex partition][in-vertex partition]
+    private List<List<List<EdgeBean>>> inUpdates;
+
+    private long serialVE = 0;
+
+    public PartitionedInserter(MemoryGraphStore store, IStringCanonicalizer canonicalizer, int numThreads) {
+        assert numThreads > 1;
+        if (store.hasKeyIndexes()) {
+            throw new BitsyException(
+                    BitsyErrorCodes.INTERNAL_ERROR,
+                    "The partitioned inserter can not be used on a store with key indexes");
+        }
+
+        this.store = store;
+        this.canonicalizer = canonicalizer;
+        this.numThreads = numThreads;
+        this.parallelVertices = !store.hasEdges();
+
+        final int id = idCounter.getAndIncrement();
+        this.insertService = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            AtomicInteger threadCounter = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread ans = new Thread(r, "Inserter-" + id + "-" + threadCounter.getAndIncrement());
+                ans.setDaemon(true);
+
+                return ans;
+            }
+        });
+
+        this.queues = new ArrayList<BlockingQueue<List<Object>>>(numThreads);
+        this.pending = new ArrayList<List<Object>>(numThreads);
+        this.inUpdates = new ArrayList<List<List<EdgeBean>>>(numThreads);
+        this.results = new ArrayList<Future<Long>>(numThreads);
+        this.inVertexBarrier = new CyclicBarrier(numThreads);
+
+        for (int i = 0; i < numThreads; i++) {
+            queues.add(new ArrayBlockingQueue<List<Object>>(BATCHES_PER_THREAD));
+            pending.add(new ArrayList<Object>(RECORDS_PER_BATCH));
+
+            List<List<EdgeBean>> updatesFromPartition = new ArrayList<List<EdgeBean>>(numThreads);
+            for (int j = 0; j < numThreads; j++) {
+                updatesFromPartition.add(new ArrayList<EdgeBean>());
+            }
+            inUpdates.add(updatesFromPartition);
+        }
+
+        for (int i = 0; i < numThreads; i++) {
+            results.add(insertService.submit(new InsertTask(i)));
+        }
+    }
+
+    public void addVertex(BitsyVertex vertex) throws InterruptedException {
+        if (parallelVertices) {
+            dispatch(partition((UUID) vertex.id()), vertex);
+        } else {
+            serialVE = store.saveVertex(serialVE, vertex, canonicalizer);
+        }
+    }
+
+    public void addEdge(BitsyEdge edge) throws InterruptedException {
+        dispatch(partition(edge.getOutVertexId()), edge);
+    }
+
+    private void dispatch(int partition, Object obj) throws InterruptedException {
+        List<Object> batch = pending.get(partition);
+        batch.add(obj);
+
+        if (batch.size() >= RECORDS_PER_BATCH) {
+            queues.get(partition).put(batch);
+            pending.set(partition, new ArrayList<Object>(RECORDS_PER_BATCH));
+        }
+    }
+
+    private int partition(UUID id) {
+        int hash = id.hashCode();
+        hash ^= (hash >>> 16);
+
+        return (hash & 0x7fffffff) % numThreads;
+    }
+
+    /** Waits for the records to be inserted, and returns the number of vertices and edges added */
+    public long finish() throws Exception {
+        try {
+            for (int i = 0; i < numThreads; i++) {
+                List<Object> batch = pending.get(i);
+                if (!batch.isEmpty()) {
+                    queues.get(i).put(batch);
+                }
+                queues.get(i).put(END_OF_INPUT);
+            }
+
+            long ans = serialVE;
+            for (Future<Long> result : results) {
+                try {
+                    ans += result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    } else {
+                        throw new BitsyException(
+                                BitsyErrorCodes.INTERNAL_ERROR, "Error while inserting records", e.getCause());
+                    }
+                }
+            }
+
+            return ans;
+        } finally {
+            close();
+        }
+    }
+
+    /** Stops the insert threads without waiting for the records to be inserted */
+    public void close() {
+        insertService.shutdownNow();
+        try {
+            insertService.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for the insert threads to stop");
+        }
+    }
+
+    /** This class inserts the records of one partition */
+    public class InsertTask implements Callable<Long> {
+        int partition;
+
+        public InsertTask(int partition) {
+            this.partition = partition;
+        }
+
+        @Override
+        public Long call() throws Exception {
+            long addedVE = 0;
+
+            List<List<EdgeBean>> myInUpdates = inUpdates.get(partition);
+            EdgeBean[] inUpdate = new EdgeBean[2];
+
+            // Phase I: Insert the vertices, and the edges with their out-vertices
+            Exception toThrow = null;
+            try {
+                List<Object> batch;
+                while ((batch = queues.get(partition).take()) != END_OF_INPUT) {
+                    if (toThrow != null) {
+                        // Keep draining the queue, so that the reader is not blocked
+                        continue;
+                    }
+
+                    try {
+                        addedVE = insertBatch(batch, addedVE, myInUpdates, inUpdate);
+                    } catch (Exception e) {
+                        toThrow = e;
+                    }
+                }
+            } finally {
+                // Let the other threads proceed, even if this one failed
+                inVertexBarrier.await();
+            }
+
+            if (toThrow != null) {
+                throw toThrow;
+            }
+
+            // Phase II: Update the in-vertices of this partition, in the order of the out-vertex partitions
+            for (int i = 0; i < numThreads; i++) {
+                List<EdgeBean> updates = inUpdates.get(i).get(partition);
+                for (int j = 0; j < updates.size(); j += 2) {
+                    store.saveEdgeInVertex(updates.get(j), updates.get(j + 1));
+                }
+            }
+
+            return addedVE;
+        }
+
+        private long insertBatch(
+                List<Object> batch, long addedVE, List<List<EdgeBean>> myInUpdates, EdgeBean[] inUpdate) {
+            for (Object obj : batch) {
+                if (obj instanceof BitsyVertex) {
+                    addedVE = store.saveVertex(addedVE, (BitsyVertex) obj, canonicalizer);
+                } else {
+                    BitsyEdge edge = (BitsyEdge) obj;
+                    addedVE = store.saveEdgeOutVertex(addedVE, edge, canonicalizer, inUpdate);
+
+                    if ((inUpdate[0] != null) || (inUpdate[1] != null)) {
+                        List<EdgeBean> updates = myInUpdates.get(partition(edge.getInVertexId()));
+                        updates.add(inUpdate[0]);
+                        updates.add(inUpdate[1]);
+
+                        inUpdate[0] = null;
+                        inUpdate[1] = null;
+                    }
+                }
+            }
+
+            return addedVE;
+        }
+    }
+}
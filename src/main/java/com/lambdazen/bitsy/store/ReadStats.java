@@ -0,0 +1,51 @@
+package com.lambdazen.bitsy.store;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps track of the optimistic reads of the memory store. The
+ * counters are updated by every reader, so they are striped adders rather
+ * than synchronized fields. A reader that validates its stamp counts as an
+ * optimistic read, each failed validation counts as a retry, and a reader
+ * that gives up and takes the read lock of its stripe counts as a fallback.
+ */
+public class ReadStats {
+    private final LongAdder optimisticReadCount = new LongAdder();
+    private final LongAdder retryCount = new LongAdder();
+    private final LongAdder lockFallbackCount = new LongAdder();
+
+    public void recordOptimisticRead() {
+        optimisticReadCount.increment();
+    }
+
+    public void recordRetry() {
+        retryCount.increment();
+    }
+
+    public void recordLockFallback() {
+        lockFallbackCount.increment();
+    }
+
+    public long getOptimisticReadCount() {
+        return optimisticReadCount.sum();
+    }
+
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+    public long getLockFallbackCount() {
+        return lockFallbackCount.sum();
+    }
+
+    public void reset() {
+        optimisticReadCount.reset();
+        retryCount.reset();
+        lockFallbackCount.reset();
+    }
+
+    public String toString() {
+        return "ReadStats(optimistic reads = " + getOptimisticReadCount() + ", retries = " + getRetryCount()
+                + ", lock fallbacks = " + getLockFallbackCount() + ")";
+    }
+}
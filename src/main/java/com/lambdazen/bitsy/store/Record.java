@@ -14,10 +14,11 @@ import com.lambdazen.bitsy.BitsyException;
 import com.lambdazen.bitsy.BitsyVertex;
 import com.lambdazen.bitsy.IGraphStore;
 import com.lambdazen.bitsy.UUID;
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
 import java.io.IOException;
 import java.io.StringWriter;
 
-/** This class represents a line in a text file captured in the DB */
+/** This class represents a line in a text file, or a record in a binary file, captured in the DB */
 public class Record {
     private static final char[] HEX_CHAR_ARR = "0123456789abcdef".toCharArray();
     public static final String newLine = "\n";
@@ -31,20 +32,36 @@ public class Record {
         E, // Edges
         T, // Transaction
         I, // Index -- stored in meta?.txt files
-        M
-    }; // Major version -- stored in meta?.txt files
+        M, // Major version -- stored in meta?.txt files
+        C
+    }; // Compressed block of records -- see BlockCodec
 
-    private static final char[] recordChars = new char[] {'H', 'L', 'V', 'E', 'T', 'I', 'M'};
+    private static final char[] recordChars = new char[] {'H', 'L', 'V', 'E', 'T', 'I', 'M', 'C'};
     private static final RecordType[] recordTypes = new RecordType[] {
-        RecordType.H, RecordType.L, RecordType.V, RecordType.E, RecordType.T, RecordType.I, RecordType.M
+        RecordType.H, RecordType.L, RecordType.V, RecordType.E, RecordType.T, RecordType.I, RecordType.M, RecordType.C
     };
     private static final int numRecChars = recordChars.length;
 
     RecordType type;
     String json;
+    byte[] bytes; // Type, payload and checksum of a binary record. Null for text records
+
+    // A text line parsed from bytes. The JSON between jsonStart and jsonEnd is decoded only if needed
+    byte[] line;
+    int jsonStart;
+    int jsonEnd;
     BitsyEdge edge;
     BitsyVertex vertex;
 
+    /**
+     * Lines of the CRC32C format revision end with this character followed by the CRC32C of the line up to and
+     * including it. Lines of the older text formats end with '#' followed by the hash-code of the String
+     */
+    public static final char CRC32C_MARKER = '$';
+
+    // Separates the random integer from the commit timestamp in the payload of a T record
+    private static final char TX_TIMESTAMP_SEPARATOR = '@';
+
     public static boolean IS_ANDROID = "The Android Project".equals(System.getProperty("java.specification.vendor"));
     public static int ANDROID_EOR = 1234567890;
 
@@ -62,14 +79,46 @@ public class Record {
         this.json = json;
     }
 
+    private Record(RecordType type, String json, byte[] bytes) {
+        this.type = type;
+        this.json = json;
+        this.bytes = bytes;
+    }
+
+    private Record(RecordType type, byte[] line, int jsonStart, int jsonEnd) {
+        this.type = type;
+        this.line = line;
+        this.jsonStart = jsonStart;
+        this.jsonEnd = jsonEnd;
+    }
+
     public void deserialize(ObjectReader vReader, ObjectReader eReader) throws JsonProcessingException, IOException {
+        if (bytes != null) {
+            deserializeBinary(vReader != null, eReader != null);
+            return;
+        }
+
         if ((type == RecordType.V) && (vReader != null)) {
-            VertexBeanJson vBean = vReader.readValue(json);
+            VertexBeanJson vBean =
+                    (line != null) ? vReader.readValue(line, jsonStart, jsonEnd - jsonStart) : vReader.readValue(json);
             this.vertex = new BitsyVertex(vBean, null, vBean.getState());
         }
 
         if ((type == RecordType.E) && (eReader != null)) {
-            EdgeBeanJson eBean = eReader.readValue(json);
+            EdgeBeanJson eBean =
+                    (line != null) ? eReader.readValue(line, jsonStart, jsonEnd - jsonStart) : eReader.readValue(json);
+            this.edge = new BitsyEdge(eBean, null, eBean.getState());
+        }
+    }
+
+    private void deserializeBinary(boolean readVertex, boolean readEdge) throws IOException {
+        if ((type == RecordType.V) && readVertex) {
+            VertexBeanJson vBean = BinaryRecordCodec.decodeVertex(bytes);
+            this.vertex = new BitsyVertex(vBean, null, vBean.getState());
+        }
+
+        if ((type == RecordType.E) && readEdge) {
+            EdgeBeanJson eBean = BinaryRecordCodec.decodeEdge(bytes);
             this.edge = new BitsyEdge(eBean, null, eBean.getState());
         }
     }
@@ -78,10 +127,40 @@ public class Record {
         return type;
     }
 
+    /** Returns the string after the '=' for text records, and the payload of non-V/E binary records */
     public String getJson() {
+        if ((json == null) && (line != null)) {
+            json = new String(line, jsonStart, jsonEnd - jsonStart, FileBackedMemoryGraphStore.utf8);
+        }
+
         return json;
     }
 
+    /** Returns the type, payload and checksum of a binary record, or null for a text record */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /** Returns the payload of a T record, which has a random integer followed by the commit timestamp */
+    public static String generateTxPayload(int random, long timestamp) {
+        return Integer.toString(random) + TX_TIMESTAMP_SEPARATOR + timestamp;
+    }
+
+    /** Returns the commit timestamp in a T record, or -1 if the record was written without one */
+    public long getTxTimestamp() {
+        String payload = getJson();
+        int idx = (payload == null) ? -1 : payload.indexOf(TX_TIMESTAMP_SEPARATOR);
+        if (idx < 0) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(payload.substring(idx + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     // Efficient method to write a vertex -- avoids writeValueAsString
     public static void generateVertexLine(StringWriter sw, ObjectMapper mapper, VertexBean vBean)
             throws JsonGenerationException, JsonMappingException, IOException {
@@ -116,22 +195,277 @@ public class Record {
         sw.append('\n');
     }
 
+    // Writes a vertex line as UTF-8 bytes, without going through a String
+    public static void generateVertexLine(RecordOutput out, ObjectMapper mapper, VertexBean vBean, boolean crc32c)
+            throws JsonGenerationException, JsonMappingException, IOException {
+        int start = out.size();
+        out.write('V'); // Record type
+        out.write('=');
+
+        mapper.writeValue(out, vBean);
+
+        endLine(out, start, crc32c);
+    }
+
+    // Writes an edge line as UTF-8 bytes, without going through a String
+    public static void generateEdgeLine(RecordOutput out, ObjectMapper mapper, EdgeBean eBean, boolean crc32c)
+            throws JsonGenerationException, JsonMappingException, IOException {
+        int start = out.size();
+        out.write('E'); // Record type
+        out.write('=');
+
+        mapper.writeValue(out, eBean);
+
+        endLine(out, start, crc32c);
+    }
+
+    // Appends the checksum of the line that begins at the given position, computed over the bytes just written
+    private static void endLine(RecordOutput out, int start, boolean crc32c) {
+        int checksum;
+        if (crc32c) {
+            out.write(CRC32C_MARKER);
+            checksum = Crc32c.checksum(out.getBuffer(), start, out.size() - start);
+        } else {
+            out.write('#');
+            checksum = hashCode(out.getBuffer(), start, out.size() - start);
+        }
+
+        for (int i = 7; i >= 0; i--) { // MSB
+            out.write(HEX_CHAR_ARR[(checksum >>> (i << 2)) & 0xF]);
+        }
+        out.write('\n');
+    }
+
     public static String generateDBLine(RecordType type, String line) {
+        return generateDBLine(type, line, false);
+    }
+
+    /** Returns a text line that ends with the CRC32C of the line if crc32c is true, or its hash-code otherwise */
+    public static String generateDBLine(RecordType type, String line, boolean crc32c) {
+        if (crc32c) {
+            String dbLine = type + "=" + line + CRC32C_MARKER;
+            byte[] bytes = dbLine.getBytes(FileBackedMemoryGraphStore.utf8);
+
+            return dbLine + toHex(Crc32c.checksum(bytes, 0, bytes.length)) + newLine;
+        }
+
         String dbLine = type + "=" + line + "#";
         int hashCode = hashCode(dbLine);
 
         return dbLine + toHex(hashCode) + newLine;
     }
 
+    /**
+     * This method returns a record in the text or binary format, ready to be appended to a file. The crc32c flag
+     * selects the checksum of text lines
+     */
+    public static byte[] generateDBRecord(RecordType type, String line, boolean binary, boolean crc32c) {
+        if (binary) {
+            return BinaryRecordCodec.encode(type, line);
+        } else {
+            return generateDBLine(type, line, crc32c).getBytes(FileBackedMemoryGraphStore.utf8);
+        }
+    }
+
+    /** Parses a text line or a binary record, as read from a file or expanded from a block */
+    public static Record parseRecord(byte[] bytes, boolean binary, int recNo, String fileName) {
+        return parseRecord(bytes, binary, true, recNo, fileName);
+    }
+
+    /**
+     * Parses a text line or a binary record. The checksum is verified only if the verify flag is true. Lines that
+     * can not be parsed are always verified
+     */
+    public static Record parseRecord(byte[] bytes, boolean binary, boolean verify, int recNo, String fileName) {
+        if (binary) {
+            return parseBinaryRecord(bytes, verify, recNo, fileName);
+        } else {
+            return parseTextRecord(bytes, verify, recNo, fileName);
+        }
+    }
+
+    /**
+     * Parses a text line without decoding it into a String. The CRC32C or the hash-code is computed over the bytes,
+     * and the trailer is compared without converting either of them to a String
+     */
+    private static Record parseTextRecord(byte[] line, boolean verify, int lineNo, String fileName) {
+        int hashPos = line.length - 1;
+        while ((hashPos >= 0) && (line[hashPos] != '#') && (line[hashPos] != CRC32C_MARKER)) {
+            hashPos--;
+        }
+
+        if ((hashPos < 2) || (line[1] != '=')) {
+            // Let the String parser report the error
+            return parseRecord(new String(line, FileBackedMemoryGraphStore.utf8), lineNo, fileName);
+        }
+
+        if (verify) {
+            int checksum = (line[hashPos] == CRC32C_MARKER)
+                    ? Crc32c.checksum(line, 0, hashPos + 1)
+                    : hashCode(line, 0, hashPos + 1);
+
+            if (parseHex(line, hashPos + 1) != (checksum & 0xFFFFFFFFL)) {
+                // The slow path allows whitespace around the trailer, like the String parser
+                String expHashCode = toHex(checksum);
+                String actHashCode =
+                        new String(line, hashPos + 1, line.length - hashPos - 1, FileBackedMemoryGraphStore.utf8);
+                if (!actHashCode.trim().equals(expHashCode)) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.CHECKSUM_MISMATCH,
+                            "Line " + lineNo + " in file " + fileName + " has the wrong hash-code " + actHashCode
+                                    + ". Expected " + expHashCode);
+                }
+            }
+        }
+
+        return new Record(typeFromChar((char) line[0]), line, 2, hashPos);
+    }
+
+    // Returns the value of the 8 lower-case hex digits that end the line from the given position, or -1
+    private static long parseHex(byte[] line, int start) {
+        if (line.length - start != 8) {
+            return -1;
+        }
+
+        long ans = 0;
+        for (int i = start; i < line.length; i++) {
+            int b = line[i];
+            int digit;
+            if ((b >= '0') && (b <= '9')) {
+                digit = b - '0';
+            } else if ((b >= 'a') && (b <= 'f')) {
+                digit = b - 'a' + 10;
+            } else {
+                return -1;
+            }
+
+            ans = (ans << 4) | digit;
+        }
+
+        return ans;
+    }
+
+    /** Returns true if the given line ends with a CRC32C, i.e., it is in the CRC32C format revision */
+    public static boolean isCrc32cLine(String line) {
+        int hashPos = Math.max(line.lastIndexOf('#'), line.lastIndexOf(CRC32C_MARKER));
+
+        return (hashPos >= 0) && (line.charAt(hashPos) == CRC32C_MARKER);
+    }
+
+    /**
+     * Returns the hash-code of the String with the given UTF-8 bytes. The characters are decoded on the fly, with
+     * supplementary characters contributing both of their surrogates. Malformed input is decoded into a String, so
+     * that the replacement characters are hashed the same way
+     */
+    static int hashCode(byte[] bytes, int offset, int len) {
+        if (IS_ANDROID) {
+            return ANDROID_EOR;
+        }
+
+        int h = 0;
+        int end = offset + len;
+        int i = offset;
+        while (i < end) {
+            int b = bytes[i];
+            if (b >= 0) {
+                // ASCII
+                h = 31 * h + b;
+                i++;
+                continue;
+            }
+
+            int extra;
+            int cp;
+            if ((b & 0xE0) == 0xC0) {
+                extra = 1;
+                cp = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                extra = 2;
+                cp = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                extra = 3;
+                cp = b & 0x07;
+            } else {
+                return hashCodeOfString(bytes, offset, len);
+            }
+
+            if (i + extra >= end) {
+                return hashCodeOfString(bytes, offset, len);
+            }
+
+            for (int j = 1; j <= extra; j++) {
+                int cont = bytes[i + j];
+                if ((cont & 0xC0) != 0x80) {
+                    return hashCodeOfString(bytes, offset, len);
+                }
+
+                cp = (cp << 6) | (cont & 0x3F);
+            }
+
+            // Overlong encodings, surrogates and code points beyond Unicode are malformed
+            if (((extra == 1) && (cp < 0x80))
+                    || ((extra == 2) && ((cp < 0x800) || ((cp >= 0xD800) && (cp <= 0xDFFF))))
+                    || ((extra == 3) && ((cp < 0x10000) || (cp > 0x10FFFF)))) {
+                return hashCodeOfString(bytes, offset, len);
+            }
+
+            if (extra == 3) {
+                h = 31 * h + Character.highSurrogate(cp);
+                h = 31 * h + Character.lowSurrogate(cp);
+            } else {
+                h = 31 * h + cp;
+            }
+
+            i += extra + 1;
+        }
+
+        return h;
+    }
+
+    private static int hashCodeOfString(byte[] bytes, int offset, int len) {
+        return hashCode(new String(bytes, offset, len, FileBackedMemoryGraphStore.utf8));
+    }
+
+    public static Record parseBinaryRecord(byte[] rec, int recNo, String fileName) {
+        return parseBinaryRecord(rec, true, recNo, fileName);
+    }
+
+    private static Record parseBinaryRecord(byte[] rec, boolean verify, int recNo, String fileName) {
+        if (verify) {
+            int checksum = BinaryRecordCodec.checksum(rec);
+            int expChecksum = BinaryRecordCodec.storedChecksum(rec);
+            if (checksum != expChecksum) {
+                throw new BitsyException(
+                        BitsyErrorCodes.CHECKSUM_MISMATCH,
+                        "Record " + recNo + " in file " + fileName + " has the wrong checksum " + toHex(checksum)
+                                + ". Expected " + toHex(expChecksum));
+            }
+        }
+
+        RecordType type = typeFromChar((char) rec[0]);
+        if ((type == RecordType.V) || (type == RecordType.E) || (type == RecordType.C)) {
+            // Decoded lazily in deserialize(), or expanded by BlockCodec
+            return new Record(type, null, rec);
+        } else {
+            return new Record(type, BinaryRecordCodec.decodeString(rec), rec);
+        }
+    }
+
     public static Record parseRecord(String dbLine, int lineNo, String fileName) {
-        int hashPos = dbLine.lastIndexOf('#');
+        int hashPos = Math.max(dbLine.lastIndexOf('#'), dbLine.lastIndexOf(CRC32C_MARKER));
         if (hashPos < 0) {
             throw new BitsyException(
                     BitsyErrorCodes.CHECKSUM_MISMATCH,
                     "Line " + lineNo + " in file " + fileName + " has no hash-code. Encountered " + dbLine);
         } else {
             String hashCode = dbLine.substring(hashPos + 1);
-            String expHashCode = toHex(hashCode(dbLine.substring(0, hashPos + 1)));
+            String expHashCode;
+            if (dbLine.charAt(hashPos) == CRC32C_MARKER) {
+                byte[] bytes = dbLine.substring(0, hashPos + 1).getBytes(FileBackedMemoryGraphStore.utf8);
+                expHashCode = toHex(Crc32c.checksum(bytes, 0, bytes.length));
+            } else {
+                expHashCode = toHex(hashCode(dbLine.substring(0, hashPos + 1)));
+            }
 
             if ((hashCode == null)
                     || !hashCode.trim()
@@ -189,28 +523,37 @@ public class Record {
         JsonToken token;
 
         try {
-            try (JsonParser parser = factory.createParser(json)) {
-                while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
-                    // Find the version
-                    if (token == JsonToken.FIELD_NAME) {
-                        if (parser.currentName().equals("id")) {
-                            parser.nextToken();
-                            id = UUID.fromString(parser.getText());
-                            continue;
-                        }
-
-                        if (parser.currentName().equals("v")) {
-                            parser.nextToken();
-                            version = parser.getIntValue();
-                            continue;
-                        }
-
-                        if (parser.currentName().equals("s")) {
-                            parser.nextToken();
-                            state = parser.getText();
-
-                            // No need to proceed further
-                            break;
+            if (bytes != null) {
+                // The fixed header of a binary record has the fields
+                id = BinaryRecordCodec.decodeId(bytes);
+                version = BinaryRecordCodec.decodeVersion(bytes);
+                state = BinaryRecordCodec.decodeState(bytes).name();
+            } else {
+                try (JsonParser parser = (line != null)
+                        ? factory.createParser(line, jsonStart, jsonEnd - jsonStart)
+                        : factory.createParser(json)) {
+                    while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+                        // Find the version
+                        if (token == JsonToken.FIELD_NAME) {
+                            if (parser.currentName().equals("id")) {
+                                parser.nextToken();
+                                id = UUID.fromString(parser.getText());
+                                continue;
+                            }
+
+                            if (parser.currentName().equals("v")) {
+                                parser.nextToken();
+                                version = parser.getIntValue();
+                                continue;
+                            }
+
+                            if (parser.currentName().equals("s")) {
+                                parser.nextToken();
+                                state = parser.getText();
+
+                                // No need to proceed further
+                                break;
+                            }
                         }
                     }
                 }
@@ -219,7 +562,7 @@ public class Record {
             if ((id == null) || (version == -1) || (state == null)) {
                 throw new BitsyException(
                         BitsyErrorCodes.INTERNAL_ERROR,
-                        "Unable to parse record '" + json + "' in file " + fileName + " at line " + lineNo);
+                        "Unable to parse record '" + getJson() + "' in file " + fileName + " at line " + lineNo);
             }
 
             if (state.equals("D")) {
@@ -257,7 +600,7 @@ public class Record {
         } catch (Exception e) {
             throw new BitsyException(
                     BitsyErrorCodes.INTERNAL_ERROR,
-                    "Possible bug in code. Error serializing line '" + json + "' in file " + fileName + " at line "
+                    "Possible bug in code. Error serializing line '" + getJson() + "' in file " + fileName + " at line "
                             + lineNo,
                     e);
         }
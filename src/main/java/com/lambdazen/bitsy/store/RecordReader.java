@@ -1,7 +1,9 @@
 package com.lambdazen.bitsy.store;
 
 import com.fasterxml.jackson.databind.ObjectReader;
+import com.lambdazen.bitsy.store.Record.RecordType;
 import com.lambdazen.bitsy.util.CommittableFileLog;
+import java.util.ArrayDeque;
 
 public class RecordReader {
     CommittableFileLog cfl;
@@ -11,24 +13,65 @@ public class RecordReader {
     ObjectReader vReader;
     ObjectReader eReader;
 
+    // Checksums are verified for one in these many records
+    int checksumSampleInterval;
+
+    // Records of the last compressed block that are yet to be returned
+    ArrayDeque<byte[]> blockRecords = new ArrayDeque<byte[]>();
+
     public RecordReader(CommittableFileLog cfl, ObjectReader vReader, ObjectReader eReader) {
+        this(cfl, vReader, eReader, 1);
+    }
+
+    /**
+     * The checksum sample interval is the number of records for which one checksum is verified. A value of 1 verifies
+     * every record. This must only be more than 1 for files that were closed cleanly
+     */
+    public RecordReader(
+            CommittableFileLog cfl, ObjectReader vReader, ObjectReader eReader, int checksumSampleInterval) {
         this.cfl = cfl;
         this.fileName = cfl.getPath().toString();
         this.vReader = vReader;
         this.eReader = eReader;
+        this.checksumSampleInterval = Math.max(1, checksumSampleInterval);
+    }
+
+    /** Returns true if the checksum of the record with the given number must be verified */
+    protected boolean isVerified(int recNo) {
+        return (checksumSampleInterval == 1) || (recNo % checksumSampleInterval == 0);
     }
 
     public Record next() throws Exception {
-        String line = cfl.readLine();
+        while (blockRecords.isEmpty()) {
+            byte[] bytes = cfl.isBinary() ? cfl.readRecordBytes() : cfl.readLineBytes();
+            if (bytes == null) {
+                return null;
+            }
 
-        if (line == null) {
-            return null;
-        } else {
             lineNo++;
+            Record ans = Record.parseRecord(bytes, cfl.isBinary(), isVerified(lineNo), lineNo, fileName);
 
-            Record ans = Record.parseRecord(line, lineNo, fileName);
-            ans.deserialize(vReader, eReader);
-            return ans;
+            if (ans.getType() != RecordType.C) {
+                ans.deserialize(vReader, eReader);
+                return ans;
+            }
+
+            // The records in the block are returned one by one. They end where the block ends
+            blockRecords.addAll(BlockCodec.expand(ans, lineNo, fileName));
         }
+
+        Record ans = Record.parseRecord(blockRecords.remove(), cfl.isBinary(), isVerified(lineNo), lineNo, fileName);
+        ans.deserialize(vReader, eReader);
+        return ans;
+    }
+
+    /** Marks the end of the last record returned by next() in the file, so that the file can be truncated there */
+    public void mark() {
+        cfl.mark();
+    }
+
+    /** Stops reading ahead. The file can be truncated or closed after this call */
+    public void close() {
+        // Nothing to do
     }
 }
@@ -0,0 +1,117 @@
+package com.lambdazen.bitsy.store;
+
+/**
+ * This class keeps track of the progress and throughput of the V/E reorgs and
+ * of the flushes of transaction logs to the V/E files. Both run under the lock
+ * of the V/E reorg buffer, so at most one of them is in progress at a time.
+ * The statistics can be read from any thread.
+ */
+public class ReorgStats {
+    private long reorgCount;
+    private long reorgBytes;
+    private long reorgNanos;
+    private long lastReorgNanos;
+
+    private long flushCount;
+    private long flushBytes;
+    private long flushNanos;
+
+    // The background copy in progress
+    private boolean inReorg;
+    private boolean inFlush;
+    private long startNanos;
+    private long expectedUnits;
+    private long completedUnits;
+    private long currentBytes;
+
+    /** Called when a reorg starts, with the number of records or bytes that it is expected to process */
+    public synchronized void startReorg(long expectedUnits) {
+        this.inReorg = true;
+        this.startNanos = System.nanoTime();
+        this.expectedUnits = expectedUnits;
+        this.completedUnits = 0;
+        this.currentBytes = 0;
+    }
+
+    public synchronized void endReorg() {
+        if (inReorg) {
+            this.inReorg = false;
+            this.lastReorgNanos = System.nanoTime() - startNanos;
+            this.reorgCount++;
+            this.reorgBytes += currentBytes;
+            this.reorgNanos += lastReorgNanos;
+            this.completedUnits = expectedUnits;
+        }
+    }
+
+    public synchronized void startFlush() {
+        this.inFlush = true;
+        this.startNanos = System.nanoTime();
+        this.currentBytes = 0;
+    }
+
+    public synchronized void endFlush() {
+        if (inFlush) {
+            this.inFlush = false;
+            this.flushCount++;
+            this.flushBytes += currentBytes;
+            this.flushNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    /** Called by the copy tasks after the given number of records or bytes are processed, and bytes are written */
+    public synchronized void recordProgress(long units, long bytesWritten) {
+        this.completedUnits += units;
+        this.currentBytes += bytesWritten;
+    }
+
+    public synchronized boolean isReorgInProgress() {
+        return inReorg;
+    }
+
+    /** Returns the percentage of the ongoing or the last reorg that is complete */
+    public synchronized double getReorgProgress() {
+        if (expectedUnits <= 0) {
+            return inReorg ? 0 : 100;
+        } else {
+            return Math.min(100, 100.0 * completedUnits / expectedUnits);
+        }
+    }
+
+    public synchronized long getReorgCount() {
+        return reorgCount;
+    }
+
+    public synchronized long getLastReorgMillis() {
+        return lastReorgNanos / 1000000;
+    }
+
+    /** Returns the average rate at which the reorgs wrote to the V/E files */
+    public synchronized double getAverageReorgBytesPerSec() {
+        return (reorgNanos == 0) ? 0 : reorgBytes * 1000000000d / reorgNanos;
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    /** Returns the average rate at which the transaction logs were flushed to the V/E files */
+    public synchronized double getAverageFlushBytesPerSec() {
+        return (flushNanos == 0) ? 0 : flushBytes * 1000000000d / flushNanos;
+    }
+
+    public synchronized void reset() {
+        this.reorgCount = 0;
+        this.reorgBytes = 0;
+        this.reorgNanos = 0;
+        this.lastReorgNanos = 0;
+        this.flushCount = 0;
+        this.flushBytes = 0;
+        this.flushNanos = 0;
+    }
+
+    public synchronized String toString() {
+        return "ReorgStats(reorgs = " + reorgCount + ", reorg bytes = " + reorgBytes + ", last reorg = "
+                + getLastReorgMillis() + "ms, flushes = " + flushCount + ", flush bytes = " + flushBytes + ")";
+    }
+}
@@ -0,0 +1,41 @@
+package com.lambdazen.bitsy.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class is the graph-wide table of the labels and property keys. The
+ * canonical instance of each symbol is shared by all the beans and
+ * dictionaries that refer to it. The labels and keys are canonicalized on
+ * every commit, and not just when the database is loaded.
+ *
+ * This class is thread-safe, since the records are loaded by multiple threads.
+ */
+public class SymbolTable implements IStringCanonicalizer {
+    private final ConcurrentMap<String, String> symbols;
+
+    public SymbolTable() {
+        this.symbols = new ConcurrentHashMap<String, String>();
+    }
+
+    /** Returns the canonical instance of the given string, which is added to the table if it is new */
+    public String canonicalize(String str) {
+        if (str == null) {
+            return null;
+        }
+
+        String canonicalString = symbols.get(str);
+        if (canonicalString != null) {
+            return canonicalString;
+        }
+
+        canonicalString = symbols.putIfAbsent(str, str);
+
+        return (canonicalString == null) ? str : canonicalString;
+    }
+
+    /** Returns the number of symbols in the table */
+    public int size() {
+        return symbols.size();
+    }
+}
@@ -0,0 +1,71 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class pools the direct buffers that carry serialized transactions from
+ * the committing threads to the transaction log. A transaction is serialized
+ * into a buffer that is reused by the committing thread, and copied once into
+ * a pooled buffer. The buffer is returned to the pool after the transaction
+ * log writer has written it.
+ *
+ * Direct buffers are written to the file channel as they are, while heap
+ * buffers are copied by the JDK into a temporary direct buffer in the writer
+ * thread. So this moves the only copy of the records from the writer thread,
+ * which is shared by all commits, to the committing threads.
+ */
+public class TxBufferPool {
+    /** Capacity of the pooled buffers. Larger transactions get a heap buffer of their own. Can be changed by the application */
+    public static int BUFFER_SIZE = 64 * 1024;
+
+    /** Maximum number of free buffers retained by a pool. Can be changed by the application */
+    public static int MAX_FREE_BUFFERS = 256;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger numFreeBuffers = new AtomicInteger(0);
+
+    /** Returns a buffer with a copy of the bytes in the given output, ready to be written */
+    public ByteBuffer copyOf(RecordOutput out) {
+        int size = out.size();
+
+        ByteBuffer ans;
+        if (size > BUFFER_SIZE) {
+            ans = ByteBuffer.allocate(size);
+        } else {
+            ans = freeBuffers.poll();
+            if (ans == null) {
+                ans = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            } else {
+                numFreeBuffers.decrementAndGet();
+                ans.clear();
+            }
+        }
+
+        ans.put(out.getBuffer(), 0, size);
+        ans.flip();
+
+        return ans;
+    }
+
+    /** Returns a buffer to the pool. The buffer must not be used after this call */
+    public void release(ByteBuffer buf) {
+        if (!buf.isDirect() || (buf.capacity() != BUFFER_SIZE)) {
+            // Not pooled, or pooled before the size was changed
+            return;
+        }
+
+        if (numFreeBuffers.incrementAndGet() <= MAX_FREE_BUFFERS) {
+            freeBuffers.offer(buf);
+        } else {
+            numFreeBuffers.decrementAndGet();
+        }
+    }
+
+    /** Returns the number of free buffers in the pool */
+    public int getFreeBuffers() {
+        return numFreeBuffers.get();
+    }
+}
@@ -0,0 +1,308 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.store.Record.RecordType;
+import com.lambdazen.bitsy.util.CommittableFileLog;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class keeps the sealed transaction logs of a database in an archive
+ * directory, and replays them on a restored backup for a point-in-time
+ * recovery. A segment is archived after it is copied to the V/E files and
+ * before it is cleared, as tx-&lt;counter&gt;.txt where the counter is the one
+ * in its header. The T records in the segments have the commit timestamps.
+ *
+ * The archive directory is a setting of the database, which is kept in
+ * txArchive.txt, so that the segments flushed on startup are archived too.
+ * The setting also has the counter from which the archive has every segment,
+ * which moves past a segment that could not be archived.
+ *
+ * The manifest of a backup lists the segments that were not applied to its
+ * V/E files. The archived segments from the smallest of their counters
+ * onwards have the transactions committed after the backup. These are
+ * concatenated into that segment of the restored database, up to the given
+ * counter or timestamp, and the database loads it like any other segment.
+ */
+public class TxLogArchive {
+    private static final Logger log = LoggerFactory.getLogger(TxLogArchive.class);
+
+    public static final String FILE_NAME = "txArchive.txt";
+    private static final String TEMP_FILE_NAME = "txArchive.tmp";
+
+    private static final String ARCHIVE_PREFIX = "tx-";
+    private static final String ARCHIVE_SUFFIX = ".txt";
+    private static final String ARCHIVE_TEMP_SUFFIX = ".tmp";
+
+    private TxLogArchive() {
+        // Only static methods
+    }
+
+    /** Returns the archive directory of the database, or null if its transaction logs aren't archived */
+    public static Path readArchivePath(Path dbPath) {
+        List<String> lines = readSetting(dbPath);
+
+        return lines.isEmpty() ? null : Paths.get(lines.get(0));
+    }
+
+    /**
+     * Returns the counter from which the archive of the database has every
+     * transaction log, or Long.MAX_VALUE if it isn't known.
+     */
+    public static long readArchiveFromCounter(Path dbPath) {
+        List<String> lines = readSetting(dbPath);
+        if (lines.size() < 2) {
+            return Long.MAX_VALUE;
+        }
+
+        try {
+            return Long.parseLong(lines.get(1));
+        } catch (NumberFormatException e) {
+            throw new BitsyException(
+                    BitsyErrorCodes.ERROR_READING_FROM_FILE,
+                    "Bad counter in " + dbPath.resolve(FILE_NAME) + ": " + lines.get(1),
+                    e);
+        }
+    }
+
+    // Returns the lines of the setting other than the comments
+    private static List<String> readSetting(Path dbPath) {
+        Path path = dbPath.resolve(FILE_NAME);
+        List<String> ans = new ArrayList<String>();
+        if (!Files.exists(path)) {
+            return ans;
+        }
+
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    ans.add(line);
+                }
+            }
+
+            return ans;
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_READING_FROM_FILE, "File: " + path, e);
+        }
+    }
+
+    /**
+     * Replaces the archive directory of the database, which is created if it
+     * is missing, along with the counter from which the archive has every
+     * transaction log. Null stops the archiving.
+     */
+    public static void writeArchivePath(Path dbPath, Path archivePath, long fromCounter) {
+        Path path = dbPath.resolve(FILE_NAME);
+        try {
+            if (archivePath == null) {
+                Files.deleteIfExists(path);
+                return;
+            }
+
+            Files.createDirectories(archivePath);
+
+            String content = "# Directory to which the transaction logs are archived after they are applied\n"
+                    + archivePath.toAbsolutePath() + "\n"
+                    + "# Counter from which the directory has every transaction log\n"
+                    + fromCounter + "\n";
+
+            Path tempPath = dbPath.resolve(TEMP_FILE_NAME);
+            Files.write(tempPath, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_WRITING_TO_FILE, "File: " + path, e);
+        }
+    }
+
+    /** Copies a sealed transaction log to the archive directory. The log must not be modified during this call */
+    public static void archive(CommittableFileLog txLog, Path archiveDir) {
+        Path target = archiveDir.resolve(ARCHIVE_PREFIX + txLog.getCounter() + ARCHIVE_SUFFIX);
+        Path tempPath = archiveDir.resolve(ARCHIVE_PREFIX + txLog.getCounter() + ARCHIVE_TEMP_SUFFIX);
+
+        log.debug("Archiving {} to {}", txLog, target);
+        try {
+            Files.copy(txLog.getPath(), tempPath, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+
+            Files.move(tempPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_WRITING_TO_FILE, "File: " + target, e);
+        }
+    }
+
+    /** Returns the archived transaction logs in the given directory by their counters */
+    public static SortedMap<Long, Path> list(Path archiveDir) {
+        SortedMap<Long, Path> ans = new TreeMap<Long, Path>();
+        try (DirectoryStream<Path> paths =
+                Files.newDirectoryStream(archiveDir, ARCHIVE_PREFIX + "*" + ARCHIVE_SUFFIX)) {
+            for (Path path : paths) {
+                String fileName = path.getFileName().toString();
+                try {
+                    ans.put(
+                            Long.parseLong(fileName.substring(
+                                    ARCHIVE_PREFIX.length(), fileName.length() - ARCHIVE_SUFFIX.length())),
+                            path);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring {} in the archive directory {}", fileName, archiveDir);
+                }
+            }
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_READING_FROM_FILE, "Directory: " + archiveDir, e);
+        }
+
+        return ans;
+    }
+
+    /**
+     * Restores the given backup to the given empty directory, and replays the
+     * archived transaction logs committed after the backup. The logs of an
+     * incremental backup are replayed along with the archived ones. The
+     * replay stops after the log with the given counter, or before the first
+     * transaction committed after the given timestamp in milliseconds.
+     * Returns the number of transactions replayed, which are applied when the
+     * database is opened.
+     */
+    public static int recover(Path backupDir, Path archiveDir, Path dbPath, long maxCounter, long maxTimestamp) {
+        IncrementalBackup backup = IncrementalBackup.restoreBase(backupDir, dbPath);
+
+        SortedMap<Long, Path> logs = list(archiveDir);
+        if (backup != null) {
+            logs.putAll(backup.getTxLogs(backupDir));
+        }
+
+        return replay(logs, dbPath, maxCounter, maxTimestamp);
+    }
+
+    /**
+     * Replays the archived transaction logs on a database restored from a
+     * backup, up to the given counter and timestamp. Returns the number of
+     * transactions replayed.
+     */
+    public static int replay(Path archiveDir, Path dbPath, long maxCounter, long maxTimestamp) {
+        return replay(list(archiveDir), dbPath, maxCounter, maxTimestamp);
+    }
+
+    /** Replays the given transaction logs by their counters. See {@link #replay(Path, Path, long, long)} */
+    static int replay(SortedMap<Long, Path> allLogs, Path dbPath, long maxCounter, long maxTimestamp) {
+        try {
+            // The segment with the smallest counter is the next one to be applied to the V/E files
+            CommittableFileLog target = null;
+            for (String segmentName : TxLogManifest.getSegmentNames(dbPath)) {
+                CommittableFileLog segment = new CommittableFileLog(dbPath.resolve(segmentName), true);
+                try {
+                    segment.openForRead();
+                    if ((segment.getCounter() == null) || (new RecordReader(segment, null, null).next() != null)) {
+                        throw new BitsyException(
+                                BitsyErrorCodes.RESTORE_FAILED,
+                                "Expecting " + segment.getPath() + " to be empty. Transaction logs can only be replayed"
+                                        + " on a restored backup");
+                    }
+                } finally {
+                    segment.close();
+                }
+
+                if ((target == null) || (segment.getCounter() < target.getCounter())) {
+                    target = segment;
+                }
+            }
+
+            long startCounter = target.getCounter();
+            SortedMap<Long, Path> logs = allLogs.tailMap(startCounter);
+            if (logs.isEmpty() || (logs.firstKey() > maxCounter)) {
+                log.info("No transaction logs to replay from counter {} on {}", startCounter, dbPath);
+                return 0;
+            } else if (logs.firstKey() != startCounter) {
+                throw new BitsyException(
+                        BitsyErrorCodes.RESTORE_FAILED,
+                        "Missing the transaction log with counter " + startCounter + ", which follows the backup"
+                                + " restored to " + dbPath);
+            }
+
+            target.openForOverwrite(startCounter);
+            target.close();
+
+            int numTx = 0;
+            try (FileChannel out =
+                    FileChannel.open(target.getPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                for (Map.Entry<Long, Path> entry : logs.entrySet()) {
+                    if (entry.getKey() > maxCounter) {
+                        break;
+                    }
+
+                    CommittableFileLog input = new CommittableFileLog(entry.getValue(), true);
+                    long start;
+                    long end;
+                    boolean done = false;
+                    try {
+                        input.openForRead();
+                        if ((input.isBinary() != target.isBinary()) || (input.isCrc32c() != target.isCrc32c())) {
+                            throw new BitsyException(
+                                    BitsyErrorCodes.RESTORE_FAILED,
+                                    "The format of " + input.getPath() + " doesn't match the database in " + dbPath);
+                        }
+
+                        // Only whole transactions committed up to the timestamp are replayed
+                        start = input.getReadPosition();
+                        end = start;
+                        RecordReader reader = new RecordReader(input, null, null);
+                        Record rec;
+                        while ((rec = reader.next()) != null) {
+                            if (rec.getType() == RecordType.T) {
+                                if (rec.getTxTimestamp() > maxTimestamp) {
+                                    done = true;
+                                    break;
+                                }
+
+                                reader.mark();
+                                end = input.getMarkPosition();
+                                numTx++;
+                            }
+                        }
+                    } finally {
+                        input.close();
+                    }
+
+                    log.debug("Replaying {} from {} to {}", input.getPath(), start, end);
+                    try (FileChannel in = FileChannel.open(input.getPath(), StandardOpenOption.READ)) {
+                        IncrementalBackup.transfer(in, start, end, out);
+                    }
+
+                    if (done) {
+                        break;
+                    }
+                }
+
+                out.force(true);
+            }
+
+            log.info("Replayed {} transactions into {}", numTx, target.getPath());
+
+            return numTx;
+        } catch (BitsyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BitsyException(
+                    BitsyErrorCodes.RESTORE_FAILED,
+                    "Encountered exception while replaying the transaction logs on " + dbPath,
+                    e);
+        }
+    }
+}
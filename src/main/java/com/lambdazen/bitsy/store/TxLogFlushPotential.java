@@ -1,14 +1,15 @@
 package com.lambdazen.bitsy.store;
 
 import com.lambdazen.bitsy.store.FileBackedMemoryGraphStore.FlushNowJob;
+import com.lambdazen.bitsy.store.FileBackedMemoryGraphStore.SyncNowJob;
 import com.lambdazen.bitsy.util.BufferPotential;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This potential function keeps track of the total bytes written to TA or
- * TB.txt and suggests a flush operation when that number exceeds the given
- * txLogThreshold
+ * This potential function keeps track of the total bytes written to the
+ * active transaction log segment, e.g., txA.txt, and suggests a flush
+ * operation when that number exceeds the given txLogThreshold
  */
 public class TxLogFlushPotential implements BufferPotential<ITxBatchJob> {
     private static final Logger log = LoggerFactory.getLogger(TxLogFlushPotential.class);
@@ -39,6 +40,9 @@ public class TxLogFlushPotential implements BufferPotential<ITxBatchJob> {
             log.debug("Tx buffer has been flushed explicitly");
 
             return true;
+        } else if (newWork instanceof SyncNowJob) {
+            // Only syncs the log
+            return false;
         } else {
             // Error has already been logged before
             log.debug("Unsupported type of work in TxLogFlushPotential: {}", newWork.getClass());
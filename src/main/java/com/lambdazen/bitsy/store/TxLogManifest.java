@@ -0,0 +1,179 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class reads and writes the manifest of the transaction log segments.
+ * The manifest lists the segment files with their counters, along with the
+ * applied counter. Every segment with a counter below the applied counter has
+ * been copied to the V/E files. A database without a manifest has the two
+ * segments txA and txB.
+ *
+ * The manifest is replaced atomically. A segment is created before it is
+ * added to the manifest, and deleted after it is removed from it. Only empty
+ * segments are created or deleted, so a crash in between is harmless. A
+ * segment is cleared before the manifest is written with its new counter, so
+ * the counter in a segment file is never below the one in the manifest,
+ * unless the segment was cleared after it was applied and the clearing was
+ * lost in a crash.
+ */
+public class TxLogManifest {
+    private static final Logger log = LoggerFactory.getLogger(TxLogManifest.class);
+
+    public static final String FILE_NAME = "txManifest.txt";
+    private static final String TEMP_FILE_NAME = "txManifest.tmp";
+    private static final String APPLIED_KEY = "applied";
+
+    /** The segments of a database without a manifest */
+    public static final List<String> DEFAULT_SEGMENT_NAMES =
+            Collections.unmodifiableList(Arrays.asList("txA.txt", "txB.txt"));
+
+    private long appliedCounter;
+    private List<String> segmentNames;
+    private List<Long> counters;
+
+    private TxLogManifest(long appliedCounter, List<String> segmentNames, List<Long> counters) {
+        this.appliedCounter = appliedCounter;
+        this.segmentNames = segmentNames;
+        this.counters = counters;
+    }
+
+    public long getAppliedCounter() {
+        return appliedCounter;
+    }
+
+    public List<String> getSegmentNames() {
+        return segmentNames;
+    }
+
+    /** Returns the counter of the given segment when the manifest was written, or null if it isn't in the manifest */
+    public Long getCounter(String segmentName) {
+        int idx = segmentNames.indexOf(segmentName);
+
+        return (idx < 0) ? null : counters.get(idx);
+    }
+
+    /** Returns the manifest of the database, or null if the database doesn't have a manifest */
+    public static TxLogManifest read(Path dbPath) {
+        Path path = dbPath.resolve(FILE_NAME);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try {
+            Long appliedCounter = null;
+            List<String> segmentNames = new ArrayList<String>();
+            List<Long> counters = new ArrayList<Long>();
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                int idx = line.indexOf('=');
+                if (idx < 0) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.ERROR_READING_FROM_FILE, "Bad line in " + path + ": " + line);
+                }
+
+                String key = line.substring(0, idx);
+                long value;
+                try {
+                    value = Long.parseLong(line.substring(idx + 1));
+                } catch (NumberFormatException e) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.ERROR_READING_FROM_FILE, "Bad counter in " + path + ": " + line, e);
+                }
+
+                if (key.equals(APPLIED_KEY)) {
+                    appliedCounter = value;
+                } else {
+                    segmentNames.add(key);
+                    counters.add(value);
+                }
+            }
+
+            if ((appliedCounter == null) || segmentNames.isEmpty()) {
+                throw new BitsyException(
+                        BitsyErrorCodes.ERROR_READING_FROM_FILE,
+                        "The manifest " + path + " must have the applied counter and at least one segment");
+            }
+
+            return new TxLogManifest(appliedCounter, segmentNames, counters);
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_READING_FROM_FILE, "File: " + path, e);
+        }
+    }
+
+    /** Returns the names of the segment files, or null if the database doesn't have a manifest */
+    public static List<String> readSegmentNames(Path dbPath) {
+        TxLogManifest manifest = read(dbPath);
+
+        return (manifest == null) ? null : manifest.getSegmentNames();
+    }
+
+    /** Returns the names of the segment files, which are txA and txB if the database doesn't have a manifest */
+    public static List<String> getSegmentNames(Path dbPath) {
+        List<String> ans = readSegmentNames(dbPath);
+
+        return (ans == null) ? DEFAULT_SEGMENT_NAMES : ans;
+    }
+
+    /** Replaces the manifest with the given segments and counters */
+    public static void write(Path dbPath, long appliedCounter, List<String> segmentNames, List<Long> counters) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(
+                "# Transaction log segments. Segments with a counter below the applied counter are in the V/E files\n");
+        sb.append(APPLIED_KEY).append('=').append(appliedCounter).append('\n');
+        for (int i = 0; i < segmentNames.size(); i++) {
+            sb.append(segmentNames.get(i)).append('=').append(counters.get(i)).append('\n');
+        }
+
+        Path tempPath = dbPath.resolve(TEMP_FILE_NAME);
+        Path path = dbPath.resolve(FILE_NAME);
+        try {
+            try (FileChannel channel = FileChannel.open(
+                    tempPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+
+                channel.force(true);
+            }
+
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BitsyException(BitsyErrorCodes.ERROR_WRITING_TO_FILE, "File: " + path, e);
+        }
+
+        forceDirectory(dbPath);
+    }
+
+    // The rename is durable only after the directory is forced. Some platforms, e.g., Windows, can't open a directory
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Could not force the directory {}", dir, e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.lambdazen.bitsy.store;
+
+/**
+ * This class keeps track of the batches written to the transaction log, and
+ * the time taken to force the log to the disk. Batches are written by a single
+ * thread, but the statistics can be read from any thread.
+ */
+public class TxLogStats {
+    private long batchCount;
+    private long txCount;
+    private long bytes;
+    private long syncCount;
+    private long totalSyncNanos;
+    private long maxSyncNanos;
+    private long asyncFailureCount;
+
+    public synchronized void recordBatch(int txCountInBatch, long bytesInBatch) {
+        this.batchCount++;
+        this.txCount += txCountInBatch;
+        this.bytes += bytesInBatch;
+    }
+
+    public synchronized void recordSync(long nanos) {
+        this.syncCount++;
+        this.totalSyncNanos += nanos;
+        this.maxSyncNanos = Math.max(maxSyncNanos, nanos);
+    }
+
+    public synchronized void recordAsyncFailure() {
+        this.asyncFailureCount++;
+    }
+
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /** Returns the average number of transactions per batch */
+    public synchronized double getAverageBatchSize() {
+        return (batchCount == 0) ? 0 : ((double) txCount) / batchCount;
+    }
+
+    /** Returns the average number of bytes per batch */
+    public synchronized double getAverageBatchBytes() {
+        return (batchCount == 0) ? 0 : ((double) bytes) / batchCount;
+    }
+
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    public synchronized double getAverageSyncMicros() {
+        return (syncCount == 0) ? 0 : totalSyncNanos / 1000.0 / syncCount;
+    }
+
+    public synchronized long getMaxSyncMicros() {
+        return maxSyncNanos / 1000;
+    }
+
+    /** Returns the number of ASYNC commits that could not be written to the transaction log */
+    public synchronized long getAsyncFailureCount() {
+        return asyncFailureCount;
+    }
+
+    public synchronized void reset() {
+        this.batchCount = 0;
+        this.txCount = 0;
+        this.bytes = 0;
+        this.syncCount = 0;
+        this.totalSyncNanos = 0;
+        this.maxSyncNanos = 0;
+        this.asyncFailureCount = 0;
+    }
+
+    public synchronized String toString() {
+        return "TxLogStats(batches = " + batchCount + ", txs = " + txCount + ", bytes = " + bytes + ", syncs = "
+                + syncCount + ", avg sync = " + getAverageSyncMicros() + "us, max sync = " + getMaxSyncMicros()
+                + "us, async failures = " + asyncFailureCount + ")";
+    }
+}
@@ -1,52 +1,58 @@
 package com.lambdazen.bitsy.store;
 
 import com.lambdazen.bitsy.BitsyException;
-import com.lambdazen.bitsy.util.CommittableFileLog;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
-/** This class captures a transaction to be written to the TA/B transaction files */
+/** This class captures a transaction to be written to the transaction log segments */
 public class TxUnit extends JobWithCountDownLatch {
-    ByteBuffer vertices;
-    ByteBuffer edges;
-    ByteBuffer tx;
+    ByteBuffer records;
+    TxBufferPool pool;
     BitsyException bex;
+    CompletableFuture<Void> future;
+    boolean forceLog;
+    long createTime;
 
-    public TxUnit(ByteBuffer vertices, ByteBuffer edges, ByteBuffer tx) {
-        this.vertices = vertices;
-        this.edges = edges;
-        this.tx = tx;
+    /** Creates a unit with the V, E and T records of a transaction. The buffer is returned to the pool, if any, after the write */
+    public TxUnit(ByteBuffer records, TxBufferPool pool) {
+        this.records = records;
+        this.pool = pool;
+        this.createTime = System.nanoTime();
     }
 
-    public ByteBuffer getByteBufferForV() {
-        vertices.position(0);
+    /** Returns the records, ready to be written */
+    public ByteBuffer getByteBuffer() {
+        records.position(0);
 
-        return vertices;
+        return records;
     }
 
-    public ByteBuffer getByteBufferForE() {
-        edges.position(0);
-
-        return edges;
+    public int size() {
+        return records.limit();
     }
 
-    public ByteBuffer getByteBufferForT() {
-        tx.position(0);
+    /** Returns the buffer to its pool. Called after the unit is written, whether or not the write succeeded */
+    public void releaseBuffer() {
+        if (pool != null) {
+            pool.release(records);
+            pool = null;
+        }
 
-        return tx;
+        records = null;
     }
 
-    public int writeToFile(CommittableFileLog cfl) {
-        ByteBuffer vbb = getByteBufferForV();
-        ByteBuffer ebb = getByteBufferForE();
-        ByteBuffer tbb = getByteBufferForT();
-
-        int size = vbb.remaining() + ebb.remaining() + tbb.remaining();
+    public boolean isForceLog() {
+        return forceLog;
+    }
 
-        cfl.append(vbb);
-        cfl.append(ebb);
-        cfl.append(tbb);
+    /** Makes the transaction log durable after this unit is written, whatever the durability mode */
+    public void setForceLog(boolean forceLog) {
+        this.forceLog = forceLog;
+    }
 
-        return size;
+    /** Returns the nanoseconds since this unit was created by the commit */
+    public long getAgeNanos() {
+        return System.nanoTime() - createTime;
     }
 
     public BitsyException getException() {
@@ -56,4 +62,27 @@ public class TxUnit extends JobWithCountDownLatch {
     public void setException(BitsyException bex) {
         this.bex = bex;
     }
+
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+
+    /** Sets the future that is completed after the transaction is written to the log. Must be called before queuing the unit */
+    public void setFuture(CompletableFuture<Void> future) {
+        this.future = future;
+    }
+
+    /** Completes the future, if any, with the exception from the write or the one passed in */
+    public void completeFuture(BitsyException flushException) {
+        if (future == null) {
+            return;
+        }
+
+        BitsyException toThrow = (bex != null) ? bex : flushException;
+        if (toThrow != null) {
+            future.completeExceptionally(toThrow);
+        } else {
+            future.complete(null);
+        }
+    }
 }
@@ -0,0 +1,421 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.UUID;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class holds the vertex or edge beans of the memory store, keyed by
+ * their IDs. A bean is its own key, since the beans extend UUID, so a table
+ * slot holds only the reference to the bean. This avoids the entry objects of
+ * a ConcurrentHashMap, which cost more than the slots at 100M+ elements.
+ *
+ * The slots are probed linearly from the hash of the two longs of the UUID.
+ * The table is split into segments, each of which is locked by its writers
+ * and resized on its own. Only the writes under the memory store's write lock
+ * and those of the partitioned loader, which inserts from several threads,
+ * contend for a segment. Reads don't lock: they see either the old or the new
+ * bean in a slot, and a removed bean leaves a tombstone so that the probes
+ * go past it. A read in the memory store holds an optimistic StampedLock
+ * stamp, and is retried if a commit took the write lock before the stamp is
+ * validated, as with the ConcurrentHashMap.
+ *
+ * A bean can also be retired instead of removed, while it may be seen by a
+ * snapshot of the memory store. A retired bean stays in its slot, so that a
+ * scan of the slots sees it exactly once, but is not returned by get() or
+ * values(). It is purged once no snapshot needs it.
+ */
+public class UUIDTable<T extends UUID> {
+    // Must be a power of two
+    private static final int NUM_SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = 32 - Integer.numberOfTrailingZeros(NUM_SEGMENTS);
+
+    // Must be a power of two
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    // Marks a slot whose bean was removed
+    private static final Object TOMBSTONE = new Object();
+
+    private final Segment[] segments;
+
+    public UUIDTable() {
+        this.segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Mixes the bits of the UUID. The top bits select the segment, and the bottom bits the slot
+    private static int hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L + lsb;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return (int) (h ^ (h >>> 33));
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> SEGMENT_SHIFT];
+    }
+
+    /** Returns the bean with the given ID, or null if there isn't one */
+    public T get(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+
+        AtomicReferenceArray<Object> table = segmentFor(hash).table;
+        int idx = indexOf(table, hash, msb, lsb);
+
+        return (idx < 0) ? null : cast(table.get(idx));
+    }
+
+    /** Replaces the bean with the given ID by a retired entry with the given epoch. Returns the bean, if any */
+    public T retire(UUID id, long epoch) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            AtomicReferenceArray<Object> table = segment.table;
+            int idx = indexOf(table, hash, msb, lsb);
+            if (idx < 0) {
+                return null;
+            }
+
+            T ans = cast(table.get(idx));
+            table.set(idx, new Retired(ans, epoch));
+            segment.size = segment.size - 1;
+
+            return ans;
+        }
+    }
+
+    /** Removes the retired entries for the given ID with epochs up to the given epoch */
+    public void purge(UUID id, long maxEpoch) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            AtomicReferenceArray<Object> table = segment.table;
+            int mask = table.length() - 1;
+            int i = hash & mask;
+            Object slot;
+            for (int probes = 0; (probes <= mask) && ((slot = table.get(i)) != null); probes++) {
+                if (slot instanceof Retired) {
+                    Retired retired = (Retired) slot;
+                    if ((retired.epoch <= maxEpoch) && isSameId(retired.bean, msb, lsb)) {
+                        // Still counted as used, like the tombstones of removed beans
+                        table.set(i, TOMBSTONE);
+                    }
+                }
+
+                i = (i + 1) & mask;
+            }
+        }
+    }
+
+    /** Returns true if the table has a bean with the given ID */
+    public boolean containsKey(UUID id) {
+        return get(id) != null;
+    }
+
+    /** Adds the given bean, or replaces the one with the same ID. Returns the replaced bean, if any */
+    public T put(T bean) {
+        long msb = bean.getMostSignificantBits();
+        long lsb = bean.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            AtomicReferenceArray<Object> table = segment.table;
+            int idx = indexOf(table, hash, msb, lsb);
+            if (idx >= 0) {
+                T ans = cast(table.get(idx));
+                table.set(idx, bean);
+                return ans;
+            }
+
+            if ((segment.used + 1) * 4L > table.length() * 3L) {
+                // More than 3/4 of the slots are used, counting the retired entries and tombstones
+                table = segment.rehash();
+            }
+
+            // The first free slot or tombstone in the probe sequence
+            int mask = table.length() - 1;
+            int i = hash & mask;
+            Object slot;
+            while (((slot = table.get(i)) != null) && (slot != TOMBSTONE)) {
+                i = (i + 1) & mask;
+            }
+
+            if (slot == null) {
+                segment.used++;
+            }
+
+            table.set(i, bean);
+            segment.size = segment.size + 1;
+
+            return null;
+        }
+    }
+
+    /** Removes the bean with the given ID. Returns the removed bean, if any */
+    public T remove(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            AtomicReferenceArray<Object> table = segment.table;
+            int idx = indexOf(table, hash, msb, lsb);
+            if (idx < 0) {
+                return null;
+            }
+
+            T ans = cast(table.get(idx));
+
+            // The probes stop at an empty slot. So the slot can be emptied if the next one is empty
+            int mask = table.length() - 1;
+            if (table.get((idx + 1) & mask) == null) {
+                table.set(idx, null);
+                segment.used--;
+            } else {
+                table.set(idx, TOMBSTONE);
+            }
+
+            segment.size = segment.size - 1;
+
+            return ans;
+        }
+    }
+
+    /** Returns the number of beans. This is approximate when there are concurrent writes */
+    public int size() {
+        long ans = 0;
+        for (Segment segment : segments) {
+            ans += segment.size;
+        }
+
+        return (int) Math.min(ans, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.size > 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a view of the beans. Like the values of a ConcurrentHashMap,
+     * the iterator doesn't fail with concurrent writes, and may or may not
+     * return the beans added or removed after it was created.
+     */
+    public Collection<T> values() {
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                final SlotIterator iter = new SlotIterator(false);
+
+                return new Iterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iter.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return cast(iter.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return UUIDTable.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return UUIDTable.this.isEmpty();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return (o instanceof UUID) && (get((UUID) o) != null);
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the beans and the retired entries, which are
+     * returned as Retired objects. The iterator is weakly consistent like the
+     * one of values(), and returns each slot at most once.
+     */
+    public Iterator<Object> slots() {
+        return new SlotIterator(true);
+    }
+
+    // Returns the slot of the bean with the given ID, or -1 if there isn't one
+    private static int indexOf(AtomicReferenceArray<Object> table, int hash, long msb, long lsb) {
+        int mask = table.length() - 1;
+        int i = hash & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            Object slot = table.get(i);
+            if (slot == null) {
+                return -1;
+            } else if ((slot != TOMBSTONE) && !(slot instanceof Retired) && isSameId(slot, msb, lsb)) {
+                return i;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private static boolean isSameId(Object bean, long msb, long lsb) {
+        UUID id = (UUID) bean;
+
+        return (id.getMostSignificantBits() == msb) && (id.getLeastSignificantBits() == lsb);
+    }
+
+    // Returns the UUID of a bean or a retired entry
+    private static UUID idOf(Object slot) {
+        return (UUID) ((slot instanceof Retired) ? ((Retired) slot).bean : slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object slot) {
+        return (T) slot;
+    }
+
+    private static final class Segment {
+        // Replaced as a whole when the segment is resized, so that the reads never see a partial copy
+        volatile AtomicReferenceArray<Object> table = new AtomicReferenceArray<Object>(MIN_SEGMENT_CAPACITY);
+
+        // Number of beans. Only written with the lock on the segment
+        volatile int size = 0;
+
+        // Number of beans, retired entries and tombstones. Only accessed with the lock on the segment
+        int used = 0;
+
+        // Copies the beans and retired entries to a new table with room for one more, without the tombstones
+        AtomicReferenceArray<Object> rehash() {
+            AtomicReferenceArray<Object> oldTable = table;
+            int numEntries = 0;
+            for (int j = 0; j < oldTable.length(); j++) {
+                Object slot = oldTable.get(j);
+                if ((slot != null) && (slot != TOMBSTONE)) {
+                    numEntries++;
+                }
+            }
+
+            int capacity = MIN_SEGMENT_CAPACITY;
+            while (capacity < (numEntries + 1) * 2L) {
+                capacity <<= 1;
+            }
+
+            AtomicReferenceArray<Object> newTable = new AtomicReferenceArray<Object>(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < oldTable.length(); j++) {
+                Object slot = oldTable.get(j);
+                if ((slot != null) && (slot != TOMBSTONE)) {
+                    UUID id = idOf(slot);
+                    int i = hash(id.getMostSignificantBits(), id.getLeastSignificantBits()) & mask;
+                    while (newTable.get(i) != null) {
+                        i = (i + 1) & mask;
+                    }
+
+                    newTable.set(i, slot);
+                }
+            }
+
+            this.used = numEntries;
+            this.table = newTable;
+
+            return newTable;
+        }
+    }
+
+    /** A bean that was retired at the given epoch, which stays in its slot until it is purged */
+    public static final class Retired {
+        private final Object bean;
+        private final long epoch;
+
+        Retired(Object bean, long epoch) {
+            this.bean = bean;
+            this.epoch = epoch;
+        }
+
+        public Object getBean() {
+            return bean;
+        }
+
+        public long getEpoch() {
+            return epoch;
+        }
+    }
+
+    // Iterates over a snapshot of the segment tables. The slots are read as the iteration reaches them
+    private final class SlotIterator implements Iterator<Object> {
+        private final boolean includeRetired;
+        private int segmentIdx = -1;
+        private AtomicReferenceArray<Object> table = null;
+        private int slotIdx = 0;
+        private Object next;
+
+        SlotIterator(boolean includeRetired) {
+            this.includeRetired = includeRetired;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (true) {
+                if (table != null) {
+                    while (slotIdx < table.length()) {
+                        Object slot = table.get(slotIdx++);
+                        if ((slot != null) && (slot != TOMBSTONE) && (includeRetired || !(slot instanceof Retired))) {
+                            next = slot;
+                            return;
+                        }
+                    }
+                }
+
+                if (++segmentIdx >= NUM_SEGMENTS) {
+                    return;
+                }
+
+                table = segments[segmentIdx].table;
+                slotIdx = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Object next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            Object ans = next;
+            advance();
+            return ans;
+        }
+    }
+}
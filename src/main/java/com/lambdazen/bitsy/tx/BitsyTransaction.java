@@ -13,6 +13,7 @@ import com.lambdazen.bitsy.ITransaction;
 import com.lambdazen.bitsy.UUID;
 import com.lambdazen.bitsy.index.IndexHelper;
 import com.lambdazen.bitsy.store.EdgeBean;
+import com.lambdazen.bitsy.store.EpochSnapshot;
 import com.lambdazen.bitsy.store.VertexBean;
 import com.lambdazen.bitsy.util.EdgeIterator;
 import com.lambdazen.bitsy.util.VertexIterator;
@@ -20,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import org.apache.tinkerpop.gremlin.process.traversal.TraversalSource;
 import org.apache.tinkerpop.gremlin.structure.Direction;
@@ -77,6 +79,11 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
         this.save(true);
     }
 
+    @Override
+    public CompletableFuture<Void> commitAsync() {
+        return this.save(true, true);
+    }
+
     @Override
     public void rollback() {
         this.save(false);
@@ -107,6 +114,12 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
     }
 
     public void save(boolean commit) {
+        save(commit, false);
+    }
+
+    // Returns the future for asynchronous commits, and null otherwise
+    private CompletableFuture<Void> save(boolean commit, boolean async) {
+        CompletableFuture<Void> ans = null;
         try {
             if ((!isOpen) && (context.getReadWriteConsumer() == READ_WRITE_BEHAVIOR.MANUAL)) {
                 throw new IllegalStateException("Commit/rollback called on a transaction that is not open");
@@ -114,8 +127,12 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
                 // Nothing to do for rollback
                 context.announceRollback(this);
             } else {
-                // Commit the changes
-                context.store.commit(this);
+                // Commit the changes. Asynchronous commits are announced once the changes are visible
+                if (async) {
+                    ans = context.store.commitAsync(this);
+                } else {
+                    context.store.commit(this);
+                }
                 context.announceCommit(this);
             }
         } finally {
@@ -127,6 +144,8 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
             // Close transaction
             isOpen = false;
         }
+
+        return ans;
     }
 
     public void checkIfActive() throws BitsyException {
@@ -175,6 +194,13 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
         }
 
         // 2. Get an unmodified vertex tied to this transaction
+        EpochSnapshot snapshot = getSnapshot();
+        if (snapshot != null) {
+            // The snapshot returns the same vertex on every read, so it isn't kept
+            VertexBean bean = snapshot.getVertex(id);
+            return (bean == null) ? null : new BitsyVertex(bean, this, BitsyState.U);
+        }
+
         ans = context.store.getBitsyVertex(this, id);
         if (ans != null) {
             // 3. Keep a reference if the isolation level is repeatable read
@@ -205,8 +231,15 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
             }
         }
 
-        // 2. Get the edge from the store
-        ans = context.store.getBitsyEdge(this, id);
+        // 2. Get the edge from the store, or its snapshot
+        EpochSnapshot snapshot = getSnapshot();
+        if (snapshot != null) {
+            EdgeBean bean = snapshot.getEdge(id);
+            ans = (bean == null) ? null : new BitsyEdge(bean, this, BitsyState.U);
+        } else {
+            ans = context.store.getBitsyEdge(this, id);
+        }
+
         if (ans == null) {
             // Not found.
             return null;
@@ -225,6 +258,20 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
         return ans;
     }
 
+    // Returns the snapshot read by this transaction in the SNAPSHOT isolation level, or null in the other levels
+    private EpochSnapshot getSnapshot() {
+        if (isolationLevel != BitsyIsolationLevel.SNAPSHOT) {
+            return null;
+        }
+
+        if (context.snapshot == null) {
+            // Pinned on the first read, and closed when the transaction is committed or rolled back
+            context.snapshot = context.store.openSnapshot();
+        }
+
+        return context.snapshot;
+    }
+
     private boolean isDeletedVertex(UUID id) {
         BitsyVertex changedVertex = context.changedVertices.get(id);
 
@@ -237,6 +284,7 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
 
         // Filter out the ones that are bad
         final List<Edge> mergedEdges = new ArrayList<Edge>();
+        EpochSnapshot snapshot = getSnapshot();
 
         for (Direction myDir : directions) {
             if ((myDir == dir) || (dir == Direction.BOTH)) {
@@ -255,7 +303,9 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
 
                 // Get the edges from the store
                 // TODO: See if this can be made into a lazy data-structure
-                List<EdgeBean> storeEdges = context.store.getEdges((UUID) bitsyVertex.id(), myDir, edgeLabels);
+                List<EdgeBean> storeEdges = (snapshot != null)
+                        ? snapshot.getEdges((UUID) bitsyVertex.id(), myDir, edgeLabels)
+                        : context.store.getEdges((UUID) bitsyVertex.id(), myDir, edgeLabels);
 
                 // Go over each edge in storeEdges and merge it with the changedEdges to get mergedEdges
                 for (EdgeBean edge : storeEdges) {
@@ -291,8 +341,10 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
 
                             // log.debug("Merged edges.3 += {}", changedEdge);
 
-                            // Add it to the Tx context
-                            context.unmodifiedEdges.put(edge.getId(), changedEdge);
+                            // Add it to the Tx context, unless it can be read again from the snapshot
+                            if (snapshot == null) {
+                                context.unmodifiedEdges.put(edge.getId(), changedEdge);
+                            }
                         }
                     }
                 }
@@ -411,7 +463,9 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
         checkIfActive();
 
         // 1. Get a concurrently navigable list of vertices
-        Collection<VertexBean> allVertices = context.store.getAllVertices();
+        EpochSnapshot snapshot = getSnapshot();
+        Collection<VertexBean> allVertices =
+                (snapshot != null) ? snapshot.getAllVertices() : context.store.getAllVertices();
 
         // 2. Wrap it around an iterator for this transaction. Idea is for the
         // transaction to take priority over vertices in the store. Creating a
@@ -425,7 +479,8 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
         checkIfActive();
 
         // 1. Get a concurrently navigable list of vertices
-        Collection<EdgeBean> allEdges = context.store.getAllEdges();
+        EpochSnapshot snapshot = getSnapshot();
+        Collection<EdgeBean> allEdges = (snapshot != null) ? snapshot.getAllEdges() : context.store.getAllEdges();
 
         // 2. Wrap it around an iterator for this transaction. Idea is for the
         // transaction to take priority over vertices in the store. Creating a
@@ -439,12 +494,16 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
         checkIfActive();
 
         // 1. Get the list of vertices that match the given key value form this Tx
+        EpochSnapshot snapshot = getSnapshot();
         Collection<VertexBean> vertices;
         try {
-            vertices = context.store.lookupVertices(key, value);
+            vertices =
+                    (snapshot != null) ? snapshot.lookupVertices(key, value) : context.store.lookupVertices(key, value);
         } catch (BitsyException e) {
             if ((e.getErrorCode() == BitsyErrorCodes.MISSING_INDEX) && context.store.allowFullGraphScans()) {
-                vertices = IndexHelper.filterVertexBeansByKeyValue(context.store.getAllVertices(), key, value);
+                Collection<VertexBean> allVertices =
+                        (snapshot != null) ? snapshot.getAllVertices() : context.store.getAllVertices();
+                vertices = IndexHelper.filterVertexBeansByKeyValue(allVertices, key, value);
             } else {
                 throw e;
             }
@@ -452,7 +511,7 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
 
         // 2. Get the matching vertices in this transaction
         Collection<BitsyVertex> vertexChanges;
-        if (getIsolationLevel() == BitsyIsolationLevel.READ_COMMITTED) {
+        if (getIsolationLevel() != BitsyIsolationLevel.REPEATABLE_READ) {
             vertexChanges = getVertexChanges();
         } else {
             vertexChanges = new ArrayList<BitsyVertex>();
@@ -473,12 +532,15 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
         checkIfActive();
 
         // 1. Get the list of vertices that match the given key value form this Tx
+        EpochSnapshot snapshot = getSnapshot();
         Collection<EdgeBean> edges;
         try {
-            edges = context.store.lookupEdges(key, value);
+            edges = (snapshot != null) ? snapshot.lookupEdges(key, value) : context.store.lookupEdges(key, value);
         } catch (BitsyException e) {
             if ((e.getErrorCode() == BitsyErrorCodes.MISSING_INDEX) && context.store.allowFullGraphScans()) {
-                edges = IndexHelper.filterEdgeBeansByKeyValue(context.store.getAllEdges(), key, value);
+                Collection<EdgeBean> allEdges =
+                        (snapshot != null) ? snapshot.getAllEdges() : context.store.getAllEdges();
+                edges = IndexHelper.filterEdgeBeansByKeyValue(allEdges, key, value);
             } else {
                 throw e;
             }
@@ -486,7 +548,7 @@ public class BitsyTransaction implements ITransaction, ICommitChanges {
 
         // 2. Get the matching vertices in this transaction
         Collection<BitsyEdge> edgeChanges;
-        if (getIsolationLevel() == BitsyIsolationLevel.READ_COMMITTED) {
+        if (getIsolationLevel() != BitsyIsolationLevel.REPEATABLE_READ) {
             edgeChanges = getEdgeChanges();
         } else {
             edgeChanges = new ArrayList<BitsyEdge>();
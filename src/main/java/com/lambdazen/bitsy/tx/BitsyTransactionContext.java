@@ -7,6 +7,7 @@ import com.lambdazen.bitsy.IEdge;
 import com.lambdazen.bitsy.IGraphStore;
 import com.lambdazen.bitsy.UUID;
 import com.lambdazen.bitsy.store.AdjacencyMap;
+import com.lambdazen.bitsy.store.EpochSnapshot;
 import com.lambdazen.bitsy.store.IEdgeRemover;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -26,6 +27,9 @@ public class BitsyTransactionContext {
     Map<UUID, BitsyEdge> changedEdges;
     IGraphStore store;
     AdjacencyMap adjMap;
+
+    // The snapshot read by a transaction in the SNAPSHOT isolation level. Opened on the first read
+    EpochSnapshot snapshot;
     List<Consumer<Transaction.Status>> transactionListeners;
 
     Consumer<Transaction> readWriteConsumer = READ_WRITE_BEHAVIOR.AUTO;
@@ -104,6 +108,11 @@ public class BitsyTransactionContext {
         changedEdges.clear();
         adjMap.clear();
 
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+
         // Don't clear the long-lived subscriptions, viz. transactionListeners, readWriteConsumer and closeConsumer
     }
 }
@@ -0,0 +1,11 @@
+package com.lambdazen.bitsy.util;
+
+import com.lambdazen.bitsy.BitsyException;
+import java.util.List;
+
+/** This interface represents a flush worker that takes the batches drained from a ring buffer */
+public interface BatchFlusher<T> {
+    // Any exception thrown by this method will stop further enqueues.
+    // InterruptedExceptions must be rethrown to kill the flush thread
+    public void flushBatch(List<T> batch) throws BitsyException, InterruptedException;
+}
@@ -2,12 +2,14 @@ package com.lambdazen.bitsy.util;
 
 import com.lambdazen.bitsy.BitsyErrorCodes;
 import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.store.BinaryRecordCodec;
 import com.lambdazen.bitsy.store.FileBackedMemoryGraphStore;
 import com.lambdazen.bitsy.store.Record;
 import com.lambdazen.bitsy.store.Record.RecordType;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,6 +24,15 @@ public class CommittableFileLog {
     /** Should the database lock files before writing to them? Yes by default, but can be changed by the application. **/
     public static boolean LOCK_MODE = true;
 
+    /**
+     * Should text files be read through memory-mapped windows? Yes by default, except on Windows where a mapped file
+     * can't be truncated till the mapping is garbage collected. Can be changed by the application.
+     */
+    public static boolean MAP_MODE = !System.getProperty("os.name", "").startsWith("Windows");
+
+    /** Size of the window (default 64MB) for memory-mapped reads. Longer lines are read by growing the window */
+    public static int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
     // 32K buffer for reading files during re-organization
     private static final int BUFFER_SIZE = 1 * 1024 * 1024;
 
@@ -30,6 +41,9 @@ public class CommittableFileLog {
     FileChannel fileChannel;
     boolean isTxLog;
     Long counter;
+    boolean binary; // Length-prefixed binary records instead of text lines
+    boolean crc32c; // Text lines end with a CRC32C instead of the hash-code
+    volatile boolean compressed; // Records are copied to this file in compressed blocks
 
     // Fields capturing the read state
     byte[] byteArr = new byte[BUFFER_SIZE];
@@ -41,6 +55,20 @@ public class CommittableFileLog {
     StringBuilder curLine = new StringBuilder(1024); // 1K long initial size -- to avoid resizing
     long markPosition = -1;
 
+    // Fields capturing the read state for binary records
+    int binIndex = 0;
+    int binLimit = 0;
+    long binPosition = 0;
+    byte[] lengthBytes = new byte[BinaryRecordCodec.LENGTH_SIZE];
+
+    // Fields capturing the read state for memory-mapped text files
+    boolean mapped = false;
+    MappedByteBuffer mappedBuf;
+    long mapStart = 0; // Position of the mapped window in the file
+    long mapPosition = 0; // Position in the file after the last line that was read
+    long mapLimit = 0; // Size of the file when it was opened for read
+    byte[] lineBytes = new byte[1024];
+
     // Field capturing write state
     private boolean writeMode = false;
 
@@ -66,6 +94,33 @@ public class CommittableFileLog {
         return filePath;
     }
 
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /** Sets the format used to write this file. The format of a non-empty file is detected when it is opened for read */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    public boolean isCrc32c() {
+        return crc32c;
+    }
+
+    /** Sets whether text lines written to this file end with a CRC32C. This is detected like the format */
+    public void setCrc32c(boolean crc32c) {
+        this.crc32c = crc32c;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /** Sets whether records are copied to this file in compressed blocks. Blocks are always readable */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
     public void resetReadBuffers() {
         charBuf = null;
         index = 0;
@@ -74,10 +129,125 @@ public class CommittableFileLog {
         curLine = new StringBuilder();
         markPosition = -1;
         writeMode = false;
+        binIndex = 0;
+        binLimit = 0;
+        binPosition = 0;
+        mappedBuf = null;
+        mapStart = 0;
+        mapPosition = 0;
+    }
+
+    /**
+     * This method reads the next binary record, and returns its type, payload
+     * and checksum without the length prefix. It returns null at the end of
+     * the file.
+     */
+    public byte[] readRecordBytes() {
+        int lenRead = readBytes(lengthBytes, lengthBytes.length);
+        if (lenRead == 0) {
+            return null;
+        } else if (lenRead < lengthBytes.length) {
+            throw new BitsyException(
+                    BitsyErrorCodes.CHECKSUM_MISMATCH, "File " + getPath() + " ends with a truncated record length");
+        }
+
+        int len = ByteBuffer.wrap(lengthBytes).getInt();
+        if ((len <= BinaryRecordCodec.CHECKSUM_SIZE) || (len > BinaryRecordCodec.MAX_RECORD_SIZE)) {
+            throw new BitsyException(
+                    BitsyErrorCodes.CHECKSUM_MISMATCH,
+                    "File " + getPath() + " has a record with an invalid length " + len + " at position "
+                            + (binPosition - lengthBytes.length));
+        }
+
+        byte[] ans = new byte[len];
+        if (readBytes(ans, len) < len) {
+            throw new BitsyException(
+                    BitsyErrorCodes.CHECKSUM_MISMATCH, "File " + getPath() + " ends with a truncated record");
+        }
+
+        return ans;
+    }
+
+    // Copies up to len bytes from the file into dst, and returns the number of bytes copied
+    private int readBytes(byte[] dst, int len) {
+        int off = 0;
+        while (off < len) {
+            if (binIndex == binLimit) {
+                if (endReached) {
+                    break;
+                }
+
+                clear(byteBuf);
+                int bytesRead;
+                try {
+                    bytesRead = fileChannel.read(byteBuf);
+                } catch (IOException e) {
+                    throw new BitsyException(
+                            BitsyErrorCodes.ERROR_READING_FROM_FILE,
+                            "File " + getPath() + " can not be opened for reading",
+                            e);
+                }
+
+                if (bytesRead == -1) {
+                    endReached = true;
+                    break;
+                }
+
+                binIndex = 0;
+                binLimit = bytesRead;
+            }
+
+            int count = Math.min(len - off, binLimit - binIndex);
+            System.arraycopy(byteArr, binIndex, dst, off, count);
+            binIndex += count;
+            off += count;
+            binPosition += count;
+        }
+
+        return off;
+    }
+
+    /**
+     * This method returns the bytes of the next line without the trailing
+     * '\n', or null at the end of the file. Lines of memory-mapped files are
+     * copied once out of the mapped window, because the readers keep them
+     * after the window is re-mapped. They are not decoded: Record parses the
+     * hash-code and the JSON from these bytes.
+     */
+    public byte[] readLineBytes() {
+        if (!mapped) {
+            String line = readLine();
+            return (line == null) ? null : line.getBytes(FileBackedMemoryGraphStore.utf8);
+        }
+
+        int len = scanMappedLine();
+        if (len < 0) {
+            return null;
+        }
+
+        byte[] ans = new byte[len];
+        copyMappedLine(ans, len);
+
+        return ans;
     }
 
     // Re-implementing readLine() to allow truncate
     public String readLine() {
+        if (mapped) {
+            int len = scanMappedLine();
+            if (len < 0) {
+                return null;
+            }
+
+            if (lineBytes.length < len) {
+                lineBytes = new byte[Math.max(len, 2 * lineBytes.length)];
+            }
+
+            copyMappedLine(lineBytes, len);
+
+            return new String(lineBytes, 0, len, FileBackedMemoryGraphStore.utf8);
+        }
+
         while (!endReached) {
             if (charBuf == null) { //  || (charBuf.length() <= index)
                 // Read next
@@ -166,16 +336,91 @@ public class CommittableFileLog {
         }
     }
 
+    /**
+     * This method finds the '\n' that ends the line at mapPosition, and
+     * returns the length of the line. The window is re-mapped if the line
+     * crosses its end. Returns -1 at the end of the file.
+     */
+    private int scanMappedLine() {
+        if (mapPosition >= mapLimit) {
+            return -1;
+        }
+
+        int windowSize = MAP_WINDOW_SIZE;
+        while (true) {
+            if ((mappedBuf == null) || (mapPosition < mapStart) || (mapPosition >= mapStart + mappedBuf.limit())) {
+                mapWindow(windowSize);
+            }
+
+            int start = (int) (mapPosition - mapStart);
+            int limit = mappedBuf.limit();
+            for (int i = start; i < limit; i++) {
+                if (mappedBuf.get(i) == '\n') {
+                    return i - start;
+                }
+            }
+
+            if (mapStart + limit >= mapLimit) {
+                // The last line doesn't end with a '\n'
+                return limit - start;
+            }
+
+            // Map a window that starts with this line, and grow it if the line is longer than a window
+            if (start == 0) {
+                windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * limit);
+            }
+
+            mappedBuf = null;
+        }
+    }
+
+    // Copies the line found by scanMappedLine() and moves past its '\n'
+    private void copyMappedLine(byte[] dst, int len) {
+        mappedBuf.position((int) (mapPosition - mapStart));
+        mappedBuf.get(dst, 0, len);
+
+        mapPosition = Math.min(mapLimit, mapPosition + len + 1);
+    }
+
+    private void mapWindow(int windowSize) {
+        try {
+            mapStart = mapPosition;
+            mappedBuf =
+                    fileChannel.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(windowSize, mapLimit - mapStart));
+        } catch (IOException e) {
+            throw new BitsyException(
+                    BitsyErrorCodes.ERROR_READING_FROM_FILE,
+                    "File " + getPath() + " can not be mapped at position " + mapPosition,
+                    e);
+        }
+    }
+
     public void mark() {
         mark(0);
     }
 
     public void mark(int numBytesBehind) {
+        this.markPosition = getReadPosition() - numBytesBehind;
+    }
+
+    /** Marks the given position, typically one returned by getReadPosition() before further reads */
+    public void markAt(long position) {
+        this.markPosition = position;
+    }
+
+    /** Returns the position in the file after the last line or record that was read */
+    public long getReadPosition() {
         try {
             assert (fileChannel != null);
 
-            long ans = fileChannel.position() - numBytesBehind;
-            if (charBuf != null) {
+            long ans = fileChannel.position();
+            if (binary) {
+                // Point to the end of the last binary record
+                ans = binPosition;
+            } else if (mapped) {
+                // Point to the end of the last line
+                ans = mapPosition;
+            } else if (charBuf != null) {
                 // A char buffer read ahead already
                 // Adjust the position to point it to after the last readLine
                 ans = ans - byteBuf.limit() + byteIndex;
@@ -183,7 +428,7 @@ public class CommittableFileLog {
                 // fileChannel.position() + ". Buffer size " + byteBuf.limit());
             }
 
-            this.markPosition = ans;
+            return ans;
         } catch (IOException e) {
             throw new BitsyException(
                     BitsyErrorCodes.ERROR_WRITING_TO_FILE, "File " + getPath() + " could not be marked", e);
@@ -261,8 +506,7 @@ public class CommittableFileLog {
 
             // Write header if the counter is defined
             if (counter != null) {
-                fileChannel.write(ByteBuffer.wrap(
-                        Record.generateDBLine(RecordType.H, "" + counter).getBytes(FileBackedMemoryGraphStore.utf8)));
+                append(Record.generateDBRecord(RecordType.H, "" + counter, binary, crc32c));
             }
 
             // Save the meta-data in case it was created
@@ -294,15 +538,30 @@ public class CommittableFileLog {
 
         // Open using classic IO packages
         String header;
+        byte[] headerBytes = null;
         try {
             // Try opening the file to read
             fileChannel = FileChannel.open(filePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
 
+            // The format of a non-empty file is identified by its first byte, which is 'H' for text files
+            ByteBuffer first = ByteBuffer.allocate(1);
+            if (fileChannel.read(first, 0) == 1) {
+                binary = (first.get(0) != 'H');
+            }
+
             fileChannel.position(0);
 
             resetReadBuffers();
 
-            header = readLine();
+            mapped = !binary && MAP_MODE;
+            mapLimit = fileChannel.size();
+
+            if (binary) {
+                headerBytes = readRecordBytes();
+                header = (headerBytes == null) ? null : "binary record";
+            } else {
+                header = readLine();
+            }
         } catch (IOException e) {
             throw new BitsyException(
                     BitsyErrorCodes.ERROR_READING_FROM_FILE, "File " + getPath() + " can not be opened for reading", e);
@@ -314,7 +573,12 @@ public class CommittableFileLog {
         } else {
             Record rec;
             try {
-                rec = Record.parseRecord(header, 1, getPath().toString());
+                if (binary) {
+                    rec = Record.parseBinaryRecord(headerBytes, 1, getPath().toString());
+                } else {
+                    rec = Record.parseRecord(header, 1, getPath().toString());
+                    crc32c = Record.isCrc32cLine(header);
+                }
             } catch (BitsyException e) {
                 // Error parsing the line
                 throw new BitsyException(
@@ -339,6 +603,28 @@ public class CommittableFileLog {
         }
     }
 
+    /**
+     * This method moves the read position of a file that has been opened for
+     * read. The position must be at a record boundary, such as the size of the
+     * file at an earlier point in time.
+     */
+    public void seek(long position) {
+        assert (fileChannel != null) && !writeMode;
+
+        try {
+            fileChannel.position(position);
+        } catch (IOException e) {
+            throw new BitsyException(
+                    BitsyErrorCodes.ERROR_READING_FROM_FILE,
+                    "File " + getPath() + " can not be positioned at " + position,
+                    e);
+        }
+
+        resetReadBuffers();
+        binPosition = position;
+        mapPosition = position;
+    }
+
     /** This method appends a line to the file channel */
     public void append(byte[] toWrite) throws BitsyException {
         ByteBuffer buf = ByteBuffer.wrap(toWrite);
@@ -359,10 +645,33 @@ public class CommittableFileLog {
         }
     }
 
+    /** This method appends the given buffers to the file channel with gathering writes */
+    public void append(ByteBuffer[] bufs) throws BitsyException {
+        try {
+            int first = 0;
+            while (first < bufs.length) {
+                if (bufs[first].hasRemaining()) {
+                    fileChannel.write(bufs, first, bufs.length - first);
+                } else {
+                    first++;
+                }
+            }
+        } catch (IOException e) {
+            BitsyException be =
+                    new BitsyException(BitsyErrorCodes.ERROR_WRITING_TO_FILE, "Could not write to " + toString(), e);
+            log.error("Raised exception", be);
+            throw be;
+        }
+    }
+
     public void commit() throws BitsyException {
+        commit(true);
+    }
+
+    /** This method forces the file to the disk. The file metadata is forced only if the flag is set */
+    public void commit(boolean metaData) throws BitsyException {
         try {
-            // TODO: Write-ahead on Txlogs to use force(false)
-            fileChannel.force(true);
+            fileChannel.force(metaData);
         } catch (IOException e) {
             BitsyException be =
                     new BitsyException(BitsyErrorCodes.ERROR_WRITING_TO_FILE, "Could not write to " + toString(), e);
@@ -375,6 +684,10 @@ public class CommittableFileLog {
     public void close() {
         writeMode = false;
 
+        // The mapping is released when the buffer is garbage collected
+        mapped = false;
+        mappedBuf = null;
+
         try {
             if (fileChannel != null) {
                 fileChannel.force(true);
@@ -0,0 +1,290 @@
+package com.lambdazen.bitsy.util;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.BitsyWaitStrategy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class implements a bounded ring buffer that lets many Threads enqueue
+ * work while a "flush thread" drains it in batches. The slots are allocated
+ * up front. A producer claims its slots with a CAS on the tail, and
+ * publishes each slot by advancing its sequence number, so there is no lock
+ * on the enqueue path. The flush thread drains the published slots in
+ * order, and waits for more work with the configured wait strategy.
+ */
+public class MpscRingBuffer<T> {
+    private static final Logger log = LoggerFactory.getLogger(MpscRingBuffer.class);
+
+    // Used by the SLEEPING strategy, and by the producers that wait for a full buffer
+    private static final int SPINS_BEFORE_YIELD = 100;
+    private static final int YIELDS_BEFORE_SLEEP = 10;
+    private static final long SLEEP_NANOS = 100 * 1000L;
+
+    // The slot of position p is free when its sequence is p, and published when its sequence is p + 1. The flush
+    // thread frees it for position p + capacity
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    // Next position to be claimed by a producer, and next position to be drained by the flush thread
+    private final AtomicLong tail;
+    private long head;
+
+    private volatile BitsyWaitStrategy waitStrategy;
+    private final ReentrantLock waitLock;
+    private final Condition notEmpty;
+    private volatile boolean flusherWaiting;
+
+    private volatile BitsyException toThrow;
+    private volatile boolean stopped;
+
+    private final BatchFlusher<T> flusher;
+    private FlushThread flushThread;
+
+    /** The capacity must be a power of two */
+    public MpscRingBuffer(
+            int capacity, BatchFlusher<T> flusher, String flushThreadName, BitsyWaitStrategy waitStrategy) {
+        if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+            throw new IllegalArgumentException("The capacity of a ring buffer must be a power of two: " + capacity);
+        }
+
+        this.slots = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+
+        this.tail = new AtomicLong(0);
+        this.head = 0;
+
+        this.waitStrategy = waitStrategy;
+        this.waitLock = new ReentrantLock();
+        this.notEmpty = waitLock.newCondition();
+        this.flusherWaiting = false;
+
+        this.flusher = flusher;
+        this.flushThread = new FlushThread(flushThreadName);
+        flushThread.start();
+    }
+
+    public BitsyWaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /** Changes the wait strategy. It takes effect the next time the flush thread runs out of work */
+    public void setWaitStrategy(BitsyWaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+        signalFlusher();
+    }
+
+    public void addWork(T work) throws BitsyException {
+        long pos = claim(1);
+        publish(pos, work);
+
+        signalFlusher();
+    }
+
+    /**
+     * This method enqueues a list of work as one unit. The items take
+     * consecutive slots, so the flush thread sees them in order without the
+     * work of other threads between them. A list that is larger than the
+     * buffer is enqueued in parts.
+     */
+    public void addWork(List<T> workList) throws BitsyException {
+        int start = 0;
+        while (start < workList.size()) {
+            int count = Math.min(workList.size() - start, slots.length);
+            long pos = claim(count);
+            for (int i = 0; i < count; i++) {
+                publish(pos + i, workList.get(start + i));
+            }
+
+            start += count;
+        }
+
+        signalFlusher();
+    }
+
+    // Claims the given number of consecutive positions, and returns the first one. The flush thread frees the slots
+    // in order, so the positions are free if the last one is
+    private long claim(int count) {
+        int waits = 0;
+        while (true) {
+            if (toThrow != null) {
+                throw toThrow;
+            }
+
+            long pos = tail.get();
+            long last = pos + count - 1;
+            long seq = sequences.get((int) last & mask);
+            if (seq == last) {
+                if (tail.compareAndSet(pos, pos + count)) {
+                    return pos;
+                }
+
+                // Another producer claimed the position -- try again
+            } else if (seq < last) {
+                // The buffer is full
+                waitForSpace(waits++);
+            }
+        }
+    }
+
+    private void publish(long pos, T work) {
+        int idx = (int) pos & mask;
+        slots[idx] = work;
+        sequences.set(idx, pos + 1);
+    }
+
+    private void waitForSpace(int waits) {
+        if ((waitStrategy == BitsyWaitStrategy.BUSY_SPIN) || (waits < SPINS_BEFORE_YIELD)) {
+            SpinWait.onSpinWait();
+        } else {
+            LockSupport.parkNanos(SLEEP_NANOS);
+        }
+    }
+
+    // The flag is written by the flush thread before it checks for work, and read by the producers after they
+    // publish. So either the flush thread sees the work, or the producer sees the flag and signals it
+    private void signalFlusher() {
+        if (flusherWaiting) {
+            waitLock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    private boolean isPublished(long pos) {
+        return sequences.get((int) pos & mask) == pos + 1;
+    }
+
+    // Called by the flush thread. Moves the published work into the batch, in order, and frees the slots
+    @SuppressWarnings("unchecked")
+    private void drain(List<T> batch) {
+        while ((batch.size() < slots.length) && isPublished(head)) {
+            int idx = (int) head & mask;
+            batch.add((T) slots[idx]);
+            slots[idx] = null;
+            sequences.set(idx, head + slots.length);
+            head++;
+        }
+    }
+
+    // Called by the flush thread when there is no work
+    private void waitForWork(int idleCount) throws InterruptedException {
+        BitsyWaitStrategy strategy = waitStrategy;
+        if (strategy == BitsyWaitStrategy.BUSY_SPIN) {
+            SpinWait.onSpinWait();
+        } else if (strategy == BitsyWaitStrategy.SLEEPING) {
+            if (idleCount < SPINS_BEFORE_YIELD) {
+                SpinWait.onSpinWait();
+            } else if (idleCount < SPINS_BEFORE_YIELD + YIELDS_BEFORE_SLEEP) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(SLEEP_NANOS);
+            }
+        } else {
+            waitLock.lock();
+            try {
+                flusherWaiting = true;
+                while (!isPublished(head) && !stopped && (waitStrategy == BitsyWaitStrategy.BLOCKING)) {
+                    notEmpty.await();
+                }
+            } finally {
+                flusherWaiting = false;
+                waitLock.unlock();
+            }
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    public void stop(int joinTimeout) {
+        if (flushThread != null) {
+            // The flush thread drains the work that was queued before it stops
+            stopped = true;
+            waitLock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                waitLock.unlock();
+            }
+
+            try {
+                flushThread.join(joinTimeout);
+
+                flushThread.interrupt();
+                flushThread.join(joinTimeout);
+            } catch (InterruptedException e) {
+                // Some other thread interrupted this one
+                log.error(Thread.currentThread().getName() + " was interrupted during stop() by a different thread", e);
+            }
+
+            flushThread = null;
+        }
+    }
+
+    /** This thread drains the ring buffer in batches, and hands them to the flusher */
+    private class FlushThread extends Thread {
+        FlushThread(String threadName) {
+            super(threadName);
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                int idleCount = 0;
+                while (true) {
+                    // The flag is read before the drain, so the work published before the stop is drained first
+                    boolean stopping = stopped;
+
+                    // The flusher may keep the list, so each batch gets a new one
+                    List<T> batch = new ArrayList<T>();
+                    drain(batch);
+
+                    if (!batch.isEmpty()) {
+                        idleCount = 0;
+                        flush(batch);
+                    } else if (stopping) {
+                        return;
+                    } else {
+                        waitForWork(idleCount);
+                        idleCount = Math.min(idleCount + 1, SPINS_BEFORE_YIELD + YIELDS_BEFORE_SLEEP);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Exiting thread
+                log.error(
+                        getName()
+                                + " was interrupted, most likely because a safe stop was not possible. This may result in recovery-related warnings during the next startup",
+                        e);
+            }
+        }
+
+        private void flush(List<T> batch) throws InterruptedException {
+            try {
+                flusher.flushBatch(batch);
+            } catch (BitsyException e) {
+                BitsyException bitsyException = new BitsyException(
+                        BitsyErrorCodes.EXCEPTION_IN_FLUSH, "Encountered exception in thread " + getName(), e);
+                toThrow = bitsyException;
+                log.error(getName() + " encountered an unrecoverable exception", bitsyException);
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.lambdazen.bitsy.util;
+
+import com.lambdazen.bitsy.BitsyException;
+
+/** This interface represents a flush worker that empties a sealed segment of a segmented buffer */
+public interface SegmentFlusher {
+    // Any exception thrown by this method will stop further enqueues.
+    // InterruptedExceptions must be rethrown to kill the flush thread
+    public void flushSegment(int segment) throws BitsyException, InterruptedException;
+}
@@ -0,0 +1,13 @@
+package com.lambdazen.bitsy.util;
+
+import com.lambdazen.bitsy.BitsyException;
+
+/** This interface represents a worker that writes the enqueued work into a segment of a segmented buffer */
+public interface SegmentQueuer<T> {
+    // Any exception thrown by this method will stop further enqueues
+    public void onQueue(int segment, T work) throws BitsyException;
+
+    // Called before the segment is sealed. An exception thrown by this method keeps the segment active, and will stop
+    // further enqueues
+    public void onSeal(int segment) throws BitsyException;
+}
@@ -0,0 +1,279 @@
+package com.lambdazen.bitsy.util;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class generalizes the double buffer to a set of numbered segments.
+ * Work is written into the active segment. When the potential function
+ * triggers, the active segment is sealed and the next free segment becomes
+ * active, so that enqueues keep landing while several sealed segments wait for
+ * the flush thread. The sealed segments are flushed in the order in which they
+ * were sealed, after which they become free again. If no segment is free, the
+ * active segment keeps growing till a flush completes.
+ *
+ * Every segment that becomes active gets the next generation number. A caller
+ * can wait till the segment that was active in a generation is flushed.
+ */
+public class SegmentedBuffer<T> {
+    private static final Logger log = LoggerFactory.getLogger(SegmentedBuffer.class);
+
+    // State of the buffer, guarded by pot
+    int activeSegment;
+    long activeGeneration;
+    long flushedGeneration;
+    boolean needSeal;
+    ArrayDeque<Integer> sealedSegments;
+    ArrayDeque<Long> sealedGenerations;
+    ArrayDeque<Integer> freeSegments;
+
+    BitsyException toThrow;
+    boolean stopped;
+
+    // Helper objects
+    BufferPotential<T> pot;
+    SegmentQueuer<T> queuer;
+    SegmentFlusher flusher;
+    Thread flushThread;
+
+    /**
+     * The free segments must be in the order in which they can become active,
+     * i.e., the order in which they were flushed.
+     */
+    public SegmentedBuffer(
+            BufferPotential<T> initPot,
+            SegmentQueuer<T> queuer,
+            SegmentFlusher flusher,
+            String flushThreadName,
+            int activeSegment,
+            List<Integer> freeSegments) {
+        this.pot = initPot;
+        this.queuer = queuer;
+        this.flusher = flusher;
+
+        this.activeSegment = activeSegment;
+        this.activeGeneration = 1;
+        this.flushedGeneration = 0;
+        this.needSeal = false;
+        this.sealedSegments = new ArrayDeque<Integer>();
+        this.sealedGenerations = new ArrayDeque<Long>();
+        this.freeSegments = new ArrayDeque<Integer>(freeSegments);
+
+        this.flushThread = new Thread(flushThreadName) {
+            @Override
+            public void run() {
+                runFlushLoop();
+            }
+        };
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    public BufferPotential<T> getPot() {
+        return pot;
+    }
+
+    public void addAndExecuteWork(final T work) throws BitsyException {
+        synchronized (pot) {
+            if (toThrow != null) {
+                throw toThrow;
+            }
+
+            // Do the work inside the synchronized block so that a segment
+            // doesn't get sealed in the middle
+            queuer.onQueue(activeSegment, work);
+
+            if (pot.addWork(work)) {
+                needSeal = true;
+            }
+
+            if (needSeal) {
+                sealActiveSegment();
+            }
+        }
+    }
+
+    // Moves the active segment to the flush queue, if a free segment is available. Called with the lock on pot
+    private void sealActiveSegment() {
+        if (freeSegments.isEmpty()) {
+            log.debug("Segment {} can not be sealed till a flush completes", activeSegment);
+            return;
+        }
+
+        try {
+            queuer.onSeal(activeSegment);
+        } catch (BitsyException e) {
+            log.error("Segment " + activeSegment + " could not be sealed", e);
+
+            toThrow = e;
+            pot.notifyAll();
+            return;
+        }
+
+        sealedSegments.add(activeSegment);
+        sealedGenerations.add(activeGeneration);
+
+        activeSegment = freeSegments.remove();
+        activeGeneration++;
+        needSeal = false;
+
+        // Now that we have moved to the next segment, the potential function can be reset
+        pot.reset();
+        pot.notifyAll();
+    }
+
+    private void runFlushLoop() {
+        try {
+            while (true) {
+                int segment;
+                synchronized (pot) {
+                    while (sealedSegments.isEmpty() && !stopped) {
+                        pot.wait();
+                    }
+
+                    if (stopped) {
+                        // Exit
+                        return;
+                    }
+
+                    segment = sealedSegments.peek();
+                }
+
+                // The flush runs without the lock, so that the active segment can be written in parallel
+                try {
+                    flusher.flushSegment(segment);
+                } catch (BitsyException e) {
+                    BitsyException bitsyException = new BitsyException(
+                            BitsyErrorCodes.EXCEPTION_IN_FLUSH,
+                            "Encountered exception in thread "
+                                    + Thread.currentThread().getName(),
+                            e);
+                    log.error(Thread.currentThread().getName() + " encountered an unrecoverable exception", e);
+
+                    synchronized (pot) {
+                        toThrow = bitsyException;
+                        pot.notifyAll();
+                    }
+
+                    // Exit to avoid completing the flush. The next start will replay the segment
+                    return;
+                }
+
+                synchronized (pot) {
+                    sealedSegments.remove();
+                    flushedGeneration = sealedGenerations.remove();
+                    freeSegments.add(segment);
+
+                    // The active segment may have been waiting for a free segment
+                    if (needSeal) {
+                        sealActiveSegment();
+                    }
+
+                    pot.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Exiting thread
+            log.error(
+                    Thread.currentThread().getName()
+                            + " was interrupted, most likely because a safe stop was not possible. This may result in recovery-related warnings during the next startup",
+                    e);
+        }
+    }
+
+    /** Waits till the segment that was active in the given generation is flushed */
+    public void awaitFlush(long generation) throws InterruptedException {
+        synchronized (pot) {
+            while (flushedGeneration < generation) {
+                if (toThrow != null) {
+                    throw toThrow;
+                }
+
+                pot.wait();
+            }
+        }
+    }
+
+    /** Waits till the segment that was active in the given generation is sealed */
+    public void awaitSeal(long generation) throws InterruptedException {
+        synchronized (pot) {
+            while (activeGeneration <= generation) {
+                if (toThrow != null) {
+                    throw toThrow;
+                }
+
+                pot.wait();
+            }
+        }
+    }
+
+    public void stop(int joinTimeout) {
+        if (flushThread != null) {
+            synchronized (pot) {
+                stopped = true;
+                pot.notifyAll();
+            }
+
+            try {
+                flushThread.join(joinTimeout);
+
+                flushThread.interrupt();
+                flushThread.join(joinTimeout);
+            } catch (InterruptedException e) {
+                // Some other thread interrupted this one
+                log.error(Thread.currentThread().getName() + " was interrupted during stop() by a different thread", e);
+            }
+
+            flushThread = null;
+        }
+    }
+
+    public int getActiveSegment() {
+        synchronized (pot) {
+            return activeSegment;
+        }
+    }
+
+    public long getActiveGeneration() {
+        synchronized (pot) {
+            return activeGeneration;
+        }
+    }
+
+    /** Returns the sealed segments in the order in which they will be flushed */
+    public List<Integer> getSealedSegments() {
+        synchronized (pot) {
+            return new ArrayList<Integer>(sealedSegments);
+        }
+    }
+
+    /** Returns the free segments in the order in which they will become active */
+    public List<Integer> getFreeSegments() {
+        synchronized (pot) {
+            return new ArrayList<Integer>(freeSegments);
+        }
+    }
+
+    /** Adds a segment that will become active after the current free segments */
+    public void addFreeSegment(int segment) {
+        synchronized (pot) {
+            freeSegments.add(segment);
+
+            if (needSeal) {
+                sealActiveSegment();
+            }
+        }
+    }
+
+    /** Removes the given segment, if it is free. Returns false if the segment is active or sealed */
+    public boolean removeFreeSegment(int segment) {
+        synchronized (pot) {
+            return freeSegments.remove(segment);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.lambdazen.bitsy.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * This class calls Thread.onSpinWait() in busy-wait loops. The method was
+ * added in Java 9, and the build targets Java 8, so it is looked up once. On
+ * older runtimes the hint does nothing.
+ */
+public class SpinWait {
+    private static final MethodHandle ON_SPIN_WAIT = findOnSpinWait();
+
+    private SpinWait() {}
+
+    private static MethodHandle findOnSpinWait() {
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public static void onSpinWait() {
+        if (ON_SPIN_WAIT != null) {
+            try {
+                ON_SPIN_WAIT.invokeExact();
+            } catch (Throwable t) {
+                // Thread.onSpinWait() doesn't throw
+            }
+        }
+    }
+
+    /** Spins for 2^round iterations, up to 2^maxRound, to back off from a contended location */
+    public static void backOff(int round, int maxRound) {
+        for (int i = 1 << Math.min(round, maxRound); i > 0; i--) {
+            onSpinWait();
+        }
+    }
+}
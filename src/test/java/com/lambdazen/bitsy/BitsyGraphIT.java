@@ -14,14 +14,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Graph;
@@ -872,8 +876,9 @@ public class BitsyGraphIT extends FileBasedTestCase {
     // Pun intended
     public void testEdgeCases() {
         assertEquals(BitsyIsolationLevel.READ_COMMITTED, ((BitsyGraph) graph).getDefaultIsolationLevel());
-        for (BitsyIsolationLevel level :
-                new BitsyIsolationLevel[] {BitsyIsolationLevel.READ_COMMITTED, BitsyIsolationLevel.REPEATABLE_READ}) {
+        for (BitsyIsolationLevel level : new BitsyIsolationLevel[] {
+            BitsyIsolationLevel.READ_COMMITTED, BitsyIsolationLevel.REPEATABLE_READ, BitsyIsolationLevel.SNAPSHOT
+        }) {
             ((BitsyGraph) graph).setDefaultIsolationLevel(level);
             graph.tx().commit();
 
@@ -1452,6 +1457,43 @@ public class BitsyGraphIT extends FileBasedTestCase {
         assertEquals(expectedCount, count);
     }
 
+    public void testCommitAsync() throws Exception {
+        BitsyGraph bGraph = (BitsyGraph) graph;
+
+        for (BitsyDurabilityMode mode : BitsyDurabilityMode.values()) {
+            bGraph.setDurabilityMode(mode);
+
+            Vertex v = graph.addVertex();
+            v.property("mode", mode.toString());
+            Object vid = v.id();
+
+            // The changes are visible when commitAsync() returns, and written when the future completes
+            CompletableFuture<Void> future = bGraph.tx().commitAsync();
+            assertEquals(mode.toString(), getVertex(graph, vid).value("mode"));
+            future.get(10, TimeUnit.SECONDS);
+            assertTrue(future.isDone());
+        }
+
+        // A transaction without changes completes right away
+        assertTrue(bGraph.tx().commitAsync().isDone());
+
+        // Reopen the graph
+        tearDown();
+        doSetUp(false);
+
+        Set<String> modes = new HashSet<String>();
+        Iterator<Vertex> iter = graph.vertices();
+        while (iter.hasNext()) {
+            modes.add(iter.next().value("mode"));
+        }
+        graph.tx().commit();
+
+        assertEquals(BitsyDurabilityMode.values().length, modes.size());
+        for (BitsyDurabilityMode mode : BitsyDurabilityMode.values()) {
+            assertTrue(modes.contains(mode.toString()));
+        }
+    }
+
     public void testPersistence() throws Exception {
         BitsyGraph bGraph = (BitsyGraph) graph;
         FileBackedMemoryGraphStore store = (FileBackedMemoryGraphStore) (bGraph.getStore());
@@ -2154,6 +2196,69 @@ public class BitsyGraphIT extends FileBasedTestCase {
         graph.tx().commit();
     }
 
+    public void testSnapshotIsolation() throws InterruptedException {
+        BitsyIsolationLevel oldLevel = ((BitsyGraph) graph).getDefaultIsolationLevel();
+        ((BitsyGraph) graph).setDefaultIsolationLevel(BitsyIsolationLevel.SNAPSHOT);
+        ((BitsyGraph) graph).createKeyIndex("snapKey", Vertex.class);
+
+        Vertex v = graph.addVertex();
+        final Object vid = v.id();
+        v.property("snapKey", "foo");
+        Vertex v2 = graph.addVertex();
+        final Object v2id = v2.id();
+        v.addEdge("snapLabel", v2);
+        graph.tx().commit();
+
+        // The first read pins the snapshot
+        v = getVertex(graph, vid);
+        assertEquals("foo", v.value("snapKey"));
+        int numVertices = 0;
+        for (Iterator<Vertex> iter = graph.vertices(); iter.hasNext(); iter.next()) {
+            numVertices++;
+        }
+
+        Thread t = new Thread() {
+            public void run() {
+                getVertex(graph, vid).property("snapKey", "bar");
+                removeVertex(graph, getVertex(graph, v2id));
+                graph.addVertex().property("snapKey", "foo");
+                graph.tx().commit();
+            }
+        };
+
+        t.start();
+        t.join();
+
+        // Every read sees the graph as of the snapshot
+        assertEquals("foo", getVertex(graph, vid).value("snapKey"));
+        assertNotNull(getVertex(graph, v2id));
+        checkIterCount(getVertex(graph, vid).edges(Direction.OUT, "snapLabel"), 1);
+        checkIterCount(((BitsyGraph) graph).verticesByIndex("snapKey", "foo"), 1);
+        checkIterCount(((BitsyGraph) graph).verticesByIndex("snapKey", "bar"), 0);
+        checkIterCount(graph.vertices(), numVertices);
+
+        // ... but the changes are validated against the current versions
+        try {
+            v.property("snapKey", "baz");
+            graph.tx().commit();
+
+            fail("Should throw concurrent mod exception");
+        } catch (BitsyRetryException e) {
+            // Ignore
+        }
+
+        // The next transaction sees the other commit
+        assertEquals("bar", getVertex(graph, vid).value("snapKey"));
+        assertNull(getVertex(graph, v2id));
+        checkIterCount(getVertex(graph, vid).edges(Direction.OUT), 0);
+        checkIterCount(((BitsyGraph) graph).verticesByIndex("snapKey", "foo"), 1);
+        checkIterCount(graph.vertices(), numVertices);
+        graph.tx().commit();
+
+        ((BitsyGraph) graph).dropKeyIndex("snapKey", Vertex.class);
+        ((BitsyGraph) graph).setDefaultIsolationLevel(oldLevel);
+    }
+
     public void testLargeDegreePerformance() {
         long ts = System.currentTimeMillis();
 
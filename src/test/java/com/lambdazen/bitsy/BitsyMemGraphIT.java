@@ -2,6 +2,7 @@ package com.lambdazen.bitsy;
 
 import com.lambdazen.bitsy.store.Record;
 import com.lambdazen.bitsy.store.Record.RecordType;
+import java.util.concurrent.CompletableFuture;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
@@ -29,6 +30,17 @@ public class BitsyMemGraphIT extends BitsyGraphIT {
         // Disable
     }
 
+    public void testCommitAsync() throws Exception {
+        // Memory stores have nothing to write, so the future is already completed
+        Vertex v = graph.addVertex();
+        v.property("foo", "bar");
+        Object vid = v.id();
+
+        CompletableFuture<Void> future = ((BitsyGraph) graph).tx().commitAsync();
+        assertTrue(future.isDone());
+        assertEquals("bar", graph.vertices(vid).next().value("foo"));
+    }
+
     public void testObsolescence() {
         IGraphStore store = ((BitsyGraph) graph).getStore();
 
@@ -6,12 +6,17 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 public class RecoveryTest extends FileBasedTestCase {
     public RecoveryTest() {}
 
     public void testPartialTx() throws Exception {
+        // Sizes of the recovered files, which must not depend on the loader
+        Map<String, Long> recoveredSizes = new HashMap<String, Long>();
+
         for (long minSizeForParallelLoader : new long[] {10, 1024 * 1024}) {
             // Try with both the parallel and serial loaders
             LoadTask.MIN_SIZE_FOR_PARALLEL_LOADER = minSizeForParallelLoader;
@@ -48,6 +53,15 @@ public class RecoveryTest extends FileBasedTestCase {
                 checkIterCount(graph.vertices(), vCounts[i]);
                 checkIterCount(graph.edges(), eCounts[i]);
                 graph.shutdown();
+
+                for (String fileName : fileNames) {
+                    String key = paths[i] + "/" + fileName;
+                    Long size = Files.size(targetDir.resolve(fileName));
+                    Long expectedSize = recoveredSizes.put(key, size);
+                    if (expectedSize != null) {
+                        assertEquals("Size of " + key, expectedSize, size);
+                    }
+                }
             }
         }
     }
@@ -1,12 +1,19 @@
 package com.lambdazen.bitsy.ads.dict;
 
+import com.lambdazen.bitsy.store.SymbolTable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import junit.framework.TestCase;
 
 public class DictionaryTest extends TestCase {
     private Random rand = new Random();
+    private ShapeTable shapes;
+
+    protected void setUp() {
+        this.shapes = new ShapeTable(new SymbolTable());
+    }
 
     public void testBasicExpandContract() {
         Dictionary dict = new Dictionary1("foo", "bar");
@@ -160,6 +167,222 @@ public class DictionaryTest extends TestCase {
         assertNull(dict);
     }
 
+    public void testUnboxed() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < 10; i++) {
+            map.put("long" + i, 1000000000000L + i);
+        }
+        map.put("int", 123456);
+        map.put("double", 1.5d);
+        map.put("float", -2.25f);
+        map.put("nan", Double.NaN);
+        map.put("string", "foo");
+
+        Dictionary dict = DictionaryFactory.forStorage(DictionaryFactory.fromMap(map), shapes);
+        assertEquals(DictionaryShaped.class, dict.getClass());
+        assertTrue(((DictionaryShaped) dict).isUnboxed());
+        assertEquals(map.size(), dict.size());
+
+        // The values are boxed to the same types
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            assertEquals(entry.getValue(), dict.getProperty(entry.getKey()));
+        }
+
+        assertEquals(1000000000003L, dict.getLongProperty("long3"));
+        assertEquals(1000000000003d, dict.getDoubleProperty("long3"));
+        assertEquals(123456L, dict.getLongProperty("int"));
+        assertEquals(1.5d, dict.getDoubleProperty("double"));
+        assertEquals(1L, dict.getLongProperty("double"));
+        assertEquals(-2.25d, dict.getDoubleProperty("float"));
+        assertTrue(Double.isNaN(dict.getDoubleProperty("nan")));
+        assertNull(dict.getProperty("missing"));
+
+        try {
+            dict.getLongProperty("missing");
+            fail("Expecting a missing property");
+        } catch (NoSuchElementException e) {
+            // Expected
+        }
+
+        try {
+            dict.getLongProperty("string");
+            fail("Expecting a non-numeric property");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // Updates on a copy don't change the original
+        Dictionary copy = dict.copyOf().setProperty("long0", "bar").setProperty("extra", 7L);
+        assertEquals(1000000000000L, dict.getProperty("long0"));
+        assertEquals("bar", copy.getProperty("long0"));
+        assertEquals(7L, copy.getProperty("extra"));
+        assertNull(dict.getProperty("extra"));
+
+        // Stays unboxed while most of the values are numbers
+        Dictionary stored = DictionaryFactory.forStorage(copy, shapes);
+        assertEquals(DictionaryShaped.class, stored.getClass());
+        assertTrue(((DictionaryShaped) stored).isUnboxed());
+        assertEquals(map.size() + 1, stored.size());
+        assertSame(stored, DictionaryFactory.forStorage(stored, shapes));
+
+        // Falls back to boxed values when few of the values are numbers
+        for (int i = 0; i < 10; i++) {
+            stored = stored.removeProperty("long" + i);
+        }
+
+        stored = stored.removeProperty("double").removeProperty("float").removeProperty("nan");
+
+        stored = DictionaryFactory.forStorage(stored, shapes);
+        assertTrue(stored instanceof PrimitiveDictionary);
+        assertEquals(123456, stored.getProperty("int"));
+        assertEquals("foo", stored.getProperty("string"));
+        assertEquals(7L, stored.getLongProperty("extra"));
+
+        // Small dictionaries keep the boxed values
+        assertEquals(
+                Dictionary2.class,
+                DictionaryFactory.forStorage(new Dictionary1("a", 1L).setProperty("b", 2L), shapes)
+                        .getClass());
+    }
+
+    public void testNonNumericProperties() {
+        String[] keys = new String[11];
+        Object[] values = new Object[11];
+        for (int i = 0; i < 10; i++) {
+            keys[i] = "long" + i;
+            values[i] = (long) i;
+        }
+        keys[10] = "string";
+        values[10] = "foo";
+
+        // Dictionaries with their own keys, and shaped ones with boxed and unboxed numbers
+        Dictionary[] dicts = new Dictionary[] {
+            new Dictionary1("string", "foo"),
+            DictionaryFactory.fromArrays(keys, values),
+            new DictionaryShaped(shapes.of(keys), values, false),
+            new DictionaryShaped(shapes.of(keys), values, true)
+        };
+
+        // The numeric getters reject the values that aren't numbers
+        for (Dictionary dict : dicts) {
+            try {
+                dict.getLongProperty("string");
+                fail("Expecting a non-numeric property in " + dict);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("string"));
+            }
+
+            try {
+                dict.getDoubleProperty("string");
+                fail("Expecting a non-numeric property in " + dict);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("string"));
+            }
+
+            try {
+                dict.getLongProperty("missing");
+                fail("Expecting a missing property in " + dict);
+            } catch (NoSuchElementException e) {
+                // Expected
+            }
+        }
+    }
+
+    public void testShapes() {
+        String[] keys = new String[12];
+        Object[] values = new Object[12];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+            values[i] = "value" + i;
+        }
+
+        // Dictionaries with the same keys share a shape, and keep the values boxed when they aren't numbers
+        DictionaryShaped dict1 = (DictionaryShaped) DictionaryFactory.fromArrays(keys, values, shapes);
+        DictionaryShaped dict2 = (DictionaryShaped) DictionaryFactory.fromArrays(keys.clone(), values.clone(), shapes);
+        assertSame(dict1.shape, dict2.shape);
+        assertFalse(dict1.isUnboxed());
+        assertEquals("value11", dict1.getProperty("key11"));
+        assertNull(dict1.getProperty("key12"));
+
+        // The transitions are cached
+        DictionaryShaped copy1 = (DictionaryShaped) dict1.copyOf().setProperty("extra", "foo");
+        DictionaryShaped copy2 = (DictionaryShaped) dict2.copyOf().setProperty("extra", "bar");
+        assertSame(copy1.shape, copy2.shape);
+        assertNotSame(dict1.shape, copy1.shape);
+        assertEquals("foo", copy1.getProperty("extra"));
+        assertEquals("bar", copy2.getProperty("extra"));
+        assertNull(dict1.getProperty("extra"));
+
+        // Removing a key leads to the shape of the remaining keys in the same order
+        copy1.removeProperty("extra");
+        assertSame(dict1.shape, copy1.shape);
+        copy2.removeProperty("key0");
+        assertEquals("key1", copy2.getPropertyKeys()[0]);
+        assertEquals("bar", copy2.getProperty("extra"));
+        assertEquals(12, copy2.size());
+
+        // Copies only copy the values
+        DictionaryShaped copy3 = (DictionaryShaped) dict1.copyOf();
+        assertSame(dict1.shape, copy3.shape);
+        assertNotSame(dict1.values, copy3.values);
+
+        // Without a graph, the dictionaries keep their own keys
+        assertTrue(DictionaryFactory.fromArrays(keys, values) instanceof PrimitiveDictionary);
+
+        // No more shapes beyond the limit
+        ShapeTable limited = new ShapeTable(null, keys.length);
+        DictionaryShaped dict3 = (DictionaryShaped) DictionaryFactory.fromArrays(keys, values, limited);
+        assertEquals(keys.length, limited.getNumShapes());
+
+        Dictionary dict = dict3.copyOf().setProperty("new key", "new value");
+        assertTrue(dict instanceof PrimitiveDictionary);
+        assertEquals(13, dict.size());
+        assertEquals("new value", dict.getProperty("new key"));
+        assertEquals("value5", dict.getProperty("key5"));
+
+        keys[0] = "other key";
+        assertTrue(DictionaryFactory.fromArrays(keys, values, limited) instanceof PrimitiveDictionary);
+        assertEquals(keys.length, limited.getNumShapes());
+    }
+
+    public void testShapesPerGraph() {
+        SymbolTable symbols1 = new SymbolTable();
+        SymbolTable symbols2 = new SymbolTable();
+        ShapeTable shapes1 = new ShapeTable(symbols1);
+        ShapeTable shapes2 = new ShapeTable(symbols2);
+
+        String[] keys = new String[12];
+        Object[] values = new Object[12];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key".concat(Integer.toString(i));
+            values[i] = (long) i;
+        }
+
+        // The graphs don't share shapes, and the keys are the canonical instances of each graph
+        DictionaryShaped dict1 = (DictionaryShaped) DictionaryFactory.fromArrays(keys, values, shapes1);
+        DictionaryShaped dict2 = (DictionaryShaped) DictionaryFactory.fromArrays(keys, values, shapes2);
+        assertNotSame(dict1.shape, dict2.shape);
+        assertEquals(keys.length, shapes1.getNumShapes());
+        assertEquals(keys.length, shapes2.getNumShapes());
+        assertEquals(keys.length, symbols1.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertSame(symbols1.canonicalize("key" + i), dict1.getPropertyKeys()[i]);
+            assertSame(symbols2.canonicalize("key" + i), dict2.getPropertyKeys()[i]);
+        }
+
+        // New keys are canonicalized through the graph's symbol table
+        String extra = "ex".concat("tra");
+        assertSame(extra, symbols1.canonicalize(extra));
+        Dictionary copy = dict1.copyOf().setProperty("extra", 12L);
+        assertSame(extra, copy.getPropertyKeys()[keys.length]);
+
+        // A dictionary is moved to the shapes of the graph that stores it
+        DictionaryShaped moved = (DictionaryShaped) DictionaryFactory.forStorage(dict1.copyOf(), shapes2);
+        assertSame(dict2.shape, moved.shape);
+        assertEquals(11L, moved.getProperty("key11"));
+        assertSame(dict1, DictionaryFactory.forStorage(dict1, shapes1));
+    }
+
     public void testRandomExpandContract() {
         randomTestIter(5000, 171);
         randomTestIter(100000, 17);
@@ -196,6 +419,11 @@ public class DictionaryTest extends TestCase {
                 dict = dict.copyOf();
             }
 
+            if ((rand.nextInt() % 4 == 0) && dict != null) {
+                // Switches between the boxed and unboxed dictionaries
+                dict = DictionaryFactory.forStorage(dict, shapes);
+            }
+
             compareAgainstMap(dict, reference);
         }
     }
@@ -1,20 +1,36 @@
 package com.lambdazen.bitsy.store;
 
+import com.lambdazen.bitsy.BitsyDurabilityMode;
 import com.lambdazen.bitsy.BitsyEdge;
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.BitsyRetryException;
 import com.lambdazen.bitsy.BitsyState;
 import com.lambdazen.bitsy.BitsyVertex;
 import com.lambdazen.bitsy.FileBasedTestCase;
 import com.lambdazen.bitsy.ICommitChanges;
+import com.lambdazen.bitsy.PortDatabase;
 import com.lambdazen.bitsy.UUID;
 import com.lambdazen.bitsy.ads.dict.DictionaryFactory;
+import com.lambdazen.bitsy.store.Record.RecordType;
+import com.lambdazen.bitsy.util.CommittableFileLog;
+import com.lambdazen.bitsy.util.DefaultCommitChanges;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
 
 public class FileBackedMemoryGraphStoreTest extends FileBasedTestCase {
     FileBackedMemoryGraphStore store;
@@ -221,6 +237,1186 @@ public class FileBackedMemoryGraphStoreTest extends FileBasedTestCase {
         }
     }
 
+    public void testBinaryFormat() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-binary");
+
+        FileBackedMemoryGraphStore binStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1, false, true);
+
+        List<UUID> uuids = new ArrayList<UUID>();
+        EdgeCommitChanges ecc = new EdgeCommitChanges();
+        try {
+            assertTrue(binStore.isBinaryFormat());
+
+            for (int i = 0; i < 100; i += 10) {
+                VertexCommitChanges changes = new VertexCommitChanges(i, 10);
+                binStore.commit(changes);
+                uuids.addAll(changes.getVertexIDs());
+            }
+
+            for (int i = 0; i < uuids.size() - 1; i++) {
+                ecc.addEdge(uuids.get(i), "next", uuids.get(i + 1));
+            }
+            binStore.commit(ecc);
+
+            // Move the transaction log to the V/E files, and leave some records in the log
+            binStore.flushTxLog();
+            binStore.commit(new VertexCommitChanges(100, 10));
+        } finally {
+            binStore.shutdown();
+        }
+
+        // The files must not be text files
+        assertFalse(Files.readAllBytes(dbPath.resolve("vA.txt"))[0] == 'H');
+
+        // Reopening the database must load the binary files, even though the text format is requested
+        binStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1, false, false);
+        try {
+            assertTrue(binStore.isBinaryFormat());
+            assertEquals(110, binStore.getAllVertices().size());
+            assertEquals(uuids.size() - 1, binStore.getAllEdges().size());
+
+            for (int i = 0; i < uuids.size(); i++) {
+                VertexBean bean = binStore.getVertex(uuids.get(i));
+                assertNotNull(bean);
+                assertEquals(1, bean.getVersion());
+                assertEquals(i, bean.getProperties().get("Vertex"));
+            }
+
+            for (int i = 0; i < uuids.size() - 1; i++) {
+                List<EdgeBean> edges = binStore.getEdges(uuids.get(i), Direction.OUT, null);
+                assertEquals(1, edges.size());
+                assertEquals("next", edges.get(0).getLabel());
+                assertEquals(uuids.get(i + 1), edges.get(0).getInVertexId());
+            }
+        } finally {
+            binStore.shutdown();
+        }
+    }
+
+    public void testCheckpoint() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-checkpoint");
+
+        FileBackedMemoryGraphStore cpStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+
+        List<UUID> uuids = new ArrayList<UUID>();
+        try {
+            for (int i = 0; i < 100; i += 10) {
+                VertexCommitChanges changes = new VertexCommitChanges(i, 10);
+                cpStore.commit(changes);
+                uuids.addAll(changes.getVertexIDs());
+            }
+
+            EdgeCommitChanges ecc = new EdgeCommitChanges();
+            for (int i = 0; i < uuids.size() - 1; i++) {
+                ecc.addEdge(uuids.get(i), "next", uuids.get(i + 1));
+            }
+            cpStore.commit(ecc);
+
+            // Write an image, followed by changes that must be replayed from the V/E files and tx logs
+            cpStore.flushTxLog();
+            cpStore.checkpoint();
+            assertTrue(Files.size(dbPath.resolve("snapshotA.bin")) > 0);
+
+            VertexCommitChanges changes = new VertexCommitChanges(100, 10);
+            cpStore.commit(changes);
+            uuids.addAll(changes.getVertexIDs());
+            cpStore.flushTxLog();
+
+            changes = new VertexCommitChanges(110, 10);
+            cpStore.commit(changes);
+            uuids.addAll(changes.getVertexIDs());
+        } finally {
+            cpStore.shutdown();
+        }
+
+        checkCheckpointedStore(dbPath, uuids);
+
+        // A corrupt image must be skipped
+        byte[] image = Files.readAllBytes(dbPath.resolve("snapshotA.bin"));
+        image[image.length / 2] ^= 0x55;
+        Files.write(dbPath.resolve("snapshotA.bin"), image);
+
+        checkCheckpointedStore(dbPath, uuids);
+    }
+
+    public void testCheckpointForcesTxLog() throws Exception {
+        for (BitsyDurabilityMode mode :
+                new BitsyDurabilityMode[] {BitsyDurabilityMode.GROUP_COMMIT, BitsyDurabilityMode.ASYNC}) {
+            Path dbPath = tempDir("test-fbmgst-checkpoint-force");
+            FileBackedMemoryGraphStore cpStore =
+                    new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+
+            List<UUID> uuids = new ArrayList<UUID>();
+            try {
+                // Group commits are never synced by the size or the interval
+                cpStore.setDurabilityMode(mode);
+                cpStore.setGroupCommitInterval(3600 * 1000);
+                cpStore.setGroupCommitBytes(Long.MAX_VALUE);
+
+                for (int i = 0; i < 100; i += 10) {
+                    VertexCommitChanges changes = new VertexCommitChanges(i, 10);
+                    cpStore.commit(changes);
+                    uuids.addAll(changes.getVertexIDs());
+                }
+
+                // The checkpoint must force the transactions in the image to the tx log
+                TxLogStats stats = cpStore.getTxLogStats();
+                stats.reset();
+                cpStore.checkpoint();
+                assertTrue(stats.getSyncCount() > 0);
+            } finally {
+                cpStore.shutdown();
+            }
+
+            FileBackedMemoryGraphStore reopened =
+                    new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+            try {
+                assertEquals(100, reopened.getAllVertices().size());
+                for (int i = 0; i < uuids.size(); i++) {
+                    assertEquals(
+                            i, reopened.getVertex(uuids.get(i)).getProperties().get("Vertex"));
+                }
+            } finally {
+                reopened.shutdown();
+            }
+        }
+    }
+
+    public void testReorgForcesTxLog() throws Exception {
+        for (BitsyDurabilityMode mode :
+                new BitsyDurabilityMode[] {BitsyDurabilityMode.GROUP_COMMIT, BitsyDurabilityMode.ASYNC}) {
+            long[] syncCounts = new long[2];
+            for (boolean reorgFromMemory : new boolean[] {false, true}) {
+                Path dbPath = tempDir("test-fbmgst-reorg-force");
+                FileBackedMemoryGraphStore rfStore =
+                        new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+
+                List<UUID> uuids = new ArrayList<UUID>();
+                try {
+                    // Group commits are never synced by the size or the interval
+                    rfStore.setDurabilityMode(mode);
+                    rfStore.setGroupCommitInterval(3600 * 1000);
+                    rfStore.setGroupCommitBytes(Long.MAX_VALUE);
+                    rfStore.setReorgFromMemory(reorgFromMemory);
+
+                    // The flush of the tx log triggers a reorg
+                    rfStore.getVEReorgPotential().setMinLinesPerReorg(0);
+                    rfStore.getVEReorgPotential().setFactor(0.0001d);
+
+                    // The flush must find every transaction in the tx log, including the ASYNC ones
+                    CompletableFuture<Void> written = null;
+                    for (int i = 0; i < 100; i += 10) {
+                        VertexCommitChanges changes = new VertexCommitChanges(i, 10);
+                        written = rfStore.commitAsync(changes);
+                        uuids.addAll(changes.getVertexIDs());
+                    }
+                    written.get(10, TimeUnit.SECONDS);
+
+                    TxLogStats stats = rfStore.getTxLogStats();
+                    stats.reset();
+                    rfStore.flushTxLog();
+
+                    long deadline = System.currentTimeMillis() + 10000;
+                    while ((rfStore.getReorgStats().getReorgCount() == 0) && (System.currentTimeMillis() < deadline)) {
+                        Thread.sleep(10);
+                    }
+                    assertEquals(1, rfStore.getReorgStats().getReorgCount());
+
+                    syncCounts[reorgFromMemory ? 1 : 0] = stats.getSyncCount();
+                } finally {
+                    rfStore.shutdown();
+                }
+
+                FileBackedMemoryGraphStore reopened =
+                        new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+                try {
+                    assertEquals(100, reopened.getAllVertices().size());
+                    for (int i = 0; i < uuids.size(); i++) {
+                        assertEquals(
+                                i,
+                                reopened.getVertex(uuids.get(i)).getProperties().get("Vertex"));
+                    }
+                } finally {
+                    reopened.shutdown();
+                }
+            }
+
+            // The reorg from memory forces the active tx log through the flusher, in addition to the sealed one
+            assertTrue(syncCounts[0] > 0);
+            assertTrue(syncCounts[1] > syncCounts[0]);
+        }
+    }
+
+    public void testDurabilityModes() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-durability");
+
+        List<UUID> uuids = new ArrayList<UUID>();
+        int offset = 0;
+        for (BitsyDurabilityMode mode : BitsyDurabilityMode.values()) {
+            FileBackedMemoryGraphStore dmStore =
+                    new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+            try {
+                assertEquals(BitsyDurabilityMode.FSYNC, dmStore.getDurabilityMode());
+                assertEquals(offset, dmStore.getAllVertices().size());
+                assertFalse(dmStore.isIdleSyncScheduled());
+
+                dmStore.setDurabilityMode(mode);
+                assertEquals(mode == BitsyDurabilityMode.GROUP_COMMIT, dmStore.isIdleSyncScheduled());
+                dmStore.setGroupCommitBytes(512);
+                if (mode == BitsyDurabilityMode.ASYNC) {
+                    // Segments are forced when they are sealed
+                    dmStore.getTxLogFlushPotential().setTxLogThreshold(1024 * 1024);
+                }
+                for (int i = 0; i < 50; i += 5) {
+                    VertexCommitChanges changes = new VertexCommitChanges(offset + i, 5);
+                    dmStore.commit(changes);
+                    uuids.addAll(changes.getVertexIDs());
+                }
+
+                // ASYNC commits return before the batch is written, so the test waits for all 10 of them
+                TxLogStats stats = dmStore.getTxLogStats();
+                long deadline = System.currentTimeMillis() + 10000;
+                while ((Math.round(stats.getBatchCount() * stats.getAverageBatchSize()) < 10)
+                        && (System.currentTimeMillis() < deadline)) {
+                    Thread.sleep(10);
+                }
+                assertTrue(stats.getBatchCount() > 0);
+                assertTrue(stats.getAverageBatchSize() >= 1);
+                assertTrue(stats.getAverageBatchBytes() > 0);
+                if (mode == BitsyDurabilityMode.ASYNC) {
+                    assertEquals(0, stats.getSyncCount());
+                } else if (mode != BitsyDurabilityMode.GROUP_COMMIT) {
+                    assertEquals(stats.getBatchCount(), stats.getSyncCount());
+                }
+
+                assertEquals(0, stats.getAsyncFailureCount());
+
+                stats.reset();
+                assertEquals(0, stats.getBatchCount());
+                assertEquals(0, stats.getSyncCount());
+            } finally {
+                // Pending transactions are written when the store is shut down
+                dmStore.shutdown();
+            }
+
+            offset += 50;
+        }
+
+        FileBackedMemoryGraphStore dmStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+        try {
+            assertEquals(uuids.size(), dmStore.getAllVertices().size());
+            for (int i = 0; i < uuids.size(); i++) {
+                assertEquals(i, dmStore.getVertex(uuids.get(i)).getProperties().get("Vertex"));
+            }
+        } finally {
+            dmStore.shutdown();
+        }
+    }
+
+    public void testCommitAsync() throws Exception {
+        List<UUID> uuids = new ArrayList<UUID>();
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 1000; i += 10) {
+            VertexCommitChanges changes = new VertexCommitChanges(i, 10);
+            futures.add(store.commitAsync(changes));
+            uuids.addAll(changes.getVertexIDs());
+        }
+
+        // The changes are visible before they are durable
+        assertEquals(1000, store.getAllVertices().size());
+
+        for (CompletableFuture<Void> future : futures) {
+            assertNull(future.get());
+        }
+
+        assertTrue(store.commitAsync(new VertexCommitChanges(0, 0)).isDone());
+
+        store.shutdown();
+        this.store =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), tempDir("test-fbmgst", false), 2 * 1024, 1);
+
+        assertEquals(1000, store.getAllVertices().size());
+        for (int i = 0; i < uuids.size(); i++) {
+            assertEquals(i, store.getVertex(uuids.get(i)).getProperties().get("Vertex"));
+        }
+    }
+
+    public void testPartitionedLoad() throws Exception {
+        long origMinSize = LoadTask.MIN_SIZE_FOR_PARALLEL_LOADER;
+        int origNumThreads = LoadTask.NUM_LOAD_THREADS;
+        int origRecordsPerBatch = PartitionedInserter.RECORDS_PER_BATCH;
+        try {
+            Path dbPath = tempDir("test-fbmgst-partitioned");
+            FileBackedMemoryGraphStore plStore =
+                    new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+
+            Map<UUID, String> expectedAdjacency;
+            try {
+                List<UUID> uuids = new ArrayList<UUID>();
+                for (int i = 0; i < 300; i += 30) {
+                    VertexCommitChanges changes = new VertexCommitChanges(i, 30);
+                    plStore.commit(changes);
+                    uuids.addAll(changes.getVertexIDs());
+                }
+
+                EdgeCommitChanges ecc = new EdgeCommitChanges();
+                for (int i = 0; i < uuids.size(); i++) {
+                    ecc.addEdge(uuids.get(i), "next", uuids.get((i + 1) % 300));
+                    ecc.addEdge(uuids.get(i), "seven", uuids.get((7 * i) % 300));
+                }
+                plStore.commit(ecc);
+
+                // Update and delete some edges, and delete some vertices leaving their edges behind in the E file
+                DefaultCommitChanges dcc = new DefaultCommitChanges();
+                List<UUID> edgeIds = ecc.edgeUUIDs;
+                for (int i = 0; i < edgeIds.size(); i += 3) {
+                    BitsyState state = (i % 2 == 0) ? BitsyState.M : BitsyState.D;
+                    dcc.changeEdge(new BitsyEdge(plStore.getEdge(edgeIds.get(i)), null, state));
+                }
+                plStore.commit(dcc);
+                plStore.commit(
+                        new VertexCommitChanges(0, 10, uuids.subList(0, 10).toArray(new UUID[0]), 1));
+
+                plStore.flushTxLog();
+                expectedAdjacency = getAdjacency(plStore);
+            } finally {
+                plStore.shutdown();
+            }
+
+            // Load with the partitioned inserter, followed by a single insert thread
+            PartitionedInserter.RECORDS_PER_BATCH = 7;
+            LoadTask.MIN_SIZE_FOR_PARALLEL_LOADER = 10;
+            for (int numThreads : new int[] {8, 1}) {
+                LoadTask.NUM_LOAD_THREADS = numThreads;
+
+                plStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+                try {
+                    assertEquals(expectedAdjacency, getAdjacency(plStore));
+                } finally {
+                    plStore.shutdown();
+                }
+            }
+
+            // The insert threads do not maintain key indexes
+            MemoryGraphStore indexedStore = new MemoryGraphStore(true);
+            indexedStore.createKeyIndex("foo", Vertex.class);
+            try {
+                new PartitionedInserter(indexedStore, new SymbolTable(), 2);
+                fail("The partitioned inserter must not be used with key indexes");
+            } catch (BitsyException e) {
+                assertEquals(BitsyErrorCodes.INTERNAL_ERROR, e.getErrorCode());
+            }
+        } finally {
+            LoadTask.MIN_SIZE_FOR_PARALLEL_LOADER = origMinSize;
+            LoadTask.NUM_LOAD_THREADS = origNumThreads;
+            PartitionedInserter.RECORDS_PER_BATCH = origRecordsPerBatch;
+        }
+    }
+
+    public void testReorgFromMemory() throws Exception {
+        int origRecordsPerChunk = MemoryReorgTask.RECORDS_PER_CHUNK;
+        int origNumThreads = MemoryReorgTask.NUM_SERIALIZER_THREADS;
+        try {
+            MemoryReorgTask.RECORDS_PER_CHUNK = 7;
+            MemoryReorgTask.NUM_SERIALIZER_THREADS = 3;
+
+            for (boolean reorgFromMemory : new boolean[] {true, false}) {
+                Path dbPath = tempDir("test-fbmgst-reorg");
+                FileBackedMemoryGraphStore reorgStore =
+                        new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+
+                Map<UUID, String> expectedAdjacency;
+                List<UUID> uuids = new ArrayList<UUID>();
+                try {
+                    reorgStore.setReorgFromMemory(reorgFromMemory);
+                    assertEquals(reorgFromMemory, reorgStore.isReorgFromMemory());
+
+                    // Every flush of the tx log triggers a reorg
+                    reorgStore.getVEReorgPotential().setMinLinesPerReorg(0);
+                    reorgStore.getVEReorgPotential().setFactor(0.0001d);
+
+                    for (int i = 0; i < 100; i += 20) {
+                        VertexCommitChanges changes = new VertexCommitChanges(i, 20);
+                        reorgStore.commit(changes);
+                        uuids.addAll(changes.getVertexIDs());
+                    }
+                    reorgStore.flushTxLog();
+
+                    EdgeCommitChanges ecc = new EdgeCommitChanges();
+                    for (int i = 0; i < uuids.size(); i++) {
+                        ecc.addEdge(uuids.get(i), "next", uuids.get((i + 1) % 100));
+                    }
+                    reorgStore.commit(ecc);
+                    reorgStore.flushTxLog();
+
+                    // Update and delete some edges, and delete some vertices with their edges
+                    DefaultCommitChanges dcc = new DefaultCommitChanges();
+                    List<UUID> edgeIds = ecc.edgeUUIDs;
+                    for (int i = 20; i < edgeIds.size(); i += 3) {
+                        BitsyState state = (i % 2 == 0) ? BitsyState.M : BitsyState.D;
+                        dcc.changeEdge(new BitsyEdge(reorgStore.getEdge(edgeIds.get(i)), null, state));
+                    }
+                    reorgStore.commit(dcc);
+                    reorgStore.commit(
+                            new VertexCommitChanges(0, 5, uuids.subList(50, 55).toArray(new UUID[0]), 1));
+                    reorgStore.flushTxLog();
+
+                    // Changes after the last reorg are recovered from the tx log
+                    reorgStore.commit(new VertexCommitChanges(100, 10));
+
+                    expectedAdjacency = getAdjacency(reorgStore);
+                } finally {
+                    reorgStore.shutdown();
+                }
+
+                reorgStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+                try {
+                    assertEquals(expectedAdjacency, getAdjacency(reorgStore));
+                    assertEquals(105, reorgStore.getAllVertices().size());
+
+                    for (int i = 0; i < 100; i++) {
+                        VertexBean bean = reorgStore.getVertex(uuids.get(i));
+                        if ((i >= 50) && (i < 55)) {
+                            assertNull(bean);
+                        } else {
+                            assertEquals(i, bean.getProperties().get("Vertex"));
+                        }
+                    }
+                } finally {
+                    reorgStore.shutdown();
+                }
+            }
+        } finally {
+            MemoryReorgTask.RECORDS_PER_CHUNK = origRecordsPerChunk;
+            MemoryReorgTask.NUM_SERIALIZER_THREADS = origNumThreads;
+        }
+    }
+
+    public void testThrottledReorg() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-throttle");
+        FileBackedMemoryGraphStore throttledStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+
+        Map<UUID, String> expectedAdjacency;
+        try {
+            IORateLimiter limiter = throttledStore.getIORateLimiter();
+
+            // The budget is scaled down for slow syncs, and back up for fast ones
+            limiter.setBytesPerSec(1000000);
+            limiter.setTargetCommitLatencyMicros(1000);
+            limiter.recordCommitLatency(5000000);
+            assertEquals(500000, limiter.getCurrentBytesPerSec());
+            for (int i = 0; i < 100; i++) {
+                limiter.recordCommitLatency(10000);
+            }
+            assertEquals(1000000, limiter.getCurrentBytesPerSec());
+
+            // The commits are sampled in every durability mode, even when the log is not synced
+            throttledStore.setDurabilityMode(BitsyDurabilityMode.ASYNC);
+            limiter.setTargetCommitLatencyMicros(1);
+            throttledStore.commitAsync(new VertexCommitChanges(0, 1)).get(10, TimeUnit.SECONDS);
+            assertTrue(limiter.getCurrentBytesPerSec() < 1000000);
+            throttledStore.setDurabilityMode(BitsyDurabilityMode.FSYNC);
+
+            // Every flush of the tx log triggers a reorg, limited to 500KB/sec
+            limiter.setBytesPerSec(500000);
+            limiter.setTargetCommitLatencyMicros(0);
+            throttledStore.getVEReorgPotential().setMinLinesPerReorg(0);
+            throttledStore.getVEReorgPotential().setFactor(0.0001d);
+
+            List<UUID> uuids = new ArrayList<UUID>();
+            for (int i = 0; i < 1000; i += 100) {
+                VertexCommitChanges changes = new VertexCommitChanges(i, 100);
+                throttledStore.commit(changes);
+                uuids.addAll(changes.getVertexIDs());
+                throttledStore.flushTxLog();
+            }
+
+            EdgeCommitChanges ecc = new EdgeCommitChanges();
+            for (int i = 0; i < uuids.size(); i++) {
+                ecc.addEdge(uuids.get(i), "next", uuids.get((i + 1) % uuids.size()));
+            }
+            throttledStore.commit(ecc);
+            throttledStore.flushTxLog();
+
+            expectedAdjacency = getAdjacency(throttledStore);
+        } finally {
+            throttledStore.shutdown();
+        }
+
+        // The shutdown waits for the pending reorgs
+        ReorgStats stats = throttledStore.getReorgStats();
+        assertFalse(stats.isReorgInProgress());
+        assertTrue(stats.getReorgCount() > 0);
+        assertTrue(stats.getFlushCount() > 0);
+        assertEquals(100d, stats.getReorgProgress());
+        assertTrue(stats.getAverageReorgBytesPerSec() > 0);
+        assertTrue(throttledStore.getIORateLimiter().getThrottledMillis() > 0);
+
+        stats.reset();
+        assertEquals(0, stats.getReorgCount());
+
+        throttledStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+        try {
+            assertEquals(expectedAdjacency, getAdjacency(throttledStore));
+        } finally {
+            throttledStore.shutdown();
+        }
+    }
+
+    public void testSegmentedTxLog() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-segments");
+        FileBackedMemoryGraphStore segStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+
+        List<UUID> uuids = new ArrayList<UUID>();
+        try {
+            assertEquals(2, segStore.getTxLogSegments());
+            assertTrue(Files.exists(dbPath.resolve(TxLogManifest.FILE_NAME)));
+
+            try {
+                segStore.setTxLogSegments(1);
+                fail("Expecting an exception for too few segments");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            segStore.setTxLogSegments(4);
+            assertEquals(4, segStore.getTxLogSegments());
+            assertTrue(Files.exists(dbPath.resolve("txC.txt")));
+            assertTrue(Files.exists(dbPath.resolve("txD.txt")));
+            assertEquals(4, TxLogManifest.readSegmentNames(dbPath).size());
+
+            // Slow down the copies to the V/E files, so that several segments wait to be flushed
+            segStore.getIORateLimiter().setBytesPerSec(100000);
+            segStore.getIORateLimiter().setTargetCommitLatencyMicros(0);
+
+            for (int i = 0; i < 500; i += 10) {
+                VertexCommitChanges changes = new VertexCommitChanges(i, 10);
+                segStore.commit(changes);
+                uuids.addAll(changes.getVertexIDs());
+            }
+        } finally {
+            segStore.shutdown();
+        }
+
+        // Every segment in the manifest is ported to the other format
+        Path portPath = tempDir("test-fbmgst-segments-port");
+        new PortDatabase(new String[] {
+            "-toVersion", FileBackedMemoryGraphStore.BINARY_MAJOR_VERSION_NUMBER, dbPath.toString(), portPath.toString()
+        });
+        FileBackedMemoryGraphStore portStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), portPath, 2 * 1024, 1);
+        try {
+            assertTrue(portStore.isBinaryFormat());
+            assertEquals(4, portStore.getTxLogSegments());
+            assertEquals(500, portStore.getAllVertices().size());
+        } finally {
+            portStore.shutdown();
+        }
+
+        // The segments are read from the manifest
+        segStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+        try {
+            assertEquals(4, segStore.getTxLogSegments());
+            assertEquals(500, segStore.getAllVertices().size());
+
+            // Free segments are removed right away
+            segStore.setTxLogSegments(2);
+            assertEquals(2, segStore.getTxLogSegments());
+            assertEquals(2, TxLogManifest.readSegmentNames(dbPath).size());
+
+            segStore.commit(new VertexCommitChanges(500, 10));
+            segStore.flushTxLog();
+            segStore.commit(new VertexCommitChanges(510, 10));
+        } finally {
+            segStore.shutdown();
+        }
+
+        segStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+        try {
+            assertEquals(2, segStore.getTxLogSegments());
+            assertEquals(520, segStore.getAllVertices().size());
+
+            for (int i = 0; i < uuids.size(); i++) {
+                assertEquals(i, segStore.getVertex(uuids.get(i)).getProperties().get("Vertex"));
+            }
+        } finally {
+            segStore.shutdown();
+        }
+    }
+
+    public void testTxLogManifestCounters() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-manifest");
+        FileBackedMemoryGraphStore mStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+
+        Path txPath;
+        byte[] txBytes;
+        long txCounter;
+        try {
+            VertexCommitChanges changes = new VertexCommitChanges(0, 10);
+            mStore.commit(changes);
+
+            // Keep the contents of the segment that is about to be copied to the V/E files and cleared
+            txPath = null;
+            for (String name : TxLogManifest.readSegmentNames(dbPath)) {
+                Path path = dbPath.resolve(name);
+                if ((txPath == null) || (Files.size(path) > Files.size(txPath))) {
+                    txPath = path;
+                }
+            }
+            txBytes = Files.readAllBytes(txPath);
+            txCounter = readCounter(txPath);
+
+            // The deletes are copied to the V/E files, and must not be undone by the stale segment
+            mStore.flushTxLog();
+            mStore.commit(new VertexCommitChanges(
+                    0, 5, changes.getVertexIDs().subList(0, 5).toArray(new UUID[0]), 1));
+            mStore.flushTxLog();
+        } finally {
+            mStore.shutdown();
+        }
+
+        // A lost clearing of an applied segment is redone, instead of replaying the segment
+        assertTrue(txCounter < TxLogManifest.read(dbPath).getAppliedCounter());
+        Files.write(txPath, txBytes);
+
+        mStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+        try {
+            assertEquals(5, mStore.getAllVertices().size());
+            assertTrue(readCounter(txPath) > txCounter);
+            assertTrue(Files.size(txPath) < txBytes.length);
+        } finally {
+            mStore.shutdown();
+        }
+
+        // A segment can not be behind its counter in the manifest
+        TxLogManifest manifest = TxLogManifest.read(dbPath);
+        List<String> names = manifest.getSegmentNames();
+        List<Long> counters = new ArrayList<Long>();
+        for (String name : names) {
+            counters.add(manifest.getCounter(name));
+        }
+        int last = counters.indexOf(Collections.max(counters));
+        counters.set(last, counters.get(last) + 100);
+        TxLogManifest.write(dbPath, manifest.getAppliedCounter(), names, counters);
+
+        try {
+            new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+            fail("Expecting an exception for a segment that is behind the manifest");
+        } catch (BitsyException e) {
+            assertEquals(BitsyErrorCodes.DATABASE_IS_CORRUPT, e.getErrorCode());
+        }
+    }
+
+    private long readCounter(Path txPath) throws Exception {
+        CommittableFileLog cfl = new CommittableFileLog(txPath, true);
+        try {
+            cfl.openForRead();
+
+            return cfl.getCounter();
+        } finally {
+            cfl.close();
+        }
+    }
+
+    public void testTxBufferPool() throws Exception {
+        for (boolean binary : new boolean[] {false, true}) {
+            Path dbPath = tempDir("test-fbmgst-buffer-pool");
+            FileBackedMemoryGraphStore pStore =
+                    new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1, true, binary);
+
+            List<UUID> uuids = new ArrayList<UUID>();
+            try {
+                // The buffers of small transactions are returned to the pool after they are written
+                TxBufferPool pool = pStore.getTxBufferPool();
+                for (int i = 0; i < 100; i += 10) {
+                    VertexCommitChanges changes = new VertexCommitChanges(i, 10);
+                    pStore.commit(changes);
+                    uuids.addAll(changes.getVertexIDs());
+                }
+                assertEquals(1, pool.getFreeBuffers());
+
+                // Large transactions get buffers of their own
+                VertexCommitChanges largeChanges = new VertexCommitChanges(100, 2000);
+                pStore.commit(largeChanges);
+                uuids.addAll(largeChanges.getVertexIDs());
+                assertEquals(1, pool.getFreeBuffers());
+            } finally {
+                pStore.shutdown();
+            }
+
+            pStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+            try {
+                assertEquals(binary, pStore.isBinaryFormat());
+                assertEquals(2100, pStore.getAllVertices().size());
+                for (int i = 0; i < uuids.size(); i++) {
+                    assertEquals(
+                            i, pStore.getVertex(uuids.get(i)).getProperties().get("Vertex"));
+                }
+            } finally {
+                pStore.shutdown();
+            }
+        }
+    }
+
+    public void testTxBufferPoolOnRetry() throws Exception {
+        TxBufferPool pool = store.getTxBufferPool();
+
+        VertexCommitChanges changes = new VertexCommitChanges(0, 10);
+        store.commit(changes);
+        int freeBuffers = pool.getFreeBuffers();
+        assertTrue(freeBuffers > 0);
+
+        // A delete of the stale versions is rejected by the memory store after its records are serialized
+        UUID[] toDelete = changes.getVertexIDs().toArray(new UUID[0]);
+        for (int i = 0; i < 5; i++) {
+            try {
+                store.commit(new VertexCommitChanges(0, toDelete.length, toDelete, 0));
+                fail("Expecting a retry exception");
+            } catch (BitsyRetryException e) {
+                assertEquals(BitsyErrorCodes.CONCURRENT_MODIFICATION, e.getErrorCode());
+            }
+
+            // The buffer of the rejected transaction is returned to the pool
+            assertEquals(freeBuffers, pool.getFreeBuffers());
+        }
+
+        assertEquals(10, store.getAllVertices().size());
+    }
+
+    public void testCrc32cFormat() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-crc32c");
+        FileBackedMemoryGraphStore crcStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+        try {
+            assertTrue(crcStore.isCrc32cFormat());
+            assertTrue(crcStore.isCompressedFormat());
+
+            for (int i = 0; i < 100; i += 10) {
+                crcStore.commit(new VertexCommitChanges(i, 10));
+            }
+
+            crcStore.flushTxLog();
+        } finally {
+            crcStore.shutdown();
+        }
+
+        // Every line of a new text database ends with a CRC32C
+        Path vPath = (Files.size(dbPath.resolve("vA.txt")) > Files.size(dbPath.resolve("vB.txt")))
+                ? dbPath.resolve("vA.txt")
+                : dbPath.resolve("vB.txt");
+        List<String> lines = Files.readAllLines(vPath, FileBackedMemoryGraphStore.utf8);
+        assertTrue(lines.size() > 100);
+        for (String line : lines) {
+            assertTrue(line, Record.isCrc32cLine(line));
+        }
+
+        // The CRC32C format is ported like the other formats
+        Path portPath = tempDir("test-fbmgst-crc32c-port");
+        new PortDatabase(new String[] {
+            "-toVersion", FileBackedMemoryGraphStore.TEXT_MAJOR_VERSION_NUMBER, dbPath.toString(), portPath.toString()
+        });
+        FileBackedMemoryGraphStore portStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), portPath, 1024 * 1024, 1);
+        try {
+            assertFalse(portStore.isCrc32cFormat());
+            assertFalse(portStore.isCompressedFormat());
+            assertEquals(100, portStore.getAllVertices().size());
+        } finally {
+            portStore.shutdown();
+        }
+
+        // Change the checksum of the second V record, which is record number 3 after the header
+        assertTrue(lines.get(2).startsWith("V="));
+        String line = lines.get(2);
+        char last = line.charAt(line.length() - 1);
+        lines.set(2, line.substring(0, line.length() - 1) + ((last == '0') ? '1' : '0'));
+        Files.write(vPath, lines, FileBackedMemoryGraphStore.utf8);
+
+        // The record is not in the sample
+        int origInterval = LoadTask.CHECKSUM_SAMPLE_INTERVAL;
+        LoadTask.CHECKSUM_SAMPLE_INTERVAL = 4;
+        try {
+            crcStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+            try {
+                assertEquals(100, crcStore.getAllVertices().size());
+            } finally {
+                crcStore.shutdown();
+            }
+        } finally {
+            LoadTask.CHECKSUM_SAMPLE_INTERVAL = origInterval;
+        }
+
+        // Every record is verified by default
+        try {
+            new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+            fail("Expecting a checksum mismatch");
+        } catch (BitsyException e) {
+            assertEquals(BitsyErrorCodes.DATABASE_IS_CORRUPT, e.getErrorCode());
+        }
+    }
+
+    public void testIncrementalBackup() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-incr");
+        Path archivePath = tempDir("test-fbmgst-incr-archive");
+        Path[] backupDirs = new Path[] {
+            tempDir("test-fbmgst-incr-backup0"),
+            tempDir("test-fbmgst-incr-backup1"),
+            tempDir("test-fbmgst-incr-backup2"),
+            tempDir("test-fbmgst-incr-backup3")
+        };
+
+        FileBackedMemoryGraphStore bStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+        try {
+            // The transaction logs must be archived
+            try {
+                bStore.backup(backupDirs[0], null);
+                fail("Expecting a bad backup path");
+            } catch (BitsyException e) {
+                assertEquals(BitsyErrorCodes.BAD_BACKUP_PATH, e.getErrorCode());
+            }
+
+            bStore.setTxLogArchivePath(archivePath);
+
+            // Every flush of the tx log triggers a reorg
+            bStore.getVEReorgPotential().setMinLinesPerReorg(0);
+            bStore.getVEReorgPotential().setFactor(0.0001d);
+
+            // The first backup is a base, and the following ones add the tx logs sealed in between
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 50; j += 10) {
+                    bStore.commit(new VertexCommitChanges(i * 50 + j, 10));
+                }
+
+                if (i == 2) {
+                    // The V/E files are reorganized after the tx logs sealed by the earlier backups are flushed
+                    bStore.flushTxLog();
+                    for (int j = 0; (j < 100) && (bStore.getReorgStats().getReorgCount() == 0); j++) {
+                        Thread.sleep(100);
+                    }
+                    assertTrue(bStore.getReorgStats().getReorgCount() > 0);
+                }
+
+                bStore.backup(backupDirs[i], (i == 0) ? null : backupDirs[i - 1]);
+
+                IncrementalBackup backup = IncrementalBackup.read(backupDirs[i]);
+                assertNotNull(backup);
+                assertEquals(i == 0, backup.isBase());
+                assertEquals(i, backup.getIncrement());
+
+                // The tx logs sealed for the base may already be in its V/E files
+                assertTrue((i == 0) || !backup.getTxLogs(backupDirs[i]).isEmpty());
+            }
+
+            // The base and the earlier tx logs are linked, not copied, where the file system allows
+            assertTrue(Files.isSameFile(backupDirs[0].resolve("vA.txt"), backupDirs[2].resolve("vA.txt")));
+            for (Path txLog : IncrementalBackup.read(backupDirs[1])
+                    .getTxLogs(backupDirs[1])
+                    .values()) {
+                assertTrue(Files.isSameFile(txLog, backupDirs[2].resolve(txLog.getFileName())));
+            }
+
+            try {
+                bStore.backup(backupDirs[3], tempDir("test-fbmgst-incr-empty"));
+                fail("Expecting a bad backup path");
+            } catch (BitsyException e) {
+                assertEquals(BitsyErrorCodes.BAD_BACKUP_PATH, e.getErrorCode());
+            }
+
+            // A new archive doesn't have the tx logs flushed after the last backup, so a new base is taken
+            bStore.flushTxLog();
+            bStore.setTxLogArchivePath(tempDir("test-fbmgst-incr-archive2"));
+            for (int j = 150; j < 200; j += 10) {
+                bStore.commit(new VertexCommitChanges(j, 10));
+            }
+
+            bStore.backup(backupDirs[3], backupDirs[2]);
+            assertTrue(IncrementalBackup.read(backupDirs[3]).isBase());
+        } finally {
+            bStore.shutdown();
+        }
+
+        // Every backup restores the commits before it
+        for (int i = 0; i < backupDirs.length; i++) {
+            Path restorePath = tempDir("test-fbmgst-incr-restore");
+            FileBackedMemoryGraphStore.restoreBackup(backupDirs[i], restorePath);
+
+            FileBackedMemoryGraphStore rStore =
+                    new FileBackedMemoryGraphStore(new MemoryGraphStore(true), restorePath, 1024 * 1024, 1);
+            try {
+                assertEquals((i + 1) * 50, rStore.getAllVertices().size());
+            } finally {
+                rStore.shutdown();
+            }
+
+            try {
+                FileBackedMemoryGraphStore.restoreBackup(backupDirs[i], restorePath);
+                fail("Expecting a non-empty directory to be rejected");
+            } catch (BitsyException e) {
+                assertEquals(BitsyErrorCodes.RESTORE_FAILED, e.getErrorCode());
+            }
+        }
+
+        // The archived tx logs after an incremental backup are replayed along with the ones in the backup
+        Path recoverPath = tempDir("test-fbmgst-incr-recover");
+        TxLogArchive.recover(backupDirs[0], archivePath, recoverPath, Long.MAX_VALUE, Long.MAX_VALUE);
+
+        FileBackedMemoryGraphStore rStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), recoverPath, 1024 * 1024, 1);
+        try {
+            assertEquals(150, rStore.getAllVertices().size());
+        } finally {
+            rStore.shutdown();
+        }
+    }
+
+    public void testPointInTimeRecovery() throws Exception {
+        Path dbPath = tempDir("test-fbmgst-pitr");
+        Path archivePath = tempDir("test-fbmgst-pitr-archive");
+        Path backupPath = tempDir("test-fbmgst-pitr-backup");
+
+        FileBackedMemoryGraphStore aStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+        long midTimestamp;
+        try {
+            aStore.setTxLogArchivePath(archivePath);
+            for (int i = 0; i < 50; i += 10) {
+                aStore.commit(new VertexCommitChanges(i, 10));
+            }
+
+            aStore.backup(backupPath);
+
+            // Two flushes after the backup, with a point in time between them
+            for (int i = 50; i < 100; i += 10) {
+                aStore.commit(new VertexCommitChanges(i, 10));
+            }
+            aStore.flushTxLog();
+
+            midTimestamp = System.currentTimeMillis();
+            Thread.sleep(10);
+
+            for (int i = 100; i < 150; i += 10) {
+                aStore.commit(new VertexCommitChanges(i, 10));
+            }
+            aStore.flushTxLog();
+        } finally {
+            aStore.shutdown();
+        }
+
+        // The archive mode is kept in the database
+        aStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 1024 * 1024, 1);
+        try {
+            assertEquals(archivePath.toAbsolutePath(), aStore.getTxLogArchivePath());
+        } finally {
+            aStore.shutdown();
+        }
+
+        long firstCounter = TxLogManifest.read(backupPath).getAppliedCounter();
+        assertEquals(
+                Long.valueOf(firstCounter),
+                TxLogArchive.list(archivePath).tailMap(firstCounter).firstKey());
+
+        // Every transaction, the ones up to the timestamp, and the ones in the first archived log
+        long[][] targets = new long[][] {
+            {Long.MAX_VALUE, Long.MAX_VALUE, 10}, {Long.MAX_VALUE, midTimestamp, 5}, {firstCounter, Long.MAX_VALUE, 5}
+        };
+        for (long[] target : targets) {
+            Path restorePath = tempDir("test-fbmgst-pitr-restore");
+            assertEquals(target[2], TxLogArchive.recover(backupPath, archivePath, restorePath, target[0], target[1]));
+
+            FileBackedMemoryGraphStore rStore =
+                    new FileBackedMemoryGraphStore(new MemoryGraphStore(true), restorePath, 1024 * 1024, 1);
+            try {
+                assertEquals(50 + 10 * target[2], rStore.getAllVertices().size());
+                assertNull(rStore.getTxLogArchivePath());
+            } finally {
+                rStore.shutdown();
+            }
+        }
+
+        // The T records carry the commit timestamps
+        Record rec =
+                Record.parseRecord(Record.generateDBLine(RecordType.T, Record.generateTxPayload(42, 1234L)), 1, "test");
+        assertEquals(1234L, rec.getTxTimestamp());
+        assertEquals(
+                -1L,
+                Record.parseRecord(Record.generateDBLine(RecordType.T, "42"), 1, "test")
+                        .getTxTimestamp());
+    }
+
+    public void testBlockCompression() throws Exception {
+        int origBlockSize = BlockCodec.BLOCK_SIZE;
+        int origMinTxSize = BlockCodec.MIN_TX_SIZE_TO_COMPRESS;
+        long origMinSize = LoadTask.MIN_SIZE_FOR_PARALLEL_LOADER;
+        int origNumThreads = LoadTask.NUM_LOAD_THREADS;
+        String origVersion = FileBackedMemoryGraphStore.CURRENT_MAJOR_VERSION_NUMBER;
+        try {
+            BlockCodec.BLOCK_SIZE = 1024;
+            BlockCodec.MIN_TX_SIZE_TO_COMPRESS = 1024;
+
+            for (boolean binary : new boolean[] {false, true}) {
+                for (boolean reorgFromMemory : new boolean[] {true, false}) {
+                    Path dbPath = tempDir("test-fbmgst-compression");
+                    FileBackedMemoryGraphStore.CURRENT_MAJOR_VERSION_NUMBER = binary
+                            ? FileBackedMemoryGraphStore.BINARY_MAJOR_VERSION_NUMBER
+                            : FileBackedMemoryGraphStore.TEXT_MAJOR_VERSION_NUMBER;
+                    FileBackedMemoryGraphStore cStore =
+                            new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+
+                    Map<UUID, String> expectedAdjacency;
+                    List<UUID> uuids = new ArrayList<UUID>();
+                    try {
+                        // The metadata file is marked with the compressed format before any block is written
+                        assertFalse(cStore.isCompressedFormat());
+                        cStore.setBlockCompression(true);
+                        cStore.setReorgFromMemory(reorgFromMemory);
+                        assertTrue(cStore.isBlockCompression());
+                        assertTrue(cStore.isCompressedFormat());
+
+                        // Every flush of the tx log triggers a reorg
+                        cStore.getVEReorgPotential().setMinLinesPerReorg(0);
+                        cStore.getVEReorgPotential().setFactor(0.0001d);
+
+                        // Small transactions are compressed when they are copied, large ones before they are logged
+                        for (int i = 0; i < 100; i += 5) {
+                            VertexCommitChanges changes = new VertexCommitChanges(i, 5);
+                            cStore.commit(changes);
+                            uuids.addAll(changes.getVertexIDs());
+                        }
+                        VertexCommitChanges largeChanges = new VertexCommitChanges(100, 100);
+                        cStore.commit(largeChanges);
+                        uuids.addAll(largeChanges.getVertexIDs());
+                        cStore.flushTxLog();
+
+                        EdgeCommitChanges ecc = new EdgeCommitChanges();
+                        for (int i = 0; i < uuids.size(); i++) {
+                            ecc.addEdge(uuids.get(i), "next", uuids.get((i + 1) % uuids.size()));
+                        }
+                        cStore.commit(ecc);
+                        cStore.flushTxLog();
+
+                        // A large transaction is recovered from the tx log
+                        VertexCommitChanges lastChanges = new VertexCommitChanges(200, 100);
+                        cStore.commit(lastChanges);
+                        uuids.addAll(lastChanges.getVertexIDs());
+
+                        expectedAdjacency = getAdjacency(cStore);
+                    } finally {
+                        cStore.shutdown();
+                    }
+
+                    assertTrue(countBlocks(dbPath, binary) > 0);
+
+                    // Compressed files are readable without the flag, and by the parallel reader
+                    LoadTask.MIN_SIZE_FOR_PARALLEL_LOADER = reorgFromMemory ? 0 : origMinSize;
+                    LoadTask.NUM_LOAD_THREADS = 3;
+                    cStore = new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+                    try {
+                        assertFalse(cStore.isBlockCompression());
+                        assertTrue(cStore.isCompressedFormat());
+                        assertEquals(binary, cStore.isBinaryFormat());
+                        assertEquals(300, cStore.getAllVertices().size());
+                        assertEquals(expectedAdjacency, getAdjacency(cStore));
+
+                        for (int i = 0; i < uuids.size(); i++) {
+                            assertEquals(
+                                    i,
+                                    cStore.getVertex(uuids.get(i))
+                                            .getProperties()
+                                            .get("Vertex"));
+                        }
+                    } finally {
+                        cStore.shutdown();
+                    }
+                }
+            }
+        } finally {
+            BlockCodec.BLOCK_SIZE = origBlockSize;
+            BlockCodec.MIN_TX_SIZE_TO_COMPRESS = origMinTxSize;
+            LoadTask.MIN_SIZE_FOR_PARALLEL_LOADER = origMinSize;
+            LoadTask.NUM_LOAD_THREADS = origNumThreads;
+            FileBackedMemoryGraphStore.CURRENT_MAJOR_VERSION_NUMBER = origVersion;
+        }
+    }
+
+    // Returns the number of compressed blocks in the V/E files
+    private int countBlocks(Path dbPath, boolean binary) throws Exception {
+        int ans = 0;
+        for (String fileName : new String[] {"vA.txt", "vB.txt", "eA.txt", "eB.txt"}) {
+            byte[] bytes = Files.readAllBytes(dbPath.resolve(fileName));
+            if (binary) {
+                int pos = 0;
+                while (pos + BinaryRecordCodec.LENGTH_SIZE < bytes.length) {
+                    int len = ByteBuffer.wrap(bytes, pos, BinaryRecordCodec.LENGTH_SIZE)
+                            .getInt();
+                    if (bytes[pos + BinaryRecordCodec.LENGTH_SIZE] == 'C') {
+                        ans++;
+                    }
+                    pos += BinaryRecordCodec.LENGTH_SIZE + len;
+                }
+            } else {
+                for (String line : new String(bytes, FileBackedMemoryGraphStore.utf8).split("\n")) {
+                    if (line.startsWith("C=")) {
+                        ans++;
+                    }
+                }
+            }
+        }
+
+        return ans;
+    }
+
+    // Returns a description of every vertex's edges
+    private Map<UUID, String> getAdjacency(FileBackedMemoryGraphStore fbStore) {
+        Map<UUID, String> ans = new HashMap<UUID, String>();
+        for (VertexBean vBean : fbStore.getAllVertices()) {
+            StringBuilder sb = new StringBuilder();
+            for (Direction dir : new Direction[] {Direction.OUT, Direction.IN}) {
+                List<String> edgeDescs = new ArrayList<String>();
+                for (EdgeBean eBean : fbStore.getEdges(vBean, dir, null)) {
+                    edgeDescs.add(eBean.getLabel() + ":" + eBean.getOutVertexId() + "->" + eBean.getInVertexId() + ":v"
+                            + eBean.getVersion());
+                }
+                edgeDescs.sort(Comparator.naturalOrder());
+                sb.append(dir).append(edgeDescs);
+            }
+            ans.put(vBean, sb.toString());
+        }
+
+        return ans;
+    }
+
+    private void checkCheckpointedStore(Path dbPath, List<UUID> uuids) {
+        FileBackedMemoryGraphStore cpStore =
+                new FileBackedMemoryGraphStore(new MemoryGraphStore(true), dbPath, 2 * 1024, 1);
+        try {
+            assertEquals(120, cpStore.getAllVertices().size());
+            assertEquals(99, cpStore.getAllEdges().size());
+
+            for (int i = 0; i < uuids.size(); i++) {
+                VertexBean bean = cpStore.getVertex(uuids.get(i));
+                assertNotNull(bean);
+                assertEquals(1, bean.getVersion());
+                assertEquals(i, bean.getProperties().get("Vertex"));
+            }
+
+            for (int i = 0; i < 99; i++) {
+                List<EdgeBean> edges = cpStore.getEdges(uuids.get(i), Direction.OUT, null);
+                assertEquals(1, edges.size());
+                assertEquals("next", edges.get(0).getLabel());
+                assertEquals(uuids.get(i + 1), edges.get(0).getInVertexId());
+            }
+        } finally {
+            cpStore.shutdown();
+        }
+    }
+
     private List<UUID> createVertices(int numPerCommit, int partSize) {
         List<UUID> ans = new ArrayList<UUID>();
 
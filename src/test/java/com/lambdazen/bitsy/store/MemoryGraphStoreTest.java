@@ -1,20 +1,34 @@
 package com.lambdazen.bitsy.store;
 
 import com.lambdazen.bitsy.BitsyEdge;
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.BitsyRetryException;
 import com.lambdazen.bitsy.BitsyState;
 import com.lambdazen.bitsy.BitsyVertex;
 import com.lambdazen.bitsy.ICommitChanges;
 import com.lambdazen.bitsy.UUID;
 import com.lambdazen.bitsy.ads.dict.DictionaryFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import junit.framework.TestCase;
 import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
 
 public class MemoryGraphStoreTest extends TestCase {
     MemoryGraphStore store;
@@ -74,6 +88,504 @@ public class MemoryGraphStoreTest extends TestCase {
         System.out.println("Took " + (System.currentTimeMillis() - ts) + " ms to query " + uuids.size() + " vertices");
     }
 
+    public void testInternedSymbols() {
+        List<UUID> uuids = new ArrayList<UUID>();
+        for (int i = 0; i < 2; i++) {
+            // Equal labels and keys that are different instances
+            Map<String, Object> propMap = new TreeMap<String, Object>();
+            propMap.put("na".concat("me"), "v" + i);
+            propMap.put("a".concat("ge"), i);
+
+            UUID uuid = UUID.randomUUID();
+            final List<BitsyVertex> vertices = new ArrayList<BitsyVertex>();
+            vertices.add(new BitsyVertex(
+                    uuid, "per".concat("son"), DictionaryFactory.fromMap(propMap), null, BitsyState.M, 1));
+            uuids.add(uuid);
+
+            store.commit(new ICommitChanges() {
+                @Override
+                public Collection<BitsyVertex> getVertexChanges() {
+                    return vertices;
+                }
+
+                @Override
+                public Collection<BitsyEdge> getEdgeChanges() {
+                    return Collections.emptyList();
+                }
+            });
+        }
+
+        VertexBean v0 = store.getVertex(uuids.get(0));
+        VertexBean v1 = store.getVertex(uuids.get(1));
+
+        assertEquals("person", v0.getLabel());
+        assertSame(v0.getLabel(), v1.getLabel());
+
+        String[] keys0 = v0.getPropertiesDict().getPropertyKeys();
+        String[] keys1 = v1.getPropertiesDict().getPropertyKeys();
+        assertEquals(2, keys0.length);
+        for (int i = 0; i < keys0.length; i++) {
+            assertSame(keys0[i], keys1[i]);
+        }
+
+        assertEquals("v1", v1.getPropertiesDict().getProperty("name"));
+        assertEquals(1, v1.getPropertiesDict().getProperty("age"));
+        assertNull(v1.getPropertiesDict().getProperty("foo"));
+        assertEquals(3, store.getSymbolTable().size());
+    }
+
+    public void testEpochSnapshots() {
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        UUID c = UUID.randomUUID();
+        UUID d = UUID.randomUUID();
+
+        commitVertices(vertex(a, 1, BitsyState.M, 0), vertex(b, 1, BitsyState.M, 0), vertex(c, 1, BitsyState.M, 0));
+        EpochSnapshot s1 = store.openSnapshot();
+        assertEquals(store.getEpoch(), s1.getEpoch());
+
+        commitVertices(vertex(a, 2, BitsyState.M, 1), vertex(b, 1, BitsyState.D, 1), vertex(d, 1, BitsyState.M, 0));
+        EpochSnapshot s2 = store.openSnapshot();
+
+        // B is added back with the same ID
+        commitVertices(vertex(a, 3, BitsyState.M, 2), vertex(c, 1, BitsyState.D, 1), vertex(b, 4, BitsyState.M, 0));
+
+        assertEquals(values(a, 1, b, 1, c, 1), snapshotValues(s1.getAllVertices()));
+        assertEquals(values(a, 2, c, 1, d, 1), snapshotValues(s2.getAllVertices()));
+        assertEquals(values(a, 3, b, 4, d, 1), snapshotValues(store.getAllVertices()));
+
+        assertEquals(1, s1.getVertex(a).getProperties().get("n"));
+        assertNull(s1.getVertex(d));
+        assertNull(s2.getVertex(b));
+        assertEquals(1, s2.getVertex(c).getProperties().get("n"));
+        assertEquals(3, s2.getAllVertices().size());
+
+        // The versions are reclaimed by the commits after the snapshots are closed
+        s1.close();
+        commitVertices(vertex(a, 5, BitsyState.M, 3));
+        assertEquals(values(a, 2, c, 1, d, 1), snapshotValues(s2.getAllVertices()));
+        assertTrue(store.getNumVersionedElements() > 0);
+
+        s2.close();
+        s2.close();
+        commitVertices();
+        assertEquals(0, store.getNumVersionedElements());
+        assertEquals(values(a, 5, b, 4, d, 1), snapshotValues(store.getAllVertices()));
+        assertEquals(3, store.getAllVertices().size());
+
+        try {
+            s2.getAllVertices();
+            fail("Closed snapshot");
+        } catch (BitsyException e) {
+            assertEquals(BitsyErrorCodes.EPOCH_SNAPSHOT_CLOSED, e.getErrorCode());
+        }
+    }
+
+    public void testEpochSnapshotEdges() {
+        UUID v1 = UUID.randomUUID();
+        UUID v2 = UUID.randomUUID();
+        commitVertices(vertex(v1, 1, BitsyState.M, 0), vertex(v2, 1, BitsyState.M, 0));
+
+        EdgeCommitChanges ecc = new EdgeCommitChanges();
+        ecc.addEdge(v1, "knows", v2);
+        store.commit(ecc);
+        UUID e = ecc.edgeUUIDs.get(0);
+
+        EpochSnapshot snapshot = store.openSnapshot();
+
+        // Removing the vertex removes its edge
+        commitVertices(vertex(v2, 1, BitsyState.D, 1));
+        assertNull(store.getEdge(e));
+        assertEquals(0, store.getAllEdges().size());
+
+        assertEquals(1, snapshot.getAllEdges().size());
+        assertEquals(e, snapshot.getAllEdges().iterator().next().getId());
+        assertEquals("knows", snapshot.getEdge(e).getLabel());
+        assertEquals(2, snapshot.getAllVertices().size());
+
+        snapshot.close();
+        commitVertices();
+        assertEquals(0, store.getNumVersionedElements());
+    }
+
+    public void testEpochSnapshotAdjacencyAndIndexes() {
+        UUID v1 = UUID.randomUUID();
+        UUID v2 = UUID.randomUUID();
+        UUID v3 = UUID.randomUUID();
+        UUID v4 = UUID.randomUUID();
+        store.createKeyIndex("n", Vertex.class);
+        commitVertices(vertex(v1, 1, BitsyState.M, 0), vertex(v2, 1, BitsyState.M, 0), vertex(v3, 1, BitsyState.M, 0));
+
+        EdgeCommitChanges ecc = new EdgeCommitChanges();
+        ecc.addEdge(v1, "knows", v2);
+        ecc.addEdge(v1, "likes", v3);
+        store.commit(ecc);
+
+        EpochSnapshot snapshot = store.openSnapshot();
+
+        // Removing V3 removes the 'likes' edge, and V4 gets a new edge
+        commitVertices(vertex(v2, 5, BitsyState.M, 1), vertex(v3, 1, BitsyState.D, 1), vertex(v4, 1, BitsyState.M, 0));
+        EdgeCommitChanges ecc2 = new EdgeCommitChanges();
+        ecc2.addEdge(v1, "knows", v4);
+        store.commit(ecc2);
+
+        assertEquals(2, store.getEdges(v1, Direction.OUT, null).size());
+        assertEquals(
+                0, store.getEdges(v1, Direction.OUT, new String[] {"likes"}).size());
+        assertEquals(0, store.getEdges(v3, Direction.IN, null).size());
+
+        assertEquals(
+                new HashSet<UUID>(ecc.edgeUUIDs),
+                edgeIds(snapshot.getEdges(v1, Direction.OUT, new String[] {"knows", "likes"})));
+        assertEquals(
+                Collections.singleton(ecc.edgeUUIDs.get(1)),
+                edgeIds(snapshot.getEdges(v1, Direction.OUT, new String[] {"likes"})));
+        assertEquals(Collections.singleton(ecc.edgeUUIDs.get(1)), edgeIds(snapshot.getEdges(v3, Direction.IN, null)));
+        assertEquals(0, snapshot.getEdges(v3, Direction.OUT, null).size());
+        assertEquals(0, snapshot.getEdges(v4, Direction.IN, null).size());
+
+        assertEquals(values(v1, 1, v4, 1), snapshotValues(store.lookupVertices("n", 1)));
+        assertEquals(values(v1, 1, v2, 1, v3, 1), snapshotValues(snapshot.lookupVertices("n", 1)));
+        assertEquals(0, snapshot.lookupVertices("n", 5).size());
+
+        snapshot.close();
+        commitVertices();
+        assertEquals(0, store.getNumVersionedElements());
+    }
+
+    public void testEpochSnapshotsWithConcurrentCommits() throws Exception {
+        final int numVertices = 100;
+        final UUID[] uuids = new UUID[numVertices];
+        BitsyVertex[] initial = new BitsyVertex[numVertices];
+        for (int i = 0; i < numVertices; i++) {
+            uuids[i] = UUID.randomUUID();
+            initial[i] = vertex(uuids[i], 10, BitsyState.M, 0);
+        }
+        commitVertices(initial);
+
+        // The writer moves amounts between vertices, which keeps the total the same
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    Random random = new Random(1);
+                    while (!stop.get()) {
+                        VertexBean from = store.getVertex(uuids[random.nextInt(numVertices)]);
+                        VertexBean to = store.getVertex(uuids[random.nextInt(numVertices)]);
+                        if (from == to) {
+                            continue;
+                        }
+
+                        int fromN = (Integer) from.getProperties().get("n");
+                        int toN = (Integer) to.getProperties().get("n");
+                        commitVertices(
+                                vertex(from.getId(), fromN - 1, BitsyState.M, from.getVersion()),
+                                vertex(to.getId(), toN + 1, BitsyState.M, to.getVersion()));
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        };
+        writer.start();
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                EpochSnapshot snapshot = store.openSnapshot();
+                try {
+                    int count = 0;
+                    int total = 0;
+                    for (VertexBean vBean : snapshot.getAllVertices()) {
+                        count++;
+                        total += (Integer) vBean.getProperties().get("n");
+                    }
+
+                    assertEquals(numVertices, count);
+                    assertEquals(numVertices * 10, total);
+                } finally {
+                    snapshot.close();
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        assertNull(error.get());
+    }
+
+    public void testConcurrentDisjointCommits() throws Exception {
+        final int numThreads = 8;
+        final int numCommits = 500;
+        final UUID[] uuids = new UUID[numThreads];
+        BitsyVertex[] initial = new BitsyVertex[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            uuids[i] = UUID.randomUUID();
+            initial[i] = vertex(uuids[i], 0, BitsyState.M, 0);
+        }
+        commitVertices(initial);
+        long startEpoch = store.getEpoch();
+
+        // Each thread updates its own vertex, so none of the commits conflict
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] writers = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final UUID uuid = uuids[i];
+            writers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < numCommits; j++) {
+                            VertexBean vBean = store.getVertex(uuid);
+                            int n = (Integer) vBean.getProperties().get("n");
+                            commitVertices(vertex(uuid, n + 1, BitsyState.M, vBean.getVersion()));
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertNull(error.get());
+        for (UUID uuid : uuids) {
+            VertexBean vBean = store.getVertex(uuid);
+            assertEquals(numCommits, vBean.getProperties().get("n"));
+            assertEquals(numCommits + 1, vBean.getVersion());
+        }
+        assertTrue(store.getEpoch() > startEpoch);
+        assertTrue(store.getEpoch() <= startEpoch + numThreads * numCommits);
+    }
+
+    public void testDisjointCommitsOverlap() throws Exception {
+        final UUID uuid1 = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        while (MemoryGraphStore.stripeOf(other) == MemoryGraphStore.stripeOf(uuid1)) {
+            other = UUID.randomUUID();
+        }
+        final UUID uuid2 = other;
+
+        final List<String> handedOff = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Consumer<List<String>> blockingConsumer = new Consumer<List<String>>() {
+            @Override
+            public void accept(List<String> workList) {
+                handedOff.addAll(workList);
+                if (workList.contains("blocked")) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        };
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread blocked = commitThread(vertex(uuid1, 1, BitsyState.M, 1), "blocked", blockingConsumer, error);
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        // The commit holds the stripe of its vertex until its work is handed off. A commit on a disjoint stripe
+        // completes in the meantime
+        Thread disjoint = commitThread(vertex(uuid2, 1, BitsyState.M, 1), "disjoint", blockingConsumer, error);
+        disjoint.join(10000);
+        assertFalse(disjoint.isAlive());
+        assertEquals(1, store.getVertex(uuid2).getProperties().get("n"));
+
+        // A commit on the same stripe waits for the blocked one, and its work is handed off after it
+        Thread conflicting = commitThread(vertex(uuid1, 2, BitsyState.M, 2), "conflicting", blockingConsumer, error);
+        conflicting.join(200);
+        assertTrue(conflicting.isAlive());
+
+        release.countDown();
+        blocked.join(10000);
+        conflicting.join(10000);
+        assertNull(error.get());
+        assertEquals(Arrays.asList("blocked", "disjoint", "conflicting"), handedOff);
+        assertEquals(2, store.getVertex(uuid1).getProperties().get("n"));
+    }
+
+    private Thread commitThread(
+            final BitsyVertex vertex,
+            final String work,
+            final Consumer<List<String>> consumer,
+            final AtomicReference<Throwable> error) {
+        Thread ans = new Thread() {
+            public void run() {
+                try {
+                    store.commit(changes(vertex), false, work, consumer);
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        };
+        ans.start();
+
+        return ans;
+    }
+
+    public void testReadStats() throws Exception {
+        final UUID uuid = UUID.randomUUID();
+        commitVertices(vertex(uuid, 0, BitsyState.M, 0));
+        ReadStats stats = store.getReadStats();
+        stats.reset();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, store.getEdges(uuid, Direction.OUT, null).size());
+        }
+        assertEquals(100, stats.getOptimisticReadCount());
+        assertEquals(0, stats.getRetryCount());
+        assertEquals(0, stats.getLockFallbackCount());
+
+        // Every read ends either with a valid stamp or with the read lock, while a writer updates the vertex
+        stats.reset();
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread writer = new Thread() {
+            public void run() {
+                for (int version = 1; !stop.get(); version++) {
+                    commitVertices(vertex(uuid, version, BitsyState.M, version));
+                }
+            }
+        };
+        writer.start();
+
+        int numReads = 10000;
+        try {
+            for (int i = 0; i < numReads; i++) {
+                assertNotNull(store.getBitsyVertex(null, uuid));
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertEquals(numReads, stats.getOptimisticReadCount() + stats.getLockFallbackCount());
+    }
+
+    public void testCommitBatchHandOff() throws Exception {
+        final int numThreads = 8;
+        final int numCommits = 200;
+        final List<String> handedOff = new ArrayList<String>();
+        final Consumer<List<String>> consumer = new Consumer<List<String>>() {
+            @Override
+            public void accept(List<String> workList) {
+                // The batches of different threads may hand off their work at the same time
+                synchronized (handedOff) {
+                    handedOff.addAll(workList);
+                }
+            }
+        };
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] writers = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int threadNum = i;
+            writers[i] = new Thread() {
+                public void run() {
+                    try {
+                        UUID uuid = UUID.randomUUID();
+                        for (int j = 0; j < numCommits; j++) {
+                            store.commit(
+                                    changes(vertex(uuid, j, BitsyState.M, j + 1)),
+                                    false,
+                                    threadNum + ":" + j,
+                                    consumer);
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        // The work of each thread is handed off once, in the order of its commits
+        assertNull(error.get());
+        assertEquals(numThreads * numCommits, handedOff.size());
+        int[] next = new int[numThreads];
+        for (String work : handedOff) {
+            String[] parts = work.split(":");
+            int threadNum = Integer.parseInt(parts[0]);
+            assertEquals(next[threadNum]++, Integer.parseInt(parts[1]));
+        }
+
+        // A commit that fails validation doesn't hand off its work
+        UUID uuid = UUID.randomUUID();
+        handedOff.clear();
+        store.commit(changes(vertex(uuid, 0, BitsyState.M, 1)), false, "first", consumer);
+        try {
+            store.commit(changes(vertex(uuid, 1, BitsyState.M, 1)), false, "stale", consumer);
+            fail("Committed a stale vertex");
+        } catch (BitsyRetryException e) {
+            assertEquals(BitsyErrorCodes.CONCURRENT_MODIFICATION, e.getErrorCode());
+        }
+        assertEquals(Arrays.asList("first"), handedOff);
+    }
+
+    private BitsyVertex vertex(UUID uuid, int n, BitsyState state, int version) {
+        Map<String, Object> propMap = new TreeMap<String, Object>();
+        propMap.put("n", n);
+
+        return new BitsyVertex(uuid, "v", DictionaryFactory.fromMap(propMap), null, state, version);
+    }
+
+    private void commitVertices(BitsyVertex... vertexArr) {
+        store.commit(changes(vertexArr));
+    }
+
+    private ICommitChanges changes(BitsyVertex... vertexArr) {
+        final List<BitsyVertex> vertexList = Arrays.asList(vertexArr);
+
+        return new ICommitChanges() {
+            @Override
+            public Collection<BitsyVertex> getVertexChanges() {
+                return vertexList;
+            }
+
+            @Override
+            public Collection<BitsyEdge> getEdgeChanges() {
+                return Collections.emptyList();
+            }
+        };
+    }
+
+    private Map<UUID, Object> values(Object... idValues) {
+        Map<UUID, Object> ans = new HashMap<UUID, Object>();
+        for (int i = 0; i < idValues.length; i += 2) {
+            ans.put((UUID) idValues[i], idValues[i + 1]);
+        }
+
+        return ans;
+    }
+
+    private Map<UUID, Object> snapshotValues(Collection<VertexBean> vBeans) {
+        Map<UUID, Object> ans = new HashMap<UUID, Object>();
+        for (VertexBean vBean : vBeans) {
+            assertNull(ans.put(vBean.getId(), vBean.getProperties().get("n")));
+        }
+
+        return ans;
+    }
+
+    private Set<UUID> edgeIds(Collection<EdgeBean> eBeans) {
+        Set<UUID> ans = new HashSet<UUID>();
+        for (EdgeBean eBean : eBeans) {
+            assertTrue(ans.add(eBean.getId()));
+        }
+
+        return ans;
+    }
+
     public void testBipartiteGraph() {
         for (boolean reverse : new boolean[] {false, true}) {
             for (boolean useEdgeLabels : new boolean[] {true, false}) {
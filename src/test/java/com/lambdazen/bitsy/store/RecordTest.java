@@ -2,13 +2,19 @@ package com.lambdazen.bitsy.store;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
+import com.lambdazen.bitsy.BitsyErrorCodes;
 import com.lambdazen.bitsy.BitsyException;
 import com.lambdazen.bitsy.BitsyState;
 import com.lambdazen.bitsy.UUID;
 import com.lambdazen.bitsy.ads.dict.DictionaryFactory;
+import com.lambdazen.bitsy.store.BinaryRecordCodec.RecordOutput;
 import com.lambdazen.bitsy.store.Record.RecordType;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.TreeMap;
 import junit.framework.TestCase;
 
@@ -69,6 +75,32 @@ public class RecordTest extends TestCase {
             // all ok
         }
 
+        // Lines read as bytes are parsed without decoding them, except for the hash-code of non-ASCII lines
+        for (String line : new String[] {
+            str, Record.generateDBLine(RecordType.T, "caf\u00e9 \ud83d\ude00").trim()
+        }) {
+            byte[] lineBytes = line.getBytes(FileBackedMemoryGraphStore.utf8);
+            Record rec = Record.parseRecord(lineBytes, false, 14, null);
+            assertEquals(Record.parseRecord(line, 14, null).getType(), rec.getType());
+            assertEquals(Record.parseRecord(line, 14, null).getJson(), rec.getJson());
+            assertNull(rec.getBytes());
+
+            try {
+                lineBytes[3] ^= 0x01;
+                Record.parseRecord(lineBytes, false, 15, null);
+                fail("wrong hashcode");
+            } catch (BitsyException e) {
+                assertEquals(BitsyErrorCodes.CHECKSUM_MISMATCH, e.getErrorCode());
+            }
+        }
+
+        String vStr = Record.generateDBLine(RecordType.V, mapper.writeValueAsString(vBean2))
+                .trim();
+        Record vBytesR = Record.parseRecord(vStr.getBytes(FileBackedMemoryGraphStore.utf8), false, 16, null);
+        vBytesR.deserialize(mapper.readerFor(VertexBeanJson.class), null);
+        assertEquals(inVId, vBytesR.getVertex().id());
+        assertEquals("foo", vBytesR.getVertex().label());
+
         EdgeBeanJson edgeBean2 = (EdgeBeanJson) mapper.readValue(edgeR.getJson(), EdgeBeanJson.class);
         assertEquals(edgeBean.getId(), edgeBean2.getId());
         assertEquals(edgeBean.getLabel(), edgeBean2.getLabel());
@@ -80,6 +112,139 @@ public class RecordTest extends TestCase {
         assertEquals(BitsyState.M, edgeBean2.getState());
     }
 
+    public void testLinesAsBytes() throws Exception {
+        ObjectMapper mapper = FileBackedMemoryGraphStore.createObjectMapper();
+
+        // The hash-code over UTF-8 bytes matches the String's, including supplementary and malformed characters
+        for (String str : new String[] {
+            "", "V={\"a\":1}#", "caf\u00e9", "\u20ac 100", "smile \ud83d\ude00!", "\u00ff\u0800\uffff\ud800\udc00"
+        }) {
+            byte[] bytes = str.getBytes(FileBackedMemoryGraphStore.utf8);
+            assertEquals(str, str.hashCode(), Record.hashCode(bytes, 0, bytes.length));
+        }
+
+        byte[][] malformed = new byte[][] {
+            {(byte) 0xc3},
+            {'a', (byte) 0xe2, (byte) 0x82},
+            {(byte) 0xc0, (byte) 0xaf},
+            {(byte) 0xed, (byte) 0xa0, (byte) 0x80}
+        };
+        for (byte[] bytes : malformed) {
+            String str = new String(bytes, FileBackedMemoryGraphStore.utf8);
+            assertEquals(str.hashCode(), Record.hashCode(bytes, 0, bytes.length));
+        }
+
+        // Lines written to bytes are the same as the ones written through Strings
+        TreeMap<String, Object> props = new TreeMap<String, Object>();
+        props.put("name", "caf\u00e9 \ud83d\ude00");
+        props.put("count", 5);
+        UUID vId = UUID.fromString("2c390534-5f50-4924-8792-a06293db4241");
+        UUID eId = UUID.fromString("9d09e705-fac4-409b-a0bb-74883fa21313");
+        VertexBeanJson vBean = new VertexBeanJson(vId, "label", DictionaryFactory.fromMap(props), 3, BitsyState.M);
+        EdgeBeanJson eBean =
+                new EdgeBeanJson(eId, DictionaryFactory.fromMap(props), 7, "knows", vId, vId, BitsyState.M);
+
+        RecordOutput out = new RecordOutput();
+        out.write('x'); // Lines start at any position
+        Record.generateVertexLine(out, mapper, vBean, false);
+        Record.generateEdgeLine(out, mapper, eBean, false);
+
+        StringWriter sw = new StringWriter();
+        Record.generateVertexLine(sw, mapper, vBean);
+        String expected = "x" + sw.toString();
+        Record.generateEdgeLine(sw, mapper, eBean);
+        expected += sw.toString();
+
+        assertEquals(expected, new String(out.toByteArray(), FileBackedMemoryGraphStore.utf8));
+    }
+
+    public void testCrc32cLines() throws Exception {
+        // The Java implementation matches the standard check value and the JDK's implementation
+        byte[] check = "123456789".getBytes(FileBackedMemoryGraphStore.utf8);
+        Crc32c crc = new Crc32c();
+        crc.update(check, 0, check.length);
+        assertEquals(0xe3069283L, crc.getValue());
+        assertEquals(0xe3069283, Crc32c.checksum(check, 0, check.length));
+
+        Random rand = new Random(13);
+        byte[] data = new byte[1000];
+        rand.nextBytes(data);
+        for (int len = 0; len < 100; len++) {
+            int offset = rand.nextInt(data.length - len);
+            crc.reset();
+            crc.update(data, offset, len);
+            assertEquals(Crc32c.checksum(data, offset, len), (int) crc.getValue());
+
+            crc.reset();
+            for (int i = offset; i < offset + len; i++) {
+                crc.update(data[i]);
+            }
+            assertEquals(Crc32c.checksum(data, offset, len), (int) crc.getValue());
+        }
+
+        ObjectMapper mapper = FileBackedMemoryGraphStore.createObjectMapper();
+        TreeMap<String, Object> props = new TreeMap<String, Object>();
+        props.put("name", "caf\u00e9 #1 $2");
+        UUID vId = UUID.fromString("2c390534-5f50-4924-8792-a06293db4241");
+        VertexBeanJson vBean = new VertexBeanJson(vId, "label", DictionaryFactory.fromMap(props), 3, BitsyState.M);
+
+        RecordOutput out = new RecordOutput();
+        Record.generateVertexLine(out, mapper, vBean, true);
+        String line = new String(out.toByteArray(), FileBackedMemoryGraphStore.utf8).trim();
+        assertEquals(Record.CRC32C_MARKER, line.charAt(line.length() - 9));
+        assertTrue(Record.isCrc32cLine(line));
+
+        // Lines from bytes and Strings are parsed the same way, and have the same JSON as the older lines
+        StringWriter sw = new StringWriter();
+        Record.generateVertexLine(sw, mapper, vBean);
+        String oldLine = sw.toString().trim();
+        assertFalse(Record.isCrc32cLine(oldLine));
+
+        byte[] bytes = line.getBytes(FileBackedMemoryGraphStore.utf8);
+        Record rec = Record.parseRecord(bytes, false, 1, null);
+        assertEquals(RecordType.V, rec.getType());
+        assertEquals(oldLine.substring(2, oldLine.lastIndexOf('#')), rec.getJson());
+        assertEquals(rec.getJson(), Record.parseRecord(line, 1, null).getJson());
+
+        String tLine = Record.generateDBLine(RecordType.T, "1234", true);
+        assertEquals("1234", Record.parseRecord(tLine.trim(), 1, null).getJson());
+        assertEquals(
+                tLine,
+                new String(
+                        Record.generateDBRecord(RecordType.T, "1234", false, true), FileBackedMemoryGraphStore.utf8));
+
+        // Change a character in the JSON
+        bytes[bytes.length / 2] ^= 0x01;
+        try {
+            Record.parseRecord(bytes, false, 1, null);
+            fail("wrong checksum");
+        } catch (BitsyException e) {
+            assertEquals(BitsyErrorCodes.CHECKSUM_MISMATCH, e.getErrorCode());
+        }
+
+        try {
+            Record.parseRecord(new String(bytes, FileBackedMemoryGraphStore.utf8), 1, null);
+            fail("wrong checksum");
+        } catch (BitsyException e) {
+            assertEquals(BitsyErrorCodes.CHECKSUM_MISMATCH, e.getErrorCode());
+        }
+
+        // Records that are not sampled are not verified
+        assertEquals(
+                RecordType.V, Record.parseRecord(bytes, false, false, 1, null).getType());
+
+        byte[] tBytes = Record.generateDBRecord(RecordType.T, "12345", true, false);
+        byte[] tRec = Arrays.copyOfRange(tBytes, BinaryRecordCodec.LENGTH_SIZE, tBytes.length);
+        tRec[tRec.length - 1] ^= 0x01;
+        assertEquals("12345", Record.parseRecord(tRec, true, false, 1, null).getJson());
+        try {
+            Record.parseRecord(tRec, true, true, 1, null);
+            fail("wrong checksum");
+        } catch (BitsyException e) {
+            assertEquals(BitsyErrorCodes.CHECKSUM_MISMATCH, e.getErrorCode());
+        }
+    }
+
     public void testDictionaryMaxProperties() throws Exception {
         ObjectMapper mapper = new ObjectMapper();
         ObjectReader reader = mapper.readerFor(VertexBeanJson.class);
@@ -92,4 +257,128 @@ public class RecordTest extends TestCase {
         int count = vBean.getProperties().size();
         assertEquals(51, count);
     }
+
+    public void testBinaryRecord() throws Exception {
+        UUID edgeId = UUID.fromString("9d09e705-fac4-409b-a0bb-74883fa21313");
+        UUID outVId = UUID.fromString("25f1b840-c521-4398-ac84-9d1a0e305f4c");
+        UUID inVId = UUID.fromString("2c390534-5f50-4924-8792-a06293db4241");
+
+        TreeMap<String, Object> props = new TreeMap<String, Object>();
+        props.put("str", "colon:{}+!#&*(!@#=\n\u00e9\u4e2d");
+        props.put("int", Integer.MIN_VALUE);
+        props.put("long", Long.MAX_VALUE);
+        props.put("double", 3.25d);
+        props.put("float", -1.5f);
+        props.put("true", Boolean.TRUE);
+        props.put("false", Boolean.FALSE);
+        props.put("short", (short) -7);
+        props.put("byte", (byte) 0x7f);
+        props.put("list", new ArrayList<Object>(Arrays.asList("a", 1, 2L)));
+
+        RecordOutput out = new RecordOutput();
+        BinaryRecordCodec.encodeVertex(
+                out, new VertexBeanJson(outVId, "person", DictionaryFactory.fromMap(props), 5, BitsyState.M));
+        BinaryRecordCodec.encodeEdge(
+                out,
+                new EdgeBeanJson(
+                        edgeId,
+                        DictionaryFactory.fromMap(props),
+                        Integer.MIN_VALUE,
+                        null,
+                        outVId,
+                        inVId,
+                        BitsyState.D));
+
+        // Split the buffer into records using the length prefix
+        ByteBuffer buf = out.toByteBuffer();
+        byte[] vBytes = new byte[buf.getInt()];
+        buf.get(vBytes);
+        byte[] eBytes = new byte[buf.getInt()];
+        buf.get(eBytes);
+        assertFalse(buf.hasRemaining());
+
+        Record vRec = Record.parseBinaryRecord(vBytes, 1, null);
+        assertEquals(RecordType.V, vRec.getType());
+        vRec.deserialize(null, null);
+        assertNull(vRec.getVertex());
+
+        VertexBeanJson vBean = BinaryRecordCodec.decodeVertex(vBytes);
+        assertEquals(outVId, vBean.getId());
+        assertEquals("person", vBean.getLabel());
+        assertEquals(5, vBean.getVersion());
+        assertEquals(BitsyState.M, vBean.getState());
+        assertEquals(props, vBean.getProperties());
+        assertEquals(Short.class, vBean.getProperties().get("short").getClass());
+        assertEquals(Byte.class, vBean.getProperties().get("byte").getClass());
+        assertEquals(
+                Long.class, ((List<?>) vBean.getProperties().get("list")).get(2).getClass());
+
+        Record eRec = Record.parseBinaryRecord(eBytes, 2, null);
+        assertEquals(RecordType.E, eRec.getType());
+
+        EdgeBeanJson eBean = BinaryRecordCodec.decodeEdge(eBytes);
+        assertEquals(edgeId, eBean.getId());
+        assertNull(eBean.getLabel());
+        assertEquals(Integer.MIN_VALUE, eBean.getVersion());
+        assertEquals(BitsyState.D, eBean.getState());
+        assertEquals(outVId, eBean.getOutVertexId());
+        assertEquals(inVId, eBean.getInVertexId());
+        assertEquals(props, eBean.getProperties());
+
+        // Non-V/E records carry their string payload
+        byte[] tBytes = Record.generateDBRecord(RecordType.T, "12345", true, false);
+        Record tRec = Record.parseBinaryRecord(Arrays.copyOfRange(tBytes, 4, tBytes.length), 3, null);
+        assertEquals(RecordType.T, tRec.getType());
+        assertEquals("12345", tRec.getJson());
+
+        try {
+            // Flip a bit in the payload
+            eBytes[eBytes.length / 2] ^= 0x10;
+            Record.parseBinaryRecord(eBytes, 2, null);
+            fail("wrong checksum");
+        } catch (BitsyException e) {
+            assertEquals(BitsyErrorCodes.CHECKSUM_MISMATCH, e.getErrorCode());
+        }
+    }
+
+    public void testBlockCodec() throws Exception {
+        for (boolean binary : new boolean[] {false, true}) {
+            RecordOutput records = new RecordOutput();
+            for (int i = 0; i < 50; i++) {
+                byte[] bytes = Record.generateDBRecord(RecordType.T, "" + i, binary, false);
+                records.write(bytes, 0, bytes.length);
+            }
+
+            RecordOutput out = new RecordOutput();
+            BlockCodec.compress(out, records, 50, binary, false);
+            byte[] block = out.toByteArray();
+            assertTrue(block.length < records.size());
+
+            // The block is parsed like a line or a record read from the file
+            byte[] raw = binary
+                    ? Arrays.copyOfRange(block, BinaryRecordCodec.LENGTH_SIZE, block.length)
+                    : Arrays.copyOfRange(block, 0, block.length - 1);
+            assertEquals(50, BlockCodec.peekRecordCount(raw, binary));
+
+            Record blockRec = Record.parseRecord(raw, binary, 1, null);
+            assertEquals(RecordType.C, blockRec.getType());
+
+            List<byte[]> expanded = BlockCodec.expand(blockRec, 1, null);
+            assertEquals(50, expanded.size());
+            for (int i = 0; i < 50; i++) {
+                Record rec = Record.parseRecord(expanded.get(i), binary, i, null);
+                assertEquals(RecordType.T, rec.getType());
+                assertEquals("" + i, rec.getJson());
+            }
+
+            // Flip a bit in the compressed data
+            raw[raw.length / 2] ^= 0x10;
+            try {
+                BlockCodec.expand(Record.parseRecord(raw, binary, 1, null), 1, null);
+                fail("bad block");
+            } catch (BitsyException e) {
+                assertEquals(BitsyErrorCodes.CHECKSUM_MISMATCH, e.getErrorCode());
+            }
+        }
+    }
 }
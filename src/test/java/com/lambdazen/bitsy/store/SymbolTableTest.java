@@ -0,0 +1,27 @@
+package com.lambdazen.bitsy.store;
+
+import junit.framework.TestCase;
+
+public class SymbolTableTest extends TestCase {
+    public void testCanonicalize() {
+        SymbolTable symbols = new SymbolTable();
+
+        String abc1 = "a".concat("bc");
+        String abc2 = "abc";
+        assertNotSame(abc1, abc2);
+
+        assertSame(abc1, symbols.canonicalize(abc1));
+        assertSame(abc1, symbols.canonicalize(abc2));
+        assertSame(abc1, symbols.canonicalize("ab".concat("c")));
+        assertNull(symbols.canonicalize(null));
+        assertEquals(1, symbols.size());
+
+        for (int i = 0; i < 100; i++) {
+            String label = "label" + i;
+            assertSame(label, symbols.canonicalize(label));
+            assertSame(label, symbols.canonicalize("label" + i));
+        }
+
+        assertEquals(101, symbols.size());
+    }
+}
@@ -0,0 +1,130 @@
+package com.lambdazen.bitsy.store;
+
+import com.lambdazen.bitsy.UUID;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class UUIDTableTest extends TestCase {
+    public UUIDTableTest() {}
+
+    public void testPutGetRemove() throws Exception {
+        UUIDTable<UUID> table = new UUIDTable<UUID>();
+        assertTrue(table.isEmpty());
+
+        int numIds = 10000;
+        List<UUID> ids = new ArrayList<UUID>();
+        for (int i = 0; i < numIds; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            assertNull(table.put(id));
+        }
+
+        assertEquals(numIds, table.size());
+        assertFalse(table.isEmpty());
+
+        for (UUID id : ids) {
+            // Looked up by an equal ID, not the same object
+            UUID copy = new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            assertSame(id, table.get(copy));
+            assertTrue(table.values().contains(copy));
+        }
+
+        // Replacing a bean returns the old one
+        UUID first = ids.get(0);
+        UUID firstCopy = new UUID(first.getMostSignificantBits(), first.getLeastSignificantBits());
+        assertSame(first, table.put(firstCopy));
+        assertSame(firstCopy, table.get(first));
+        assertEquals(numIds, table.size());
+
+        // Remove every other ID, leaving tombstones in the probe sequences
+        for (int i = 0; i < numIds; i += 2) {
+            assertNotNull(table.remove(ids.get(i)));
+            assertNull(table.remove(ids.get(i)));
+        }
+
+        assertEquals(numIds / 2, table.size());
+        for (int i = 0; i < numIds; i++) {
+            if (i % 2 == 0) {
+                assertNull(table.get(ids.get(i)));
+            } else {
+                assertSame(ids.get(i), table.get(ids.get(i)));
+            }
+        }
+
+        // Add them back to reuse the tombstones
+        for (int i = 0; i < numIds; i += 2) {
+            assertNull(table.put(ids.get(i)));
+        }
+
+        Set<UUID> seen = new HashSet<UUID>();
+        for (UUID id : table.values()) {
+            assertTrue(seen.add(id));
+        }
+
+        assertEquals(numIds, seen.size());
+        assertEquals(numIds, table.values().size());
+
+        for (UUID id : ids) {
+            table.remove(id);
+        }
+
+        assertTrue(table.isEmpty());
+        assertFalse(table.values().iterator().hasNext());
+    }
+
+    public void testConcurrentWriters() throws Exception {
+        final UUIDTable<UUID> table = new UUIDTable<UUID>();
+        final int numThreads = 4;
+        final int numIds = 20000;
+
+        final List<List<UUID>> idsByThread = new ArrayList<List<UUID>>();
+        for (int i = 0; i < numThreads; i++) {
+            List<UUID> ids = new ArrayList<UUID>();
+            for (int j = 0; j < numIds; j++) {
+                ids.add(UUID.randomUUID());
+            }
+            idsByThread.add(ids);
+        }
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final List<UUID> ids = idsByThread.get(i);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (UUID id : ids) {
+                            table.put(id);
+
+                            // Readers don't lock, and must see the bean once it is added
+                            if (table.get(id) != id) {
+                                throw new AssertionError("Couldn't find " + id);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(numThreads * numIds, table.size());
+        for (List<UUID> ids : idsByThread) {
+            for (UUID id : ids) {
+                assertSame(id, table.get(id));
+            }
+        }
+    }
+}
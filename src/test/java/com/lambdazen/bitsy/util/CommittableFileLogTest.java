@@ -15,6 +15,34 @@ public class CommittableFileLogTest extends TestCase {
     public CommittableFileLogTest() {}
 
     public void testRead() throws Exception {
+        checkRead();
+    }
+
+    public void testReadWithSmallMapWindow() throws Exception {
+        boolean origMapMode = CommittableFileLog.MAP_MODE;
+        int origWindowSize = CommittableFileLog.MAP_WINDOW_SIZE;
+        try {
+            // Most lines cross the end of a window, and some are longer than the window
+            CommittableFileLog.MAP_MODE = true;
+            CommittableFileLog.MAP_WINDOW_SIZE = 2048;
+            checkRead();
+        } finally {
+            CommittableFileLog.MAP_MODE = origMapMode;
+            CommittableFileLog.MAP_WINDOW_SIZE = origWindowSize;
+        }
+    }
+
+    public void testReadWithoutMapping() throws Exception {
+        boolean origMapMode = CommittableFileLog.MAP_MODE;
+        try {
+            CommittableFileLog.MAP_MODE = false;
+            checkRead();
+        } finally {
+            CommittableFileLog.MAP_MODE = origMapMode;
+        }
+    }
+
+    private void checkRead() throws Exception {
         File tempFile = File.createTempFile("mobydick", ".txt");
 
         InputStream is = getClass().getResourceAsStream("mobydick.txt");
@@ -56,7 +84,14 @@ public class CommittableFileLogTest extends TestCase {
             line = null;
             int byteCounter = 13; // Start with header
             int linesDeleted = 0;
-            while ((line = cfl.readLine()) != null) {
+            boolean asBytes = (run % 2 == 1);
+            byte[] bytes;
+            while ((line = asBytes
+                            ? (((bytes = cfl.readLineBytes()) == null)
+                                    ? null
+                                    : new String(bytes, FileBackedMemoryGraphStore.utf8))
+                            : cfl.readLine())
+                    != null) {
                 // System.out.println("Line: " + line);
                 nioLines.add(line);
                 int lineBytes = 1 + line.getBytes(FileBackedMemoryGraphStore.utf8).length;
@@ -0,0 +1,124 @@
+package com.lambdazen.bitsy.util;
+
+import com.lambdazen.bitsy.BitsyErrorCodes;
+import com.lambdazen.bitsy.BitsyException;
+import com.lambdazen.bitsy.BitsyWaitStrategy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+public class MpscRingBufferTest extends TestCase {
+    public MpscRingBufferTest() {}
+
+    public void testProducersWithEachWaitStrategy() throws Exception {
+        final int numProducers = 4;
+        final int numPerProducer = 5000;
+
+        for (BitsyWaitStrategy strategy : BitsyWaitStrategy.values()) {
+            System.out.println("Testing ring buffer with strategy " + strategy);
+
+            // A small buffer makes the producers wait for the flush thread
+            final List<int[]> flushed = new ArrayList<int[]>();
+            final MpscRingBuffer<int[]> buf = new MpscRingBuffer<int[]>(
+                    64,
+                    new BatchFlusher<int[]>() {
+                        @Override
+                        public void flushBatch(List<int[]> batch) {
+                            synchronized (flushed) {
+                                flushed.addAll(batch);
+                            }
+                        }
+                    },
+                    "TestThread",
+                    strategy);
+
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            Thread[] producers = new Thread[numProducers];
+            for (int i = 0; i < numProducers; i++) {
+                final int producer = i;
+                producers[i] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int j = 0; j < numPerProducer; j += 2) {
+                                if (j % 4 == 0) {
+                                    buf.addWork(new int[] {producer, j});
+                                    buf.addWork(new int[] {producer, j + 1});
+                                } else {
+                                    buf.addWork(Arrays.asList(new int[] {producer, j}, new int[] {producer, j + 1}));
+                                }
+                            }
+                        } catch (Throwable t) {
+                            error.set(t);
+                        }
+                    }
+                };
+                producers[i].start();
+            }
+
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            // The queued work is drained before the flush thread stops
+            buf.stop(10000);
+            assertNull(error.get());
+
+            // Each producer's work is flushed once, in order, and the pairs queued as lists are adjacent
+            assertEquals(numProducers * numPerProducer, flushed.size());
+            int[] next = new int[numProducers];
+            for (int i = 0; i < flushed.size(); i++) {
+                int[] work = flushed.get(i);
+                assertEquals(next[work[0]]++, work[1]);
+                if ((work[1] % 4 == 2)) {
+                    int[] pair = flushed.get(i + 1);
+                    assertEquals(work[0], pair[0]);
+                    assertEquals(work[1] + 1, pair[1]);
+                }
+            }
+        }
+    }
+
+    public void testExceptionInFlush() throws Exception {
+        MpscRingBuffer<Integer> buf = new MpscRingBuffer<Integer>(
+                16,
+                new BatchFlusher<Integer>() {
+                    @Override
+                    public void flushBatch(List<Integer> batch) {
+                        throw new BitsyException(BitsyErrorCodes.INTERNAL_ERROR, "Failed flush");
+                    }
+                },
+                "TestThread",
+                BitsyWaitStrategy.BLOCKING);
+
+        try {
+            buf.addWork(1);
+
+            // The exception stops the later enqueues
+            long deadline = System.currentTimeMillis() + 10000;
+            while (true) {
+                try {
+                    buf.addWork(2);
+                } catch (BitsyException e) {
+                    assertEquals(BitsyErrorCodes.EXCEPTION_IN_FLUSH, e.getErrorCode());
+                    break;
+                }
+
+                assertTrue("The enqueues weren't stopped", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        } finally {
+            buf.stop(10000);
+        }
+    }
+
+    public void testCapacity() {
+        try {
+            new MpscRingBuffer<Integer>(100, null, "TestThread", BitsyWaitStrategy.BLOCKING);
+            fail("Capacity must be a power of two");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}